@@ -0,0 +1,65 @@
+package back_end_src;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link ChunkedResponse} è una risposta inviata a blocchi ('lista_amici blocchi', 'mostra_classifica blocchi'): un
+ * header "BLOCCHI &lt;righe&gt; &lt;blocchi&gt; &lt;versione&gt;" e poi i blocchi, ciascuno un documento JSON a sé
+ * di al più 'chunk_rows' righe. I blocchi vengono codificati uno alla volta, solo quando la socket ha finito di
+ * scrivere il precedente (si veda {@link PendingResponse}): la memoria usata per una risposta è quella di un blocco,
+ * qualsiasi sia la lunghezza della lista.
+ * Il client conosce dall'header quanti blocchi leggere e può decodificarli man mano che arrivano.
+ */
+public class ChunkedResponse implements Iterator<byte[]> {
+
+    /**
+     * Codifica le righe da 'from' (compresa) a 'to' (esclusa) in un documento JSON.
+     */
+    public interface ChunkEncoder {
+        byte[] encode(int from, int to);
+    }
+
+    private final int rows;
+    private final int chunkRows;
+    private final long version;
+    private final ChunkEncoder encoder;
+    private int next;
+
+    /**
+     * @param rows Il numero totale di righe.
+     * @param chunkRows Il numero massimo di righe per blocco.
+     * @param version La versione dei dati inviati (si vedano 'aggiornamenti_amici' e 'aggiornamenti_classifica').
+     * @param encoder Codifica un blocco.
+     */
+    public ChunkedResponse(int rows, int chunkRows, long version, ChunkEncoder encoder) {
+        if (chunkRows <= 0) throw new IllegalArgumentException();
+        this.rows = rows;
+        this.chunkRows = chunkRows;
+        this.version = version;
+        this.encoder = encoder;
+    }
+
+    /**
+     * Restituisce l'header della risposta, da inviare prima dei blocchi.
+     *
+     * @return L'header codificato.
+     */
+    public byte[] header() {
+        int chunks = (int) (((long) this.rows + this.chunkRows - 1) / this.chunkRows);
+        return ("BLOCCHI " + this.rows + " " + chunks + " " + this.version).getBytes();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.next < this.rows;
+    }
+
+    @Override
+    public byte[] next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        int from = this.next;
+        this.next = (int) Math.min(this.rows, (long) from + this.chunkRows);
+        return this.encoder.encode(from, this.next);
+    }
+}
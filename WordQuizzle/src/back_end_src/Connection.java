@@ -0,0 +1,207 @@
+package back_end_src;
+
+import common_src.PushFrame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Connection} serializza le scritture sulla socket TCP di un client. Sulla stessa socket finiscono le
+ * risposte del {@link Server}, i messaggi della sfida di {@link RequestManager} e {@link MatchManager} e le notifiche
+ * ({@link PushFrame}) inviate da chiunque: ogni messaggio deve arrivare intero, senza che un altro vi si infili in
+ * mezzo.
+ *
+ * Sulla socket scrive solo il selettore del {@link Server}, quando è scrivibile ({@link #write}). Notifiche e
+ * messaggi della sfida vengono accodati ({@link #push}, {@link #send}) e scritti per interi, nell'ordine di invio,
+ * prima delle risposte; chi li invia non aspetta mai la socket. Un client che non legge (finestra di ricezione piena)
+ * fa quindi solo crescere la propria coda, senza bloccare il selettore nè chi gli invia una notifica. Le notifiche
+ * vanno nella stessa connessione delle risposte, senza socket e thread dedicati, e arrivano in ordine come tutto ciò
+ * che viaggia su TCP.
+ *
+ * Le risposte non vengono scritte da chi le produce, ma messe in coda ({@link #respond}) e scritte dal selettore
+ * quando la socket è scrivibile: possono essere prodotte dal selettore stesso o dai thread ai quali il
+ * {@link Server} affida i comandi lenti, in qualsiasi ordine. La connessione tiene anche il conto dei comandi letti e
+ * non ancora risposti: oltre {@link Server#maxInFlight} il selettore smette di leggerne altri, finché il client non
+ * ha ricevuto qualche risposta.
+ */
+public class Connection {
+
+    private static final ConcurrentHashMap<SocketChannel, Connection> CONNECTIONS = new ConcurrentHashMap<>();
+
+    private final SocketChannel socket;
+    //Se il selettore ha scritto solo una parte di un messaggio, e se è il primo di 'outbound' (o la prima risposta).
+    private boolean midFrame;
+    private boolean midOutbound;
+    //Le notifiche e i messaggi della sfida da scrivere (size e messaggio).
+    private final ArrayDeque<ByteBuffer[]> outbound = new ArrayDeque<>();
+    //Le risposte da scrivere, la chiave della socket nel selettore del Server e i comandi letti e non ancora risposti.
+    private final ArrayDeque<PendingResponse> responses = new ArrayDeque<>();
+    private SelectionKey key;
+    private int outstanding;
+
+    private Connection(SocketChannel socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Restituisce la connessione della socket, creandola se necessario.
+     *
+     * @param socket La socket del client.
+     * @return La connessione.
+     */
+    public static Connection of(SocketChannel socket) {
+        Connection connection = CONNECTIONS.computeIfAbsent(socket, Connection::new);
+        //Il client potrebbe essere uscito nel frattempo: la connessione serve solo a questa scrittura (che fallirà).
+        if (!socket.isOpen()) CONNECTIONS.remove(socket);
+        return connection;
+    }
+
+    /**
+     * Dimentica la connessione di un client che è uscito.
+     *
+     * @param socket La socket del client.
+     */
+    public static void remove(SocketChannel socket) {
+        Connection connection = CONNECTIONS.remove(socket);
+        if (connection != null) {
+            synchronized (connection) {
+                connection.outbound.clear();
+                connection.responses.clear();
+            }
+        }
+    }
+
+    /**
+     * Associa alla connessione la chiave della socket nel selettore del {@link Server}, che da qui in poi legge i
+     * comandi e scrive le risposte.
+     *
+     * @param key La chiave.
+     */
+    synchronized void bind(SelectionKey key) {
+        this.key = key;
+        updateInterest();
+    }
+
+    /**
+     * Conta un comando appena letto, al quale seguirà una risposta.
+     */
+    synchronized void accepted() {
+        this.outstanding++;
+        updateInterest();
+    }
+
+    /**
+     * Dice se il client può avere un altro comando in attesa di risposta, cioè se ne ha meno di
+     * {@link Server#maxInFlight}.
+     *
+     * @return {@code true} se si può eseguire un altro comando del client.
+     */
+    synchronized boolean canAccept() {
+        return this.outstanding < Server.maxInFlight;
+    }
+
+    /**
+     * Mette in coda la risposta ad un comando: la scriverà il selettore. Può essere chiamato da qualsiasi thread.
+     *
+     * @param pending La risposta.
+     */
+    synchronized void respond(PendingResponse pending) {
+        this.responses.add(pending);
+        updateInterest();
+    }
+
+    /**
+     * Invia una notifica al client: viene accodata e scritta dal selettore. Un client che nel frattempo è uscito non
+     * riceve nulla. Può essere chiamato da qualsiasi thread, anche dal selettore stesso.
+     *
+     * @param type Il tipo di notifica.
+     * @param args Gli argomenti.
+     */
+    public synchronized void push(String type, String... args) {
+        if (!this.socket.isOpen()) {
+            if (Server.DEBUG_MODE) System.out.println("Notifica '" + type + "' non recapitata: connessione chiusa");
+            return;
+        }
+        enqueue(PushFrame.encode(type, args).getBytes());
+    }
+
+    /**
+     * Invia un messaggio fuori dalle risposte ({@link RequestManager}, {@link MatchManager}): viene accodato, dopo
+     * quelli inviati prima, e scritto dal selettore. Non aspetta la socket.
+     *
+     * @param message Il messaggio.
+     * @throws IOException Se la connessione è già chiusa.
+     */
+    public synchronized void send(String message) throws IOException {
+        if (!this.socket.isOpen()) throw new IOException("Connessione chiusa");
+        enqueue(message.getBytes());
+    }
+
+    private void enqueue(byte[] message) {
+        ByteBuffer size = ByteBuffer.allocate(Integer.BYTES);
+        size.putInt(message.length).flip();
+        this.outbound.add(new ByteBuffer[]{size, ByteBuffer.wrap(message)});
+        updateInterest();
+    }
+
+    /**
+     * Scrive sulla socket quanto possibile dei messaggi in coda, per conto del selettore, senza mai aspettare: un
+     * messaggio lasciato a metà viene ripreso alla prossima occasione, prima di ogni altro. Prima vengono scritti
+     * notifiche e messaggi della sfida, poi le risposte: al più un messaggio per risposta, così che una risposta a
+     * blocchi non impegni il selettore fino alla fine. Le risposte con l'id di correlazione si alternano un messaggio
+     * ciascuna, così che una risposta breve non debba attendere tutti i blocchi di una lunga; quelle senza id vengono
+     * scritte per intere, una dopo l'altra, come il client le aspetta.
+     *
+     * @throws IOException In caso di problemi durante la scrittura sulla socket.
+     */
+    synchronized void write() throws IOException {
+        //Una risposta lasciata a metà va finita prima dei messaggi in coda.
+        if (!this.midFrame || this.midOutbound) {
+            while (!this.outbound.isEmpty()) {
+                ByteBuffer[] frame = this.outbound.peek();
+                this.socket.write(frame);
+                this.midFrame = this.midOutbound = frame[1].hasRemaining();
+                if (this.midFrame) break;
+                this.outbound.poll();
+            }
+        }
+        if (!this.midOutbound) {
+            for (int turns = this.responses.size(); turns > 0; turns--) {
+                PendingResponse pending = this.responses.peek();
+                boolean done = pending.write(this.socket);
+                this.midFrame = pending.isMidFrame();
+                if (done) {
+                    this.responses.poll();
+                    this.outstanding--;
+                } else if (this.midFrame) {
+                    //La socket è piena.
+                    break;
+                } else if (pending.isTagged()) {
+                    this.responses.add(this.responses.poll());
+                } else {
+                    //Una risposta senza id: le altre aspettano che sia finita.
+                    break;
+                }
+            }
+        }
+        updateInterest();
+    }
+
+    /*
+        Il selettore legge se il client non ha troppi comandi in attesa di risposta, e scrive se ci sono messaggi o
+        risposte in coda. Chi cambia l'interesse fuori dal selettore deve svegliarlo, perchè la modifica abbia effetto.
+     */
+    private void updateInterest() {
+        if (this.key == null || !this.key.isValid()) return;
+        int ops = (this.outstanding < Server.maxInFlight ? SelectionKey.OP_READ : 0)
+                | (this.responses.isEmpty() && this.outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+        if (this.key.interestOps() != ops) {
+            this.key.interestOps(ops);
+            this.key.selector().wakeup();
+        }
+    }
+}
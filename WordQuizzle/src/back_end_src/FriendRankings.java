@@ -0,0 +1,321 @@
+package back_end_src;
+
+import common_src.RankUpdate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link FriendRankings} mantiene le classifiche degli amici ('mostra_classifica') in modo incrementale. La prima
+ * richiesta di un utente costruisce la sua vista: un array ordinato di coppie (punteggio, id) con lui e i suoi amici.
+ * Da quel momento ogni variazione di punteggio di un utente viene spinta nelle viste dei suoi amici (e nella sua),
+ * spostando una sola riga con una ricerca binaria, e ogni nuova amicizia vi aggiunge una riga: rispondere non
+ * richiede più di ordinare l'intera lista amici, ma solo di leggere le righe richieste.
+ *
+ * Ogni vista ha una versione, che cambia ad ogni modifica delle sue righe: chi ha già una risposta per una certa
+ * versione (si veda {@link ResponseCache}) non ha bisogno di ricostruirla finché la versione non cambia. Le versioni
+ * vengono da un unico contatore, quindi una vista ricostruita non riprende mai una versione già usata. Ogni vista
+ * ricorda anche le ultime CHANGELOG_SIZE righe modificate, così che a chi conosce una versione recente si possano
+ * inviare solo le righe cambiate da allora ({@link #changesSince(int, long)}).
+ *
+ * Le viste esistono solo per gli utenti che hanno chiesto la classifica e vengono rilasciate con {@link #release(int)}
+ * (al logout), così che la memoria sia proporzionale agli utenti online.
+ */
+public class FriendRankings {
+
+    private final UserTable table;
+    private final ConcurrentHashMap<Integer, RankView> views = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+
+    //Quante modifiche ricorda ogni vista: chi è rimasto più indietro riceve l'intera classifica.
+    private static final int CHANGELOG_SIZE = 128;
+
+    public FriendRankings(UserTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Restituisce una porzione della classifica di 'id' e dei suoi amici, in ordine decrescente di punteggio.
+     *
+     * @param id L'id dell'utente.
+     * @param from La prima posizione da restituire, a partire da 0.
+     * @param count Il numero di righe.
+     * @return Le righe richieste, nickname -> punteggio.
+     */
+    public LinkedHashMap<String, Integer> rankOf(int id, int from, int count) {
+        return viewOf(id).page(this.table, from, count);
+    }
+
+    /**
+     * Restituisce il numero di righe della classifica di 'id' (i suoi amici più lui stesso).
+     *
+     * @param id L'id dell'utente.
+     * @return Il numero di righe.
+     */
+    public int sizeOf(int id) {
+        return viewOf(id).size();
+    }
+
+    /**
+     * Restituisce la versione attuale della classifica di 'id'. Va letta prima delle righe: una risposta costruita
+     * dopo aver letto la versione è aggiornata almeno a quella versione.
+     *
+     * @param id L'id dell'utente.
+     * @return La versione.
+     */
+    public long versionOf(int id) {
+        return viewOf(id).version;
+    }
+
+    /**
+     * Restituisce le righe della classifica di 'id' cambiate dopo la versione 'version', ciascuna con la sua posizione
+     * attuale: {@code null} se la versione è quella attuale, l'intera classifica se la vista non ricorda più le
+     * modifiche successive a 'version' (o se 'version' non è una sua versione).
+     *
+     * @param id L'id dell'utente.
+     * @param version L'ultima versione ricevuta dal client.
+     * @return L'aggiornamento, {@code null} se non ci sono modifiche.
+     */
+    public RankUpdate changesSince(int id, long version) {
+        return viewOf(id).changesSince(this.table, version);
+    }
+
+    /**
+     * Restituisce una copia della classifica di 'id' con la sua versione, presa tutta nello stesso istante: le righe
+     * non cambiano più, anche se i punteggi cambiano mentre vengono lette (ad esempio tra un blocco e l'altro di
+     * una risposta).
+     *
+     * @param id L'id dell'utente.
+     * @return La copia della classifica.
+     */
+    public Snapshot snapshotOf(int id) {
+        return viewOf(id).snapshot(this.table);
+    }
+
+    private RankView viewOf(int id) {
+        RankView view = this.views.get(id);
+        if (view != null) return view;
+        RankView created = new RankView();
+        /*
+            La vista viene riempita tenendone la lock, già pubblicata: un aggiornamento concorrente aspetta la fine
+            del riempimento, mentre uno che non la trova ancora nella mappa ha già modificato il punteggio, che il
+            riempimento legge dopo la pubblicazione.
+         */
+        synchronized (created) {
+            view = this.views.putIfAbsent(id, created);
+            if (view != null) return view;
+            created.fill(this.table, id);
+        }
+        return created;
+    }
+
+    /**
+     * Rilascia la vista di 'id': verrà ricostruita alla sua prossima richiesta.
+     *
+     * @param id L'id dell'utente.
+     */
+    public void release(int id) {
+        this.views.remove(id);
+    }
+
+    /**
+     * Spinge il nuovo punteggio di 'id' nelle viste che lo contengono: la sua e quelle dei suoi amici. Va chiamato
+     * dopo aver modificato il punteggio.
+     *
+     * @param id L'id dell'utente il cui punteggio è cambiato.
+     */
+    public void pointsChanged(int id) {
+        RankView own = this.views.get(id);
+        if (own != null) own.refresh(this.table, id);
+        FriendSet friends = this.table.friendsOf(id);
+        //Si scorre l'insieme più piccolo tra gli amici e le viste esistenti.
+        if (friends.size() <= this.views.size()) {
+            for (int i = 0; i < friends.size(); i++) {
+                RankView view = this.views.get(friends.get(i));
+                if (view != null) view.refresh(this.table, id);
+            }
+        } else {
+            this.views.forEach((owner, view) -> {
+                if (owner != id && friends.contains(owner)) view.refresh(this.table, id);
+            });
+        }
+    }
+
+    /**
+     * Aggiunge ciascuno dei due utenti alla vista dell'altro, se esiste. Va chiamato dopo aver aggiunto l'amicizia.
+     *
+     * @param id Il primo utente.
+     * @param id2 Il secondo utente.
+     */
+    public void friendshipAdded(int id, int id2) {
+        RankView view = this.views.get(id);
+        if (view != null) view.add(this.table, id2);
+        view = this.views.get(id2);
+        if (view != null) view.add(this.table, id);
+    }
+
+    /**
+     * La classifica di un utente: le righe sono (punteggio, id) impacchettati in un long e ordinate in modo
+     * crescente, quindi la classifica si legge dalla fine. A parità di punteggio l'ordine è per id decrescente,
+     * come in {@link UserTable#rankOf(int)}.
+     */
+    private final class RankView {
+        private volatile long version;
+        private long[] entries = new long[0];
+        private int size;
+        //Il punteggio con il quale ogni utente compare nella vista.
+        private final HashMap<Integer, Integer> points = new HashMap<>();
+
+        //Le ultime modifiche, in un buffer circolare: versione e id della riga modificata.
+        private final long[] changeVersions = new long[CHANGELOG_SIZE];
+        private final int[] changeIds = new int[CHANGELOG_SIZE];
+        private long changes;
+        //La versione più vecchia dalla quale il buffer contiene tutte le modifiche.
+        private long oldestComplete;
+
+        synchronized void fill(UserTable table, int owner) {
+            FriendSet friends = table.friendsOf(owner);
+            this.entries = new long[Math.max(4, friends.size() + 1)];
+            this.entries[this.size++] = put(owner, table.pointsOf(owner));
+            for (int i = 0; i < friends.size(); i++) {
+                int friend = friends.get(i);
+                this.entries[this.size++] = put(friend, table.pointsOf(friend));
+            }
+            Arrays.sort(this.entries, 0, this.size);
+            this.version = this.oldestComplete = versions.incrementAndGet();
+        }
+
+        //Registra la modifica della riga di 'id' con una nuova versione.
+        private void changed(int id) {
+            long newVersion = versions.incrementAndGet();
+            int slot = (int) (this.changes++ % CHANGELOG_SIZE);
+            //La modifica che si sovrascrive diventa il nuovo punto di partenza.
+            if (this.changes > CHANGELOG_SIZE) this.oldestComplete = this.changeVersions[slot];
+            this.changeVersions[slot] = newVersion;
+            this.changeIds[slot] = id;
+            this.version = newVersion;
+        }
+
+        synchronized RankUpdate changesSince(UserTable table, long since) {
+            if (since == this.version) return null;
+            if (since < this.oldestComplete || since > this.version) {
+                return new RankUpdate(this.version, true, page(table, 0, Integer.MAX_VALUE), null);
+            }
+            LinkedHashMap<String, Integer> changed = new LinkedHashMap<>();
+            LinkedHashMap<String, Integer> positions = new LinkedHashMap<>();
+            for (long i = Math.max(0, this.changes - CHANGELOG_SIZE); i < this.changes; i++) {
+                int slot = (int) (i % CHANGELOG_SIZE);
+                if (this.changeVersions[slot] > since) {
+                    int id = this.changeIds[slot];
+                    int userPoints = this.points.get(id);
+                    String name = table.nameOf(id);
+                    changed.put(name, userPoints);
+                    positions.put(name, this.size - 1
+                            - Arrays.binarySearch(this.entries, 0, this.size, pack(userPoints, id)));
+                }
+            }
+            return new RankUpdate(this.version, false, changed, positions);
+        }
+
+        private long put(int id, int userPoints) {
+            this.points.put(id, userPoints);
+            return pack(userPoints, id);
+        }
+
+        synchronized int size() {
+            return this.size;
+        }
+
+        //Il punteggio viene letto sotto la lock della vista: l'ultimo aggiornamento ad entrare legge il più recente.
+        synchronized void refresh(UserTable table, int id) {
+            Integer old = this.points.get(id);
+            if (old == null) return;
+            int current = table.pointsOf(id);
+            if (current == old) return;
+            remove(pack(old, id));
+            insert(put(id, current));
+            changed(id);
+        }
+
+        synchronized void add(UserTable table, int id) {
+            if (this.points.containsKey(id)) return;
+            insert(put(id, table.pointsOf(id)));
+            changed(id);
+        }
+
+        synchronized LinkedHashMap<String, Integer> page(UserTable table, int from, int count) {
+            return FriendRankings.page(table, this.entries, this.size, from, count);
+        }
+
+        synchronized Snapshot snapshot(UserTable table) {
+            return new Snapshot(table, this.version, Arrays.copyOf(this.entries, this.size));
+        }
+
+        private void insert(long entry) {
+            if (this.size == this.entries.length) this.entries = Arrays.copyOf(this.entries, this.size * 2);
+            int position = -Arrays.binarySearch(this.entries, 0, this.size, entry) - 1;
+            System.arraycopy(this.entries, position, this.entries, position + 1, this.size - position);
+            this.entries[position] = entry;
+            this.size++;
+        }
+
+        private void remove(long entry) {
+            int position = Arrays.binarySearch(this.entries, 0, this.size, entry);
+            System.arraycopy(this.entries, position + 1, this.entries, position, this.size - position - 1);
+            this.size--;
+        }
+    }
+
+    /**
+     * Una copia immutabile della classifica di un utente, con la versione della vista da cui è stata presa.
+     */
+    public static final class Snapshot {
+        private final UserTable table;
+        private final long version;
+        private final long[] entries;
+
+        private Snapshot(UserTable table, long version, long[] entries) {
+            this.table = table;
+            this.version = version;
+            this.entries = entries;
+        }
+
+        public long version() {
+            return this.version;
+        }
+
+        public int size() {
+            return this.entries.length;
+        }
+
+        /**
+         * Restituisce una porzione della classifica, in ordine decrescente di punteggio.
+         *
+         * @param from La prima posizione da restituire, a partire da 0.
+         * @param count Il numero di righe.
+         * @return Le righe richieste, nickname -> punteggio.
+         */
+        public LinkedHashMap<String, Integer> page(int from, int count) {
+            return FriendRankings.page(this.table, this.entries, this.entries.length, from, count);
+        }
+    }
+
+    //Le righe dalla posizione 'from' di una classifica ordinata in modo crescente (si legge dalla fine).
+    private static LinkedHashMap<String, Integer> page(UserTable table, long[] entries, int size, int from,
+                                                      int count) {
+        int end = (int) Math.min(size, (long) Math.max(0, from) + Math.max(0, count));
+        LinkedHashMap<String, Integer> rank = new LinkedHashMap<>(Math.max(0, end - from) * 4 / 3 + 1);
+        for (int position = Math.max(0, from); position < end; position++) {
+            long entry = entries[size - 1 - position];
+            rank.put(table.nameOf((int) entry), (int) (entry >> 32));
+        }
+        return rank;
+    }
+
+    private static long pack(int points, int id) {
+        return ((long) points << 32) | (id & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,246 @@
+package back_end_src;
+
+import java.util.Arrays;
+
+/**
+ * {@link FriendSet} è l'insieme (immutabile) degli id degli amici di un utente. Aggiungere un amico restituisce un
+ * nuovo insieme, che {@link UserTable} pubblica con una compare-and-set: chi legge (classifiche, lista amici,
+ * snapshot) ottiene sempre una fotografia consistente senza prendere alcuna lock, e non può mai vedere un insieme
+ * a metà di una modifica.
+ *
+ * L'insieme è persistente: il nuovo insieme condivide con il vecchio quasi tutta la struttura, e un'aggiunta copia
+ * solo i nodi sul cammino verso il nuovo elemento, O(log n) invece dell'intero insieme. È fatto di due alberi con
+ * nodi da 32 figli:
+ *  - un hash trie (HAMT) per {@link #contains(int)}: ogni livello usa 5 bit dell'hash dell'id, e ogni nodo ha solo
+ *    le celle occupate, indicate da due bitmap (id e sotto-nodi). L'hash è una biiezione sugli int, quindi due id
+ *    diversi si separano al più all'ultimo livello e non ci sono collisioni da gestire;
+ *  - un vettore persistente per l'ordine di inserimento ({@link #get(int)}): le foglie da 32 id sono appese ad un
+ *    albero, e gli ultimi id (fino a 32) stanno in una coda a parte, così che quasi tutte le aggiunte copino solo
+ *    quella.
+ * Finché gli amici sono al più 32 stanno tutti nella coda, e non c'è alcun hash trie: {@link #contains(int)} scorre
+ * la coda, e un insieme piccolo occupa quanto un array di int.
+ */
+public final class FriendSet {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    static final FriendSet EMPTY = new FriendSet(null, 0, BITS, new Object[WIDTH], new int[0]);
+
+    //L'hash trie, null finché tutti gli amici stanno nella coda del vettore.
+    private final Node members;
+    //Il vettore: numero di elementi, altezza dell'albero (in bit), radice e coda.
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final int[] tail;
+
+    private FriendSet(Node members, int size, int shift, Object[] root, int[] tail) {
+        this.members = members;
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Costruisce l'insieme a partire da un array di id, scartando i duplicati.
+     *
+     * @param ids Gli id degli amici.
+     * @return L'insieme.
+     */
+    public static FriendSet of(int[] ids) {
+        FriendSet set = EMPTY;
+        for (int id : ids) set = set.with(id);
+        return set;
+    }
+
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Controlla se 'id' è nell'insieme.
+     *
+     * @param id L'id da cercare.
+     * @return {@code true} se presente.
+     */
+    public boolean contains(int id) {
+        if (this.members != null) return this.members.contains(id, mix(id), 0);
+        for (int member : this.tail) {
+            if (member == id) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Restituisce un nuovo insieme con anche 'id', oppure questo stesso insieme se 'id' era già presente.
+     *
+     * @param id L'id da aggiungere.
+     * @return L'insieme risultante.
+     */
+    public FriendSet with(int id) {
+        Node members;
+        if (this.members != null) {
+            members = this.members.with(id, mix(id), 0);
+            if (members == null) return this;
+        } else if (contains(id)) {
+            return this;
+        } else if (this.tail.length < WIDTH) {
+            members = null;
+        } else {
+            //Il primo amico che non sta nella coda: si costruisce l'hash trie.
+            members = Node.EMPTY;
+            for (int member : this.tail) members = members.with(member, mix(member), 0);
+            members = members.with(id, mix(id), 0);
+        }
+
+        //La coda ha ancora posto: si copia solo quella.
+        if (this.tail.length < WIDTH) {
+            int[] tail = Arrays.copyOf(this.tail, this.tail.length + 1);
+            tail[this.tail.length] = id;
+            return new FriendSet(members, this.size + 1, this.shift, this.root, tail);
+        }
+        //La coda è piena: diventa una foglia dell'albero, e una nuova coda accoglie 'id'.
+        Object[] root;
+        int shift = this.shift;
+        if ((this.size >>> BITS) > (1 << this.shift)) {
+            //L'albero è pieno: si aggiunge un livello.
+            root = new Object[WIDTH];
+            root[0] = this.root;
+            root[1] = newPath(this.shift, this.tail);
+            shift += BITS;
+        } else {
+            root = pushTail(this.shift, this.root, this.tail);
+        }
+        return new FriendSet(members, this.size + 1, shift, root, new int[]{id});
+    }
+
+    //Copia il cammino verso la prima foglia libera e vi appende 'leaf'.
+    private Object[] pushTail(int level, Object[] parent, int[] leaf) {
+        int index = ((this.size - 1) >>> level) & MASK;
+        Object[] node = parent.clone();
+        if (level == BITS) {
+            node[index] = leaf;
+        } else {
+            Object[] child = (Object[]) parent[index];
+            node[index] = child != null ? pushTail(level - BITS, child, leaf) : newPath(level - BITS, leaf);
+        }
+        return node;
+    }
+
+    //Un cammino di nodi nuovi, lungo 'level' bit, che termina con 'leaf'.
+    private static Object newPath(int level, int[] leaf) {
+        if (level == 0) return leaf;
+        Object[] node = new Object[WIDTH];
+        node[0] = newPath(level - BITS, leaf);
+        return node;
+    }
+
+    /**
+     * Restituisce il numero di amici.
+     *
+     * @return La dimensione dell'insieme.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Restituisce l'i-esimo amico, in ordine di inserimento.
+     *
+     * @param i La posizione.
+     * @return L'id dell'amico.
+     */
+    public int get(int i) {
+        if (i < 0 || i >= this.size) throw new IndexOutOfBoundsException(i);
+        int tailOffset = this.size - this.tail.length;
+        if (i >= tailOffset) return this.tail[i - tailOffset];
+        Object node = this.root;
+        for (int level = this.shift; level > 0; level -= BITS) node = ((Object[]) node)[(i >>> level) & MASK];
+        return ((int[]) node)[i & MASK];
+    }
+
+    /*
+        Un nodo dell'hash trie: 'ids' sono gli id che stanno direttamente nel nodo, 'children' i sotto-nodi; i bit
+        di 'idMap' e 'childMap' dicono quali delle 32 celle sono occupate, e la posizione di una cella nell'array è
+        il numero di bit a 1 che la precedono.
+     */
+    private static final class Node {
+        static final Node EMPTY = new Node(0, new int[0], 0, new Node[0]);
+
+        private final int idMap;
+        private final int[] ids;
+        private final int childMap;
+        private final Node[] children;
+
+        private Node(int idMap, int[] ids, int childMap, Node[] children) {
+            this.idMap = idMap;
+            this.ids = ids;
+            this.childMap = childMap;
+            this.children = children;
+        }
+
+        boolean contains(int id, int hash, int shift) {
+            Node node = this;
+            while (true) {
+                int bit = 1 << ((hash >>> shift) & MASK);
+                if ((node.idMap & bit) != 0) return node.ids[Integer.bitCount(node.idMap & (bit - 1))] == id;
+                if ((node.childMap & bit) == 0) return false;
+                node = node.children[Integer.bitCount(node.childMap & (bit - 1))];
+                shift += BITS;
+            }
+        }
+
+        //Il nodo con anche 'id', null se c'era già.
+        Node with(int id, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((this.idMap & bit) != 0) {
+                int index = Integer.bitCount(this.idMap & (bit - 1));
+                int other = this.ids[index];
+                if (other == id) return null;
+                //La cella è di un altro id: i due scendono insieme in un nuovo sotto-nodo.
+                Node child = pair(other, mix(other), id, hash, shift + BITS);
+                int[] ids = new int[this.ids.length - 1];
+                System.arraycopy(this.ids, 0, ids, 0, index);
+                System.arraycopy(this.ids, index + 1, ids, index, ids.length - index);
+                return new Node(this.idMap ^ bit, ids, this.childMap | bit,
+                        insert(this.children, Integer.bitCount(this.childMap & (bit - 1)), child));
+            }
+            if ((this.childMap & bit) != 0) {
+                int index = Integer.bitCount(this.childMap & (bit - 1));
+                Node child = this.children[index].with(id, hash, shift + BITS);
+                if (child == null) return null;
+                Node[] children = this.children.clone();
+                children[index] = child;
+                return new Node(this.idMap, this.ids, this.childMap, children);
+            }
+            int index = Integer.bitCount(this.idMap & (bit - 1));
+            int[] ids = new int[this.ids.length + 1];
+            System.arraycopy(this.ids, 0, ids, 0, index);
+            ids[index] = id;
+            System.arraycopy(this.ids, index, ids, index + 1, this.ids.length - index);
+            return new Node(this.idMap | bit, ids, this.childMap, this.children);
+        }
+
+        //Il nodo con due soli id: se i loro hash coincidono anche qui, si scende ancora di un livello.
+        private static Node pair(int id1, int hash1, int id2, int hash2, int shift) {
+            int bit1 = 1 << ((hash1 >>> shift) & MASK), bit2 = 1 << ((hash2 >>> shift) & MASK);
+            if (bit1 == bit2) {
+                return new Node(0, new int[0], bit1, new Node[]{pair(id1, hash1, id2, hash2, shift + BITS)});
+            }
+            int[] ids = Integer.compareUnsigned(bit1, bit2) < 0 ? new int[]{id1, id2} : new int[]{id2, id1};
+            return new Node(bit1 | bit2, ids, 0, new Node[0]);
+        }
+
+        private static Node[] insert(Node[] children, int index, Node child) {
+            Node[] result = new Node[children.length + 1];
+            System.arraycopy(children, 0, result, 0, index);
+            result[index] = child;
+            System.arraycopy(children, index, result, index + 1, children.length - index);
+            return result;
+        }
+    }
+}
@@ -45,6 +45,8 @@ public class MatchManager implements Runnable {
     private final SocketChannel TCPSocketA;
     private final SocketChannel TCPSocketB;
     private final String[] italianWords;
+    //Gli indici delle parole all'interno del dizionario, servono a WordSelector per imparare la loro difficoltà.
+    private final int[] wordIndexes;
     private final ArrayList<ArrayList<String>> englishWords;
 
     private final ScoreStruct scoreStruct;
@@ -52,6 +54,8 @@ public class MatchManager implements Runnable {
     private final int oldGlobalPointsB;
 
     int indexA, indexB;
+    //Quando è stata inviata l'ultima domanda ai due giocatori, per misurare il tempo di risposta.
+    private long questionSentA, questionSentB;
     boolean receivedStatsA, receivedStatsB;
     boolean finishedA, finishedB;
 
@@ -59,12 +63,14 @@ public class MatchManager implements Runnable {
     private volatile boolean timeout;
 
     public MatchManager(String idA, String idB, SocketChannel TCPSocketA, SocketChannel TCPSocketB,
-                        String[] italianWords, ArrayList<ArrayList<String>> englishWords) throws RemoteException {
+                        String[] italianWords, int[] wordIndexes, ArrayList<ArrayList<String>> englishWords)
+            throws RemoteException {
         this.idA = idA;
         this.idB = idB;
         this.TCPSocketA = TCPSocketA;
         this.TCPSocketB = TCPSocketB;
         this.italianWords = italianWords;
+        this.wordIndexes = wordIndexes;
         this.englishWords = englishWords;
 
         this.scoreStruct = new ScoreStruct();
@@ -180,6 +186,16 @@ public class MatchManager implements Runnable {
         }
     }
 
+    /**
+     * Calcola i millisecondi trascorsi dall'invio di una domanda.
+     *
+     * @param questionSent L'istante (in nanosecondi) in cui è stata inviata la domanda.
+     * @return I millisecondi trascorsi.
+     */
+    private static long elapsedMillis(long questionSent) {
+        return (System.nanoTime() - questionSent) / 1_000_000;
+    }
+
     /**
      * Il metodo viene chiamato da RequestManager nel momento in cui scade il timeout della sfida.
      */
@@ -190,34 +206,18 @@ public class MatchManager implements Runnable {
 
     /**
      * Incapsula il procedimento di scrittura in una {@link SocketChannel}. Ho deciso di creare un metodo esterno per
-     * migliorare la leggibilità del codice.
+     * migliorare la leggibilità del codice. Il messaggio viene accodato nella {@link Connection} del client e scritto
+     * dal selettore del {@link Server}, così che non si mescoli con le notifiche inviate sulla stessa socket e che un
+     * client lento non blocchi questo thread.
      *
      * @param message    Il messaggio da inviare.
      * @param currentKey La {@link SelectionKey} contenente la {@link SocketChannel} sul quale scrivere.
-     * @return {@code true} se la scrittura è andata a buon fine (completata), {@code false} altrimenti.
-     * @throws IOException In caso di problemi durante la scrittura sulla {@link SocketChannel}.
+     * @return {@code true} se il messaggio è stato accodato, {@code false} altrimenti.
+     * @throws IOException Se la connessione del client è già chiusa.
      */
     private boolean writeIntoSocket(String message, SelectionKey currentKey) throws IOException {
-
-        SocketChannel socketChannel = (SocketChannel) currentKey.channel();
-
-        ByteBuffer sizeBuffer = ByteBuffer.allocate(Integer.BYTES);
-
-        sizeBuffer.putInt(message.getBytes().length);
-        sizeBuffer.flip();
-        socketChannel.write(sizeBuffer);
-        if (!sizeBuffer.hasRemaining()) {
-            sizeBuffer.clear();
-
-            ByteBuffer writeBuffer = ByteBuffer.wrap(message.getBytes());
-            socketChannel.write(writeBuffer);
-
-            if (!writeBuffer.hasRemaining()) {
-                writeBuffer.clear();
-                return true;
-            }
-        }
-        return false;
+        Connection.of((SocketChannel) currentKey.channel()).send(message);
+        return true;
     }
 
     @Override
@@ -410,6 +410,8 @@ public class MatchManager implements Runnable {
                                 message = "Challenge " + (currentIndex + 1) + "/" + Server.numberOfWords + ": "
                                         + this.italianWords[currentIndex];
                                 if (writeIntoSocket(message, currentKey)) {
+                                    if (socketChannel.equals(this.TCPSocketA)) this.questionSentA = System.nanoTime();
+                                    else this.questionSentB = System.nanoTime();
                                     ByteBuffer sizeBuffer = ByteBuffer.allocate(Integer.BYTES);
                                     ByteBuffer readBuffer = ByteBuffer.allocate(Server.maxCommandLength);
                                     ByteBuffer[] buffers = {sizeBuffer, readBuffer};
@@ -454,7 +456,10 @@ public class MatchManager implements Runnable {
                                      */
                                     if (!this.timeout) {
                                         if (socketChannel.equals(this.TCPSocketA)) {
-                                            if (this.englishWords.get(this.indexA).contains(response)) {
+                                            boolean correct = this.englishWords.get(this.indexA).contains(response);
+                                            Server.wordAnalytics.recordAnswer(this.wordIndexes[this.indexA], response,
+                                                    correct, elapsedMillis(this.questionSentA));
+                                            if (correct) {
                                                 this.scoreStruct.incrementPointsA(Server.correctTranslationIncrement);
                                                 this.scoreStruct.incrementGuessedA();
                                             } else {
@@ -463,7 +468,10 @@ public class MatchManager implements Runnable {
                                             }
                                             this.scoreStruct.decrementNoneA();
                                         } else if (socketChannel.equals(this.TCPSocketB)) {
-                                            if (this.englishWords.get(this.indexB).contains(response)) {
+                                            boolean correct = this.englishWords.get(this.indexB).contains(response);
+                                            Server.wordAnalytics.recordAnswer(this.wordIndexes[this.indexB], response,
+                                                    correct, elapsedMillis(this.questionSentB));
+                                            if (correct) {
                                                 this.scoreStruct.incrementPointsB(Server.correctTranslationIncrement);
                                                 this.scoreStruct.incrementGuessedB();
                                             } else {
@@ -472,6 +480,10 @@ public class MatchManager implements Runnable {
                                             }
                                             this.scoreStruct.decrementNoneB();
                                         }
+                                    } else {
+                                        //La risposta arrivata dopo il timeout conta come non data.
+                                        int currentIndex = socketChannel.equals(this.TCPSocketA) ? this.indexA : this.indexB;
+                                        Server.wordAnalytics.recordUnanswered(this.wordIndexes[currentIndex]);
                                     }
 
                                     //Se la lettura è andata a buon fine, registro il channel per la WRITE.
@@ -521,6 +533,17 @@ public class MatchManager implements Runnable {
             e.printStackTrace();
         }
 
+        /*
+            Le parole alle quali i due giocatori non sono arrivati a rispondere (timeout o abbandono) vengono
+            registrate come non risposte.
+         */
+        for (int i = this.indexA; i < Server.numberOfWords; i++) {
+            Server.wordAnalytics.recordUnanswered(this.wordIndexes[i]);
+        }
+        for (int i = this.indexB; i < Server.numberOfWords; i++) {
+            Server.wordAnalytics.recordUnanswered(this.wordIndexes[i]);
+        }
+
         /*
             Recupero l'istanza unica di UsersRegister e aggiorno il
             punteggio totale del vincitore.
@@ -0,0 +1,95 @@
+package back_end_src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * {@link PendingResponse} è la risposta che il selettore del {@link Server} sta scrivendo su una socket: uno o più
+ * messaggi, ciascuno preceduto dalla sua size come in {@link common_src.CommonUtilities}. Tiene traccia di quanto è
+ * già stato scritto, così che una scrittura parziale riprenda da dove si era interrotta, e scrive al più un
+ * messaggio per volta: una risposta a blocchi ({@link ChunkedResponse}) non impegna il selettore fino alla fine,
+ * ma lascia spazio agli altri client (e alle altre risposte dello stesso client) tra un blocco e l'altro.
+ * La risposta ad un comando con l'id di correlazione ({@link common_src.RequestFrame}) porta lo stesso id in testa
+ * ad ogni messaggio.
+ */
+public class PendingResponse {
+
+    private final ByteBuffer size = ByteBuffer.allocate(Integer.BYTES);
+    private final ByteBuffer[] frame = {this.size, null, null};
+    private final byte[] tag;
+    private final Iterator<byte[]> following;
+
+    /**
+     * Una risposta di un solo messaggio.
+     *
+     * @param tag L'intestazione con l'id della richiesta ({@link common_src.RequestFrame#header}), vuota se il
+     *            comando non aveva un id.
+     * @param message Il messaggio codificato.
+     */
+    public PendingResponse(byte[] tag, byte[] message) {
+        this(tag, message, Collections.emptyIterator());
+    }
+
+    /**
+     * Una risposta a blocchi: l'header e poi i blocchi, codificati man mano.
+     *
+     * @param tag L'intestazione con l'id della richiesta, vuota se il comando non aveva un id.
+     * @param chunked La risposta a blocchi.
+     */
+    public PendingResponse(byte[] tag, ChunkedResponse chunked) {
+        this(tag, chunked.header(), chunked);
+    }
+
+    private PendingResponse(byte[] tag, byte[] first, Iterator<byte[]> following) {
+        this.tag = tag;
+        this.following = following;
+        prepare(first);
+    }
+
+    private void prepare(byte[] message) {
+        this.size.clear();
+        this.size.putInt(this.tag.length + message.length).flip();
+        this.frame[1] = ByteBuffer.wrap(this.tag);
+        this.frame[2] = ByteBuffer.wrap(message);
+    }
+
+    /**
+     * Indica se la risposta porta l'id della richiesta: in tal caso i suoi messaggi possono essere intercalati a
+     * quelli di altre risposte.
+     *
+     * @return {@code true} se la risposta porta l'id.
+     */
+    public boolean isTagged() {
+        return this.tag.length > 0;
+    }
+
+    /**
+     * Scrive sulla socket quanto possibile del messaggio corrente, senza bloccarsi.
+     *
+     * @param socket La socket del client.
+     * @return {@code true} se l'intera risposta è stata scritta, {@code false} se resta qualcosa da scrivere alla
+     * prossima occasione.
+     * @throws IOException In caso di problemi durante la scrittura.
+     */
+    public boolean write(SocketChannel socket) throws IOException {
+        socket.write(this.frame);
+        if (this.frame[1].hasRemaining() || this.frame[2].hasRemaining()) return false;
+        if (!this.following.hasNext()) return true;
+        //Il blocco successivo viene codificato solo ora, e scritto alla prossima occasione.
+        prepare(this.following.next());
+        return false;
+    }
+
+    /**
+     * Indica se il messaggio corrente è stato scritto solo in parte: finché lo è, nessun altro messaggio può essere
+     * scritto sulla socket (si veda {@link Connection}). Tra un blocco e l'altro la socket è invece libera.
+     *
+     * @return {@code true} se il messaggio corrente è iniziato ma non ancora finito.
+     */
+    public boolean isMidFrame() {
+        return this.size.position() > 0 && (this.frame[1].hasRemaining() || this.frame[2].hasRemaining());
+    }
+}
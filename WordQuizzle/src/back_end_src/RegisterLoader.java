@@ -0,0 +1,320 @@
+package back_end_src;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import common_src.JsonBuffer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * {@link RegisterLoader} carica lo snapshot JSON di {@link UsersRegister} in streaming: il file viene letto con un
+ * {@link JsonReader} e gli {@link User} vengono costruiti uno alla volta, senza mai avere in memoria l'intero file
+ * (nè come byte nè come {@link String}). In questo modo l'occupazione di memoria è quella della sola struttura
+ * finale e non c'è alcun limite alla dimensione del file.
+ * Per i file grandi il caricamento può essere diviso tra più thread: una prima passata sui byte individua le virgole
+ * che separano gli utenti (quelle al primo livello dell'oggetto), il file viene tagliato in blocchi di dimensione
+ * simile su quelle virgole e ogni blocco viene analizzato da un thread diverso. La stessa passata conta gli utenti,
+ * così che la mappa possa essere creata già della dimensione giusta.
+ * Lo snapshot viene scritto da {@link #write(Map, WritableByteChannel)} con un {@link JsonBuffer}, senza reflection.
+ * La persistenza vera e propria non passa di qui ({@link RegisterLog}, {@link RegisterPartitions}): il JSON viene
+ * scritto solo dall'esportazione leggibile alla chiusura del {@link Server} ({@link UsersRegister#exportJson()}).
+ */
+public class RegisterLoader {
+
+    //Dimensione media, approssimata per difetto, di un utente nel JSON 'pretty-printed'. Serve a stimare la size.
+    private static final int ESTIMATED_BYTES_PER_USER = 96;
+
+    //Sotto questa dimensione il caricamento parallelo non conviene.
+    static final long PARALLEL_THRESHOLD = 64L << 20;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Carica lo snapshot 'path'. Se 'parallelism' è maggiore di 1 e il file è abbastanza grande, il file viene
+     * diviso in blocchi caricati in parallelo.
+     *
+     * @param path Il file JSON da caricare.
+     * @param parallelism Il numero massimo di thread da utilizzare.
+     * @return La struttura con tutti gli utenti.
+     * @throws IOException In caso di problemi durante la lettura del file (anche {@link java.nio.file.NoSuchFileException}
+     *                     se il file non esiste).
+     */
+    public static ConcurrentHashMap<String, User> load(Path path, int parallelism) throws IOException {
+        long size = Files.size(path);
+        if (parallelism > 1 && size >= PARALLEL_THRESHOLD) return loadParallel(path, parallelism);
+        return loadSequential(path, size);
+    }
+
+    /**
+     * Scrive lo snapshot JSON della struttura sul canale, nello stesso formato 'pretty-printed' di Gson. Gli utenti
+     * vengono scritti uno alla volta in un {@link JsonBuffer} che si svuota sul canale quando è pieno: la memoria
+     * usata è quella del buffer, qualsiasi sia la dimensione della struttura.
+     *
+     * @param usersRegister La struttura con tutti gli utenti.
+     * @param channel Il canale sul quale scrivere.
+     * @throws IOException In caso di problemi durante la scrittura.
+     */
+    public static void write(Map<String, User> usersRegister, WritableByteChannel channel) throws IOException {
+        JsonBuffer json = JsonBuffer.acquire(channel);
+        try {
+            json.raw('{');
+            boolean first = true;
+            for (Map.Entry<String, User> entry : usersRegister.entrySet()) {
+                json.raw(first ? "\n  " : ",\n  ").string(entry.getKey()).raw(": ");
+                writeUser(json, entry.getValue());
+                first = false;
+            }
+            json.raw(first ? "}" : "\n}");
+            json.flush();
+        } finally {
+            json.release();
+        }
+    }
+
+    //Scrive un utente come oggetto JSON, con i campi nell'ordine e nell'indentazione di Gson.
+    private static void writeUser(JsonBuffer json, User user) throws IOException {
+        json.raw("{\n    \"nickUtente\": ").string(user.getNickUtente())
+                .raw(",\n    \"password\": ").string(user.getPassword())
+                .raw(",\n    \"points\": ").number(user.getPoints())
+                .raw(",\n    \"friends\": [");
+        ArrayList<String> friends = user.getFriends();
+        for (int i = 0; i < friends.size(); i++) json.raw(i == 0 ? "\n      " : ",\n      ").string(friends.get(i));
+        json.raw(friends.isEmpty() ? "]\n  }" : "\n    ]\n  }");
+    }
+
+    /**
+     * Carica lo snapshot con un solo {@link JsonReader}. Non conoscendo in anticipo il numero di utenti, la mappa
+     * viene dimensionata sulla base della dimensione del file.
+     *
+     * @param path Il file JSON da caricare.
+     * @param size La dimensione del file.
+     * @return La struttura con tutti gli utenti.
+     * @throws IOException In caso di problemi durante la lettura del file.
+     */
+    private static ConcurrentHashMap<String, User> loadSequential(Path path, long size) throws IOException {
+        ConcurrentHashMap<String, User> usersRegister =
+                new ConcurrentHashMap<>((int) Math.min(Integer.MAX_VALUE >> 1, size / ESTIMATED_BYTES_PER_USER));
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE), StandardCharsets.UTF_8))) {
+            //Come Gson, si accettano anche file scritti in maniera non strettamente conforme.
+            reader.setLenient(true);
+            if (reader.peek() == JsonToken.NULL) return usersRegister;
+            readUsers(reader, usersRegister);
+        }
+        return usersRegister;
+    }
+
+    /**
+     * Carica lo snapshot dividendolo in blocchi, ognuno analizzato da un thread diverso.
+     *
+     * @param path Il file JSON da caricare.
+     * @param parallelism Il numero di blocchi.
+     * @return La struttura con tutti gli utenti.
+     * @throws IOException In caso di problemi durante la lettura del file.
+     */
+    private static ConcurrentHashMap<String, User> loadParallel(Path path, int parallelism) throws IOException {
+        Chunks chunks = findChunks(path, parallelism);
+        ConcurrentHashMap<String, User> usersRegister =
+                new ConcurrentHashMap<>((int) Math.min(Integer.MAX_VALUE >> 1, chunks.users));
+        if (chunks.users == 0) return usersRegister;
+
+        ExecutorService executor = Executors.newFixedThreadPool(chunks.starts.size());
+        try {
+            ArrayList<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < chunks.starts.size(); i++) {
+                long from = chunks.starts.get(i), to = chunks.ends.get(i);
+                results.add(executor.submit(() -> {
+                    loadChunk(path, from, to, usersRegister);
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return usersRegister;
+    }
+
+    /**
+     * Analizza i byte [from, to) del file. Il blocco contiene una sequenza di coppie "nickname": {utente} separate
+     * da virgole, quindi basta racchiuderlo tra parentesi graffe per ottenere un oggetto JSON valido.
+     */
+    private static void loadChunk(Path path, long from, long to, ConcurrentHashMap<String, User> usersRegister)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.position(from);
+            InputStream chunk = new SequenceInputStream(new ByteArrayInputStream(new byte[]{'{'}),
+                    new SequenceInputStream(new BoundedInputStream(Channels.newInputStream(channel), to - from),
+                            new ByteArrayInputStream(new byte[]{'}'})));
+            JsonReader reader = new JsonReader(new InputStreamReader(new BufferedInputStream(chunk, BUFFER_SIZE),
+                    StandardCharsets.UTF_8));
+            reader.setLenient(true);
+            readUsers(reader, usersRegister);
+        }
+    }
+
+    private static void readUsers(JsonReader reader, ConcurrentHashMap<String, User> usersRegister) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String nickname = reader.nextName();
+            User user = readUser(reader, nickname);
+            if (user != null) usersRegister.put(nickname, user);
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Legge un singolo {@link User}. I campi sconosciuti vengono ignorati, quelli mancanti prendono il valore di
+     * default, esattamente come farebbe Gson.
+     */
+    private static User readUser(JsonReader reader, String nickname) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        String nickUtente = nickname;
+        String password = null;
+        int points = 0;
+        ArrayList<String> friends = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "nickUtente":
+                    nickUtente = reader.nextString();
+                    break;
+                case "password":
+                    password = reader.nextString();
+                    break;
+                case "points":
+                    points = reader.nextInt();
+                    break;
+                case "friends":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        friends.add(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new User(nickUtente, password, points, friends);
+    }
+
+    /**
+     * Scorre i byte del file e individua i punti in cui tagliarlo: le virgole al primo livello dell'oggetto
+     * (fuori dalle stringhe) separano un utente dal successivo. Si noti che in UTF-8 i byte dei caratteri
+     * multi-byte non coincidono mai con '"', '\\' o ',', quindi la scansione sui byte è corretta.
+     */
+    private static Chunks findChunks(Path path, int parallelism) throws IOException {
+        Chunks chunks = new Chunks();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long target = size / parallelism;
+            long nextBound = target;
+            int depth = 0;
+            boolean inString = false, escape = false, empty = true;
+            long position = 0;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (inString) {
+                        if (escape) escape = false;
+                        else if (b == '\\') escape = true;
+                        else if (b == '"') inString = false;
+                    } else if (b == '"') {
+                        inString = true;
+                        if (depth == 1) empty = false;
+                    } else if (b == '{' || b == '[') {
+                        if (depth++ == 0) chunks.starts.add(position + 1);
+                    } else if (b == '}' || b == ']') {
+                        if (--depth == 0) chunks.ends.add(position);
+                    } else if (b == ',' && depth == 1) {
+                        chunks.users++;
+                        //Il blocco corrente finisce prima della virgola, il successivo comincia subito dopo.
+                        if (position >= nextBound) {
+                            chunks.ends.add(position);
+                            chunks.starts.add(position + 1);
+                            nextBound = position + target;
+                        }
+                    }
+                    position++;
+                }
+                buffer.clear();
+            }
+            if (!empty) chunks.users++;
+        }
+        if (chunks.starts.isEmpty() || chunks.starts.size() != chunks.ends.size())
+            throw new EOFException("Snapshot incompleto.");
+        return chunks;
+    }
+
+    /**
+     * I blocchi [inizio, fine) nei quali è stato diviso il file e il numero di utenti contati.
+     */
+    private static class Chunks {
+        private final ArrayList<Long> starts = new ArrayList<>();
+        private final ArrayList<Long> ends = new ArrayList<>();
+        private long users;
+    }
+
+    /**
+     * Un {@link InputStream} che legge al più 'limit' byte dallo stream sottostante.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) this.remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.remaining <= 0) return -1;
+            int read = super.read(b, off, (int) Math.min(len, this.remaining));
+            if (read > 0) this.remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            //Il canale viene chiuso da chi lo ha aperto.
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package back_end_src;
+
+import back_end_src.exceptions.AlreadyFriendException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * {@link RegisterLog} è il write-ahead log di {@link UsersRegister}. Piuttosto che riscrivere l'intero file JSON ad ogni
+ * modifica, ogni mutazione (registrazione, nuova amicizia, incremento di punteggio) viene accodata al log come un
+ * piccolo record tipizzato, protetto da un checksum: il costo di una scrittura è quindi proporzionale alla sola
+ * modifica e non al numero di utenti registrati.
+ * Periodicamente il log viene compattato: si apre un nuovo segmento, si scrive una fotografia (snapshot)
+ * dell'intera struttura e si cancellano i segmenti ormai contenuti nella fotografia. All'avvio il {@link Server}
+ * ricostruisce lo stato caricando lo snapshot e rieseguendo i segmenti rimasti.
+ * Le scritture sono affidate ad un unico thread (group commit): i record accodati entro una finestra di
+ * 'commitWindowMillis' millisecondi vengono scritti insieme e resi persistenti con una sola {@link FileChannel#force},
+ * dopodichè si completano i {@link CompletableFuture} restituiti a chi ha richiesto le mutazioni.
+ *
+ * Formato di un record: [lunghezza payload (int)][CRC32 di tipo + payload (int)][tipo (byte)][payload].
+ */
+public class RegisterLog {
+
+    static final byte REGISTER = 1;
+    static final byte ADD_FRIEND = 2;
+    static final byte ADD_POINTS = 3;
+
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + 1;
+    private static final int MAX_PAYLOAD_SIZE = 1 << 20;
+
+    private static final String LOG_DIRECTORY = "./src/back_end_src";
+    private static final String SEGMENT_PREFIX = "usersRegister.wal.";
+
+    private final Path directory;
+    private FileChannel channel;
+    private long segment;
+    private long segmentSize;
+
+    //I record in attesa di essere scritti dal thread di persistenza, e la finestra entro cui raggrupparli.
+    private final LinkedBlockingQueue<PendingRecord> pending = new LinkedBlockingQueue<>();
+    private final long commitWindowMillis;
+    private final Thread writer;
+    private volatile boolean closed;
+    //Rende atomici il controllo di 'closed' e l'accodamento di un record rispetto alla chiusura.
+    private final Object closeLock = new Object();
+
+    //Serializza le compattazioni, che possono essere richieste sia dal timer sia dalla crescita del log.
+    private final Object compactionLock = new Object();
+    private long lastCompaction;
+    //Ci sono segmenti precedenti a quello corrente (per esempio quelli riletti all'avvio) ancora da compattare.
+    private boolean olderSegments;
+
+    private RegisterLog(Path directory, long commitWindowMillis) {
+        this.directory = directory;
+        this.commitWindowMillis = Math.max(0, commitWindowMillis);
+        this.lastCompaction = System.currentTimeMillis();
+        this.writer = new Thread(this::writerLoop, "register-log-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Apre il log: riesegue sulla struttura (appena caricata dallo snapshot) tutti i segmenti presenti e apre
+     * un nuovo segmento sul quale verranno accodate le prossime mutazioni. Un record incompleto o con checksum
+     * errato (per esempio perchè il server è stato chiuso durante una scrittura) interrompe la rilettura di quel
+     * segmento: tutto ciò che lo precede è comunque recuperato.
+     *
+     * @param usersRegister La struttura caricata dallo snapshot, sulla quale applicare i record.
+     * @param commitWindowMillis La finestra, in millisecondi, entro la quale raggruppare le scritture.
+     * @param touched Chiamato con ogni utente modificato da un record riletto.
+     * @return Il log, pronto per nuove scritture.
+     * @throws IOException In caso di problemi durante la lettura dei segmenti o la creazione del nuovo segmento.
+     */
+    public static RegisterLog open(ConcurrentHashMap<String, User> usersRegister, long commitWindowMillis,
+                                   Consumer<String> touched) throws IOException {
+        return open(Paths.get(LOG_DIRECTORY), usersRegister, commitWindowMillis, touched);
+    }
+
+    /**
+     * Come {@link #open(ConcurrentHashMap, long, Consumer)}, ma con i segmenti nella cartella 'directory'.
+     * È utilizzato dai benchmark, per non toccare il log del {@link Server}.
+     *
+     * @param directory La cartella dei segmenti.
+     * @param usersRegister La struttura sulla quale applicare i record.
+     * @param commitWindowMillis La finestra, in millisecondi, entro la quale raggruppare le scritture.
+     * @param touched Chiamato con ogni utente modificato da un record riletto.
+     * @return Il log, pronto per nuove scritture.
+     * @throws IOException In caso di problemi durante la lettura dei segmenti o la creazione del nuovo segmento.
+     */
+    public static RegisterLog open(Path directory, ConcurrentHashMap<String, User> usersRegister,
+                                   long commitWindowMillis, Consumer<String> touched) throws IOException {
+        RegisterLog log = new RegisterLog(directory, commitWindowMillis);
+        long lastSegment = 0;
+        int replayed = 0;
+        for (long segment : log.segments()) {
+            replayed += log.replay(log.segmentPath(segment), usersRegister, touched);
+            lastSegment = segment;
+            log.olderSegments = true;
+        }
+        if (Server.DEBUG_MODE && replayed > 0) System.out.println("Recuperate " + replayed + " modifiche dal log.");
+        log.openSegment(lastSegment + 1);
+        log.writer.start();
+        return log;
+    }
+
+    /**
+     * Accoda il record di una nuova registrazione.
+     *
+     * @param nickUtente L'username registrato.
+     * @param password La password dell'utente.
+     * @return Un future completato quando il record è persistente su disco.
+     */
+    public CompletableFuture<Void> register(String nickUtente, String password) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        try {
+            payload.writeUTF(nickUtente);
+            payload.writeUTF(password);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return append(REGISTER, bytes.toByteArray());
+    }
+
+    /**
+     * Accoda il record di una nuova amicizia tra 'id' e 'id2'.
+     *
+     * @param id Il primo utente.
+     * @param id2 Il secondo utente.
+     * @return Un future completato quando il record è persistente su disco.
+     */
+    public CompletableFuture<Void> addFriend(String id, String id2) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        try {
+            payload.writeUTF(id);
+            payload.writeUTF(id2);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return append(ADD_FRIEND, bytes.toByteArray());
+    }
+
+    /**
+     * Accoda il record di un incremento di punteggio. Oltre all'incremento viene salvato il punteggio totale
+     * risultante: dal momento che i punteggi possono solo crescere, rieseguire il record equivale a portare il
+     * punteggio dell'utente almeno a 'total', operazione che si può ripetere senza alcun effetto collaterale.
+     *
+     * @param id L'utente.
+     * @param points L'incremento.
+     * @param total Il punteggio totale dopo l'incremento.
+     * @return Un future completato quando il record è persistente su disco.
+     */
+    public CompletableFuture<Void> addPoints(String id, int points, int total) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        try {
+            payload.writeUTF(id);
+            payload.writeInt(points);
+            payload.writeInt(total);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return append(ADD_POINTS, bytes.toByteArray());
+    }
+
+    /**
+     * Codifica il record e lo accoda al thread di persistenza. L'ordine della coda è l'ordine di scrittura,
+     * quindi due mutazioni accodate dallo stesso thread finiscono sul log nello stesso ordine.
+     */
+    private CompletableFuture<Void> append(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(type);
+        record.put(payload);
+        record.flip();
+        PendingRecord pendingRecord = new PendingRecord(record);
+        /*
+            Senza la lock un record potrebbe superare il controllo, e finire in coda dopo che 'close' l'ha svuotata
+            per l'ultima volta: il suo future non verrebbe mai completato.
+         */
+        synchronized (this.closeLock) {
+            if (!this.closed) {
+                this.pending.add(pendingRecord);
+                return pendingRecord.future;
+            }
+        }
+        pendingRecord.future.completeExceptionally(new IOException("Il log è stato chiuso."));
+        return pendingRecord.future;
+    }
+
+    /**
+     * Il ciclo del thread di persistenza: aspetta il primo record, raccoglie tutti quelli che arrivano entro
+     * la finestra di commit, li scrive con un'unica scrittura e un'unica force, e completa i relativi future.
+     */
+    private void writerLoop() {
+        ArrayList<PendingRecord> batch = new ArrayList<>();
+        while (true) {
+            try {
+                PendingRecord first = this.pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (this.closed) return;
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.commitWindowMillis);
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    PendingRecord next = this.pending.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                //Anche a finestra scaduta si prende tutto ciò che è già in coda.
+                this.pending.drainTo(batch);
+            } catch (InterruptedException e) {
+                //Si scrive comunque ciò che è già stato raccolto.
+                this.pending.drainTo(batch);
+            }
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    /*
+        Scrive il gruppo di record. Se la scrittura fallisce a metà, il segmento viene riportato alla fine dell'ultimo
+        record scritto per intero ('segmentSize'): un record spezzato interromperebbe la rilettura del segmento, e
+        tutti i record scritti dopo, già dichiarati persistenti, andrebbero persi. Se non si riesce nemmeno a
+        troncarlo, si prosegue su un nuovo segmento, che all'avvio viene riletto dopo quello rovinato.
+     */
+    private void commit(ArrayList<PendingRecord> batch) {
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long size = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = batch.get(i).record;
+            size += buffers[i].remaining();
+        }
+        IOException failure = null;
+        synchronized (this) {
+            try {
+                long written = 0;
+                while (written < size) {
+                    written += this.channel.write(buffers);
+                }
+                this.channel.force(false);
+                this.segmentSize += size;
+            } catch (IOException e) {
+                e.printStackTrace();
+                failure = e;
+                discardTornTail();
+            }
+        }
+        for (PendingRecord pendingRecord : batch) {
+            if (failure == null) pendingRecord.future.complete(null);
+            else pendingRecord.future.completeExceptionally(failure);
+        }
+    }
+
+    //Elimina dal segmento ciò che segue l'ultimo record completo, oppure passa ad un nuovo segmento.
+    private void discardTornTail() {
+        try {
+            this.channel.truncate(this.segmentSize);
+            this.channel.force(false);
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            this.channel.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            openSegment(this.segment + 1);
+            //Il segmento rovinato dovrà essere compattato.
+            this.olderSegments = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Indica se è il momento di compattare il log: il segmento corrente ha superato 'maxSize' byte, oppure
+     * sono passati almeno 'periodMillis' millisecondi dall'ultima compattazione e c'è qualcosa da compattare.
+     *
+     * @param maxSize La dimensione massima del segmento corrente.
+     * @param periodMillis L'intervallo massimo tra due compattazioni.
+     * @return {@code true} se il log dev'essere compattato.
+     */
+    public synchronized boolean needsCompaction(long maxSize, long periodMillis) {
+        if (this.segmentSize == 0 && !this.olderSegments) return false;
+        return this.segmentSize >= maxSize || System.currentTimeMillis() - this.lastCompaction >= periodMillis;
+    }
+
+    /**
+     * Scrive lo snapshot della struttura durante la compattazione.
+     */
+    public interface SnapshotWriter {
+        void writeSnapshot() throws IOException;
+    }
+
+    /**
+     * Compatta il log. Le mutazioni che arrivano durante la compattazione finiscono nel nuovo segmento: possono
+     * essere già contenute nello snapshot, ma i record sono idempotenti, quindi rieseguirli all'avvio è innocuo.
+     *
+     * @param snapshotWriter Scrive lo snapshot della struttura (o le sole partizioni modificate).
+     * @throws IOException In caso di problemi durante la scrittura dello snapshot.
+     */
+    public void compact(SnapshotWriter snapshotWriter) throws IOException {
+        synchronized (this.compactionLock) {
+            long lastCovered;
+            synchronized (this) {
+                lastCovered = this.segment;
+                this.channel.force(false);
+                this.channel.close();
+                openSegment(this.segment + 1);
+                this.lastCompaction = System.currentTimeMillis();
+                this.olderSegments = false;
+            }
+            //Tutto ciò che era nei segmenti fino a 'lastCovered' è già stato applicato alla struttura.
+            snapshotWriter.writeSnapshot();
+            for (long segment : segments()) {
+                if (segment <= lastCovered) Files.deleteIfExists(segmentPath(segment));
+            }
+            if (Server.DEBUG_MODE) System.out.println("Log compattato.");
+        }
+    }
+
+    /**
+     * Chiude il log: si aspetta che il thread di persistenza abbia scritto tutti i record in coda, poi si
+     * forza su disco e si chiude il segmento corrente.
+     *
+     * @throws IOException In caso di problemi con il file.
+     */
+    public void close() throws IOException {
+        synchronized (this.closeLock) {
+            this.closed = true;
+        }
+        try {
+            this.writer.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        //Eventuali record accodati mentre il thread terminava.
+        ArrayList<PendingRecord> remaining = new ArrayList<>();
+        this.pending.drainTo(remaining);
+        if (!remaining.isEmpty()) commit(remaining);
+        synchronized (this) {
+            if (this.channel.isOpen()) {
+                this.channel.force(false);
+                this.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Un record in attesa di essere scritto, con il future di chi ha richiesto la mutazione.
+     */
+    private static class PendingRecord {
+        private final ByteBuffer record;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingRecord(ByteBuffer record) {
+            this.record = record;
+        }
+    }
+
+    private void openSegment(long segment) throws IOException {
+        this.segment = segment;
+        this.channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.segmentSize = this.channel.size();
+    }
+
+    private Path segmentPath(long segment) {
+        return this.directory.resolve(SEGMENT_PREFIX + segment);
+    }
+
+    //I numeri dei segmenti presenti su disco, in ordine crescente.
+    private ArrayList<Long> segments() throws IOException {
+        ArrayList<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, SEGMENT_PREFIX + "*")) {
+            for (Path path : stream) {
+                try {
+                    segments.add(Long.parseLong(path.getFileName().toString().substring(SEGMENT_PREFIX.length())));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * Riesegue sulla struttura i record del segmento, fermandosi al primo record incompleto o corrotto.
+     *
+     * @return Il numero di record applicati.
+     */
+    private int replay(Path path, ConcurrentHashMap<String, User> usersRegister, Consumer<String> touched)
+            throws IOException {
+        int replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] payload;
+                int checksum;
+                byte type;
+                try {
+                    checksum = in.readInt();
+                    type = in.readByte();
+                    //Una lunghezza assurda vuol dire che l'header stesso è rovinato.
+                    if (length < 0 || length > MAX_PAYLOAD_SIZE) throw new EOFException();
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    System.out.println("Log: record incompleto in " + path.getFileName() + ", ignorato.");
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(type);
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    System.out.println("Log: checksum errato in " + path.getFileName() + ", rilettura interrotta.");
+                    break;
+                }
+                apply(type, new DataInputStream(new ByteArrayInputStream(payload)), usersRegister, touched);
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    private static void apply(byte type, DataInputStream payload, ConcurrentHashMap<String, User> usersRegister,
+                              Consumer<String> touched) throws IOException {
+        switch (type) {
+            case REGISTER: {
+                String nickUtente = payload.readUTF();
+                String password = payload.readUTF();
+                usersRegister.putIfAbsent(nickUtente, new User(nickUtente, password));
+                touched.accept(nickUtente);
+                break;
+            }
+            case ADD_FRIEND: {
+                String id = payload.readUTF();
+                String id2 = payload.readUTF();
+                User user = usersRegister.get(id), user2 = usersRegister.get(id2);
+                if (user == null || user2 == null) break;
+                try {
+                    user.addFriend(id2);
+                } catch (AlreadyFriendException ignored) {
+                }
+                try {
+                    user2.addFriend(id);
+                } catch (AlreadyFriendException ignored) {
+                }
+                touched.accept(id);
+                touched.accept(id2);
+                break;
+            }
+            case ADD_POINTS: {
+                String id = payload.readUTF();
+                payload.readInt();
+                int total = payload.readInt();
+                User user = usersRegister.get(id);
+                if (user != null) {
+                    user.restorePoints(total);
+                    touched.accept(id);
+                }
+                break;
+            }
+            default:
+                System.out.println("Log: tipo di record sconosciuto (" + type + "), ignorato.");
+        }
+    }
+}
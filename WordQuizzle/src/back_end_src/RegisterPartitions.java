@@ -0,0 +1,204 @@
+package back_end_src;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * {@link RegisterPartitions} divide lo snapshot di {@link UsersRegister} in N partizioni, in base all'hash del
+ * nickname: ogni partizione è un file nel formato di {@link RegisterSnapshot}. Ogni mutazione segna come "sporca"
+ * la partizione degli utenti coinvolti e, al momento della compattazione del {@link RegisterLog}, vengono riscritte
+ * (in parallelo) solo le partizioni sporche: gli utenti che non sono cambiati non vengono mai riscritti. All'avvio
+ * le partizioni vengono caricate in parallelo.
+ * Gli amici che appartengono ad altre partizioni finiscono tra le stringhe extra della tabella del file, quindi
+ * ogni partizione è autonoma.
+ */
+public class RegisterPartitions {
+
+    private static final String PARTITION_PREFIX = "usersRegister.";
+    private static final String PARTITION_SUFFIX = ".part";
+
+    private final Path directory;
+    private final int partitions;
+
+    //I nickname di ogni partizione, così da non dover scorrere l'intera struttura per riscriverne una.
+    private final List<Set<String>> members;
+    private final AtomicIntegerArray dirty;
+
+    //Le partizioni su disco con indice fuori dal numero attuale (è cambiato 'register_partitions').
+    private final ArrayList<Path> stale = new ArrayList<>();
+
+    public RegisterPartitions(int partitions) {
+        this(Paths.get("./src/back_end_src"), partitions);
+    }
+
+    public RegisterPartitions(Path directory, int partitions) {
+        if (partitions <= 0) throw new IllegalArgumentException();
+        this.directory = directory;
+        this.partitions = partitions;
+        this.members = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) this.members.add(ConcurrentHashMap.newKeySet());
+        this.dirty = new AtomicIntegerArray(partitions);
+    }
+
+    /**
+     * Restituisce la partizione alla quale appartiene l'utente.
+     *
+     * @param nickname L'utente.
+     * @return L'indice della partizione.
+     */
+    public int partitionOf(String nickname) {
+        return (nickname.hashCode() & Integer.MAX_VALUE) % this.partitions;
+    }
+
+    /**
+     * Segna come sporca la partizione dell'utente, che verrà riscritta alla prossima compattazione. Va chiamato
+     * dopo aver modificato la struttura e prima di accodare il record al {@link RegisterLog}: così un record che
+     * finisce in un segmento cancellato dalla compattazione è sicuramente contenuto nella partizione riscritta.
+     *
+     * @param nickname L'utente modificato.
+     */
+    public void markDirty(String nickname) {
+        this.dirty.set(partitionOf(nickname), 1);
+    }
+
+    /**
+     * Registra un nuovo utente nella sua partizione e la segna come sporca.
+     *
+     * @param nickname Il nuovo utente.
+     */
+    public void add(String nickname) {
+        this.members.get(partitionOf(nickname)).add(nickname);
+        markDirty(nickname);
+    }
+
+    /**
+     * Adotta una struttura letta altrove (il vecchio snapshot, unico): tutti gli utenti vengono distribuiti nelle
+     * partizioni e tutte le partizioni vengono segnate come sporche, così che la prima compattazione le scriva.
+     *
+     * @param usersRegister La struttura da adottare.
+     */
+    public void adopt(Map<String, User> usersRegister) {
+        for (String nickname : usersRegister.keySet()) {
+            this.members.get(partitionOf(nickname)).add(nickname);
+        }
+        for (int i = 0; i < this.partitions; i++) this.dirty.set(i, 1);
+    }
+
+    /**
+     * Carica in parallelo tutte le partizioni presenti su disco. Se i file non corrispondono al numero attuale di
+     * partizioni (è stata cambiata la configurazione), gli utenti vengono ridistribuiti e tutte le partizioni
+     * segnate come sporche.
+     *
+     * @return La struttura con tutti gli utenti, {@code null} se non c'è alcuna partizione su disco (in tal caso
+     * tutte le partizioni sono segnate come sporche).
+     * @throws IOException In caso di problemi durante la lettura di una partizione.
+     */
+    public ConcurrentHashMap<String, User> load() throws IOException {
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory,
+                PARTITION_PREFIX + "*" + PARTITION_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    files.put(Integer.parseInt(name.substring(PARTITION_PREFIX.length(),
+                            name.length() - PARTITION_SUFFIX.length())), path);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            /*
+                Un registro nuovo: alla prima compattazione si scrivono tutte le partizioni, anche quelle vuote,
+                altrimenti al prossimo avvio i file sarebbero meno delle partizioni e verrebbero riscritti tutti.
+             */
+            for (int i = 0; i < this.partitions; i++) this.dirty.set(i, 1);
+            return null;
+        }
+
+        ArrayList<Map<String, User>> loaded = inParallel(new ArrayList<>(files.values()), RegisterSnapshot::read);
+        int size = 0;
+        for (Map<String, User> partition : loaded) size += partition.size();
+        ConcurrentHashMap<String, User> usersRegister = new ConcurrentHashMap<>(Math.max(16, size * 4 / 3 + 1));
+        for (Map<String, User> partition : loaded) usersRegister.putAll(partition);
+
+        if (files.size() != this.partitions || files.lastKey() != this.partitions - 1) {
+            if (Server.DEBUG_MODE) System.out.println("Numero di partizioni cambiato, verranno riscritte tutte.");
+            for (Map.Entry<Integer, Path> file : files.entrySet()) {
+                if (file.getKey() >= this.partitions) this.stale.add(file.getValue());
+            }
+            adopt(usersRegister);
+        } else {
+            for (String nickname : usersRegister.keySet()) this.members.get(partitionOf(nickname)).add(nickname);
+        }
+        return usersRegister;
+    }
+
+    /**
+     * Riscrive in parallelo le partizioni sporche. Il flag di ogni partizione viene azzerato prima di leggerne
+     * gli utenti: una mutazione concorrente la risegna come sporca e verrà riscritta alla compattazione successiva.
+     * In caso di errore le partizioni non scritte tornano sporche.
+     *
+     * @param usersRegister La tabella dalla quale prendere gli utenti.
+     * @return Il numero di partizioni riscritte.
+     * @throws IOException In caso di problemi durante la scrittura di una partizione.
+     */
+    public int flush(UserTable usersRegister) throws IOException {
+        ArrayList<Integer> toWrite = new ArrayList<>();
+        for (int i = 0; i < this.partitions; i++) {
+            if (this.dirty.getAndSet(i, 0) == 1) toWrite.add(i);
+        }
+        try {
+            inParallel(toWrite, partition -> {
+                LinkedHashMap<String, User> users = new LinkedHashMap<>();
+                for (String nickname : this.members.get(partition)) {
+                    int id = usersRegister.idOf(nickname);
+                    if (id >= 0) users.put(nickname, usersRegister.toUser(id));
+                }
+                RegisterSnapshot.write(users, partitionPath(partition));
+                return null;
+            });
+        } catch (IOException e) {
+            for (int partition : toWrite) this.dirty.set(partition, 1);
+            throw e;
+        }
+        for (Path path : this.stale) Files.deleteIfExists(path);
+        this.stale.clear();
+        return toWrite.size();
+    }
+
+    private Path partitionPath(int partition) {
+        return this.directory.resolve(PARTITION_PREFIX + partition + PARTITION_SUFFIX);
+    }
+
+    private interface IOTask<T, R> {
+        R run(T input) throws IOException;
+    }
+
+    //Esegue 'task' su ogni elemento, con al più un thread per core; i risultati sono nello stesso ordine.
+    private static <T, R> ArrayList<R> inParallel(List<T> inputs, IOTask<T, R> task) throws IOException {
+        ArrayList<R> results = new ArrayList<>();
+        if (inputs.isEmpty()) return results;
+        int threads = Math.min(inputs.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<R>> futures = new ArrayList<>();
+            for (T input : inputs) futures.add(executor.submit(() -> task.run(input)));
+            for (Future<R> future : futures) results.add(future.get());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return results;
+    }
+}
@@ -0,0 +1,215 @@
+package back_end_src;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * {@link RegisterSnapshot} è il formato binario dello snapshot di {@link UsersRegister}, che sostituisce il JSON
+ * 'pretty-printed' (nel quale ogni utente occupa circa otto righe, tra nomi dei campi, indentazione e virgolette).
+ *
+ * Formato (versione 1), tutti gli interi sono varint:
+ * <pre>
+ *   "WQRS" | versione | numero utenti U | numero di stringhe extra E
+ *   tabella delle stringhe: U + E stringhe [lunghezza][byte UTF-8]; le prime U sono i nickname degli utenti
+ *   per ogni utente i: password [lunghezza][byte UTF-8] | punteggio (zigzag) | numero amici |
+ *                      indici degli amici nella tabella, ordinati e codificati come differenze dal precedente
+ *   CRC32 di tutto quanto precede (int)
+ * </pre>
+ * Le stringhe extra sono gli amici che non compaiono tra gli utenti (non dovrebbe succedere, ma il formato non
+ * perde informazioni rispetto al JSON). Sia la scrittura sia la lettura avvengono in streaming; si noti che la lista
+ * amici viene riletta in ordine di indice e non in ordine di inserimento.
+ */
+public class RegisterSnapshot {
+
+    private static final byte[] MAGIC = {'W', 'Q', 'R', 'S'};
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Scrive lo snapshot della struttura su 'path', passando da un file temporaneo poi rinominato.
+     * Gli {@link User} non devono essere modificati durante la scrittura: {@link RegisterPartitions} passa copie
+     * costruite da {@link UserTable#toUser(int)}, quindi non serve alcuna lock.
+     *
+     * @param usersRegister La struttura da scrivere.
+     * @param path Il file di destinazione.
+     * @throws IOException In caso di problemi durante la scrittura.
+     */
+    public static void write(Map<String, User> usersRegister, Path path) throws IOException {
+        //Si fissa l'ordine degli utenti: l'indice di ognuno è la sua posizione nella tabella delle stringhe.
+        String[] nicknames = usersRegister.keySet().toArray(new String[0]);
+        User[] users = new User[nicknames.length];
+        HashMap<String, Integer> indexes = new HashMap<>(nicknames.length * 2);
+        for (int i = 0; i < nicknames.length; i++) {
+            indexes.put(nicknames[i], i);
+            users[i] = usersRegister.get(nicknames[i]);
+        }
+        /*
+            Prima passata: per ogni utente si fotografano punteggio e amici, traducendo subito gli amici in indici
+            (una sola ricerca nella mappa per amico). Gli amici che non sono utenti finiscono tra le stringhe extra.
+         */
+        ArrayList<String> extra = new ArrayList<>();
+        int[] points = new int[users.length];
+        int[][] friends = new int[users.length][];
+        for (int i = 0; i < users.length; i++) {
+            User user = users[i];
+            //Un utente rimosso durante la scrittura: lo si scrive vuoto, piuttosto che spostare gli indici.
+            if (user == null) {
+                users[i] = new User(nicknames[i], "");
+                friends[i] = new int[0];
+                continue;
+            }
+            points[i] = user.getPoints();
+            ArrayList<String> friendIds = user.getFriends();
+            int[] userFriends = new int[friendIds.size()];
+            for (int f = 0; f < userFriends.length; f++) {
+                String friendId = friendIds.get(f);
+                Integer index = indexes.get(friendId);
+                if (index == null) {
+                    index = nicknames.length + extra.size();
+                    indexes.put(friendId, index);
+                    extra.add(friendId);
+                }
+                userFriends[f] = index;
+            }
+            Arrays.sort(userFriends);
+            friends[i] = userFriends;
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, BUFFER_SIZE));
+            out.write(MAGIC);
+            writeVarInt(out, VERSION);
+            writeVarInt(out, nicknames.length);
+            writeVarInt(out, extra.size());
+            for (String nickname : nicknames) writeString(out, nickname);
+            for (String string : extra) writeString(out, string);
+            for (int i = 0; i < users.length; i++) {
+                writeString(out, users[i].getPassword());
+                writeVarInt(out, (points[i] << 1) ^ (points[i] >> 31));
+                writeVarInt(out, friends[i].length);
+                int previous = 0;
+                for (int friend : friends[i]) {
+                    writeVarInt(out, friend - previous);
+                    previous = friend;
+                }
+            }
+            out.flush();
+            //Il checksum non è incluso in sè stesso: si scrive direttamente sul file.
+            new DataOutputStream(file).writeInt((int) checked.getChecksum().getValue());
+            file.getChannel().force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Legge lo snapshot da 'path'.
+     *
+     * @param path Il file da leggere.
+     * @return La struttura con tutti gli utenti.
+     * @throws IOException In caso di problemi durante la lettura, di formato o versione sconosciuti o di checksum
+     *                     errato ({@link java.nio.file.NoSuchFileException} se il file non esiste).
+     */
+    public static ConcurrentHashMap<String, User> read(Path path) throws IOException {
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+            CheckedInputStream checked = new CheckedInputStream(file, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("Non è uno snapshot di WordQuizzle: " + path);
+            int version = readVarInt(in);
+            if (version != VERSION) throw new IOException("Versione dello snapshot non supportata: " + version);
+            int usersCount = readVarInt(in);
+            int extraCount = readVarInt(in);
+            String[] strings = new String[usersCount + extraCount];
+            for (int i = 0; i < strings.length; i++) strings[i] = readString(in);
+
+            ConcurrentHashMap<String, User> usersRegister = new ConcurrentHashMap<>(Math.max(16, usersCount * 4 / 3 + 1));
+            for (int i = 0; i < usersCount; i++) {
+                String password = readString(in);
+                int zigzag = readVarInt(in);
+                int points = (zigzag >>> 1) ^ -(zigzag & 1);
+                int friendsCount = readVarInt(in);
+                ArrayList<String> friends = new ArrayList<>(friendsCount);
+                int friend = 0;
+                for (int f = 0; f < friendsCount; f++) {
+                    friend += readVarInt(in);
+                    friends.add(strings[friend]);
+                }
+                usersRegister.put(strings[i], new User(strings[i], password, points, friends));
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (new DataInputStream(file).readInt() != expected) throw new IOException("Snapshot corrotto: " + path);
+            return usersRegister;
+        }
+    }
+
+    /**
+     * Converte lo snapshot JSON 'json' nel formato binario, scrivendolo su 'binary'.
+     *
+     * @param json Lo snapshot JSON.
+     * @param binary Il file binario da scrivere.
+     * @return Il numero di utenti convertiti.
+     * @throws IOException In caso di problemi durante la lettura o la scrittura.
+     */
+    public static int convertFromJson(Path json, Path binary) throws IOException {
+        ConcurrentHashMap<String, User> usersRegister = RegisterLoader.load(json, Runtime.getRuntime().availableProcessors());
+        write(usersRegister, binary);
+        return usersRegister.size();
+    }
+
+    /**
+     * Converte a mano uno snapshot JSON. Utilizzo: RegisterSnapshot [file.json] [file.bin]; senza argomenti
+     * converte usersRegister.json nello snapshot binario del {@link Server}.
+     *
+     * @param args I file sorgente e destinazione.
+     * @throws IOException In caso di problemi durante la conversione.
+     */
+    public static void main(String[] args) throws IOException {
+        Path json = Paths.get(args.length > 0 ? args[0] : ServerUtilities.JSON_SNAPSHOT_PATH);
+        Path binary = Paths.get(args.length > 1 ? args[1] : ServerUtilities.BINARY_SNAPSHOT_PATH);
+        int converted = convertFromJson(json, binary);
+        System.out.println("Convertiti " + converted + " utenti: " + json + " -> " + binary);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Varint non valido.");
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string == null ? new byte[0] : string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
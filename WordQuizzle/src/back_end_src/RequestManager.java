@@ -1,7 +1,7 @@
 package back_end_src;
 
-import back_end_src.gui.UDPSender;
-import common_src.CommonUtilities;
+import common_src.Handshake;
+import common_src.PushFrame;
 
 import java.io.IOException;
 import java.net.*;
@@ -9,6 +9,7 @@ import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * {@link RequestManager} ha il compito inoltrare la richiesta di un utente al destinatario designato.
@@ -19,6 +20,9 @@ public class RequestManager implements Runnable {
     //Il flag condiviso con APIFetcher per la notifica di errori durante le richieste HTTP.
     static volatile boolean API_ERROR = false;
 
+    //Gli id delle sfide, che distinguono i messaggi dell'handshake di sfide diverse.
+    private static final AtomicLong CHALLENGE_IDS = new AtomicLong();
+
     private final String idA;
     private final SocketChannel TCPSocketA;
     private final String idB;
@@ -67,44 +71,40 @@ public class RequestManager implements Runnable {
     public void run() {
         try {
 
-            //Inoltro della richiesta di sfida.
+            /*
+                Inoltro della richiesta di sfida, come notifica sulla connessione TCP del destinatario. La notifica
+                indica l'indirizzo della socket UDP, dedicata a questa richiesta, alla quale rispondere e l'id della
+                sfida, che il client riporta in ogni messaggio dell'handshake.
+             */
             this.serverUDPSocket = new DatagramSocket();
             InetAddress clientAddress = InetAddress.getByName(this.addressInfo[0]);
             int clientPort = Integer.parseInt(this.addressInfo[1]);
-            String message = "add " + this.idA;
-            byte[] messageBytes = message.getBytes();
-            DatagramPacket sendPacket = new DatagramPacket(messageBytes, messageBytes.length, clientAddress, clientPort);
-            this.serverUDPSocket.send(sendPacket);
-
-            /*
-                Si mette in attesa, con timeout, della richiesta di accettazione.
-             */
-
-            byte[] responseBytes = new byte["accepted".getBytes().length];
-            DatagramPacket receivePacket = new DatagramPacket(responseBytes, responseBytes.length);
-
-            this.serverUDPSocket.setSoTimeout(Server.requestTimeExpire * 1000);
-            this.serverUDPSocket.receive(receivePacket);
+            String challengeId = String.valueOf(CHALLENGE_IDS.incrementAndGet());
+            String serverHost = ((InetSocketAddress) this.TCPSocketB.getLocalAddress()).getAddress().getHostAddress();
+            Connection.of(this.TCPSocketB).push(PushFrame.INVITATION, this.idA, serverHost,
+                    String.valueOf(this.serverUDPSocket.getLocalPort()), challengeId);
 
             /*
-                Invio dell'ulteriore ACK per confermare la validità della sfida all'utente
-                destinatario, il quale ha accettato. Per ulteriori informazioni leggere la relazione o la
+                Si mette in attesa, con timeout, della richiesta di accettazione. Ricevuta questa, si invia
+                l'ulteriore ACK ('starting') per confermare la validità della sfida all'utente destinatario, e lo si
+                ritrasmette finché questo non conferma. Per ulteriori informazioni leggere la classe Handshake o la
                 classe Client.
              */
-            message = "starting " + this.idA;
-            messageBytes = message.getBytes();
-            sendPacket = new DatagramPacket(messageBytes, messageBytes.length, clientAddress, clientPort);
-            this.serverUDPSocket.send(sendPacket);
+            InetSocketAddress client = new InetSocketAddress(clientAddress, clientPort);
+            if (!Handshake.awaitAcceptance(this.serverUDPSocket, challengeId, Server.requestTimeExpire * 1000L,
+                    () -> Server.udpDispatcher.dispatch(client, Handshake.starting(this.idA, challengeId)))) {
+                throw new SocketTimeoutException();
+            }
 
             /*
                 Recupero delle traduzioni dal Server
              */
             ExecutorService executorService = Executors.newFixedThreadPool(Server.numberOfWords);
-            //Scelto 'numberOfWords' parole casuali dal dizionario
-            int[] numbers = ServerUtilities.generateRandomNumbers(Server.numberOfWords, 0, Server.dictionary.size());
+            //Scelgo 'numberOfWords' parole dal dizionario, evitando quelle giocate di recente dai due utenti.
+            int[] numbers = Server.wordSelector.selectWords(Server.numberOfWords, this.idA, this.idB);
             String[] italianWords = new String[Server.numberOfWords];
             for (int i = 0; i < Server.numberOfWords; i++) {
-                italianWords[i] = Server.dictionary.get(numbers[i]);
+                italianWords[i] = Server.wordSelector.wordAt(numbers[i]);
             }
             //Lancio i vari APIFetcher
             ArrayList<ArrayList<String>> englishWords = new ArrayList<>();
@@ -131,14 +131,14 @@ public class RequestManager implements Runnable {
             if (API_ERROR) {
                 if (Server.DEBUG_MODE) apiError();
                 try {
-                    CommonUtilities.writeIntoSocket("Siamo spiacenti, il servizio di traduzione non è al " +
-                            "momento disponibile. Riprovare più tardi.", this.TCPSocketA);
+                    Connection.of(this.TCPSocketA).send("Siamo spiacenti, il servizio di traduzione non è al " +
+                            "momento disponibile. Riprovare più tardi.");
                 } catch (IOException e) {
                     if (Server.DEBUG_MODE) quitError(this.idA);
                 }
                 try {
-                    CommonUtilities.writeIntoSocket("Siamo spiacenti, il servizio di traduzione non è al " +
-                            "momento disponibile. Riprovare più tardi.", this.TCPSocketB);
+                    Connection.of(this.TCPSocketB).send("Siamo spiacenti, il servizio di traduzione non è al " +
+                            "momento disponibile. Riprovare più tardi.");
                 } catch (IOException e) {
                     if (Server.DEBUG_MODE) quitError(this.idB);
                 }
@@ -154,7 +154,7 @@ public class RequestManager implements Runnable {
              */
             executorService = Executors.newSingleThreadExecutor();
             MatchManager matchManager = new MatchManager(this.idA, this.idB, this.TCPSocketA, this.TCPSocketB,
-                    italianWords, englishWords);
+                    italianWords, numbers, englishWords);
             /*
                 Il modo in cui è stato implementato il timeout della sfida.
              */
@@ -166,13 +166,8 @@ public class RequestManager implements Runnable {
                     System.out.println("MATCH [" + this.idA + " | " + this.idB + "] --> tempo della sfida scaduto.");
                 matchManager.timeout();
                 if (Server.GUI_MODE) {
-
-                    UDPSender sender1 = new UDPSender(ServerUtilities.tokenizeAddress(this.TCPSocketA), this.idA, "timeout");
-                    UDPSender sender2 = new UDPSender(ServerUtilities.tokenizeAddress(this.TCPSocketB), this.idB, "timeout");
-                    ExecutorService  sendersService = Executors.newFixedThreadPool(2);
-                    sendersService.execute(sender1);
-                    sendersService.execute(sender2);
-                    sendersService.shutdown();
+                    Connection.of(this.TCPSocketA).push(PushFrame.TIMEOUT, this.idA);
+                    Connection.of(this.TCPSocketB).push(PushFrame.TIMEOUT, this.idB);
                 }
             }
             executorService.shutdown();
@@ -182,22 +177,22 @@ public class RequestManager implements Runnable {
             /*
                 Se l'utente destinatario della richiesta non accetta la sfida, scadrà il timeout
                 della socket UDP, e ci troveremo in questo pezzo di codice. Notifichiamo l'utente mittente
-                che la sfida non è stata accettata ed indichiamo all'UDPReceiver del destinatario l'avvento
+                che la sfida non è stata accettata ed indichiamo al destinatario (con una notifica) l'avvento
                 del timeout.
              */
             if (Server.DEBUG_MODE)
                 System.out.println("MATCH [" + this.idA + " | " + this.idB + "] --> tempo della richiesta scaduto.");
-            String message = "remove " + this.idA;
-            byte[] messageBytes = message.getBytes();
+            Connection.of(this.TCPSocketB).push(PushFrame.EXPIRED, this.idA);
             try {
-                DatagramPacket sendPacket = new DatagramPacket(messageBytes, messageBytes.length, InetAddress.getByName(this.addressInfo[0]), Integer.parseInt(this.addressInfo[1]));
-                serverUDPSocket.send(sendPacket);
-                CommonUtilities.writeIntoSocket("La richiesta non è stata accettata.", this.TCPSocketA);
+                Connection.of(this.TCPSocketA).send("La richiesta non è stata accettata.");
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
         } catch (IOException | ExecutionException | InterruptedException e) {
             e.printStackTrace();
+        } finally {
+            //La socket serve solo a ricevere l'accettazione della richiesta.
+            if (this.serverUDPSocket != null) this.serverUDPSocket.close();
         }
     }
 
@@ -0,0 +1,122 @@
+package back_end_src;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * {@link ResponseCache} tiene, per ogni utente, l'ultima risposta già codificata (i byte da scrivere sulla socket) di
+ * 'lista_amici' e di 'mostra_classifica', insieme alla versione dei dati con la quale è stata costruita: la
+ * lunghezza della lista amici ({@link UserTable#friendsVersionOf(int)}) e la versione della classifica
+ * ({@link FriendRankings#versionOf(int)}). Finché la versione non cambia, la stessa richiesta viene servita dai byte
+ * in cache, senza passare da Gson.
+ * Per ogni tipo di risposta si tengono fino a CACHED_ARGUMENTS risposte con argomenti diversi (ad esempio le pagine
+ * di 'mostra_classifica K P'), dalla più recente: un client che sfoglia alcune pagine avanti e indietro le trova
+ * tutte in cache finché i dati non cambiano. Le risposte di una versione precedente vengono scartate alla prima
+ * risposta della nuova.
+ * Si contano le richieste servite dalla cache e i byte che non è stato necessario ricodificare.
+ */
+public class ResponseCache {
+
+    /**
+     * Le risposte che vengono messe in cache.
+     */
+    public enum Kind {
+        LISTA_AMICI, MOSTRA_CLASSIFICA
+    }
+
+    //Quante risposte con argomenti diversi tenere per ogni utente e tipo di risposta.
+    private static final int CACHED_ARGUMENTS = 4;
+
+    private final ConcurrentHashMap<Integer, Entry[]> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * Restituisce la risposta in cache per l'utente, se è stata costruita con la stessa versione e gli stessi
+     * argomenti; altrimenti la costruisce con 'encoder' e la mette in cache.
+     *
+     * @param id L'id dell'utente.
+     * @param kind Il tipo di risposta.
+     * @param version La versione attuale dei dati, letta prima di costruire la risposta.
+     * @param arguments Gli argomenti della richiesta (ad esempio la pagina di classifica).
+     * @param encoder Costruisce e codifica la risposta.
+     * @return La risposta codificata.
+     */
+    public byte[] get(int id, Kind kind, long version, long arguments, Supplier<byte[]> encoder) {
+        Entry[] user = this.entries.computeIfAbsent(id, ignored -> new Entry[Kind.values().length]);
+        Entry first = user[kind.ordinal()];
+        for (Entry entry = first; entry != null; entry = entry.next) {
+            if (entry.version == version && entry.arguments == arguments) {
+                this.hits.increment();
+                this.bytesSaved.add(entry.bytes.length);
+                return entry.bytes;
+            }
+        }
+        this.misses.increment();
+        byte[] bytes = encoder.get();
+        user[kind.ordinal()] = new Entry(version, arguments, bytes, others(first, version, CACHED_ARGUMENTS - 1));
+        return bytes;
+    }
+
+    /**
+     * Rimuove le risposte in cache dell'utente (che ha fatto logout o è uscito).
+     *
+     * @param id L'id dell'utente.
+     */
+    public void release(int id) {
+        this.entries.remove(id);
+    }
+
+    /**
+     * Restituisce la percentuale di richieste servite dalla cache.
+     *
+     * @return Il rapporto tra richieste servite dalla cache e richieste totali, tra 0 e 1.
+     */
+    public double hitRatio() {
+        long hits = this.hits.sum(), total = hits + this.misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Restituisce il numero di byte serviti dalla cache, che non è stato necessario ricodificare.
+     *
+     * @return I byte risparmiati.
+     */
+    public long bytesSaved() {
+        return this.bytesSaved.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResponseCache{hit=%d, miss=%d, hitRatio=%.2f, bytesSaved=%d}", this.hits.sum(),
+                this.misses.sum(), hitRatio(), bytesSaved());
+    }
+
+    //Le prime 'limit' risposte della lista ancora della versione 'version' (le altre non servono più), copiate.
+    private static Entry others(Entry entry, long version, int limit) {
+        while (entry != null && entry.version != version) entry = entry.next;
+        if (entry == null || limit == 0) return null;
+        return new Entry(entry.version, entry.arguments, entry.bytes, others(entry.next, version, limit - 1));
+    }
+
+    /*
+        Una risposta in cache, con la successiva (meno recente) dello stesso utente e tipo: immutabile, così che la
+        lista venga pubblicata per intero anche senza sincronizzazione.
+     */
+    private static final class Entry {
+        private final long version;
+        private final long arguments;
+        private final byte[] bytes;
+        private final Entry next;
+
+        Entry(long version, long arguments, byte[] bytes, Entry next) {
+            this.version = version;
+            this.arguments = arguments;
+            this.bytes = bytes;
+            this.next = next;
+        }
+    }
+}
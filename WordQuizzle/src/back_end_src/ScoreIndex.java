@@ -0,0 +1,289 @@
+package back_end_src;
+
+import common_src.RankEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * {@link ScoreIndex} è l'indice della classifica globale. Gli utenti sono divisi in bucket, uno per ogni punteggio,
+ * e un Fenwick tree sulle dimensioni dei bucket permette di contare in O(log n) quanti utenti hanno un punteggio
+ * maggiore (o minore) di un certo valore, e di trovare quale bucket contiene l'utente in k-esima posizione.
+ * Dentro un bucket gli id sono ordinati, così che l'ordine della classifica (punteggio decrescente, poi id
+ * crescente) sia sempre lo stesso.
+ * L'indice viene aggiornato incrementalmente ad ogni variazione di punteggio: non si ordina mai l'intera
+ * struttura. L'intervallo di punteggi coperto dai bucket viene allargato (raddoppiandolo) quando serve.
+ *
+ * I punteggi indicizzati sono di default quelli totali di {@link UserTable}, ma possono venire da qualsiasi sorgente
+ * (si veda {@link WindowedLeaderboards}).
+ *
+ * Tutti i metodi sono sincronizzati sull'indice. {@link #update(int)} legge il punteggio dalla sorgente
+ * sotto la lock, dopo che l'incremento è già stato applicato: anche se due aggiornamenti dello stesso utente
+ * arrivano in ordine inverso, l'ultimo ad entrare legge il totale più recente.
+ */
+public class ScoreIndex {
+
+    private static final int ABSENT = Integer.MIN_VALUE;
+    //L'intervallo di punteggi coperto inizialmente, e il margine aggiunto ai lati quando lo si allarga.
+    private static final int MIN_RANGE = 1024;
+
+    private final UserTable table;
+    //Da dove leggere il punteggio di un utente.
+    private final IntUnaryOperator source;
+
+    //Il punteggio del bucket 0.
+    private int base;
+    //Il Fenwick tree (indici a partire da 1) sulle dimensioni dei bucket.
+    private int[] tree;
+    private int[][] buckets;
+    private int[] bucketSizes;
+
+    //Il punteggio con il quale ogni utente è indicizzato, ABSENT se non lo è ancora.
+    private int[] scores = new int[0];
+    private int size;
+
+    public ScoreIndex(UserTable table) {
+        this(table, table::pointsOf);
+    }
+
+    public ScoreIndex(UserTable table, IntUnaryOperator source) {
+        this.table = table;
+        this.source = source;
+        this.base = -MIN_RANGE / 2;
+        this.buckets = new int[MIN_RANGE][];
+        this.bucketSizes = new int[MIN_RANGE];
+        this.tree = new int[MIN_RANGE + 1];
+    }
+
+    /**
+     * Costruisce l'indice dei punteggi totali di tutti gli utenti della tabella, in tempo lineare.
+     *
+     * @param table La tabella degli utenti.
+     * @return L'indice.
+     */
+    public static ScoreIndex of(UserTable table) {
+        return of(table, table::pointsOf);
+    }
+
+    /**
+     * Costruisce l'indice di tutti gli utenti della tabella, con i punteggi letti da 'source', in tempo lineare.
+     *
+     * @param table La tabella degli utenti.
+     * @param source Il punteggio di ogni utente, dato il suo id.
+     * @return L'indice.
+     */
+    public static ScoreIndex of(UserTable table, IntUnaryOperator source) {
+        ScoreIndex index = new ScoreIndex(table, source);
+        int users = table.size();
+        if (users == 0) return index;
+        int[] points = new int[users];
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int id = 0; id < users; id++) {
+            points[id] = source.applyAsInt(id);
+            min = Math.min(min, points[id]);
+            max = Math.max(max, points[id]);
+        }
+        index.cover(min, max);
+        //Gli id sono visitati in ordine crescente, quindi ogni bucket resta ordinato aggiungendo in coda.
+        for (int id = 0; id < users; id++) index.append(points[id] - index.base, id);
+        index.scores = points;
+        index.size = users;
+        index.rebuildTree();
+        return index;
+    }
+
+    /**
+     * Aggiorna la posizione dell'utente 'id', leggendone il punteggio attuale: va chiamato dopo ogni variazione
+     * di punteggio e dopo la registrazione di un nuovo utente.
+     *
+     * @param id L'id dell'utente.
+     */
+    public synchronized void update(int id) {
+        int points = this.source.applyAsInt(id);
+        if (id >= this.scores.length) {
+            int oldLength = this.scores.length;
+            this.scores = Arrays.copyOf(this.scores, Math.max(16, Math.max(id + 1, oldLength * 2)));
+            Arrays.fill(this.scores, oldLength, this.scores.length, ABSENT);
+        }
+        int old = this.scores[id];
+        if (old == points) return;
+        if (old == ABSENT) {
+            this.size++;
+        } else {
+            remove(old - this.base, id);
+        }
+        cover(points, points);
+        insert(points - this.base, id);
+        this.scores[id] = points;
+    }
+
+    /**
+     * Restituisce il numero di utenti in classifica.
+     *
+     * @return Il numero di utenti.
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Restituisce la posizione in classifica dell'utente: 1 più il numero di utenti con un punteggio maggiore.
+     *
+     * @param id L'id dell'utente.
+     * @return La posizione, -1 se l'utente non è in classifica.
+     */
+    public synchronized int rankOf(int id) {
+        if (id < 0 || id >= this.scores.length || this.scores[id] == ABSENT) return -1;
+        return above(this.scores[id] - this.base) + 1;
+    }
+
+    /**
+     * Restituisce la percentuale di utenti con un punteggio strettamente minore di quello di 'id'.
+     *
+     * @param id L'id dell'utente.
+     * @return Il percentile, tra 0 e 100; -1 se l'utente non è in classifica.
+     */
+    public synchronized double percentileOf(int id) {
+        if (id < 0 || id >= this.scores.length || this.scores[id] == ABSENT) return -1;
+        int bucket = this.scores[id] - this.base;
+        return 100.0 * (bucket == 0 ? 0 : prefix(bucket - 1)) / this.size;
+    }
+
+    /**
+     * Restituisce i primi 'count' utenti della classifica.
+     *
+     * @param count Il numero di utenti.
+     * @return Le righe della classifica.
+     */
+    public synchronized ArrayList<RankEntry> top(int count) {
+        return page(0, count);
+    }
+
+    /**
+     * Restituisce la porzione di classifica intorno all'utente: 'radius' utenti prima e 'radius' dopo di lui.
+     *
+     * @param id L'id dell'utente.
+     * @param radius Il numero di utenti da mostrare da ogni lato.
+     * @return Le righe della classifica, vuota se l'utente non è in classifica.
+     */
+    public synchronized ArrayList<RankEntry> around(int id, int radius) {
+        if (id < 0 || id >= this.scores.length || this.scores[id] == ABSENT) return new ArrayList<>();
+        int bucket = this.scores[id] - this.base;
+        int position = above(bucket) + Arrays.binarySearch(this.buckets[bucket], 0, this.bucketSizes[bucket], id);
+        int from = Math.max(0, position - radius);
+        return page(from, position + radius + 1 - from);
+    }
+
+    //Le righe dalla posizione 'from' (a partire da 0) per 'count' utenti.
+    private ArrayList<RankEntry> page(int from, int count) {
+        int end = (int) Math.min(this.size, (long) from + Math.max(0, count));
+        ArrayList<RankEntry> entries = new ArrayList<>(Math.max(0, end - from));
+        int position = from;
+        while (position < end) {
+            //Il bucket che contiene la posizione: un'unica ricerca nel Fenwick tree per ogni punteggio visitato.
+            int bucket = bucketAt(this.size - 1 - position);
+            int above = above(bucket);
+            for (int i = position - above; i < this.bucketSizes[bucket] && position < end; i++, position++) {
+                int id = this.buckets[bucket][i];
+                entries.add(new RankEntry(above + 1, this.table.nameOf(id), this.base + bucket));
+            }
+        }
+        return entries;
+    }
+
+    //Quanti utenti hanno un punteggio maggiore di quello del bucket.
+    private int above(int bucket) {
+        return this.size - prefix(bucket);
+    }
+
+    //Quanti utenti stanno nei bucket da 0 a 'bucket' compreso.
+    private int prefix(int bucket) {
+        int sum = 0;
+        for (int i = bucket + 1; i > 0; i -= i & -i) sum += this.tree[i];
+        return sum;
+    }
+
+    //Il primo bucket per il quale prefix(bucket) > position, cioè quello che contiene la position-esima posizione
+    //in ordine crescente di punteggio.
+    private int bucketAt(int position) {
+        int bucket = 0;
+        for (int step = Integer.highestOneBit(this.tree.length - 1); step > 0; step >>= 1) {
+            if (bucket + step < this.tree.length && this.tree[bucket + step] <= position) {
+                bucket += step;
+                position -= this.tree[bucket];
+            }
+        }
+        return bucket;
+    }
+
+    private void add(int bucket, int delta) {
+        for (int i = bucket + 1; i < this.tree.length; i += i & -i) this.tree[i] += delta;
+    }
+
+    private void insert(int bucket, int id) {
+        int[] ids = this.buckets[bucket];
+        int size = this.bucketSizes[bucket];
+        if (ids == null || ids.length == size) {
+            ids = this.buckets[bucket] = ids == null ? new int[4] : Arrays.copyOf(ids, size * 2);
+        }
+        int position = -Arrays.binarySearch(ids, 0, size, id) - 1;
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        ids[position] = id;
+        this.bucketSizes[bucket] = size + 1;
+        add(bucket, 1);
+    }
+
+    private void append(int bucket, int id) {
+        int[] ids = this.buckets[bucket];
+        int size = this.bucketSizes[bucket];
+        if (ids == null || ids.length == size) {
+            ids = this.buckets[bucket] = ids == null ? new int[4] : Arrays.copyOf(ids, size * 2);
+        }
+        ids[size] = id;
+        this.bucketSizes[bucket] = size + 1;
+    }
+
+    private void remove(int bucket, int id) {
+        int[] ids = this.buckets[bucket];
+        int size = this.bucketSizes[bucket];
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        this.bucketSizes[bucket] = size - 1;
+        //Un bucket svuotato non occupa memoria.
+        if (size == 1) this.buckets[bucket] = null;
+        add(bucket, -1);
+    }
+
+    //Allarga (se serve) l'intervallo dei bucket così che comprenda i punteggi da 'min' a 'max'.
+    private void cover(int min, int max) {
+        int top = this.base + this.buckets.length - 1;
+        if (min >= this.base && max <= top) return;
+        long newBase = Math.min(this.base, (long) min - MIN_RANGE);
+        long newTop = Math.max(top, (long) max + MIN_RANGE);
+        long range = Long.highestOneBit(newTop - newBase) << 1;
+        //Si raddoppia almeno, così che le estensioni successive costino O(1) ammortizzato.
+        range = Math.max(range, this.buckets.length * 2L);
+        if (range > 1 << 30) throw new IllegalStateException("Intervallo di punteggi troppo ampio");
+        int shift = (int) (this.base - newBase);
+        int[][] buckets = new int[(int) range][];
+        int[] bucketSizes = new int[(int) range];
+        System.arraycopy(this.buckets, 0, buckets, shift, this.buckets.length);
+        System.arraycopy(this.bucketSizes, 0, bucketSizes, shift, this.bucketSizes.length);
+        this.base = (int) newBase;
+        this.buckets = buckets;
+        this.bucketSizes = bucketSizes;
+        this.tree = new int[(int) range + 1];
+        rebuildTree();
+    }
+
+    //Costruisce il Fenwick tree dalle dimensioni dei bucket, in tempo lineare.
+    private void rebuildTree() {
+        Arrays.fill(this.tree, 0);
+        for (int i = 1; i < this.tree.length; i++) {
+            this.tree[i] += this.bucketSizes[i - 1];
+            int parent = i + (i & -i);
+            if (parent < this.tree.length) this.tree[parent] += this.tree[i];
+        }
+    }
+}
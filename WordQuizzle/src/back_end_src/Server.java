@@ -1,8 +1,10 @@
 package back_end_src;
 
 import back_end_src.exceptions.AlreadyFriendException;
-import back_end_src.gui.UDPSender;
 import com.google.gson.*;
+import common_src.JsonCodec;
+import common_src.PushFrame;
+import common_src.RequestFrame;
 import common_src.UsersRegisterInterface;
 
 import java.io.IOException;
@@ -15,14 +17,21 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Il {@link Server} WordQuizzle. Implementa il cuore della comunicazione con i {@link front_end_src.Client}.
  * Di base ciò che fa è: riceve il comando -> esegue ciò che bisogna eseguire -> comunica il risponso al
  * {@link front_end_src.Client}.
+ * Un client può inviare più comandi senza attendere le risposte (al più 'max_in_flight'); quelli con l'id di
+ * correlazione ({@link RequestFrame}) possono ricevere le risposte fuori ordine, e i più lenti vengono eseguiti da
+ * 'command_threads' thread dedicati, così che i comandi veloci non restino in coda dietro di loro.
  */
 public class Server {
 
@@ -44,20 +53,56 @@ public class Server {
     static int correctTranslationIncrement;
     static int matchDuration;
     static ArrayList<String> dictionary;
+    static WordSelector wordSelector;
+    static WordAnalytics wordAnalytics;
+    static int recentWordsMemory;
+    static int analyticsSavePeriod;
+    static int walCompactionPeriod;
+    static long walMaxSize;
+    static long walCommitWindow;
+    static int registerPartitions;
+    //Se alla chiusura del server va scritta anche una copia leggibile (JSON) della struttura degli utenti.
+    static boolean jsonExport;
+    static int leaderboardMaxEntries;
+    static LocalDate seasonStart;
+    static int seasonDays;
+    static int chunkRows;
+    static int udpQueueCapacity;
+    static long udpMergeWindow;
+    static UDPDispatcher udpDispatcher;
 
     static int tcpPort;
     static int rmiPort;
 
     static int maxCommandLength;
+    static int maxInFlight;
+    static int commandThreads;
+    //I thread ai quali il selettore affida i comandi lenti con l'id di correlazione.
+    static ExecutorService commandPool;
+
+    //I comandi che il selettore affida a 'commandPool', se hanno l'id di correlazione.
+    private static final Set<String> SLOW_COMMANDS = new HashSet<>(Arrays.asList("lista_amici", "mostra_classifica",
+            "aggiornamenti_amici", "aggiornamenti_classifica", "classifica_globale"));
+
+    /*
+        Per ogni utente, i comandi affidati a 'commandPool' e non ancora finiti, e gli utenti usciti mentre ne avevano:
+        la loro classifica viene rilasciata solo alla fine dell'ultimo comando, che altrimenti la ricostruirebbe (e
+        riempirebbe la cache delle risposte) per un utente non più online. Sono protetti dalla lock di 'OFFLOADED'.
+     */
+    private static final HashMap<String, Integer> OFFLOADED = new HashMap<>();
+    private static final Set<String> RELEASE_PENDING = new HashSet<>();
 
     static final ArrayList<String> inGameUsers = new ArrayList<>();
 
+    //Ogni quanti secondi controllare se il log di UsersRegister va compattato.
+    private static final int WAL_CHECK_PERIOD = 10;
+
+    //Il thread che si occupa dei lavori periodici di manutenzione del server.
+    static final ScheduledExecutorService maintenanceService = Executors.newSingleThreadScheduledExecutor();
+
     @SuppressWarnings({"InfiniteLoopStatement"})
     public static void main(String[] args) {
         try {
-            //Viene recuperata l'istanza unica di 'UsersRegister' e se ne stampa il contenuto.
-            UsersRegister usersRegister = UsersRegister.getInstance();
-            usersRegister.printRegister();
             HashMap<String, SocketChannel> onlineUsers = new HashMap<>();
             ThreadPoolExecutor requestsPool = (ThreadPoolExecutor) Executors.newCachedThreadPool();
 
@@ -75,6 +120,21 @@ public class Server {
             winPointsIncrement = Integer.parseInt(properties.getProperty("win_points_increment"));
             correctTranslationIncrement = Integer.parseInt(properties.getProperty("correct_translation_increment"));
             matchDuration = Integer.parseInt(properties.getProperty("match_duration"));
+            recentWordsMemory = Integer.parseInt(properties.getProperty("recent_words_memory"));
+            analyticsSavePeriod = Integer.parseInt(properties.getProperty("analytics_save_period"));
+            walCompactionPeriod = Integer.parseInt(properties.getProperty("wal_compaction_period"));
+            walMaxSize = Long.parseLong(properties.getProperty("wal_max_size"));
+            walCommitWindow = Long.parseLong(properties.getProperty("wal_commit_window"));
+            registerPartitions = Integer.parseInt(properties.getProperty("register_partitions"));
+            jsonExport = Boolean.parseBoolean(properties.getProperty("json_export"));
+            leaderboardMaxEntries = Integer.parseInt(properties.getProperty("leaderboard_max_entries"));
+            seasonStart = LocalDate.parse(properties.getProperty("season_start"));
+            seasonDays = Integer.parseInt(properties.getProperty("season_days"));
+            chunkRows = Integer.parseInt(properties.getProperty("chunk_rows"));
+            udpQueueCapacity = Integer.parseInt(properties.getProperty("udp_queue_capacity"));
+            udpMergeWindow = Long.parseLong(properties.getProperty("udp_merge_window"));
+            maxInFlight = Integer.parseInt(properties.getProperty("max_in_flight"));
+            commandThreads = Integer.parseInt(properties.getProperty("command_threads"));
 
             fileChannel.close();
 
@@ -91,10 +151,60 @@ public class Server {
 
             properties.clear();
 
+            /*
+                Viene recuperata l'istanza unica di 'UsersRegister' e se ne stampa il contenuto. Dev'essere fatto
+                dopo la lettura della configurazione, poichè il log della struttura ha bisogno della finestra di commit.
+             */
+            UsersRegister usersRegister = UsersRegister.getInstance();
+            usersRegister.printRegister();
+
             //Viene creato il dizionario delle parole, lette dal file 'dictionary.txt'.
             dictionary = ServerUtilities.readingDictionary();
+            //Il dizionario viene indicizzato, così che le parole di ogni sfida possano essere scelte in O(numberOfWords).
+            wordSelector = new WordSelector(dictionary, recentWordsMemory);
+            /*
+                Le statistiche delle risposte vengono ricaricate dal file e salvate periodicamente. Ad ogni
+                salvataggio si ricalcolano anche le fasce di difficoltà delle parole.
+             */
+            wordAnalytics = new WordAnalytics(wordSelector);
+            wordAnalytics.load(wordSelector);
+            wordSelector.rebuildTiers(wordAnalytics);
+            maintenanceService.scheduleAtFixedRate(Server::saveAnalytics,
+                    analyticsSavePeriod, analyticsSavePeriod, TimeUnit.SECONDS);
+            //Con lo stesso periodo si salvano le classifiche a finestra temporale.
+            maintenanceService.scheduleAtFixedRate(usersRegister::saveLeaderboards,
+                    analyticsSavePeriod, analyticsSavePeriod, TimeUnit.SECONDS);
+            //In debug si stampano anche le statistiche della cache delle risposte (hit ratio e byte risparmiati).
+            if (DEBUG_MODE) maintenanceService.scheduleAtFixedRate(() -> System.out.println(
+                    usersRegister.getResponseCache()), analyticsSavePeriod, analyticsSavePeriod, TimeUnit.SECONDS);
+
+            /*
+                I messaggi UDP verso i client passano tutti da un unico dispatcher (una socket e un thread), che
+                unisce quelli ravvicinati per lo stesso client. In debug se ne stampano le statistiche.
+             */
+            udpDispatcher = new UDPDispatcher(udpQueueCapacity, udpMergeWindow);
+            if (DEBUG_MODE) maintenanceService.scheduleAtFixedRate(() -> System.out.println(udpDispatcher),
+                    analyticsSavePeriod, analyticsSavePeriod, TimeUnit.SECONDS);
+
+            /*
+                Le modifiche agli utenti vengono accodate al log; periodicamente (o quando il log diventa troppo
+                grande) si scrive uno snapshot e si eliminano i segmenti ormai inutili. Alla chiusura del server
+                il log viene forzato su disco e, se richiesto, la struttura viene esportata in JSON.
+             */
+            maintenanceService.scheduleWithFixedDelay(() -> usersRegister.compactIfNeeded(walMaxSize,
+                    walCompactionPeriod * 1000L), WAL_CHECK_PERIOD, WAL_CHECK_PERIOD, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    if (usersRegister.getRegisterLog() != null) usersRegister.getRegisterLog().close();
+                    usersRegister.saveLeaderboards();
+                    if (jsonExport) usersRegister.exportJson();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
 
             Gson gson = new Gson();
+            commandPool = Executors.newFixedThreadPool(commandThreads);
 
             //----- SERVER START
 
@@ -126,214 +236,64 @@ public class Server {
                                 ServerSocketChannel listener = (ServerSocketChannel) currentKey.channel();
                                 SocketChannel socket = listener.accept();
                                 socket.configureBlocking(false);
+                                /*
+                                    Le risposte a più comandi possono partire una dopo l'altra: senza TCP_NODELAY
+                                    la seconda attenderebbe l'ack della prima, che il client può ritardare.
+                                 */
+                                socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
 
                                 /*
-                                    Stiamo per andare in lettura: ci portiamo dentro questo array di ByteBuffer
-                                    che useremo per la lettura. Il primo leggerà la size del messaggio, il secondo
-                                    il testo vero e proprio. È fondamentale l'utilizzo del primo buffer per renderci
-                                    conto della completa lettura (o meno) del messaggio vero e proprio.
+                                    Stiamo per andare in lettura: ci portiamo dentro il buffer che useremo per la
+                                    lettura. Vi si accumulano i byte ricevuti, anche di più comandi (size e poi
+                                    testo), e la size di ciascuno ci dice se il comando è arrivato per intero o meno.
+                                    Deve poter contenere almeno un comando della lunghezza massima.
                                  */
-                                ByteBuffer sizeBuffer = ByteBuffer.allocate(Integer.BYTES);
-                                ByteBuffer readBuffer = ByteBuffer.allocate(maxCommandLength);
-                                ByteBuffer[] buffers = {sizeBuffer, readBuffer};
+                                ByteBuffer in = ByteBuffer.allocate(Integer.BYTES + maxCommandLength);
 
-                                socket.register(selector, SelectionKey.OP_READ, buffers);
-                            } else if (currentKey.isReadable()) {
+                                Connection.of(socket).bind(socket.register(selector, SelectionKey.OP_READ, in));
+                            } else {
                                 SocketChannel socket = (SocketChannel) currentKey.channel();
 
-                                ByteBuffer[] buffers = (ByteBuffer[]) currentKey.attachment();
-                                String id = ServerUtilities.getKey(onlineUsers, socket);
+                                ByteBuffer in = (ByteBuffer) currentKey.attachment();
 
                                 /*
                                     Se l'utente loggato sulla socket corrente è in game, leggere i suoi messaggi
-                                    non è di nostra responsabilità, ci penserà MatchManager.
+                                    non è di nostra responsabilità, ci penserà MatchManager. Scrivere invece sì:
+                                    anche i messaggi della sfida passano dalla Connection del client.
                                  */
-                                synchronized (inGameUsers) {
-                                    if (inGameUsers.contains(id)) continue;
-                                }
-
-                                String request, response;
+                                boolean inGame = (currentKey.isReadable() || in.position() > 0)
+                                        && isInGame(socket, onlineUsers);
 
                                 /*
-                                    Si procede alla lettura del messaggio. Lo schema è quello base:
-                                        - lettura size:
-                                            - letta tutta? -> lettura messaggio
-                                                -letto tutto? -> bene! Si fa ciò che bisogna fare e si registra
-                                                                 il channel per andare in WRITE_OP.
-
-                                            - altrimenti -> non registriamo il channel in WRITE_OP! Al prossimo "giro"
-                                                            finiremo di leggere ciò che non abbiamo letto fino ad ora.
+                                    Si legge tutto ciò che è arrivato e si eseguono i comandi completi. Se il client
+                                    ha chiuso la socket, è uscito (correttamente, tramite comando 'esci').
                                  */
-
-                                socket.read(buffers);
-                                if (!buffers[0].hasRemaining()) {
-                                    buffers[0].flip();
-                                    int size = buffers[0].getInt();
-
-                                    if (buffers[1].position() == size) {
-                                        buffers[1].flip();
-                                        request = new String(buffers[1].array()).trim();
-
-                                        ArrayList<String> tokenizedRequest = ServerUtilities.tokenizeString(request);
-
-                                        switch (tokenizedRequest.get(0)) {
-                                            case "login":
-                                                if (onlineUsers.containsKey(tokenizedRequest.get(1))) {
-                                                    response = "L'utente è già loggato.";
-                                                    break;
-                                                }
-                                                /*
-                                                    È importante che questo check sia prima di 'checkPsw', altrimenti
-                                                    'checkPsw' stesso potrebbe dare un'eccezione NullPointer (nel caso in
-                                                    cui si inserisca un 'id' non esistente.
-                                                */
-                                                if (!usersRegister.searchUser(tokenizedRequest.get(1))) {
-                                                    response = "L'id inserito non è registrato.";
-                                                    break;
-                                                }
-                                                if (!usersRegister.checkPsw(tokenizedRequest.get(1),
-                                                        tokenizedRequest.get(2))) {
-                                                    response = "La password inserita è errata.";
-                                                    break;
-                                                }
-
-                                                onlineUsers.put(tokenizedRequest.get(1), socket);
-                                                if (DEBUG_MODE)
-                                                    System.out.println("L'utente " + tokenizedRequest.get(1)
-                                                            + " ha eseguito il login");
-                                                response = "Login effettuato con successo.";
-                                                break;
-                                            case "logout":
-                                                //Nulla può andare male per natura del client. Logout non richiede argomenti!
-                                                onlineUsers.remove(id);
-                                                if (DEBUG_MODE)
-                                                    System.out.println("L'utente " + id + " ha eseguito il logout");
-                                                response = "Logout effettuato con successo.";
-                                                break;
-                                            case "aggiungi_amico":
-                                                if (!usersRegister.searchUser(tokenizedRequest.get(1))) {
-                                                    response = "L'utente indicato non esiste.";
-                                                    break;
-                                                }
-                                                if (id != null && id.equals(tokenizedRequest.get(1))) {
-                                                    response = "Non puoi richiedere un'amiciza con te stesso.";
-                                                    break;
-                                                }
-                                                try {
-                                                    /*
-                                                        Non serve controllare che 'id' sia null, poichè un client
-                                                        che richiede un'amicizia ha per forza fatto anche il login!
-                                                        (altrimenti è il client stesso a dare errore prima di inviare
-                                                        il comando al server).
-                                                     */
-                                                    usersRegister.addFriends(id, tokenizedRequest.get(1));
-                                                    response = "L'amicizia è stata aggiunta con successo.";
-                                                    /*
-                                                        Questa funzionalità è attiva solo nel caso in cui si utilizzi
-                                                        un client con interfaccia grafica (e quindi impostato correttamente
-                                                        il flag corrispondente qui nel server). Ciò che succede è che viene
-                                                        lanciato un 'UDPSender', il quale si occupa di inviare un UDP
-                                                        message ad 'UDPReceiver' (del client) per indicare l'aggiunta di
-                                                        una nuova amicizia. Ciò fa sì che l'interfaccia dell'utente aggiunto
-                                                        venga aggiornata in tempo reale! Questo non ha senso per il client
-                                                        a linea di comando, poichè la lista viene richiesta tramite un
-                                                        preciso comando, mentre con l'interfaccia grafica è sempre visibile.
-                                                     */
-                                                    if (GUI_MODE) {
-                                                        //Quest'operazione può essere fatta (ed effettivamente è utile)
-                                                        //solo se l'altro utente è anch'esso online.
-                                                        if (onlineUsers.containsKey(tokenizedRequest.get(1))) {
-                                                            String[] addressInfo = ServerUtilities.
-                                                                    tokenizeAddress(onlineUsers.get(tokenizedRequest.get(1)));
-                                                            Executors.newSingleThreadExecutor().
-                                                                    execute(new UDPSender(addressInfo, id, "newfriend"));
-                                                        }
-                                                    }
-                                                } catch (AlreadyFriendException e) {
-                                                    response = "Hai già un'amicizia con l'utente indicato.";
-                                                }
-                                                break;
-                                            case "lista_amici":
-                                                ArrayList<String> friends = usersRegister.getFriendsOf(id);
-                                                if (friends.size() != 0) {
-                                                    response = gson.toJson(friends);
-                                                } else response = "Non hai nessuna amicizia.";
-                                                break;
-                                            case "sfida":
-                                                if (!usersRegister.searchUser(tokenizedRequest.get(1))) {
-                                                    response = "L'utente indicato non esiste.";
-                                                    break;
-                                                }
-                                                if (id != null && id.equals(tokenizedRequest.get(1))) {
-                                                    response = "Non puoi richiedere una sfida con te stesso.";
-                                                    break;
-                                                }
-                                                if (!usersRegister.isFriendOf(id, tokenizedRequest.get(1))) {
-                                                    response = "Non puoi richiedere una sfida con un utente con il quale non sei amico.";
-                                                    break;
-                                                }
-                                                if (!onlineUsers.containsKey(tokenizedRequest.get(1))) {
-                                                    response = "L'utente indicato non è online.";
-                                                    break;
-                                                }
-
-                                                requestsPool.execute(new RequestManager(id, socket, tokenizedRequest.get(1), onlineUsers.get(tokenizedRequest.get(1))));
-                                                response = "Sfida a " + tokenizedRequest.get(1) + " inviata. In attesa di accettazione...";
-
-                                                break;
-                                            case "mostra_punteggio":
-                                                int points = usersRegister.getPointOf(id);
-                                                response = "Il tuo punteggio e': " + points + ".";
-                                                break;
-                                            case "mostra_classifica":
-                                                LinkedHashMap<String, Integer> rank = usersRegister.buildRank(id);
-                                                response = gson.toJson(rank);
-                                                break;
-                                            default:
-                                                response = "Nessuna corrispondenza con i comandi permessi.";
-                                        }
-
-                                        socket.register(selector, SelectionKey.OP_WRITE, response);
-
-                                        if (DEBUG_MODE) {
-                                            System.out.println("Utenti online -> " + Arrays.toString(onlineUsers.keySet().toArray()));
-                                            synchronized (inGameUsers) {
-                                                System.out.println("Utenti in game -> " + inGameUsers.toString());
-                                            }
-                                        }
+                                if (currentKey.isReadable() && !inGame) {
+                                    if (socket.read(in) < 0) {
+                                        manageQuit(ServerUtilities.getKey(onlineUsers, socket), currentKey,
+                                                onlineUsers);
+                                        continue;
                                     }
-                                } else if (buffers[0].position() == 0) {
-                                    //Il client ha chiuso la socket, è uscito (correttamente, tramite comando 'esci').
-                                    manageQuit(id, currentKey, onlineUsers);
+                                    runCommands(in, socket, onlineUsers, usersRegister, requestsPool, gson);
                                 }
-                            } else if (currentKey.isWritable()) {
-
-                                /*
-                                    Non c'è niente di speciale in questa parte di codice. È un banalissimo
-                                    invio di messaggio tramite selettore, della forma standard.
-                                 */
 
-                                SocketChannel socket = (SocketChannel) currentKey.channel();
-
-                                String response = (String) currentKey.attachment();
-                                ByteBuffer sizeBuffer = ByteBuffer.allocate(Integer.BYTES);
-                                sizeBuffer.putInt(response.getBytes().length);
-                                sizeBuffer.flip();
-                                socket.write(sizeBuffer);
-                                if (!sizeBuffer.hasRemaining()) {
-                                    sizeBuffer.clear();
-
-                                    ByteBuffer writeBuffer = ByteBuffer.wrap(response.getBytes());
-                                    socket.write(writeBuffer);
-
-                                    if (!writeBuffer.hasRemaining()) {
-                                        writeBuffer.clear();
-
-                                        sizeBuffer = ByteBuffer.allocate(Integer.BYTES);
-                                        ByteBuffer readBuffer = ByteBuffer.allocate(maxCommandLength);
-                                        ByteBuffer[] buffers = {sizeBuffer, readBuffer};
-
-                                        socket.register(selector, SelectionKey.OP_READ, buffers);
+                                if (currentKey.isValid() && currentKey.isWritable()) {
+                                    /*
+                                        I messaggi vengono scritti dalla Connection del client, che ricorda quanto
+                                        ne è già stato scritto: una scrittura parziale riprende alla prossima
+                                        occasione, e una risposta a blocchi scrive un blocco alla volta, alternandosi
+                                        con le altre. Così anche le notifiche e i messaggi della sfida non si
+                                        infilano in mezzo a un messaggio. Finita la coda, la Connection smette di
+                                        chiedere la scrittura.
+                                     */
+                                    Connection.of(socket).write();
+                                    /*
+                                        Con qualche risposta in meno in attesa, si eseguono i comandi rimasti nel
+                                        buffer perchè il client ne aveva troppi in attesa: non arriverà altro a
+                                        ricordarcelo.
+                                     */
+                                    if (in.position() > 0 && !inGame) {
+                                        runCommands(in, socket, onlineUsers, usersRegister, requestsPool, gson);
                                     }
                                 }
                             }
@@ -358,6 +318,312 @@ public class Server {
         }
     }
 
+    //Dice se l'utente loggato sulla socket è in una sfida.
+    private static boolean isInGame(SocketChannel socket, HashMap<String, SocketChannel> onlineUsers) {
+        synchronized (inGameUsers) {
+            return inGameUsers.contains(ServerUtilities.getKey(onlineUsers, socket));
+        }
+    }
+
+    /**
+     * Esegue, uno dopo l'altro, i comandi completi (size e poi comando) accumulati nel buffer di lettura di un client:
+     * il client può inviarne più d'uno senza attendere le risposte. Ci si ferma quando il client ha
+     * {@link #maxInFlight} comandi in attesa di risposta: i restanti restano nel buffer, e vengono eseguiti dopo la
+     * scrittura di qualche risposta. Ciò che resta di un comando incompleto rimane nel buffer fino al prossimo "giro".
+     *
+     * @param in            Il buffer di lettura del client, in scrittura.
+     * @param socket        La socket del client.
+     * @param onlineUsers   La struttura dati degli utenti online.
+     * @param usersRegister La struttura degli utenti.
+     * @param requestsPool  Il pool che gestisce le richieste di sfida.
+     * @param gson          L'istanza di {@link Gson} con la quale serializzare le risposte.
+     * @throws IOException Se il client ha inviato un comando più lungo del massimo consentito.
+     */
+    private static void runCommands(ByteBuffer in, SocketChannel socket, HashMap<String, SocketChannel> onlineUsers,
+                                    UsersRegister usersRegister, ThreadPoolExecutor requestsPool, Gson gson)
+            throws IOException {
+        Connection connection = Connection.of(socket);
+        in.flip();
+        while (connection.canAccept() && in.remaining() >= Integer.BYTES
+                && in.remaining() - Integer.BYTES >= in.getInt(in.position())) {
+            byte[] command = new byte[in.getInt()];
+            in.get(command);
+            dispatch(new String(command).trim(), socket, onlineUsers, usersRegister, requestsPool, gson);
+        }
+        in.compact();
+        //Un comando più lungo del massimo consentito non entrerebbe mai nel buffer.
+        if (in.position() >= Integer.BYTES && in.getInt(0) > maxCommandLength)
+            throw new IOException("Comando troppo lungo");
+    }
+
+    /**
+     * Esegue un comando appena letto dalla socket di un client. Un comando con l'id di correlazione
+     * ({@link RequestFrame}) riceve una risposta con lo stesso id e, se è uno dei {@link #SLOW_COMMANDS}, viene
+     * affidato a {@link #commandPool}: il selettore passa subito ai comandi successivi, e le loro risposte non
+     * aspettano quella del comando lento. Gli altri comandi vengono eseguiti dal selettore, nell'ordine di arrivo.
+     * In ogni caso la risposta viene messa in coda nella {@link Connection} del client.
+     *
+     * @param request       Il comando.
+     * @param socket        La socket del client.
+     * @param onlineUsers   La struttura dati degli utenti online.
+     * @param usersRegister La struttura degli utenti.
+     * @param requestsPool  Il pool che gestisce le richieste di sfida.
+     * @param gson          L'istanza di {@link Gson} con la quale serializzare le risposte.
+     */
+    private static void dispatch(String request, SocketChannel socket, HashMap<String, SocketChannel> onlineUsers,
+                                 UsersRegister usersRegister, ThreadPoolExecutor requestsPool, Gson gson) {
+        String id = ServerUtilities.getKey(onlineUsers, socket);
+        Connection connection = Connection.of(socket);
+        connection.accepted();
+
+        byte[] tag = new byte[0];
+        if (RequestFrame.isTagged(request)) {
+            try {
+                tag = RequestFrame.header(RequestFrame.idOf(request));
+            } catch (NumberFormatException e) {
+                //Un id malformato: il comando viene trattato come se non l'avesse.
+            }
+            request = RequestFrame.bodyOf(request);
+        }
+        ArrayList<String> tokenizedRequest = ServerUtilities.tokenizeString(request);
+
+        if (tag.length > 0 && SLOW_COMMANDS.contains(tokenizedRequest.get(0))) {
+            byte[] responseTag = tag;
+            offloadStarted(id);
+            commandPool.execute(() -> {
+                try {
+                    connection.respond(execute(tokenizedRequest, responseTag, id, socket, onlineUsers,
+                            usersRegister, requestsPool, gson));
+                } catch (RuntimeException e) {
+                    //Il client attende comunque una risposta.
+                    e.printStackTrace();
+                    connection.respond(new PendingResponse(responseTag, "Errore interno del server.".getBytes()));
+                } finally {
+                    offloadFinished(id, usersRegister);
+                }
+            });
+        } else {
+            connection.respond(execute(tokenizedRequest, tag, id, socket, onlineUsers, usersRegister,
+                    requestsPool, gson));
+        }
+
+        if (DEBUG_MODE) {
+            System.out.println("Utenti online -> " + Arrays.toString(onlineUsers.keySet().toArray()));
+            synchronized (inGameUsers) {
+                System.out.println("Utenti in game -> " + inGameUsers.toString());
+            }
+        }
+    }
+
+    /**
+     * Esegue un comando del client e ne prepara la risposta. Viene eseguito dal selettore oppure, per i comandi lenti
+     * con l'id di correlazione, da {@link #commandPool}: in quel caso il comando non tocca 'onlineUsers', che
+     * appartiene al selettore.
+     *
+     * @param tokenizedRequest Il comando tokenizzato, senza l'id di correlazione.
+     * @param tag              L'intestazione da mettere davanti ai messaggi della risposta (vuota se il comando non
+     *                         aveva l'id).
+     * @param id               L'utente loggato sulla socket, o null.
+     * @param socket           La socket del client.
+     * @param onlineUsers      La struttura dati degli utenti online.
+     * @param usersRegister    La struttura degli utenti.
+     * @param requestsPool     Il pool che gestisce le richieste di sfida.
+     * @param gson             L'istanza di {@link Gson} con la quale serializzare le risposte.
+     * @return La risposta da inviare al client.
+     */
+    private static PendingResponse execute(ArrayList<String> tokenizedRequest, byte[] tag, String id,
+                                           SocketChannel socket, HashMap<String, SocketChannel> onlineUsers,
+                                           UsersRegister usersRegister, ThreadPoolExecutor requestsPool, Gson gson) {
+        String response = null;
+        //Le risposte che arrivano già codificate dalla cache di UsersRegister.
+        byte[] encodedResponse = null;
+        //Le risposte a blocchi.
+        PendingResponse pending = null;
+
+        switch (tokenizedRequest.get(0)) {
+            case "login":
+                if (onlineUsers.containsKey(tokenizedRequest.get(1))) {
+                    response = "L'utente è già loggato.";
+                    break;
+                }
+                /*
+                    È importante che questo check sia prima di 'checkPsw', altrimenti
+                    'checkPsw' stesso potrebbe dare un'eccezione NullPointer (nel caso in
+                    cui si inserisca un 'id' non esistente.
+                */
+                if (!usersRegister.searchUser(tokenizedRequest.get(1))) {
+                    response = "L'id inserito non è registrato.";
+                    break;
+                }
+                if (!usersRegister.checkPsw(tokenizedRequest.get(1),
+                        tokenizedRequest.get(2))) {
+                    response = "La password inserita è errata.";
+                    break;
+                }
+
+                onlineUsers.put(tokenizedRequest.get(1), socket);
+                //Se era appena uscito, la sua classifica non va più rilasciata.
+                synchronized (OFFLOADED) {
+                    RELEASE_PENDING.remove(tokenizedRequest.get(1));
+                }
+                if (DEBUG_MODE)
+                    System.out.println("L'utente " + tokenizedRequest.get(1)
+                            + " ha eseguito il login");
+                response = "Login effettuato con successo.";
+                break;
+            case "logout":
+                //Nulla può andare male per natura del client. Logout non richiede argomenti!
+                onlineUsers.remove(id);
+                releaseRank(id, usersRegister);
+                if (DEBUG_MODE)
+                    System.out.println("L'utente " + id + " ha eseguito il logout");
+                response = "Logout effettuato con successo.";
+                break;
+            case "aggiungi_amico":
+                if (!usersRegister.searchUser(tokenizedRequest.get(1))) {
+                    response = "L'utente indicato non esiste.";
+                    break;
+                }
+                if (id != null && id.equals(tokenizedRequest.get(1))) {
+                    response = "Non puoi richiedere un'amiciza con te stesso.";
+                    break;
+                }
+                try {
+                    /*
+                        Non serve controllare che 'id' sia null, poichè un client
+                        che richiede un'amicizia ha per forza fatto anche il login!
+                        (altrimenti è il client stesso a dare errore prima di inviare
+                        il comando al server).
+                     */
+                    usersRegister.addFriends(id, tokenizedRequest.get(1));
+                    response = "L'amicizia è stata aggiunta con successo.";
+                    /*
+                        Questa funzionalità è attiva solo nel caso in cui si utilizzi
+                        un client con interfaccia grafica (e quindi impostato correttamente
+                        il flag corrispondente qui nel server). Ciò che succede è che viene
+                        inviata una notifica 'newfriend' sulla connessione TCP dell'utente
+                        aggiunto (si veda 'Connection'), che il client passa ad
+                        'UDPReceiverGUI'. Ciò fa sì che l'interfaccia dell'utente aggiunto
+                        venga aggiornata in tempo reale! Questo non ha senso per il client
+                        a linea di comando, poichè la lista viene richiesta tramite un
+                        preciso comando, mentre con l'interfaccia grafica è sempre visibile.
+                     */
+                    if (GUI_MODE) {
+                        //Quest'operazione può essere fatta (ed effettivamente è utile)
+                        //solo se l'altro utente è anch'esso online.
+                        SocketChannel friendSocket = onlineUsers.get(tokenizedRequest.get(1));
+                        if (friendSocket != null) {
+                            Connection.of(friendSocket).push(PushFrame.NEW_FRIEND, id);
+                        }
+                    }
+                } catch (AlreadyFriendException e) {
+                    response = "Hai già un'amicizia con l'utente indicato.";
+                }
+                break;
+            case "lista_amici":
+                //'lista_amici blocchi': la lista viene inviata a blocchi.
+                if (tokenizedRequest.size() > 1 && tokenizedRequest.get(1).equals("blocchi")) {
+                    pending = new PendingResponse(tag,
+                            usersRegister.getFriendsChunks(id, chunkRows));
+                    break;
+                }
+                //Se non ci sono nuove amicizie, la risposta viene dalla cache.
+                encodedResponse = usersRegister.getFriendsResponse(id, friends ->
+                        friends.size() != 0 ? JsonCodec.encodeStrings(friends)
+                                : "Non hai nessuna amicizia.".getBytes());
+                break;
+            case "sfida":
+                if (!usersRegister.searchUser(tokenizedRequest.get(1))) {
+                    response = "L'utente indicato non esiste.";
+                    break;
+                }
+                if (id != null && id.equals(tokenizedRequest.get(1))) {
+                    response = "Non puoi richiedere una sfida con te stesso.";
+                    break;
+                }
+                if (!usersRegister.isFriendOf(id, tokenizedRequest.get(1))) {
+                    response = "Non puoi richiedere una sfida con un utente con il quale non sei amico.";
+                    break;
+                }
+                if (!onlineUsers.containsKey(tokenizedRequest.get(1))) {
+                    response = "L'utente indicato non è online.";
+                    break;
+                }
+
+                requestsPool.execute(new RequestManager(id, socket, tokenizedRequest.get(1), onlineUsers.get(tokenizedRequest.get(1))));
+                response = "Sfida a " + tokenizedRequest.get(1) + " inviata. In attesa di accettazione...";
+
+                break;
+            case "mostra_punteggio":
+                int points = usersRegister.getPointOf(id);
+                response = "Il tuo punteggio e': " + points + ".";
+                break;
+            case "mostra_classifica":
+                /*
+                    Senza argomenti si restituisce l'intera classifica; altrimenti
+                    'mostra_classifica K' restituisce i primi K e
+                    'mostra_classifica K P' la P-esima pagina (da 1) di K righe.
+                    'mostra_classifica blocchi' invia l'intera classifica a blocchi.
+                 */
+                if (tokenizedRequest.size() == 2 && tokenizedRequest.get(1).equals("blocchi")) {
+                    pending = new PendingResponse(tag,
+                            usersRegister.getRankChunks(id, chunkRows));
+                    break;
+                }
+                int pageSize = Integer.MAX_VALUE, page = 1;
+                try {
+                    if (tokenizedRequest.size() > 1)
+                        pageSize = Integer.parseInt(tokenizedRequest.get(1));
+                    if (tokenizedRequest.size() > 2)
+                        page = Integer.parseInt(tokenizedRequest.get(2));
+                } catch (NumberFormatException e) {
+                    response = "L'argomento indicato non è un numero.";
+                    break;
+                }
+                if (pageSize <= 0 || page <= 0) {
+                    response = "Gli argomenti indicati devono essere positivi.";
+                    break;
+                }
+                //Se la classifica non è cambiata, la risposta viene dalla cache.
+                encodedResponse = usersRegister.getRankResponse(id,
+                        (int) Math.min(Integer.MAX_VALUE, (long) (page - 1) * pageSize),
+                        pageSize, JsonCodec::encodeRank);
+                break;
+            case "aggiornamenti_amici":
+            case "aggiornamenti_classifica":
+                /*
+                    Il client invia l'ultima versione ricevuta (-1 la prima volta) e
+                    riceve solo le modifiche successive, oppure nessuna.
+                 */
+                if (tokenizedRequest.size() != 2) {
+                    response = "Nessuna corrispondenza con i comandi permessi.";
+                    break;
+                }
+                Object update;
+                try {
+                    update = tokenizedRequest.get(0).equals("aggiornamenti_amici")
+                            ? usersRegister.getFriendsUpdate(id,
+                            Integer.parseInt(tokenizedRequest.get(1)))
+                            : usersRegister.getRankUpdate(id,
+                            Long.parseLong(tokenizedRequest.get(1)));
+                } catch (NumberFormatException e) {
+                    response = "L'argomento indicato non è un numero.";
+                    break;
+                }
+                response = update == null ? "Nessuna modifica." : gson.toJson(update);
+                break;
+            case "classifica_globale":
+                response = globalLeaderboard(usersRegister, id, tokenizedRequest, gson);
+                break;
+            default:
+                response = "Nessuna corrispondenza con i comandi permessi.";
+        }
+
+        if (pending != null) return pending;
+        if (encodedResponse == null) encodedResponse = response.getBytes();
+        return new PendingResponse(tag, encodedResponse);
+    }
+
     /**
      * Si occupa di gestire l'abbandono da parte di un certo client. Ciò vuol dire che
      * provvederà a cancellare la chiave dal selettore, a rimuovere l'utente dagli utenti online ed eventualmente
@@ -373,16 +639,125 @@ public class Server {
         if (id != null) {
             if (DEBUG_MODE) System.out.println("Il client (con login di " + id + ") ha abbandonato");
             onlineUsers.remove(id);
+            releaseRank(id, UsersRegister.getInstance());
         } else {
             if (DEBUG_MODE) System.out.println("Un client (non attualmente loggato) ha abbandonato");
         }
         //Chiusura del channel e rimozione della key (de-registrazione).
+        Connection.remove((SocketChannel) currentKey.channel());
         (currentKey.channel()).close();
         currentKey.cancel();
         //ONLY FOR DEBUG PURPOSES
         if (DEBUG_MODE) System.out.println("Utenti online -> " + Arrays.toString(onlineUsers.keySet().toArray()));
     }
 
+    //Conta un comando di 'id' affidato a 'commandPool'.
+    private static void offloadStarted(String id) {
+        if (id == null) return;
+        synchronized (OFFLOADED) {
+            OFFLOADED.merge(id, 1, Integer::sum);
+        }
+    }
+
+    //Conta la fine di un comando di 'id' eseguito da 'commandPool': se era l'ultimo e l'utente è uscito, ne rilascia
+    //la classifica.
+    private static void offloadFinished(String id, UsersRegister usersRegister) {
+        if (id == null) return;
+        boolean release;
+        synchronized (OFFLOADED) {
+            int left = OFFLOADED.merge(id, -1, Integer::sum);
+            if (left == 0) OFFLOADED.remove(id);
+            release = left == 0 && RELEASE_PENDING.remove(id);
+            if (release) usersRegister.releaseRank(id);
+        }
+    }
+
+    /**
+     * Rilascia la classifica (vista e risposte in cache) di un utente che è uscito. Se l'utente ha ancora comandi in
+     * esecuzione su {@link #commandPool}, il rilascio avviene alla fine dell'ultimo: così nessun comando può
+     * ricostruirla dopo il rilascio.
+     *
+     * @param id            L'utente.
+     * @param usersRegister La struttura degli utenti.
+     */
+    private static void releaseRank(String id, UsersRegister usersRegister) {
+        synchronized (OFFLOADED) {
+            if (OFFLOADED.containsKey(id)) RELEASE_PENDING.add(id);
+            else usersRegister.releaseRank(id);
+        }
+    }
+
+    /**
+     * Risponde al comando 'classifica_globale', che ha tre forme:
+     *  - 'classifica_globale top N': i primi N utenti;
+     *  - 'classifica_globale posizione': posizione e percentile dell'utente;
+     *  - 'classifica_globale intorno K': la classifica da K posizioni prima a K posizioni dopo l'utente.
+     * Subito dopo 'classifica_globale' si può indicare una finestra temporale ('oggi', 'settimana', 'stagione'):
+     * senza, la classifica è quella dei punteggi di sempre.
+     * Le righe di classifica sono inviate in Json; il numero di righe è limitato da 'leaderboard_max_entries'.
+     *
+     * @param usersRegister La struttura degli utenti.
+     * @param id L'utente che ha inviato il comando.
+     * @param request Il comando tokenizzato.
+     * @param gson L'istanza di {@link Gson} con la quale serializzare la classifica.
+     * @return La risposta da inviare al client.
+     */
+    private static String globalLeaderboard(UsersRegister usersRegister, String id, ArrayList<String> request,
+                                            Gson gson) {
+        //Il primo argomento può indicare la finestra temporale.
+        WindowedLeaderboards.Window window = null;
+        int first = 1;
+        if (request.size() > 1) {
+            for (WindowedLeaderboards.Window w : WindowedLeaderboards.Window.values()) {
+                if (w.name().equalsIgnoreCase(request.get(1))) window = w;
+            }
+            if (window != null) first = 2;
+        }
+        if (request.size() <= first) return "Nessuna corrispondenza con i comandi permessi.";
+        int argument = 0;
+        if (request.size() > first + 1) {
+            try {
+                argument = Integer.parseInt(request.get(first + 1));
+            } catch (NumberFormatException e) {
+                return "L'argomento indicato non è un numero.";
+            }
+            if (argument < 0) return "L'argomento indicato non può essere negativo.";
+        }
+        switch (request.get(first)) {
+            case "top":
+                return gson.toJson(usersRegister.getGlobalTop(window, Math.min(argument, leaderboardMaxEntries)));
+            case "intorno":
+                return gson.toJson(usersRegister.getGlobalRankAround(window, id,
+                        Math.min(argument, leaderboardMaxEntries / 2)));
+            case "posizione":
+                return String.format("Sei in posizione %d su %d, con un punteggio maggiore del %.1f%% degli utenti.",
+                        usersRegister.getGlobalRankOf(window, id), usersRegister.size(),
+                        usersRegister.getGlobalPercentileOf(window, id));
+            default:
+                return "Nessuna corrispondenza con i comandi permessi.";
+        }
+    }
+
+    /**
+     * Salva su file le statistiche delle risposte e aggiorna le fasce di difficoltà delle parole. Viene eseguito
+     * periodicamente da {@link #maintenanceService}.
+     */
+    private static void saveAnalytics() {
+        try {
+            wordAnalytics.save();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        wordSelector.rebuildTiers(wordAnalytics);
+        if (DEBUG_MODE) {
+            System.out.println(wordSelector);
+            //Le parole più sbagliate, con le traduzioni errate più frequenti.
+            for (String word : wordAnalytics.hardestWords(5, 10)) {
+                System.out.println(word + " -> " + wordAnalytics.report(wordSelector.indexOf(word), 3));
+            }
+        }
+    }
+
     /**
      * È un metodo creato per motivi di test. Popola la struttura dati di tipo {@link UsersRegister},
      * inserendo alcuni parametri casuali per i vari utenti. È stato creato, in particolare, per il testing
@@ -401,10 +776,11 @@ public class Server {
         for (int i = 1; i < size; i++) {
             try {
                 usersRegister.addFriends("id0", "id" + i);
-            } catch (AlreadyFriendException | IOException ignored) {
+            } catch (AlreadyFriendException ignored) {
             }
-            for (User user : usersRegister.getUsersRegister().values()) {
-                user.incrementPoints((int) (Math.random() * 10));
+            UserTable users = usersRegister.getUsersRegister();
+            for (int id = 0; id < users.size(); id++) {
+                usersRegister.incrementPointsOf(users.nameOf(id), (int) (Math.random() * 10));
             }
         }
 
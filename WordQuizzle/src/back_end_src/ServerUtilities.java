@@ -1,43 +1,45 @@
 package back_end_src;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 
 import java.io.*;
 import java.io.FileReader;
-import java.lang.reflect.Type;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.file.NoSuchFileException;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Classe di utilità per il {@link Server}. Contiene diversi metodi, ma i più importanti sono
- * 'writeJson' e 'readJson', per scrivere e leggere il file JSON (e quindi persistere le informazioni
- * riguardo gli utenti), e 'readingDictionary' per recuperare all'avvio del {@link Server} le parole
- * di cui gli utenti dovranno dare le traduzioni.
+ * 'readSnapshot' e 'readJson', per leggere i vecchi snapshot degli utenti (la persistenza vera e propria è ora
+ * affidata a {@link RegisterLog} e {@link RegisterPartitions}), 'writeJson', per esportarne una copia leggibile alla
+ * chiusura del server (si veda {@link UsersRegister#exportJson()}), e 'readingDictionary' per
+ * recuperare all'avvio del {@link Server} le parole di cui gli utenti dovranno dare le traduzioni.
  */
 @SuppressWarnings("WeakerAccess")
 class ServerUtilities {
 
+    static final String JSON_SNAPSHOT_PATH = "./src/back_end_src/usersRegister.json";
+    static final String BINARY_SNAPSHOT_PATH = "./src/back_end_src/usersRegister.bin";
+
     /**
      * Scrive sul file JSON la struttura dati astratta da {@link UsersRegister}. In questo modo
      * riusciamo a persistere tutte le informazioni di cui avremo bisogno al prossimo avvio.
      * Si noti che, piuttosto che avere diversi file JSON per le varie informazioni da persistere, ho
      * deciso di salvarmi ogni volta l'intera struttura dati, la quale viene deserializzata all'avvio
      * del {@link Server} per essere poi utilizzata durante tutta la sessione.
+     * Il file non viene più riscritto ad ogni modifica: le modifiche finiscono nel {@link RegisterLog}, il quale
+     * durante la compattazione riscrive le partizioni binarie di {@link RegisterPartitions}. Il JSON viene scritto
+     * solo alla chiusura del {@link Server}, se 'json_export' è abilitato, come copia leggibile; all'avvio viene
+     * letto solo se non ci sono nè partizioni nè snapshot binario. La struttura viene scritta su un file temporaneo,
+     * poi rinominato: un crash durante la scrittura lascia intatto il file precedente.
+     * Il JSON viene scritto in streaming da {@link RegisterLoader#write}, nello stesso formato 'pretty-printed' di
+     * Gson ma senza reflection e senza costruire l'intero documento in una {@link String}.
      *
      * @param usersRegister La struttura dati da scrivere sul file.
      * @throws IOException In caso di problemi durante la scrittura del file.
      */
-    public static void writeJson(ConcurrentHashMap<String, User> usersRegister) throws IOException {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        String jsonInfo;
+    public static void writeJson(Map<String, User> usersRegister) throws IOException {
         /*
             Piccola nota. Ho voluto utilizzare i FileChannel per le operazioni di scrittura e lettura poichè sono
             più efficienti (essendo a più basso livello) ma anche perchè "autogestiscono" in modo corretto
@@ -55,44 +57,30 @@ class ServerUtilities {
             del file (le quali si notavano al successivo avvio del server, quando questo provava a leggere il JSON),
             problemi che venivano risolti solo mettendo la 'synchronized' sulla struttura.
          */
-        ////noinspection SynchronizationOnLocalVariableOrMethodParameter
-        //synchronized (usersRegister) {
-            jsonInfo = gson.toJson(usersRegister);
-        //}
-        FileChannel channel = FileChannel.open(Paths.get("./src/back_end_src/usersRegister.json"),
-                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
-        ByteBuffer bb = ByteBuffer.allocate(jsonInfo.getBytes().length);
-        bb.put(jsonInfo.getBytes());
-        bb.flip();
-        while (bb.hasRemaining()) {
-            channel.write(bb);
+        Path temp = Paths.get(JSON_SNAPSHOT_PATH + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            RegisterLoader.write(usersRegister, channel);
+            channel.force(true);
         }
-        channel.close();
+        Files.move(temp, Paths.get(JSON_SNAPSHOT_PATH),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     /**
      * Legge i dati dal file JSON; deserializza quindi la struttura dati e ritorna l'oggetto {@link ConcurrentHashMap},
      * la quale conterrà appunto tutti gli {@link User} registrati sul server (i vari dati per ognuno di essi
      * sono incapsulati, come attributi, nell'oggetto {@link User} stesso).
+     * Il file viene letto in streaming da {@link RegisterLoader}, in parallelo se molto grande: non viene mai
+     * copiato per intero in memoria.
      *
      * @return La struttura dati {@link ConcurrentHashMap} contenente gli {@link User} e i loro dati.
      * @throws IOException In caso di problemi durante la lettura del file.
      */
     public static ConcurrentHashMap<String, User> readJson() throws IOException {
-        ConcurrentHashMap<String, User> usersRegister;
-        Gson gson = new Gson();
         try {
-            FileChannel channel = FileChannel.open(Paths.get("./src/back_end_src/usersRegister.json"), StandardOpenOption.READ);
-
-            ByteBuffer bb = ByteBuffer.allocate((int) channel.size());
-            //Non serve fare un ciclo per assicurarsi la lettura completa: il ByteBuffer viene allocato della precisa size.
-            channel.read(bb);
-            channel.close();
-            //Converto la stringa letta nell'oggetto corrispondente.
-            Type usersRegisterType = new TypeToken<ConcurrentHashMap<String, User>>() {
-            }.getType();
-            usersRegister = gson.fromJson(new String(bb.array()), usersRegisterType);
-            return usersRegister;
+            return RegisterLoader.load(Paths.get(JSON_SNAPSHOT_PATH),
+                    Runtime.getRuntime().availableProcessors());
         } catch (NoSuchFileException e) {
             //Nel caso in cui il file non si trovi, non esista ancora, voglio che ritorni NULL, così che il server
             //possa capire che è stato aperto per la prima vera volta, e procedere alla creazione di esso.
@@ -100,6 +88,23 @@ class ServerUtilities {
         }
     }
 
+    /**
+     * Legge il vecchio snapshot della struttura, in un unico file, quando non ci sono ancora le partizioni di
+     * {@link RegisterPartitions} (server aggiornato da una versione precedente). Se esiste lo snapshot binario si
+     * legge quello, altrimenti il file JSON; in entrambi i casi la prima compattazione del {@link RegisterLog}
+     * scriverà le partizioni.
+     *
+     * @return La struttura dati, {@code null} se non esiste alcuno snapshot.
+     * @throws IOException In caso di problemi durante la lettura del file.
+     */
+    public static ConcurrentHashMap<String, User> readSnapshot() throws IOException {
+        try {
+            return RegisterSnapshot.read(Paths.get(BINARY_SNAPSHOT_PATH));
+        } catch (NoSuchFileException e) {
+            return readJson();
+        }
+    }
+
     /**
      * Serve al {@link Server} per tokenizzare e poi analizzare il messaggio ricevuto dal {@link front_end_src.Client}.
      * Per esempio, grazie alla tokenizzazione, prende il comando e vede cosa è stato richiesto, poi prende l'id
@@ -168,8 +173,8 @@ class ServerUtilities {
      * Le parole che verranno utilizzate durante il game sono mantenute all'interno di un file
      * di testo. Al momento dell'avvio, il {@link Server} legge dal file di testo tutte le parole
      * e le salva in un {@link ArrayList} (struttura dati scelta per la sua dinamicità e
-     * semplicità) il quale fungerà da dizionario. I vari {@link RequestManager} che si occuperanno
-     * del setup della sfida, sceglieranno casualmente da esso {@link Server#numberOfWords} parole.
+     * semplicità) il quale fungerà da dizionario. Il dizionario viene poi indicizzato da {@link WordSelector},
+     * dal quale i vari {@link RequestManager} sceglieranno {@link Server#numberOfWords} parole per ogni sfida.
      *
      * @return Il dizionario, come {@link ArrayList} di parole.
      * @throws IOException In caso di problemi durante la lettura del file.
@@ -185,19 +190,5 @@ class ServerUtilities {
         return words;
     }
 
-    public static int[] generateRandomNumbers(int count, int min, int max) {
-        int[] numbers = new int[count];
-        ArrayList<Integer> choosen = new ArrayList<>();
-        int n;
-        for (int i = 0; i < numbers.length; i++) {
-            do {
-                n = ((int) (Math.random() * max)) + min;
-            } while (choosen.contains(n));
-            choosen.add(n);
-            numbers[i] = n;
-        }
-        return numbers;
-    }
-
 
 }
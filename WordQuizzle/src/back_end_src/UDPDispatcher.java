@@ -0,0 +1,215 @@
+package back_end_src;
+
+import common_src.CommonUtilities;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link UDPDispatcher} invia tutti i messaggi UDP del server verso i client (ad esempio l'ACK 'starting' della
+ * sfida) da un'unica {@link DatagramChannel} e da un unico thread, al posto di una socket e un thread per messaggio.
+ * Chi deve inviare un messaggio lo mette in una coda limitata ({@link #dispatch}), senza mai bloccarsi: se la coda è
+ * piena il messaggio viene scartato e contato. Il thread di invio preleva i messaggi e, per una breve finestra
+ * ('udp_merge_window' millisecondi) dal primo, raccoglie anche quelli che arrivano nel frattempo: i messaggi per lo
+ * stesso client vengono uniti in un unico datagramma, una riga per messaggio (si veda {@link front_end_src.UDPReceiver}),
+ * e i datagrammi vengono scritti uno dopo l'altro.
+ * Si contano i messaggi inviati e scartati, i datagrammi, la profondità della coda e la latenza di invio (dalla
+ * {@link #dispatch} alla scrittura sulla socket).
+ */
+public class UDPDispatcher {
+
+    private final DatagramChannel channel;
+    private final ArrayBlockingQueue<Event> queue;
+    private final long mergeWindowNanos;
+    private final ExecutorService sender = Executors.newSingleThreadExecutor();
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder datagrams = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final AtomicLong maxDepth = new AtomicLong();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Apre la socket e avvia il thread di invio.
+     *
+     * @param capacity La capacità della coda.
+     * @param mergeWindowMillis Per quanto raccogliere i messaggi prima di inviarli.
+     * @throws IOException In caso di problemi nell'apertura della socket.
+     */
+    public UDPDispatcher(int capacity, long mergeWindowMillis) throws IOException {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.mergeWindowNanos = TimeUnit.MILLISECONDS.toNanos(mergeWindowMillis);
+        this.channel = DatagramChannel.open();
+        this.channel.bind(null);
+        this.sender.execute(this::sendLoop);
+    }
+
+    /**
+     * Accoda un messaggio per un client, senza bloccarsi.
+     *
+     * @param recipient L'indirizzo UDP del client.
+     * @param message Il messaggio, su una sola riga.
+     * @return {@code false} se la coda è piena e il messaggio è stato scartato.
+     */
+    public boolean dispatch(SocketAddress recipient, String message) {
+        if (!this.queue.offer(new Event(recipient, message, System.nanoTime()))) {
+            this.dropped.increment();
+            return false;
+        }
+        this.maxDepth.accumulateAndGet(this.queue.size(), Math::max);
+        return true;
+    }
+
+    /**
+     * Accoda un messaggio per il client della socket TCP indicata: il client riceve i messaggi UDP sulla stessa
+     * porta della sua connessione (si veda {@link ServerUtilities#tokenizeAddress}).
+     *
+     * @param clientSocket La socket TCP del client.
+     * @param message Il messaggio, su una sola riga.
+     * @return {@code false} se il messaggio è stato scartato.
+     */
+    public boolean dispatch(SocketChannel clientSocket, String message) {
+        String[] addressInfo = ServerUtilities.tokenizeAddress(clientSocket);
+        return dispatch(new InetSocketAddress(addressInfo[0], Integer.parseInt(addressInfo[1])), message);
+    }
+
+    /**
+     * Restituisce il numero di messaggi in coda.
+     *
+     * @return La profondità attuale della coda.
+     */
+    public int depth() {
+        return this.queue.size();
+    }
+
+    /**
+     * Restituisce il numero di messaggi scartati perché la coda era piena.
+     *
+     * @return I messaggi scartati.
+     */
+    public long dropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Restituisce il numero di datagrammi inviati.
+     *
+     * @return I datagrammi inviati.
+     */
+    public long datagrams() {
+        return this.datagrams.sum();
+    }
+
+    /**
+     * Chiude la socket e termina il thread di invio; i messaggi ancora in coda vengono scartati.
+     */
+    public void close() {
+        this.sender.shutdownNow();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long sent = this.sent.sum();
+        return String.format("UDPDispatcher{sent=%d, dropped=%d, datagrams=%d, errors=%d, depth=%d, maxDepth=%d, " +
+                        "avgLatencyMs=%.2f, maxLatencyMs=%.2f}", sent, dropped(), datagrams(), this.sendErrors.sum(),
+                depth(), this.maxDepth.get(), sent == 0 ? 0 : this.latencyNanos.sum() / 1e6 / sent,
+                this.maxLatencyNanos.get() / 1e6);
+    }
+
+    private void sendLoop() {
+        ArrayList<Event> batch = new ArrayList<>();
+        LinkedHashMap<SocketAddress, StringBuilder> merged = new LinkedHashMap<>();
+        ByteBuffer datagram = ByteBuffer.allocate(CommonUtilities.MAX_DATAGRAM_SIZE);
+        try {
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                //Si aspetta il primo messaggio, poi si raccolgono quelli che arrivano entro la finestra.
+                batch.add(this.queue.take());
+                long deadline = System.nanoTime() + this.mergeWindowNanos;
+                for (long wait = this.mergeWindowNanos; wait > 0; wait = deadline - System.nanoTime()) {
+                    Event event = this.queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (event == null) break;
+                    batch.add(event);
+                    this.queue.drainTo(batch);
+                }
+                this.queue.drainTo(batch);
+
+                for (Event event : batch) {
+                    StringBuilder lines = merged.computeIfAbsent(event.recipient, ignored -> new StringBuilder());
+                    //Un messaggio che non sta nel datagramma corrente del client ne fa partire uno nuovo.
+                    if (lines.length() > 0 && lines.length() + 1 + event.message.length() >
+                            CommonUtilities.MAX_DATAGRAM_SIZE) {
+                        send(datagram, event.recipient, lines);
+                        lines.setLength(0);
+                    }
+                    if (lines.length() > 0) lines.append('\n');
+                    lines.append(event.message);
+                }
+                for (SocketAddress recipient : merged.keySet()) send(datagram, recipient, merged.get(recipient));
+
+                long now = System.nanoTime();
+                for (Event event : batch) {
+                    long latency = now - event.enqueued;
+                    this.latencyNanos.add(latency);
+                    this.maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                }
+                this.sent.add(batch.size());
+                batch.clear();
+                merged.clear();
+            }
+        } catch (InterruptedException e) {
+            //Il dispatcher è stato chiuso.
+        }
+    }
+
+    private void send(ByteBuffer datagram, SocketAddress recipient, StringBuilder lines) {
+        byte[] bytes = lines.toString().getBytes();
+        if (bytes.length > datagram.capacity()) {
+            //Un singolo messaggio troppo lungo per un datagramma: non può essere inviato.
+            this.sendErrors.increment();
+            return;
+        }
+        datagram.clear();
+        datagram.put(bytes).flip();
+        try {
+            this.channel.send(datagram, recipient);
+            this.datagrams.increment();
+        } catch (IOException e) {
+            //Un client irraggiungibile non deve fermare gli invii agli altri.
+            this.sendErrors.increment();
+            if (Server.DEBUG_MODE) System.out.println("Datagramma per " + recipient + " non inviato: " + e.getMessage());
+        }
+    }
+
+    //Un messaggio in coda.
+    private static final class Event {
+        private final SocketAddress recipient;
+        private final String message;
+        private final long enqueued;
+
+        Event(SocketAddress recipient, String message, long enqueued) {
+            this.recipient = recipient;
+            this.message = message;
+            this.enqueued = enqueued;
+        }
+    }
+}
@@ -20,6 +20,30 @@ public class User {
         this.friends = new ArrayList<>();
     }
 
+    /**
+     * Ricostruisce un utente già registrato, così come letto dallo snapshot da {@link RegisterLoader}.
+     *
+     * @param nickUtente L'username dell'utente.
+     * @param password La password dell'utente.
+     * @param points Il punteggio totale.
+     * @param friends La lista amici.
+     */
+    User(String nickUtente, String password, int points, ArrayList<String> friends) {
+        this.nickUtente = nickUtente;
+        this.password = password;
+        this.points = points;
+        this.friends = friends;
+    }
+
+    /**
+     * Restituisce l'username dell'utente.
+     *
+     * @return L'username dell'utente.
+     */
+    public String getNickUtente() {
+        return nickUtente;
+    }
+
     /**
      * Restituisce la password associata all'utente.
      *
@@ -39,6 +63,16 @@ public class User {
         this.points += incrementFactor;
     }
 
+    /**
+     * Porta il punteggio totale dell'utente ad almeno 'total'. È utilizzato da {@link RegisterLog} durante il
+     * recupero delle modifiche: i punteggi possono solo crescere, quindi un record già applicato non ha effetto.
+     *
+     * @param total Il punteggio totale registrato nel log.
+     */
+    public void restorePoints(int total) {
+        this.points = Math.max(this.points, total);
+    }
+
     /**
      * Restituisce la lista amici dell'utente.
      *
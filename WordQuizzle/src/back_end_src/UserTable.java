@@ -0,0 +1,283 @@
+package back_end_src;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link UserTable} è la rappresentazione in memoria degli utenti registrati utilizzata da {@link UsersRegister}.
+ * All'avvio ogni nickname viene associato ad un id intero denso (0, 1, 2, ...); da quel momento punteggi e amicizie
+ * vivono in array primitivi indicizzati per id: i punteggi in un array atomico di int, le amicizie come
+ * {@link FriendSet}.
+ * Un'amicizia costa quindi 8 byte (4 per ogni utente) invece di due {@link String} e due posizioni di
+ * {@link ArrayList}, e calcolare una classifica non richiede nè di risolvere stringhe nè di seguire puntatori ai
+ * singoli {@link User}. Le stringhe compaiono solo ai bordi: nella mappa nickname -> id e nelle risposte al client.
+ *
+ * Gli array sono divisi in pagine di dimensione fissa: per far spazio a nuovi utenti si aggiunge una pagina, senza
+ * mai copiare (e quindi rischiare di perdere) i valori già scritti. Nessuna operazione su punteggi e amici prende
+ * lock: i punteggi si incrementano con una fetch-and-add atomica, e ogni utente ha un {@link FriendSet} immutabile,
+ * sostituito con una compare-and-set ad ogni nuova amicizia. Lista amici, classifiche e snapshot leggono quindi
+ * sempre valori consistenti senza mai bloccarsi, anche quando molte partite di un utente popolare finiscono insieme.
+ */
+public class UserTable {
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final ConcurrentHashMap<String, Integer> ids;
+
+    //Le pagine: l'array esterno viene sostituito (volatile) quando si aggiunge una pagina.
+    private volatile String[][] nicknames = new String[0][];
+    private volatile String[][] passwords = new String[0][];
+    private volatile AtomicIntegerArray[] points = new AtomicIntegerArray[0];
+    private volatile AtomicReferenceArray<FriendSet>[] friends = friendPages(0);
+
+    private volatile int size;
+
+    public UserTable() {
+        this(16);
+    }
+
+    public UserTable(int expectedUsers) {
+        this.ids = new ConcurrentHashMap<>(Math.max(16, expectedUsers * 4 / 3 + 1));
+    }
+
+    /**
+     * Costruisce la tabella a partire dagli utenti caricati dallo snapshot (e dal log). Prima si assegnano gli id a
+     * tutti gli utenti, poi si traducono le liste amici; gli amici che non sono utenti registrati vengono scartati.
+     *
+     * @param usersRegister Gli utenti caricati.
+     * @return La tabella.
+     */
+    public static UserTable of(Map<String, User> usersRegister) {
+        UserTable table = new UserTable(usersRegister.size());
+        for (User user : usersRegister.values()) {
+            int id = table.add(user.getNickUtente(), user.getPassword());
+            if (id >= 0) table.page(table.points, id).set(id & PAGE_MASK, user.getPoints());
+        }
+        for (User user : usersRegister.values()) {
+            int id = table.idOf(user.getNickUtente());
+            int[] userFriends = new int[user.getFriends().size()];
+            int count = 0;
+            for (String friend : user.getFriends()) {
+                int friendId = table.idOf(friend);
+                if (friendId >= 0) userFriends[count++] = friendId;
+            }
+            table.page(table.friends, id).set(id & PAGE_MASK, FriendSet.of(Arrays.copyOf(userFriends, count)));
+        }
+        return table;
+    }
+
+    //Java non permette di creare un array di un tipo generico: lo si crea con il tipo jolly.
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<FriendSet>[] friendPages(int pages) {
+        return (AtomicReferenceArray<FriendSet>[]) new AtomicReferenceArray<?>[pages];
+    }
+
+    private <T> T page(T[] pages, int id) {
+        return pages[id >>> PAGE_BITS];
+    }
+
+    /**
+     * Registra un nuovo utente, assegnandogli il primo id libero.
+     *
+     * @param nickname L'username.
+     * @param password La password.
+     * @return L'id assegnato, -1 se il nickname è già registrato.
+     */
+    public synchronized int add(String nickname, String password) {
+        if (this.ids.containsKey(nickname)) return -1;
+        int id = this.size;
+        if ((id & PAGE_MASK) == 0 && (id >>> PAGE_BITS) == this.nicknames.length) {
+            int pages = this.nicknames.length + 1;
+            String[][] newNicknames = Arrays.copyOf(this.nicknames, pages);
+            String[][] newPasswords = Arrays.copyOf(this.passwords, pages);
+            AtomicIntegerArray[] newPoints = Arrays.copyOf(this.points, pages);
+            AtomicReferenceArray<FriendSet>[] newFriends = Arrays.copyOf(this.friends, pages);
+            newNicknames[pages - 1] = new String[PAGE_SIZE];
+            newPasswords[pages - 1] = new String[PAGE_SIZE];
+            newPoints[pages - 1] = new AtomicIntegerArray(PAGE_SIZE);
+            newFriends[pages - 1] = new AtomicReferenceArray<>(PAGE_SIZE);
+            this.nicknames = newNicknames;
+            this.passwords = newPasswords;
+            this.points = newPoints;
+            this.friends = newFriends;
+        }
+        page(this.nicknames, id)[id & PAGE_MASK] = nickname;
+        page(this.passwords, id)[id & PAGE_MASK] = password;
+        page(this.friends, id).set(id & PAGE_MASK, FriendSet.EMPTY);
+        this.size = id + 1;
+        //L'id diventa visibile agli altri thread solo quando l'utente è completo.
+        this.ids.put(nickname, id);
+        return id;
+    }
+
+    /**
+     * Restituisce l'id associato al nickname.
+     *
+     * @param nickname L'username.
+     * @return L'id, -1 se l'utente non è registrato.
+     */
+    public int idOf(String nickname) {
+        Integer id = this.ids.get(nickname);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Restituisce il nickname dell'utente 'id'.
+     *
+     * @param id L'id dell'utente.
+     * @return Il nickname.
+     */
+    public String nameOf(int id) {
+        return page(this.nicknames, id)[id & PAGE_MASK];
+    }
+
+    /**
+     * Restituisce la password dell'utente 'id'.
+     *
+     * @param id L'id dell'utente.
+     * @return La password.
+     */
+    public String passwordOf(int id) {
+        return page(this.passwords, id)[id & PAGE_MASK];
+    }
+
+    /**
+     * Restituisce il punteggio totale dell'utente 'id'.
+     *
+     * @param id L'id dell'utente.
+     * @return Il punteggio.
+     */
+    public int pointsOf(int id) {
+        return page(this.points, id).get(id & PAGE_MASK);
+    }
+
+    /**
+     * Incrementa il punteggio totale dell'utente 'id' con una fetch-and-add atomica: incrementi concorrenti non
+     * si bloccano a vicenda e ognuno restituisce un totale diverso, nell'ordine in cui sono stati applicati.
+     *
+     * @param id L'id dell'utente.
+     * @param increment L'incremento.
+     * @return Il nuovo punteggio totale.
+     */
+    public int addPoints(int id, int increment) {
+        return page(this.points, id).addAndGet(id & PAGE_MASK, increment);
+    }
+
+    /**
+     * Restituisce gli amici dell'utente, in ordine di amicizia. L'insieme è immutabile (ogni nuova amicizia ne crea
+     * uno nuovo), quindi può essere letto senza alcuna sincronizzazione.
+     *
+     * @param id L'id dell'utente.
+     * @return Gli id degli amici.
+     */
+    public FriendSet friendsOf(int id) {
+        return page(this.friends, id).get(id & PAGE_MASK);
+    }
+
+    /**
+     * Restituisce la versione della lista amici di 'id'. Le amicizie vengono solo aggiunte, quindi la versione è
+     * il numero di amici: cambia ad ogni nuova amicizia e le prime 'versione' righe non cambiano mai.
+     *
+     * @param id L'id dell'utente.
+     * @return La versione.
+     */
+    public int friendsVersionOf(int id) {
+        return friendsOf(id).size();
+    }
+
+    /**
+     * Aggiunge 'friend' agli amici di 'id', pubblicando il nuovo insieme con una compare-and-set: se nel frattempo
+     * un altro thread ha aggiunto un amico a 'id', si riprova sull'insieme aggiornato.
+     *
+     * @param id L'id dell'utente.
+     * @param friend L'id del nuovo amico.
+     * @return {@code false} se i due utenti erano già amici.
+     */
+    public boolean addFriend(int id, int friend) {
+        AtomicReferenceArray<FriendSet> page = page(this.friends, id);
+        int slot = id & PAGE_MASK;
+        while (true) {
+            FriendSet current = page.get(slot);
+            FriendSet updated = current.with(friend);
+            if (updated == current) return false;
+            if (page.compareAndSet(slot, current, updated)) return true;
+        }
+    }
+
+    /**
+     * Controlla se 'friend' è tra gli amici di 'id', in tempo costante.
+     *
+     * @param id L'id dell'utente.
+     * @param friend L'id dell'altro utente.
+     * @return {@code true} se sono amici.
+     */
+    public boolean isFriend(int id, int friend) {
+        return friendsOf(id).contains(friend);
+    }
+
+    /**
+     * Traduce in nickname gli amici dell'utente: è la risposta di 'lista_amici'.
+     *
+     * @param id L'id dell'utente.
+     * @return I nickname degli amici.
+     */
+    public ArrayList<String> friendNamesOf(int id) {
+        FriendSet friendIds = friendsOf(id);
+        ArrayList<String> names = new ArrayList<>(friendIds.size());
+        for (int i = 0; i < friendIds.size(); i++) names.add(nameOf(friendIds.get(i)));
+        return names;
+    }
+
+    /**
+     * Costruisce la classifica dell'utente e dei suoi amici, in ordine decrescente di punteggio. L'ordinamento
+     * avviene sugli id e sui punteggi primitivi; le stringhe vengono risolte solo per costruire il risultato.
+     *
+     * @param id L'id dell'utente.
+     * @return La classifica, nickname -> punteggio.
+     */
+    public LinkedHashMap<String, Integer> rankOf(int id) {
+        FriendSet friendIds = friendsOf(id);
+        int n = friendIds.size() + 1;
+        //Punteggio e id in un unico long: ordinare i long ordina per punteggio, a parità per id.
+        long[] entries = new long[n];
+        entries[0] = pack(pointsOf(id), id);
+        for (int i = 0; i < friendIds.size(); i++) {
+            int friend = friendIds.get(i);
+            entries[i + 1] = pack(pointsOf(friend), friend);
+        }
+        Arrays.sort(entries);
+        LinkedHashMap<String, Integer> rank = new LinkedHashMap<>(n * 4 / 3 + 1);
+        for (int i = n - 1; i >= 0; i--) {
+            int userId = (int) entries[i];
+            rank.put(nameOf(userId), (int) (entries[i] >> 32));
+        }
+        return rank;
+    }
+
+    private static long pack(int points, int id) {
+        return ((long) points << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Ricostruisce un {@link User} (con le stringhe) dall'utente 'id': serve per scrivere gli snapshot.
+     *
+     * @param id L'id dell'utente.
+     * @return L'utente.
+     */
+    public User toUser(int id) {
+        return new User(nameOf(id), passwordOf(id), pointsOf(id), friendNamesOf(id));
+    }
+
+    /**
+     * Restituisce il numero di utenti registrati.
+     *
+     * @return Il numero di utenti.
+     */
+    public int size() {
+        return this.size;
+    }
+}
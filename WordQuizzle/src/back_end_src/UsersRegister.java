@@ -1,14 +1,21 @@
 package back_end_src;
 
 import back_end_src.exceptions.AlreadyFriendException;
+import common_src.FriendsUpdate;
+import common_src.JsonCodec;
 import common_src.exceptions.AlreadyRegisteredUserException;
+import common_src.RankEntry;
+import common_src.RankUpdate;
 import common_src.UsersRegisterInterface;
 
 import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.RemoteServer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
  * La classe {@link UsersRegister}. Astrae l'oggetto database di tutto il progetto.
@@ -18,7 +25,29 @@ import java.util.concurrent.ConcurrentHashMap;
 @SuppressWarnings("WeakerAccess")
 public class UsersRegister extends RemoteServer implements UsersRegisterInterface {
 
-    private ConcurrentHashMap<String, User> usersRegister;
+    /*
+        Gli utenti, con id interi densi: punteggi e amicizie sono array primitivi. Le stringhe servono solo
+        ai bordi, per tradurre i nickname ricevuti dai client e per costruire le risposte.
+     */
+    private UserTable usersRegister;
+
+    //Il write-ahead log sul quale vengono persistite le modifiche alla struttura.
+    private RegisterLog log;
+
+    //Le partizioni dello snapshot: alla compattazione vengono riscritte solo quelle modificate.
+    private RegisterPartitions partitions;
+
+    //La classifica globale, aggiornata ad ogni variazione di punteggio.
+    private ScoreIndex scoreIndex;
+
+    //Le classifiche degli amici degli utenti che le hanno richieste, aggiornate ad ogni variazione di punteggio.
+    private FriendRankings friendRankings;
+
+    //Le classifiche di oggi, della settimana e della stagione.
+    private WindowedLeaderboards leaderboards;
+
+    //Le ultime risposte codificate di 'lista_amici' e 'mostra_classifica' di ogni utente.
+    private final ResponseCache responseCache = new ResponseCache();
 
     /**
      * L'unica istanza della classe {@link UsersRegister}.
@@ -44,14 +73,38 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
     public static synchronized UsersRegister getInstance() throws RemoteException {
         if (instance == null) {
             instance = new UsersRegister();
+            instance.partitions = new RegisterPartitions(Server.registerPartitions);
+            ConcurrentHashMap<String, User> loaded = null;
             try {
-                instance.usersRegister = ServerUtilities.readJson();
+                loaded = instance.partitions.load();
+                if (loaded == null) {
+                    //Non ci sono ancora partizioni: si legge il vecchio snapshot, che verrà partizionato.
+                    loaded = ServerUtilities.readSnapshot();
+                    if (loaded != null) instance.partitions.adopt(loaded);
+                }
             } catch (IOException e) {
                 //C'è stato qualche problema durante la lettura del file!
                 e.printStackTrace();
             }
-            if (instance.usersRegister == null) {
-                instance.usersRegister = new ConcurrentHashMap<>();
+            if (loaded == null) {
+                loaded = new ConcurrentHashMap<>();
+            }
+            try {
+                //Si applicano allo snapshot le modifiche avvenute dopo la sua scrittura.
+                instance.log = RegisterLog.open(loaded, Server.walCommitWindow, instance.partitions::add);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            //Solo ora, a struttura completa, i nickname vengono tradotti in id.
+            instance.usersRegister = UserTable.of(loaded);
+            instance.scoreIndex = ScoreIndex.of(instance.usersRegister);
+            instance.friendRankings = new FriendRankings(instance.usersRegister);
+            instance.leaderboards = new WindowedLeaderboards(instance.usersRegister, Server.seasonStart,
+                    Server.seasonDays);
+            try {
+                instance.leaderboards.load();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
         return instance;
@@ -60,19 +113,28 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
     /**
      * Il metodo non è utilizzato, se non in un codice di debug. Ignorare.
      *
-     * @return La mappa {@link UsersRegister}.
+     * @return La tabella degli utenti.
      */
-    public ConcurrentHashMap<String, User> getUsersRegister() {
+    public UserTable getUsersRegister() {
         return this.usersRegister;
     }
 
 
+    /**
+     * Restituisce il write-ahead log della struttura.
+     *
+     * @return Il {@link RegisterLog} di {@link UsersRegister}.
+     */
+    public RegisterLog getRegisterLog() {
+        return this.log;
+    }
+
     /**
      * Registra un nuovo utente al servizio WordQuizzle, inserendolo all'interno
-     * di {@link #usersRegister} e riscrivendo sul file la struttura, così da
+     * di {@link #usersRegister} e accodando la registrazione al {@link RegisterLog}, così da
      * persistere le nuove modifiche. Per ulteriori informazioni riguardo l'implementazione
-     * della scrittura su file, consultare la classe {@link ServerUtilities}, metodo 
-     * {@link ServerUtilities#writeJson(ConcurrentHashMap)}
+     * della persistenza, consultare la classe {@link RegisterLog}. Il metodo ritorna solo quando la
+     * registrazione è persistente su disco: l'utente che riceve la conferma non può essere perso da un crash.
      *
      * @param nickUtente L'username da registrare.
      * @param password La password relativa all'utente.
@@ -85,15 +147,17 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
     public void registerNewUser(String nickUtente, String password) throws RemoteException,
             AlreadyRegisteredUserException, NullPointerException {
         if (nickUtente == null || password == null) throw new NullPointerException();
-        //Le operazioni composte non sarebbero di norma thread-safe. Ci viene però in aiuto la ConcurrentHashMap.
-        if (this.usersRegister.putIfAbsent(nickUtente, new User(nickUtente, password)) != null)
-            throw new AlreadyRegisteredUserException();
+        //Controllo e inserimento avvengono atomicamente all'interno di 'UserTable'.
+        int id = this.usersRegister.add(nickUtente, password);
+        if (id < 0) throw new AlreadyRegisteredUserException();
+        this.scoreIndex.update(id);
+        this.leaderboards.userAdded(id);
+        this.partitions.add(nickUtente);
         try {
-            //Thread-safe grazie all'utilizzo dei FileChannel.
-            ServerUtilities.writeJson(this.usersRegister);
-        } catch (IOException e) {
+            this.log.register(nickUtente, password).join();
+        } catch (CompletionException e) {
             e.printStackTrace();
-            System.out.println("Exception: trying writing on GSON after new sign up. [IO EXCEPTION]");
+            System.out.println("Exception: trying writing on the log after new sign up. [IO EXCEPTION]");
         }
 
         if(Server.DEBUG_MODE) System.out.println("Nuovo utente registrato: " + nickUtente);
@@ -107,7 +171,7 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
      */
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     public boolean searchUser(String id) {
-        return this.usersRegister.containsKey(id);
+        return this.usersRegister.idOf(id) >= 0;
     }
 
     /**
@@ -123,7 +187,7 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
             Non metto la lock perche tanto la password non puo essere cambiata da altri
             thread ne tanto meno si puo eliminare un utente dalla collezione
          */
-        return this.usersRegister.get(id).getPassword().equals(psw);
+        return this.usersRegister.passwordOf(this.usersRegister.idOf(id)).equals(psw);
     }
 
     /**
@@ -134,39 +198,256 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
      * @return La classifica,
      */
     public LinkedHashMap<String, Integer> buildRank(String id) {
-        LinkedHashMap<String, Integer> rank = new LinkedHashMap<>();
-
-        User user = this.usersRegister.get(id);
-        ArrayList<String> friends = user.getFriends();
-
-        rank.put(id, user.getPoints());
-
-        for (String friend : friends) {
-            /*
-                È necessario sincronizzarci su ogni utente, poichè tra i miei amici potrebbe essere che
-                qualcuno abbia appena finito di giocare e quindi il thread MatchManager ne stia aggiornando
-                il punteggio totale.
-             */
-            User u;
-            int points;
-            synchronized (u = this.usersRegister.get(friend)) {
-                points = u.getPoints();
-            }
-            rank.put(friend, points);
-        }
+        return buildRank(id, 0, Integer.MAX_VALUE);
+    }
 
+    /**
+     * Restituisce una porzione della classifica degli amici dell'utente: 'count' righe a partire dalla posizione
+     * 'from' (0 è il primo in classifica).
+     *
+     * @param id Utente che richiede la classifica.
+     * @param from La prima posizione.
+     * @param count Il numero di righe.
+     * @return La porzione di classifica.
+     */
+    public LinkedHashMap<String, Integer> buildRank(String id, int from, int count) {
         /*
-            Ordinamento della classifica, così da restituirla in ordine decrescente di punteggio.
+            La classifica non viene ordinata ad ogni richiesta: è mantenuta da 'FriendRankings', che riceve ogni
+            variazione di punteggio degli amici. Qui si leggono solo le righe richieste.
          */
-        List<Map.Entry<String, Integer>> list = new ArrayList<>(rank.entrySet());
-        list.sort((userA, userB) -> -(userA.getValue().compareTo(userB.getValue())));
-        rank.clear();
-        for (Map.Entry<String, Integer> entry : list) {
-            rank.put(entry.getKey(), entry.getValue());
+        return this.friendRankings.rankOf(this.usersRegister.idOf(id), from, count);
+    }
+
+    /**
+     * Restituisce la risposta codificata di 'mostra_classifica' per la porzione di classifica richiesta. Se la
+     * classifica non è cambiata dall'ultima richiesta con gli stessi argomenti, la risposta viene dalla cache.
+     *
+     * @param id Utente che richiede la classifica.
+     * @param from La prima posizione.
+     * @param count Il numero di righe.
+     * @param encoder Codifica la classifica nella risposta.
+     * @return La risposta codificata.
+     */
+    public byte[] getRankResponse(String id, int from, int count,
+                                  Function<LinkedHashMap<String, Integer>, byte[]> encoder) {
+        int user = this.usersRegister.idOf(id);
+        //La versione va letta prima delle righe, si veda 'FriendRankings.versionOf'.
+        long version = this.friendRankings.versionOf(user);
+        return this.responseCache.get(user, ResponseCache.Kind.MOSTRA_CLASSIFICA, version,
+                ((long) from << 32) | (count & 0xFFFFFFFFL),
+                () -> encoder.apply(this.friendRankings.rankOf(user, from, count)));
+    }
+
+    /**
+     * Restituisce la risposta codificata di 'lista_amici'. Se non ci sono nuove amicizie dall'ultima richiesta,
+     * la risposta viene dalla cache.
+     *
+     * @param id L'utente.
+     * @param encoder Codifica la lista amici nella risposta.
+     * @return La risposta codificata.
+     */
+    public byte[] getFriendsResponse(String id, Function<ArrayList<String>, byte[]> encoder) {
+        int user = this.usersRegister.idOf(id);
+        return this.responseCache.get(user, ResponseCache.Kind.LISTA_AMICI,
+                this.usersRegister.friendsVersionOf(user), 0,
+                () -> encoder.apply(this.usersRegister.friendNamesOf(user)));
+    }
+
+    /**
+     * Prepara la lista amici dell'utente da inviare a blocchi di 'chunkRows' amici. La lista è quella del momento
+     * della chiamata: le amicizie aggiunte durante l'invio non ne fanno parte. La versione è la sua lunghezza.
+     *
+     * @param id L'utente.
+     * @param chunkRows Il numero massimo di amici per blocco.
+     * @return La risposta a blocchi.
+     */
+    public ChunkedResponse getFriendsChunks(String id, int chunkRows) {
+        FriendSet friends = this.usersRegister.friendsOf(this.usersRegister.idOf(id));
+        return new ChunkedResponse(friends.size(), chunkRows, friends.size(), (from, to) -> {
+            ArrayList<String> names = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) names.add(this.usersRegister.nameOf(friends.get(i)));
+            return JsonCodec.encodeStrings(names);
+        });
+    }
+
+    /**
+     * Prepara la classifica degli amici dell'utente da inviare a blocchi di 'chunkRows' righe. I blocchi vengono
+     * letti da una copia della vista di {@link FriendRankings} presa insieme all'header: una variazione di punteggio
+     * durante l'invio non sposta le righe tra un blocco e l'altro (nessun amico ripetuto o saltato), e righe,
+     * dimensione e versione nell'header corrispondono sempre.
+     *
+     * @param id L'utente.
+     * @param chunkRows Il numero massimo di righe per blocco.
+     * @return La risposta a blocchi.
+     */
+    public ChunkedResponse getRankChunks(String id, int chunkRows) {
+        FriendRankings.Snapshot rank = this.friendRankings.snapshotOf(this.usersRegister.idOf(id));
+        return new ChunkedResponse(rank.size(), chunkRows, rank.version(), (from, to) ->
+                JsonCodec.encodeRank(rank.page(from, to - from)));
+    }
+
+    /**
+     * Restituisce gli amici aggiunti dopo la versione 'since' della lista amici dell'utente. La versione è la
+     * lunghezza della lista: le amicizie vengono solo aggiunte, in coda, quindi gli amici nuovi sono quelli dalla
+     * posizione 'since' in poi.
+     *
+     * @param id L'utente.
+     * @param since L'ultima versione ricevuta dal client, -1 se non ne ha ancora ricevuta una.
+     * @return L'aggiornamento, {@code null} se non ci sono nuovi amici.
+     */
+    public FriendsUpdate getFriendsUpdate(String id, int since) {
+        FriendSet friends = this.usersRegister.friendsOf(this.usersRegister.idOf(id));
+        int size = friends.size();
+        if (since == size) return null;
+        //Una versione che la lista non ha mai avuto: si invia tutta la lista.
+        boolean full = since < 0 || since > size;
+        ArrayList<String> added = new ArrayList<>(full ? size : size - since);
+        for (int i = full ? 0 : since; i < size; i++) added.add(this.usersRegister.nameOf(friends.get(i)));
+        return new FriendsUpdate(size, full, added);
+    }
+
+    /**
+     * Restituisce i punteggi della classifica dell'utente cambiati dopo la versione 'since', si veda
+     * {@link FriendRankings#changesSince(int, long)}.
+     *
+     * @param id L'utente.
+     * @param since L'ultima versione ricevuta dal client, -1 se non ne ha ancora ricevuta una.
+     * @return L'aggiornamento, {@code null} se la classifica non è cambiata.
+     */
+    public RankUpdate getRankUpdate(String id, long since) {
+        return this.friendRankings.changesSince(this.usersRegister.idOf(id), since);
+    }
+
+    /**
+     * Restituisce la cache delle risposte, per stamparne le statistiche.
+     *
+     * @return La cache delle risposte.
+     */
+    public ResponseCache getResponseCache() {
+        return this.responseCache;
+    }
+
+    /**
+     * Rilascia la classifica degli amici e le risposte in cache mantenute per l'utente 'id' (che ha fatto logout
+     * o è uscito).
+     *
+     * @param id L'utente.
+     */
+    public void releaseRank(String id) {
+        int user = this.usersRegister.idOf(id);
+        if (user < 0) return;
+        this.friendRankings.release(user);
+        this.responseCache.release(user);
+    }
+
+    /**
+     * Restituisce l'indice della classifica richiesta: quella di sempre se 'window' è {@code null}, altrimenti
+     * quella della finestra temporale.
+     *
+     * @param window La finestra temporale, {@code null} per la classifica di sempre.
+     * @return L'indice della classifica.
+     */
+    private ScoreIndex leaderboard(WindowedLeaderboards.Window window) {
+        return window == null ? this.scoreIndex : this.leaderboards.indexOf(window);
+    }
+
+    /**
+     * Restituisce i primi 'count' utenti della classifica globale.
+     *
+     * @param window La finestra temporale, {@code null} per la classifica di sempre.
+     * @param count Il numero di utenti.
+     * @return Le righe della classifica.
+     */
+    public ArrayList<RankEntry> getGlobalTop(WindowedLeaderboards.Window window, int count) {
+        return leaderboard(window).top(count);
+    }
+
+    /**
+     * Restituisce la porzione di classifica globale intorno all'utente 'id'.
+     *
+     * @param window La finestra temporale, {@code null} per la classifica di sempre.
+     * @param id L'utente.
+     * @param radius Il numero di utenti da mostrare prima e dopo di lui.
+     * @return Le righe della classifica.
+     */
+    public ArrayList<RankEntry> getGlobalRankAround(WindowedLeaderboards.Window window, String id, int radius) {
+        return leaderboard(window).around(this.usersRegister.idOf(id), radius);
+    }
+
+    /**
+     * Restituisce la posizione dell'utente 'id' nella classifica globale.
+     *
+     * @param window La finestra temporale, {@code null} per la classifica di sempre.
+     * @param id L'utente.
+     * @return La posizione, a partire da 1.
+     */
+    public int getGlobalRankOf(WindowedLeaderboards.Window window, String id) {
+        return leaderboard(window).rankOf(this.usersRegister.idOf(id));
+    }
+
+    /**
+     * Restituisce la percentuale di utenti con un punteggio minore di quello di 'id'.
+     *
+     * @param window La finestra temporale, {@code null} per la classifica di sempre.
+     * @param id L'utente.
+     * @return Il percentile, tra 0 e 100.
+     */
+    public double getGlobalPercentileOf(WindowedLeaderboards.Window window, String id) {
+        return leaderboard(window).percentileOf(this.usersRegister.idOf(id));
+    }
+
+    /**
+     * Salva su file le classifiche a finestra temporale. Viene eseguito periodicamente dal {@link Server}.
+     */
+    public void saveLeaderboards() {
+        try {
+            this.leaderboards.save();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+    }
 
-        return rank;
+    /**
+     * Esporta l'intera struttura nel file JSON di {@link ServerUtilities#writeJson}, come copia leggibile: la
+     * persistenza resta quella del {@link RegisterLog} e delle partizioni. Gli utenti vengono ricostruiti uno alla
+     * volta, mentre vengono scritti, senza copiare l'intera struttura. Viene eseguito alla chiusura del
+     * {@link Server}, se 'json_export' è abilitato nella configurazione.
+     *
+     * @throws IOException In caso di problemi durante la scrittura del file.
+     */
+    public void exportJson() throws IOException {
+        UserTable table = this.usersRegister;
+        int users = table.size();
+        ServerUtilities.writeJson(new AbstractMap<String, User>() {
+            @Override
+            public Set<Map.Entry<String, User>> entrySet() {
+                return new AbstractSet<Map.Entry<String, User>>() {
+                    @Override
+                    public Iterator<Map.Entry<String, User>> iterator() {
+                        return new Iterator<Map.Entry<String, User>>() {
+                            private int next;
 
+                            @Override
+                            public boolean hasNext() {
+                                return this.next < users;
+                            }
+
+                            @Override
+                            public Map.Entry<String, User> next() {
+                                if (!hasNext()) throw new NoSuchElementException();
+                                User user = table.toUser(this.next++);
+                                return new AbstractMap.SimpleImmutableEntry<>(user.getNickUtente(), user);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return users;
+                    }
+                };
+            }
+        });
     }
 
     /**
@@ -177,7 +458,8 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
      * @return {@code true}, se 'id' e 'id2' sono amici, {@code false} altrimenti.
      */
     public boolean isFriendOf(String id, String id2) {
-        return this.usersRegister.get(id).getFriends().contains(id2);
+        int friend = this.usersRegister.idOf(id2);
+        return friend >= 0 && this.usersRegister.isFriend(this.usersRegister.idOf(id), friend);
     }
 
     /**
@@ -187,10 +469,7 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
      * @return Il punteggio totale dell'utente.
      */
     public int getPointOf(String id) {
-        User user;
-        synchronized (user = this.usersRegister.get(id)) {
-            return user.getPoints();
-        }
+        return this.usersRegister.pointsOf(this.usersRegister.idOf(id));
     }
 
     /**
@@ -200,21 +479,27 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
      * @return La lista amici di 'id'.
      */
     public ArrayList<String> getFriendsOf(String id) {
-        return this.usersRegister.get(id).getFriends();
+        return this.usersRegister.friendNamesOf(this.usersRegister.idOf(id));
     }
 
     /**
-     * Aggiunge una nuova amicizia tra 'id' e 'id2'.
+     * Aggiunge una nuova amicizia tra 'id' e 'id2'. La modifica è subito visibile in memoria, mentre la sua
+     * persistenza avviene con il prossimo commit del {@link RegisterLog}: il selettore del {@link Server} non
+     * deve restare bloccato ad aspettarlo.
      *
      * @param id Il primo utente.
      * @param id2 Il secondo utente.
+     * @return Un future completato quando l'amicizia è persistente su disco.
      * @throws AlreadyFriendException Nel caso in cui i due utenti siano già amici.
-     * @throws IOException Nel caso in cui ci siano problemi durante la scrittura sul file della struttura.
      */
-    public void addFriends(String id, String id2) throws AlreadyFriendException, IOException {
-        this.usersRegister.get(id).addFriend(id2);
-        this.usersRegister.get(id2).addFriend(id);
-        ServerUtilities.writeJson(this.usersRegister);
+    public CompletableFuture<Void> addFriends(String id, String id2) throws AlreadyFriendException {
+        int user = this.usersRegister.idOf(id), user2 = this.usersRegister.idOf(id2);
+        if (!this.usersRegister.addFriend(user, user2)) throw new AlreadyFriendException();
+        this.usersRegister.addFriend(user2, user);
+        this.friendRankings.friendshipAdded(user, user2);
+        this.partitions.markDirty(id);
+        this.partitions.markDirty(id2);
+        return logged(this.log.addFriend(id, id2));
     }
 
     /**
@@ -222,14 +507,44 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
      *
      * @param id L'utente di cui incrementare il punteggio.
      * @param points Il fattore di cui incrementare il punteggio.
+     * @return Un future completato quando il nuovo punteggio è persistente su disco.
      */
-    public void incrementPointsOf(String id, int points) {
-        User u;
-        synchronized (u = this.usersRegister.get(id)) {
-            u.incrementPoints(points);
-        }
+    public CompletableFuture<Void> incrementPointsOf(String id, int points) {
+        int user = this.usersRegister.idOf(id);
+        int total = this.usersRegister.addPoints(user, points);
+        this.scoreIndex.update(user);
+        this.friendRankings.pointsChanged(user);
+        this.leaderboards.record(user, points);
+        this.partitions.markDirty(id);
+        //Il record porta il totale e viene riapplicato come massimo, quindi l'ordine dei record non conta.
+        return logged(this.log.addPoints(id, points, total));
+    }
+
+    //Stampa gli eventuali errori di scrittura di chi non aspetta il future.
+    private static CompletableFuture<Void> logged(CompletableFuture<Void> future) {
+        return future.whenComplete((ignored, e) -> {
+            if (e != null) {
+                e.printStackTrace();
+                System.out.println("Exception: trying writing on the log. [IO EXCEPTION]");
+            }
+        });
+    }
+
+    /**
+     * Compatta il {@link RegisterLog}, riscrivendo le partizioni modificate dello snapshot, se il log è cresciuto
+     * oltre 'maxLogSize' byte o se sono passati più di 'periodMillis' millisecondi dall'ultima compattazione.
+     * Viene chiamato periodicamente dal {@link Server}.
+     *
+     * @param maxLogSize La dimensione massima del log.
+     * @param periodMillis L'intervallo massimo tra due compattazioni.
+     */
+    public void compactIfNeeded(long maxLogSize, long periodMillis) {
+        if (this.log == null || !this.log.needsCompaction(maxLogSize, periodMillis)) return;
         try {
-            ServerUtilities.writeJson(this.usersRegister);
+            this.log.compact(() -> {
+                int written = this.partitions.flush(this.usersRegister);
+                if (Server.DEBUG_MODE) System.out.println("Partizioni riscritte: " + written);
+            });
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -239,8 +554,9 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
      * Stampa la struttura dati, all'apertura del {@link Server}.
      */
     public void printRegister() {
-        for (String key : this.usersRegister.keySet()) {
-            System.out.println("Key --> Nickname: " + key + " --- Values --> " + this.usersRegister.get(key).toString());
+        for (int i = 0; i < this.usersRegister.size(); i++) {
+            System.out.println("Key --> Nickname: " + this.usersRegister.nameOf(i) + " --- Values --> "
+                    + this.usersRegister.toUser(i).toString());
         }
         System.out.println("Numero di utenti registrati: " + this.usersRegister.size());
     }
@@ -252,9 +568,8 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
     @SuppressWarnings("unused")
     public void howMuchPoints() {
         int sum = 0;
-        for (Map.Entry<String, User> entry : this.usersRegister.entrySet()) {
-            String key = entry.getKey();
-            sum += this.usersRegister.get(key).getPoints();
+        for (int i = 0; i < this.usersRegister.size(); i++) {
+            sum += this.usersRegister.pointsOf(i);
         }
         System.out.println("Numero di punti totali: " + sum);
     }
@@ -271,7 +586,7 @@ public class UsersRegister extends RemoteServer implements UsersRegisterInterfac
     @Override
     public String toString() {
         return "UsersRegister{" +
-                "usersRegister=" + usersRegister +
+                "users=" + usersRegister.size() +
                 '}';
     }
 }
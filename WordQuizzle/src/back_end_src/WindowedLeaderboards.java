@@ -0,0 +1,231 @@
+package back_end_src;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link WindowedLeaderboards} mantiene le classifiche a finestra temporale: di oggi, di questa settimana (da lunedì)
+ * e della stagione in corso (stagioni consecutive di 'season_days' giorni a partire da 'season_start').
+ *
+ * Ogni variazione di punteggio viene registrata nel bucket del giorno in cui avviene. I bucket stanno in un
+ * buffer circolare lungo quanto la finestra più lunga; ogni finestra ha i totali dei suoi utenti e un
+ * {@link ScoreIndex} su quei totali, quindi le interrogazioni costano quanto quelle della classifica globale.
+ * Quando una finestra avanza (a mezzanotte, il lunedì, a inizio stagione) i giorni che ne escono vengono sottratti
+ * dai totali: ogni variazione viene quindi sottratta al più una volta per finestra, e far scadere un bucket costa
+ * O(1) ammortizzato per variazione registrata. I bucket vengono salvati periodicamente su file, così da
+ * sopravvivere al riavvio del server.
+ */
+public class WindowedLeaderboards {
+
+    private static final String LEADERBOARDS_PATH = "./src/back_end_src/leaderboards.json";
+
+    /**
+     * Le finestre temporali disponibili.
+     */
+    public enum Window {
+        OGGI, SETTIMANA, STAGIONE
+    }
+
+    private final UserTable table;
+    //Il giorno corrente, come numero di giorni dal 1970-01-01.
+    private final LongSupplier today;
+    private final long seasonStart;
+    private final int seasonDays;
+
+    private final Day[] ring;
+    private final WindowState[] windows = new WindowState[Window.values().length];
+    private long lastDay;
+
+    public WindowedLeaderboards(UserTable table, LocalDate seasonStart, int seasonDays) {
+        this(table, seasonStart, seasonDays, () -> LocalDate.now().toEpochDay());
+    }
+
+    public WindowedLeaderboards(UserTable table, LocalDate seasonStart, int seasonDays, LongSupplier today) {
+        if (seasonDays <= 0) throw new IllegalArgumentException();
+        this.table = table;
+        this.today = today;
+        this.seasonStart = seasonStart.toEpochDay();
+        this.seasonDays = seasonDays;
+        this.ring = new Day[Math.max(7, seasonDays)];
+        for (int i = 0; i < this.ring.length; i++) this.ring[i] = new Day();
+        this.lastDay = today.getAsLong();
+        for (Window window : Window.values()) {
+            WindowState state = new WindowState(startOf(window, this.lastDay));
+            state.index = ScoreIndex.of(table, state::totalOf);
+            this.windows[window.ordinal()] = state;
+        }
+    }
+
+    /**
+     * Registra una variazione di punteggio dell'utente 'id', avvenuta ora.
+     *
+     * @param id L'id dell'utente.
+     * @param delta La variazione.
+     */
+    public synchronized void record(int id, int delta) {
+        advance();
+        add(this.lastDay, id, delta);
+    }
+
+    private void add(long day, int id, int delta) {
+        Day bucket = this.ring[(int) Math.floorMod(day, (long) this.ring.length)];
+        //Il giorno precedente nello stesso slot è già uscito da tutte le finestre: lo si ricicla.
+        if (bucket.day != day) {
+            bucket.day = day;
+            bucket.deltas.clear();
+        }
+        bucket.deltas.merge(id, delta, Integer::sum);
+        for (WindowState window : this.windows) {
+            if (day >= window.from) {
+                window.add(id, delta);
+                window.index.update(id);
+            }
+        }
+    }
+
+    /**
+     * Aggiunge alle classifiche un nuovo utente, con punteggio 0.
+     *
+     * @param id L'id del nuovo utente.
+     */
+    public synchronized void userAdded(int id) {
+        for (WindowState window : this.windows) window.index.update(id);
+    }
+
+    /**
+     * Restituisce l'indice della classifica della finestra, dopo averla fatta avanzare al giorno corrente.
+     *
+     * @param window La finestra.
+     * @return L'indice della classifica.
+     */
+    public synchronized ScoreIndex indexOf(Window window) {
+        advance();
+        return this.windows[window.ordinal()].index;
+    }
+
+    //Fa avanzare le finestre al giorno corrente, sottraendo i giorni che ne sono usciti.
+    private void advance() {
+        long now = this.today.getAsLong();
+        if (now <= this.lastDay) return;
+        for (Window window : Window.values()) {
+            WindowState state = this.windows[window.ordinal()];
+            long from = startOf(window, now);
+            if (from <= state.from) continue;
+            for (Day bucket : this.ring) {
+                if (bucket.day < state.from || bucket.day >= from) continue;
+                for (Map.Entry<Integer, Integer> delta : bucket.deltas.entrySet()) {
+                    state.add(delta.getKey(), -delta.getValue());
+                    state.index.update(delta.getKey());
+                }
+            }
+            state.from = from;
+        }
+        this.lastDay = now;
+    }
+
+    private long startOf(Window window, long day) {
+        switch (window) {
+            case OGGI:
+                return day;
+            case SETTIMANA:
+                return day - (LocalDate.ofEpochDay(day).getDayOfWeek().getValue() - 1);
+            default:
+                //Prima dell'inizio della prima stagione la finestra è vuota.
+                if (day < this.seasonStart) return this.seasonStart;
+                return this.seasonStart + (day - this.seasonStart) / this.seasonDays * this.seasonDays;
+        }
+    }
+
+    /**
+     * Salva su file i bucket dei giorni ancora nel buffer, con i nickname degli utenti. Il file viene prima scritto
+     * in una copia temporanea e poi rinominato.
+     *
+     * @throws IOException In caso di problemi durante la scrittura del file.
+     */
+    public void save() throws IOException {
+        LinkedHashMap<Long, HashMap<String, Integer>> days = new LinkedHashMap<>();
+        synchronized (this) {
+            for (Day bucket : this.ring) {
+                if (bucket.day == Long.MIN_VALUE || bucket.deltas.isEmpty()) continue;
+                HashMap<String, Integer> deltas = new HashMap<>(bucket.deltas.size() * 4 / 3 + 1);
+                for (Map.Entry<Integer, Integer> delta : bucket.deltas.entrySet()) {
+                    deltas.put(this.table.nameOf(delta.getKey()), delta.getValue());
+                }
+                days.put(bucket.day, deltas);
+            }
+        }
+        Path path = Paths.get(LEADERBOARDS_PATH);
+        Path temp = Paths.get(LEADERBOARDS_PATH + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            new Gson().toJson(days, writer);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Ricarica dal file i bucket salvati in precedenza. I giorni ormai fuori dal buffer e gli utenti che non sono
+     * più registrati vengono ignorati.
+     *
+     * @throws IOException In caso di problemi durante la lettura del file.
+     */
+    public synchronized void load() throws IOException {
+        Type daysType = new TypeToken<LinkedHashMap<Long, HashMap<String, Integer>>>() {
+        }.getType();
+        LinkedHashMap<Long, HashMap<String, Integer>> days;
+        try (Reader reader = Files.newBufferedReader(Paths.get(LEADERBOARDS_PATH), StandardCharsets.UTF_8)) {
+            days = new Gson().fromJson(reader, daysType);
+        } catch (NoSuchFileException e) {
+            //Prima esecuzione, non ci sono ancora classifiche a finestra.
+            return;
+        }
+        if (days == null) return;
+        advance();
+        for (Map.Entry<Long, HashMap<String, Integer>> day : days.entrySet()) {
+            if (day.getKey() <= this.lastDay - this.ring.length || day.getKey() > this.lastDay) continue;
+            for (Map.Entry<String, Integer> delta : day.getValue().entrySet()) {
+                int id = this.table.idOf(delta.getKey());
+                if (id >= 0) add(day.getKey(), id, delta.getValue());
+            }
+        }
+    }
+
+    //Un giorno del buffer circolare: le variazioni di punteggio di ogni utente in quel giorno.
+    private static final class Day {
+        private long day = Long.MIN_VALUE;
+        private final HashMap<Integer, Integer> deltas = new HashMap<>();
+    }
+
+    //Una finestra: il primo giorno che comprende e i totali dei suoi utenti, letti dal suo ScoreIndex.
+    private static final class WindowState {
+        private long from;
+        private int[] totals = new int[0];
+        private ScoreIndex index;
+
+        WindowState(long from) {
+            this.from = from;
+        }
+
+        int totalOf(int id) {
+            return id < this.totals.length ? this.totals[id] : 0;
+        }
+
+        void add(int id, int delta) {
+            if (id >= this.totals.length) this.totals = Arrays.copyOf(this.totals, Math.max(16, Math.max(id + 1,
+                    this.totals.length * 2)));
+            this.totals[id] += delta;
+        }
+    }
+}
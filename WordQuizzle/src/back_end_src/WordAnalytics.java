@@ -0,0 +1,320 @@
+package back_end_src;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link WordAnalytics} raccoglie le statistiche delle risposte date durante i match, parola per parola: quante
+ * traduzioni corrette, errate e non date, quanto tempo ci mettono gli utenti a rispondere e quali sono le traduzioni
+ * sbagliate più frequenti. I contatori sono dei {@link LongAdder}, così che i vari {@link MatchManager} possano
+ * aggiornarli contemporaneamente senza alcun lock. Le statistiche vengono salvate periodicamente su file e ricaricate
+ * all'avvio del {@link Server}; sono inoltre la fonte dalla quale {@link WordSelector} calcola la difficoltà delle parole.
+ */
+public class WordAnalytics {
+
+    private static final String ANALYTICS_PATH = "./src/back_end_src/wordAnalytics.json";
+
+    /*
+        Limiti superiori (in millisecondi) delle fasce dell'istogramma dei tempi di risposta. L'ultima fascia
+        raccoglie tutte le risposte più lente dell'ultimo limite.
+     */
+    static final long[] TIME_BUCKETS_MILLIS = {1000, 2000, 4000, 8000, 16000};
+
+    /*
+        Quante traduzioni errate diverse contare al più per ogni parola (i contatori dello Space-Saving, si veda
+        'Stats.countWrongAnswer'), e quante salvarne su file.
+     */
+    private static final int MAX_WRONG_VARIANTS = 64;
+    private static final int SAVED_WRONG_VARIANTS = 10;
+
+    private final String[] words;
+    private final AtomicReferenceArray<Stats> stats;
+
+    public WordAnalytics(WordSelector wordSelector) {
+        this.words = new String[wordSelector.size()];
+        for (int i = 0; i < this.words.length; i++) {
+            this.words[i] = wordSelector.wordAt(i);
+        }
+        this.stats = new AtomicReferenceArray<>(this.words.length);
+    }
+
+    private Stats statsOf(int index) {
+        Stats current = this.stats.get(index);
+        if (current == null) {
+            Stats created = new Stats();
+            current = this.stats.compareAndSet(index, null, created) ? created : this.stats.get(index);
+        }
+        return current;
+    }
+
+    /**
+     * Registra una risposta data alla parola 'index'.
+     *
+     * @param index L'indice della parola nel dizionario.
+     * @param answer La traduzione data dall'utente.
+     * @param correct {@code true} se la traduzione è corretta.
+     * @param elapsedMillis Il tempo impiegato per rispondere, in millisecondi.
+     */
+    public void recordAnswer(int index, String answer, boolean correct, long elapsedMillis) {
+        if (index < 0 || index >= this.words.length) return;
+        Stats stats = statsOf(index);
+        if (correct) {
+            stats.correct.increment();
+        } else {
+            stats.wrong.increment();
+            stats.countWrongAnswer(answer);
+        }
+        stats.answerMillis.add(elapsedMillis);
+        stats.histogram[bucketOf(elapsedMillis)].increment();
+    }
+
+    /**
+     * Registra una parola alla quale l'utente non ha risposto (timeout della sfida o abbandono).
+     *
+     * @param index L'indice della parola nel dizionario.
+     */
+    public void recordUnanswered(int index) {
+        if (index < 0 || index >= this.words.length) return;
+        statsOf(index).unanswered.increment();
+    }
+
+    private static int bucketOf(long millis) {
+        for (int i = 0; i < TIME_BUCKETS_MILLIS.length; i++) {
+            if (millis < TIME_BUCKETS_MILLIS[i]) return i;
+        }
+        return TIME_BUCKETS_MILLIS.length;
+    }
+
+    /**
+     * Restituisce il numero di risposte corrette date alla parola.
+     *
+     * @param index L'indice della parola.
+     * @return Il numero di risposte corrette.
+     */
+    public long correctOf(int index) {
+        Stats stats = this.stats.get(index);
+        return stats == null ? 0 : stats.correct.sum();
+    }
+
+    /**
+     * Restituisce il numero di risposte errate date alla parola.
+     *
+     * @param index L'indice della parola.
+     * @return Il numero di risposte errate.
+     */
+    public long wrongOf(int index) {
+        Stats stats = this.stats.get(index);
+        return stats == null ? 0 : stats.wrong.sum();
+    }
+
+    /**
+     * Costruisce il resoconto delle statistiche di una parola.
+     *
+     * @param index L'indice della parola.
+     * @param topWrong Quante traduzioni errate (le più frequenti) includere.
+     * @return Il resoconto, {@code null} se la parola non è mai stata giocata.
+     */
+    public WordReport report(int index, int topWrong) {
+        Stats stats = this.stats.get(index);
+        return stats == null ? null : stats.report(topWrong);
+    }
+
+    /**
+     * Restituisce le 'n' parole con la percentuale più bassa di risposte corrette, considerando solo quelle
+     * con almeno 'minAnswers' risposte.
+     *
+     * @param n Quante parole restituire.
+     * @param minAnswers Il numero minimo di risposte per essere considerata.
+     * @return Le parole più difficili, dalla più difficile.
+     */
+    public List<String> hardestWords(int n, long minAnswers) {
+        List<Integer> candidates = new ArrayList<>();
+        double[] ratios = new double[this.words.length];
+        for (int i = 0; i < this.words.length; i++) {
+            long correct = correctOf(i), total = correct + wrongOf(i);
+            if (total < minAnswers || total == 0) continue;
+            ratios[i] = (double) correct / total;
+            candidates.add(i);
+        }
+        candidates.sort(Comparator.comparingDouble(i -> ratios[i]));
+        List<String> hardest = new ArrayList<>();
+        for (int i = 0; i < Math.min(n, candidates.size()); i++) {
+            hardest.add(this.words[candidates.get(i)]);
+        }
+        return hardest;
+    }
+
+    /**
+     * Salva su file le statistiche di tutte le parole giocate. Il file viene prima scritto in una copia temporanea
+     * e poi rinominato, così che un crash durante la scrittura non lasci mai un file a metà.
+     *
+     * @throws IOException In caso di problemi durante la scrittura del file.
+     */
+    public void save() throws IOException {
+        LinkedHashMap<String, WordReport> reports = new LinkedHashMap<>();
+        for (int i = 0; i < this.words.length; i++) {
+            WordReport report = report(i, SAVED_WRONG_VARIANTS);
+            if (report != null) reports.put(this.words[i], report);
+        }
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        Path path = Paths.get(ANALYTICS_PATH);
+        Path temp = Paths.get(ANALYTICS_PATH + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            gson.toJson(reports, writer);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Ricarica dal file le statistiche salvate in precedenza. Le parole che non sono più nel dizionario
+     * vengono ignorate.
+     *
+     * @param wordSelector Il dizionario indicizzato, per ritrovare gli indici delle parole.
+     * @throws IOException In caso di problemi durante la lettura del file.
+     */
+    public void load(WordSelector wordSelector) throws IOException {
+        Type reportsType = new TypeToken<LinkedHashMap<String, WordReport>>() {
+        }.getType();
+        LinkedHashMap<String, WordReport> reports;
+        try (Reader reader = Files.newBufferedReader(Paths.get(ANALYTICS_PATH), StandardCharsets.UTF_8)) {
+            reports = new Gson().fromJson(reader, reportsType);
+        } catch (NoSuchFileException e) {
+            //Prima esecuzione, non ci sono ancora statistiche.
+            return;
+        }
+        if (reports == null) return;
+        for (Map.Entry<String, WordReport> entry : reports.entrySet()) {
+            int index = wordSelector.indexOf(entry.getKey());
+            if (index >= 0) statsOf(index).restore(entry.getValue());
+        }
+    }
+
+    /**
+     * Le statistiche di una singola parola.
+     */
+    private static class Stats {
+        private final LongAdder correct = new LongAdder();
+        private final LongAdder wrong = new LongAdder();
+        private final LongAdder unanswered = new LongAdder();
+        private final LongAdder answerMillis = new LongAdder();
+        private final LongAdder[] histogram = new LongAdder[TIME_BUCKETS_MILLIS.length + 1];
+        //Le traduzioni errate contate, con il loro conteggio: vi si accede sincronizzati sulla mappa.
+        private final HashMap<String, Long> wrongAnswers = new HashMap<>();
+
+        Stats() {
+            for (int i = 0; i < this.histogram.length; i++) this.histogram[i] = new LongAdder();
+        }
+
+        void countWrongAnswer(String answer) {
+            if (answer == null || answer.isEmpty()) return;
+            countWrongAnswer(answer, 1);
+        }
+
+        /*
+            Space-Saving: al più MAX_WRONG_VARIANTS contatori. Una traduzione nuova, a contatori esauriti, prende il
+            posto di quella con il contatore più basso ed eredita quel conteggio (più 'count'): una traduzione che
+            diventa frequente tardi entra comunque nella lista, e ogni traduzione che è più di una su MAX_WRONG_VARIANTS
+            tra quelle errate ha sicuramente un contatore. Il conteggio di ogni contatore sovrastima quello reale al più del
+            conteggio ereditato. Le traduzioni errate sono rare rispetto alle risposte, quindi basta una lock.
+         */
+        private void countWrongAnswer(String answer, long count) {
+            synchronized (this.wrongAnswers) {
+                if (this.wrongAnswers.containsKey(answer) || this.wrongAnswers.size() < MAX_WRONG_VARIANTS) {
+                    this.wrongAnswers.merge(answer, count, Long::sum);
+                    return;
+                }
+                Map.Entry<String, Long> min = null;
+                for (Map.Entry<String, Long> entry : this.wrongAnswers.entrySet()) {
+                    if (min == null || entry.getValue() < min.getValue()) min = entry;
+                }
+                long inherited = min.getValue();
+                this.wrongAnswers.remove(min.getKey());
+                this.wrongAnswers.put(answer, inherited + count);
+            }
+        }
+
+        WordReport report(int topWrong) {
+            WordReport report = new WordReport();
+            report.correct = this.correct.sum();
+            report.wrong = this.wrong.sum();
+            report.unanswered = this.unanswered.sum();
+            report.totalAnswerMillis = this.answerMillis.sum();
+            report.answerTimeHistogram = new long[this.histogram.length];
+            for (int i = 0; i < this.histogram.length; i++) report.answerTimeHistogram[i] = this.histogram[i].sum();
+            List<Map.Entry<String, Long>> entries = new ArrayList<>();
+            synchronized (this.wrongAnswers) {
+                for (Map.Entry<String, Long> entry : this.wrongAnswers.entrySet()) {
+                    entries.add(new AbstractMap.SimpleEntry<>(entry));
+                }
+            }
+            entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+            report.wrongAnswers = new LinkedHashMap<>();
+            for (int i = 0; i < Math.min(topWrong, entries.size()); i++) {
+                report.wrongAnswers.put(entries.get(i).getKey(), entries.get(i).getValue());
+            }
+            return report;
+        }
+
+        void restore(WordReport report) {
+            this.correct.add(report.correct);
+            this.wrong.add(report.wrong);
+            this.unanswered.add(report.unanswered);
+            this.answerMillis.add(report.totalAnswerMillis);
+            if (report.answerTimeHistogram != null) {
+                for (int i = 0; i < Math.min(this.histogram.length, report.answerTimeHistogram.length); i++) {
+                    this.histogram[i].add(report.answerTimeHistogram[i]);
+                }
+            }
+            if (report.wrongAnswers != null) {
+                for (Map.Entry<String, Long> entry : report.wrongAnswers.entrySet()) {
+                    countWrongAnswer(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Il resoconto delle statistiche di una parola, così come viene salvato su file.
+     */
+    public static class WordReport {
+        long correct;
+        long wrong;
+        long unanswered;
+        long totalAnswerMillis;
+        long[] answerTimeHistogram;
+        LinkedHashMap<String, Long> wrongAnswers;
+
+        /**
+         * Restituisce il tempo medio di risposta, in millisecondi.
+         *
+         * @return Il tempo medio di risposta, 0 se la parola non ha ancora risposte.
+         */
+        public long averageAnswerMillis() {
+            long answers = this.correct + this.wrong;
+            return answers == 0 ? 0 : this.totalAnswerMillis / answers;
+        }
+
+        @Override
+        public String toString() {
+            return "WordReport{" +
+                    "correct=" + correct +
+                    ", wrong=" + wrong +
+                    ", unanswered=" + unanswered +
+                    ", averageAnswerMillis=" + averageAnswerMillis() +
+                    ", answerTimeHistogram=" + Arrays.toString(answerTimeHistogram) +
+                    ", wrongAnswers=" + wrongAnswers +
+                    '}';
+        }
+    }
+}
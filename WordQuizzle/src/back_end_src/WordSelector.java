@@ -0,0 +1,297 @@
+package back_end_src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link WordSelector} si occupa di scegliere le parole da proporre durante una sfida. Il dizionario viene
+ * indicizzato all'avvio del {@link Server} e ogni parola è assegnata ad una fascia di difficoltà (facile, media,
+ * difficile), calcolata a partire dalle statistiche raccolte da {@link WordAnalytics}. Per ogni utente viene inoltre
+ * mantenuto un piccolo bitset delle parole giocate di recente, così da evitare (per quanto possibile) di
+ * riproporgli sempre le stesse parole.
+ */
+public class WordSelector {
+
+    static final int EASY = 0;
+    static final int MEDIUM = 1;
+    static final int HARD = 2;
+    private static final int TIERS = 3;
+
+    /*
+        Soglie per la classificazione delle parole. Finchè una parola non ha ricevuto almeno MIN_SAMPLES risposte
+        resta nella fascia media; poi viene spostata in base alla percentuale di risposte corrette.
+     */
+    private static final int MIN_SAMPLES = 10;
+    private static final double EASY_RATIO = 0.7;
+    private static final double HARD_RATIO = 0.3;
+
+    //Quante volte ritentare l'estrazione nel caso in cui esca una parola giocata di recente.
+    private static final int MAX_RETRIES = 3;
+
+    private final String[] words;
+    private final HashMap<String, Integer> indexes;
+
+    private final byte[] tierOf;
+
+    /*
+        Le parole divise per fascia. L'array viene ricostruito da 'rebuildTiers' e pubblicato tramite 'volatile':
+        chi estrae le parole lavora sempre su una fotografia consistente, senza alcuna sincronizzazione.
+     */
+    private volatile int[][] tiers;
+
+    private final int recentMemory;
+    private final ConcurrentHashMap<String, RecentWords> recentWords;
+
+    public WordSelector(ArrayList<String> dictionary, int recentMemory) {
+        this.words = dictionary.toArray(new String[0]);
+        this.indexes = new HashMap<>(this.words.length * 2);
+        for (int i = 0; i < this.words.length; i++) {
+            this.indexes.put(this.words[i], i);
+        }
+        this.tierOf = new byte[this.words.length];
+        //Finchè non ci sono abbastanza risposte, ogni parola è considerata di media difficoltà.
+        Arrays.fill(this.tierOf, (byte) MEDIUM);
+        this.recentMemory = Math.max(0, Math.min(recentMemory, this.words.length));
+        this.recentWords = new ConcurrentHashMap<>();
+        rebuildTiers(null);
+    }
+
+    /**
+     * Restituisce la parola di indice 'index'.
+     *
+     * @param index L'indice della parola all'interno del dizionario.
+     * @return La parola corrispondente.
+     */
+    public String wordAt(int index) {
+        return this.words[index];
+    }
+
+    /**
+     * Restituisce l'indice della parola all'interno del dizionario.
+     *
+     * @param word La parola da cercare.
+     * @return L'indice della parola, -1 se non presente nel dizionario.
+     */
+    public int indexOf(String word) {
+        Integer index = this.indexes.get(word);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Restituisce la dimensione del dizionario.
+     *
+     * @return Il numero di parole del dizionario.
+     */
+    public int size() {
+        return this.words.length;
+    }
+
+    /**
+     * Restituisce la fascia di difficoltà attualmente assegnata alla parola.
+     *
+     * @param index L'indice della parola.
+     * @return {@link #EASY}, {@link #MEDIUM} o {@link #HARD}.
+     */
+    public int tierOf(int index) {
+        return this.tierOf[index];
+    }
+
+    /**
+     * Sceglie 'count' parole distinte per la sfida tra 'idA' e 'idB'. Le parole vengono prese, in ordine, dalla
+     * fascia facile, media e difficile (così che la sfida diventi man mano più complicata); se una fascia non ha
+     * abbastanza parole, quelle mancanti vengono prese dalle altre. L'estrazione all'interno di ogni fascia
+     * utilizza l'algoritmo di Floyd, quindi il costo è O(count) indipendentemente dalla dimensione del dizionario.
+     * Le parole scelte vengono infine segnate come recenti per entrambi gli utenti.
+     *
+     * @param count Il numero di parole da scegliere.
+     * @param idA Il primo utente.
+     * @param idB Il secondo utente.
+     * @return Gli indici delle parole scelte.
+     * @throws IllegalArgumentException Nel caso in cui vengano richieste più parole di quelle del dizionario.
+     */
+    public int[] selectWords(int count, String idA, String idB) {
+        if (count < 0 || count > this.words.length) throw new IllegalArgumentException();
+        int[][] tiers = this.tiers;
+        RecentWords recentA = recentOf(idA);
+        RecentWords recentB = recentOf(idB);
+
+        //Quante parole prendere da ogni fascia: la prima parte della sfida è facile, l'ultima difficile.
+        int[] quotas = new int[TIERS];
+        for (int i = 0; i < count; i++) {
+            quotas[i * TIERS / count]++;
+        }
+        //Se una fascia non ha abbastanza parole, l'eccesso viene spostato sulle altre (prima quella media).
+        int[] spillOrder = {MEDIUM, EASY, HARD};
+        for (int tier = 0; tier < TIERS; tier++) {
+            int excess = quotas[tier] - tiers[tier].length;
+            if (excess <= 0) continue;
+            quotas[tier] -= excess;
+            for (int other : spillOrder) {
+                if (excess == 0) break;
+                int free = tiers[other].length - quotas[other];
+                if (free <= 0) continue;
+                int moved = Math.min(free, excess);
+                quotas[other] += moved;
+                excess -= moved;
+            }
+        }
+
+        int[] selected = new int[count];
+        int position = 0;
+        for (int tier = 0; tier < TIERS; tier++) {
+            position = sample(tiers[tier], quotas[tier], recentA, recentB, selected, position);
+        }
+
+        if (recentA != null) recentA.addAll(selected);
+        if (recentB != null) recentB.addAll(selected);
+        return selected;
+    }
+
+    /**
+     * Estrae 'quota' elementi distinti da 'pool' con l'algoritmo di Floyd, scrivendoli in 'out' a partire
+     * da 'position'. Se esce una parola giocata di recente da uno dei due utenti si ritenta, al più
+     * {@link #MAX_RETRIES} volte, così da non perdere la garanzia O(quota): il controllo vale anche per la parola
+     * presa dal passo di Floyd quando l'estratta era già stata scelta.
+     *
+     * @return La prima posizione libera di 'out'.
+     */
+    private int sample(int[] pool, int quota, RecentWords recentA, RecentWords recentB, int[] out, int position) {
+        if (quota == 0) return position;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        IndexSet chosen = new IndexSet(quota);
+        for (int j = pool.length - quota; j < pool.length; j++) {
+            int t = random.nextInt(j + 1);
+            //Passo di Floyd: se 't' era già stato scelto, 'j' sicuramente no (le estrazioni precedenti sono < j).
+            if (chosen.contains(t)) t = j;
+            for (int retry = 0; retry < MAX_RETRIES && isRecent(pool[t], recentA, recentB); retry++) {
+                t = random.nextInt(j + 1);
+                if (chosen.contains(t)) t = j;
+            }
+            chosen.add(t);
+            out[position++] = pool[t];
+        }
+        return position;
+    }
+
+    private boolean isRecent(int word, RecentWords recentA, RecentWords recentB) {
+        return (recentA != null && recentA.contains(word)) || (recentB != null && recentB.contains(word));
+    }
+
+    private RecentWords recentOf(String id) {
+        if (this.recentMemory == 0 || id == null) return null;
+        return this.recentWords.computeIfAbsent(id, key -> new RecentWords(this.words.length, this.recentMemory));
+    }
+
+    private static int classify(long total, long right) {
+        if (total < MIN_SAMPLES) return MEDIUM;
+        double ratio = (double) right / total;
+        if (ratio >= EASY_RATIO) return EASY;
+        if (ratio <= HARD_RATIO) return HARD;
+        return MEDIUM;
+    }
+
+    /**
+     * Riclassifica le parole in base alle statistiche raccolte e ricostruisce gli array delle fasce. Viene chiamato
+     * periodicamente dal {@link Server}; il costo è lineare nella dimensione del dizionario, ma non pesa
+     * in alcun modo sulle estrazioni.
+     *
+     * @param analytics Le statistiche delle risposte, {@code null} per lasciare invariata la classificazione.
+     */
+    public void rebuildTiers(WordAnalytics analytics) {
+        if (analytics != null) {
+            for (int i = 0; i < this.tierOf.length; i++) {
+                long correct = analytics.correctOf(i);
+                this.tierOf[i] = (byte) classify(correct + analytics.wrongOf(i), correct);
+            }
+        }
+        int[] sizes = new int[TIERS];
+        byte[] snapshot = this.tierOf.clone();
+        for (byte tier : snapshot) sizes[tier]++;
+        int[][] newTiers = new int[TIERS][];
+        for (int tier = 0; tier < TIERS; tier++) newTiers[tier] = new int[sizes[tier]];
+        int[] fill = new int[TIERS];
+        for (int i = 0; i < snapshot.length; i++) {
+            newTiers[snapshot[i]][fill[snapshot[i]]++] = i;
+        }
+        this.tiers = newTiers;
+    }
+
+    @Override
+    public String toString() {
+        int[][] tiers = this.tiers;
+        return "WordSelector{" +
+                "words=" + this.words.length +
+                ", easy=" + tiers[EASY].length +
+                ", medium=" + tiers[MEDIUM].length +
+                ", hard=" + tiers[HARD].length +
+                '}';
+    }
+
+    /*
+        Gli indici già estratti da 'sample': un insieme di int ad indirizzamento aperto, grande il doppio degli
+        elementi (arrotondato ad una potenza di 2), così che il costo resti O(quota) qualunque sia la dimensione della
+        fascia e nessun indice venga incapsulato in un Integer.
+     */
+    private static final class IndexSet {
+        private final int[] slots;
+
+        IndexSet(int capacity) {
+            this.slots = new int[Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1];
+            Arrays.fill(this.slots, -1);
+        }
+
+        private int slotOf(int index) {
+            int mask = this.slots.length - 1;
+            int hash = index * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (this.slots[slot] != -1 && this.slots[slot] != index) slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        boolean contains(int index) {
+            return this.slots[slotOf(index)] == index;
+        }
+
+        void add(int index) {
+            this.slots[slotOf(index)] = index;
+        }
+    }
+
+    /**
+     * Le parole giocate di recente da un utente: un bitset grande quanto il dizionario, per sapere in O(1) se una
+     * parola è recente, e un buffer circolare per dimenticare le parole più vecchie.
+     */
+    private static class RecentWords {
+        private final long[] bits;
+        private final int[] ring;
+        private int head;
+        private int size;
+
+        RecentWords(int dictionarySize, int capacity) {
+            this.bits = new long[(dictionarySize + 63) >>> 6];
+            this.ring = new int[capacity];
+        }
+
+        synchronized boolean contains(int word) {
+            return (this.bits[word >>> 6] & (1L << word)) != 0;
+        }
+
+        synchronized void addAll(int[] words) {
+            for (int word : words) {
+                if ((this.bits[word >>> 6] & (1L << word)) != 0) continue;
+                if (this.size == this.ring.length) {
+                    int oldest = this.ring[this.head];
+                    this.bits[oldest >>> 6] &= ~(1L << oldest);
+                    this.size--;
+                }
+                this.ring[this.head] = word;
+                this.head = (this.head + 1) % this.ring.length;
+                this.size++;
+                this.bits[word >>> 6] |= 1L << word;
+            }
+        }
+    }
+}
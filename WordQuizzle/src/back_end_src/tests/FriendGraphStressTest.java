@@ -0,0 +1,139 @@
+package back_end_src.tests;
+
+import back_end_src.FriendSet;
+import back_end_src.User;
+import back_end_src.UserTable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link FriendGraphStressTest} mette sotto stress le amicizie di {@link UserTable}: WRITERS thread aggiungono
+ * amicizie casuali (concentrate su pochi utenti, così che le compare-and-set si scontrino spesso) mentre READERS
+ * thread leggono liste amici, classifiche e {@link User} da snapshot. Durante il test i lettori controllano che:
+ * - un insieme di amici non contenga duplicati e che {@link FriendSet#contains(int)} trovi ogni suo elemento;
+ * - gli amici di un utente, letti più volte dallo stesso thread, non diminuiscano mai (nessuna amicizia persa);
+ * - lista amici, classifica e snapshot di un utente siano coerenti fra loro.
+ * Alla fine ogni amicizia accettata da 'addFriend' deve essere presente, e il numero totale di amicizie deve essere
+ * uguale al numero di aggiunte andate a buon fine.
+ */
+public class FriendGraphStressTest {
+
+    private static final int USERS = 2_000;
+    //Gli utenti "popolari" sui quali si concentra metà delle aggiunte.
+    private static final int HOT_USERS = 8;
+    private static final int WRITERS = 8;
+    private static final int READERS = 8;
+    private static final int ADDS_PER_WRITER = 50_000;
+
+    public static void main(String[] args) throws Exception {
+        UserTable table = new UserTable(USERS);
+        for (int i = 0; i < USERS; i++) table.add("id" + i, "psw" + i);
+
+        //Per ogni utente, gli amici aggiunti con successo (dal punto di vista di chi ha chiamato 'addFriend').
+        ConcurrentHashMap<Long, Boolean> accepted = new ConcurrentHashMap<>();
+        AtomicLong successes = new AtomicLong();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        ArrayList<Future<?>> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            writers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < ADDS_PER_WRITER; i++) {
+                    int user = random.nextBoolean() ? random.nextInt(HOT_USERS) : random.nextInt(USERS);
+                    int friend = random.nextInt(USERS);
+                    if (friend == user) continue;
+                    if (table.addFriend(user, friend)) {
+                        successes.incrementAndGet();
+                        if (accepted.put(edge(user, friend), Boolean.TRUE) != null) {
+                            errors.add("Amicizia " + user + " -> " + friend + " accettata due volte");
+                        }
+                    }
+                }
+            }));
+        }
+
+        ArrayList<Future<Long>> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            readers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int[] lastSize = new int[USERS];
+                long reads = 0;
+                while (writing.get()) {
+                    int user = random.nextInt(4) == 0 ? random.nextInt(USERS) : random.nextInt(HOT_USERS);
+                    check(table, user, lastSize, errors);
+                    reads++;
+                }
+                return reads;
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Future<?> writer : writers) writer.get();
+        long elapsed = System.nanoTime() - start;
+        writing.set(false);
+        long reads = 0;
+        for (Future<Long> reader : readers) reads += reader.get();
+        executor.shutdown();
+
+        long total = 0;
+        for (int user = 0; user < USERS; user++) total += table.friendsOf(user).size();
+        if (total != successes.get()) {
+            errors.add("Amicizie presenti " + total + ", aggiunte con successo " + successes.get());
+        }
+        for (Long edge : accepted.keySet()) {
+            int user = (int) (edge >>> 32), friend = (int) (long) edge;
+            if (!table.isFriend(user, friend)) errors.add("Amicizia persa: " + user + " -> " + friend);
+        }
+
+        System.out.printf("%d amicizie aggiunte, %d letture in %.0f ms%n", successes.get(), reads, elapsed / 1e6);
+        if (errors.isEmpty()) {
+            System.out.println("OK");
+        } else {
+            for (String error : errors) System.out.println(error);
+            System.exit(1);
+        }
+    }
+
+    private static long edge(int user, int friend) {
+        return ((long) user << 32) | (friend & 0xFFFFFFFFL);
+    }
+
+    private static void check(UserTable table, int user, int[] lastSize, ConcurrentLinkedQueue<String> errors) {
+        FriendSet friends = table.friendsOf(user);
+        if (friends.size() < lastSize[user]) {
+            errors.add("Gli amici di " + user + " sono diminuiti: " + lastSize[user] + " -> " + friends.size());
+        }
+        lastSize[user] = friends.size();
+
+        int[] members = new int[friends.size()];
+        for (int i = 0; i < friends.size(); i++) {
+            int friend = members[i] = friends.get(i);
+            if (!friends.contains(friend)) errors.add("contains(" + friend + ") falso per un amico di " + user);
+            if (!table.isFriend(user, friend)) errors.add("isFriend(" + user + ", " + friend + ") falso");
+        }
+        //FriendSet.of scarta i duplicati: se la dimensione cambia, l'insieme ne conteneva.
+        if (FriendSet.of(members).size() != members.length) errors.add("Amici duplicati per " + user);
+
+        //Le letture successive vedono un insieme uguale o più grande, che contiene il precedente.
+        ArrayList<String> names = table.friendNamesOf(user);
+        LinkedHashMap<String, Integer> rank = table.rankOf(user);
+        User snapshot = table.toUser(user);
+        if (names.size() < friends.size() || rank.size() < friends.size() + 1
+                || snapshot.getFriends().size() < names.size()) {
+            errors.add("Letture di " + user + " non monotone");
+            return;
+        }
+        for (int i = 0; i < friends.size(); i++) {
+            String name = table.nameOf(friends.get(i));
+            if (!names.get(i).equals(name) || !rank.containsKey(name)) {
+                errors.add("Lista amici o classifica di " + user + " non contengono " + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package back_end_src.tests;
+
+import back_end_src.FriendRankings;
+import back_end_src.UserTable;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link FriendRankBenchmark} misura la latenza di 'mostra_classifica' per utenti con 10, 1000 e 100000 amici,
+ * confrontando la classifica ordinata ad ogni richiesta ({@link UserTable#rankOf(int)}) con le viste incrementali di
+ * {@link FriendRankings} (classifica intera, prime 10 righe, una pagina da 10 a metà classifica). Tra una richiesta e
+ * l'altra alcuni amici cambiano punteggio, come accade quando finiscono delle partite: si misura anche il costo di
+ * spingere una variazione nella vista.
+ */
+public class FriendRankBenchmark {
+
+    private static final int[] FRIEND_COUNTS = {10, 1_000, 100_000};
+    private static final int CHANGES_PER_QUERY = 4;
+
+    public static void main(String[] args) {
+        int users = FRIEND_COUNTS[FRIEND_COUNTS.length - 1] + FRIEND_COUNTS.length;
+        UserTable table = new UserTable(users);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < users; i++) {
+            table.add("id" + i, "psw" + i);
+            table.addPoints(i, random.nextInt(10_000));
+        }
+        //Gli utenti misurati sono gli ultimi; i loro amici sono i primi 'friends' utenti.
+        int[] owners = new int[FRIEND_COUNTS.length];
+        for (int o = 0; o < FRIEND_COUNTS.length; o++) {
+            owners[o] = users - 1 - o;
+            for (int friend = 0; friend < FRIEND_COUNTS[o]; friend++) {
+                table.addFriend(owners[o], friend);
+                table.addFriend(friend, owners[o]);
+            }
+        }
+        FriendRankings rankings = new FriendRankings(table);
+
+        for (int o = 0; o < FRIEND_COUNTS.length; o++) {
+            int owner = owners[o], friends = FRIEND_COUNTS[o];
+            int queries = Math.max(50, 2_000_000 / friends);
+            long[] sorted = new long[queries], full = new long[queries], top = new long[queries];
+            long[] middle = new long[queries], push = new long[queries * CHANGES_PER_QUERY];
+            long sink = 0;
+            //Due giri: il primo fa da riscaldamento.
+            for (int round = 0; round < 2; round++) {
+                for (int q = 0; q < queries; q++) {
+                    for (int c = 0; c < CHANGES_PER_QUERY; c++) {
+                        int friend = random.nextInt(friends);
+                        table.addPoints(friend, random.nextInt(-1, 4));
+                        long start = System.nanoTime();
+                        rankings.pointsChanged(friend);
+                        push[q * CHANGES_PER_QUERY + c] = System.nanoTime() - start;
+                    }
+                    long start = System.nanoTime();
+                    sink += table.rankOf(owner).size();
+                    sorted[q] = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    sink += rankings.rankOf(owner, 0, Integer.MAX_VALUE).size();
+                    full[q] = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    sink += rankings.rankOf(owner, 0, 10).size();
+                    top[q] = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    sink += rankings.rankOf(owner, friends / 2, 10).size();
+                    middle[q] = System.nanoTime() - start;
+                }
+            }
+            if (sink == 42) System.out.println();
+            System.out.printf("%d amici (%d richieste)%n", friends, queries);
+            print("ordinata ad ogni richiesta", sorted);
+            print("vista, intera", full);
+            print("vista, prime 10", top);
+            print("vista, pagina a metà", middle);
+            print("variazione di punteggio", push);
+        }
+    }
+
+    private static void print(String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("  %-28s p50 %10d ns, p99 %10d ns%n", name, sorted[sorted.length / 2],
+                sorted[(int) (sorted.length * 0.99)]);
+    }
+}
@@ -0,0 +1,81 @@
+package back_end_src.tests;
+
+import back_end_src.RegisterLog;
+import back_end_src.User;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GroupCommitBenchmark} misura il group commit di {@link RegisterLog}: per ogni finestra di commit vengono
+ * lanciati NUM_THREADS thread, ognuno dei quali richiede MUTATIONS_PER_THREAD incrementi di punteggio aspettando
+ * ogni volta che il record sia persistente (come farebbe una registrazione via RMI). Per ogni finestra si stampano
+ * le mutazioni al secondo e la latenza di commit (mediana, 99-esimo percentile, massimo).
+ * I segmenti vengono scritti in una cartella temporanea, così da non toccare il log del {@link back_end_src.Server}.
+ */
+public class GroupCommitBenchmark {
+
+    private static final int NUM_THREADS = 32;
+    private static final int MUTATIONS_PER_THREAD = 500;
+    //Le finestre di commit da provare, in millisecondi.
+    private static final long[] COMMIT_WINDOWS = {0, 1, 2, 5, 10};
+
+    public static void main(String[] args) throws Exception {
+        for (long window : COMMIT_WINDOWS) {
+            Path directory = Files.createTempDirectory("wq-group-commit");
+            try {
+                run(directory, window);
+            } finally {
+                deleteDirectory(directory);
+            }
+        }
+    }
+
+    private static void run(Path directory, long window) throws Exception {
+        ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+        RegisterLog log = RegisterLog.open(directory, users, window, nickname -> {
+        });
+        long[][] latencies = new long[NUM_THREADS][MUTATIONS_PER_THREAD];
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+
+        long start = System.nanoTime();
+        for (int t = 0; t < NUM_THREADS; t++) {
+            final int thread = t;
+            executor.execute(() -> {
+                for (int i = 0; i < MUTATIONS_PER_THREAD; i++) {
+                    long begin = System.nanoTime();
+                    log.addPoints("id" + thread, 1, i + 1).join();
+                    latencies[thread][i] = System.nanoTime() - begin;
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        long elapsed = System.nanoTime() - start;
+        log.close();
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        double seconds = elapsed / 1e9;
+        System.out.printf("finestra %2d ms: %9.0f mutazioni/s, latenza p50 %6.2f ms, p99 %6.2f ms, max %6.2f ms%n",
+                window, all.length / seconds, millis(all[all.length / 2]),
+                millis(all[(int) (all.length * 0.99)]), millis(all[all.length - 1]));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) Files.delete(path);
+        }
+        Files.delete(directory);
+    }
+}
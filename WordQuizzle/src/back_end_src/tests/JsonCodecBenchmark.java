@@ -0,0 +1,169 @@
+package back_end_src.tests;
+
+import back_end_src.RegisterLoader;
+import back_end_src.User;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import common_src.JsonCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link JsonCodecBenchmark} confronta i codec scritti a mano di {@link JsonCodec} e {@link RegisterLoader#write}
+ * con Gson, sugli stessi dati: codifica di 'lista_amici' e 'mostra_classifica' (10, 1000 e 100000 righe), loro
+ * decodifica lato client e scrittura dello snapshot JSON di 100000 utenti (l'esportazione fatta alla chiusura del
+ * server). Per ogni caso si stampano il throughput e i byte allocati per operazione (misurati con il ThreadMXBean
+ * della JVM). Prima di misurare si controlla che l'output sia identico, byte per byte, a quello di Gson.
+ */
+public class JsonCodecBenchmark {
+
+    private static final int[] SIZES = {10, 1_000, 100_000};
+    private static final int SNAPSHOT_USERS = 100_000;
+    //Ogni caso dura almeno così tanto, dopo un giro di riscaldamento della stessa durata.
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    private interface Step {
+        Object run() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Gson gson = new Gson();
+        Type friendsType = new TypeToken<ArrayList<String>>() {
+        }.getType();
+        Type rankType = new TypeToken<LinkedHashMap<String, Integer>>() {
+        }.getType();
+        checkEscapes(gson, friendsType);
+
+        for (int size : SIZES) {
+            ArrayList<String> friends = new ArrayList<>(size);
+            LinkedHashMap<String, Integer> rank = new LinkedHashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                friends.add("id" + i);
+                rank.put("id" + i, (size - i) * 3);
+            }
+            check("lista_amici", gson.toJson(friends).getBytes(), JsonCodec.encodeStrings(friends));
+            check("mostra_classifica", gson.toJson(rank).getBytes(), JsonCodec.encodeRank(rank));
+            String friendsJson = gson.toJson(friends), rankJson = gson.toJson(rank);
+
+            System.out.printf("%d righe%n", size);
+            compare("lista_amici, codifica", () -> gson.toJson(friends).getBytes(),
+                    () -> JsonCodec.encodeStrings(friends));
+            compare("mostra_classifica, codifica", () -> gson.toJson(rank).getBytes(),
+                    () -> JsonCodec.encodeRank(rank));
+            compare("lista_amici, decodifica", () -> gson.fromJson(friendsJson, friendsType),
+                    () -> JsonCodec.decodeStrings(friendsJson));
+            compare("mostra_classifica, decodifica", () -> gson.fromJson(rankJson, rankType),
+                    () -> JsonCodec.decodeRank(rankJson));
+        }
+
+        ConcurrentHashMap<String, User> register = generate();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream(), actual = new ByteArrayOutputStream();
+        try (Writer writer = Channels.newWriter(Channels.newChannel(expected), "UTF-8")) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(register, writer);
+        }
+        RegisterLoader.write(register, Channels.newChannel(actual));
+        check("snapshot", expected.toByteArray(), actual.toByteArray());
+        WritableByteChannel discard = new DiscardChannel();
+        System.out.printf("snapshot di %d utenti%n", SNAPSHOT_USERS);
+        compare("snapshot JSON", () -> {
+            //Come faceva ServerUtilities.writeJson: l'intero documento in una String, poi 'getBytes()'.
+            String json = new GsonBuilder().setPrettyPrinting().create().toJson(register);
+            return discard.write(ByteBuffer.wrap(json.getBytes()));
+        }, () -> {
+            RegisterLoader.write(register, discard);
+            return null;
+        });
+    }
+
+    //Stringhe con caratteri da escape: l'output deve restare quello di Gson.
+    private static void checkEscapes(Gson gson, Type friendsType) {
+        ArrayList<String> tricky = new ArrayList<>(List.of("a\"b", "c\\d", "<tag>", "x=y&z", "l'apostrofo",
+                "tab\tnewline\n", "\u0001", "perché", "\u2028"));
+        check("escape", gson.toJson(tricky).getBytes(), JsonCodec.encodeStrings(tricky));
+        if (!gson.fromJson(gson.toJson(tricky), friendsType).equals(JsonCodec.decodeStrings(gson.toJson(tricky))))
+            System.out.println("ERRORE: decodifica degli escape diversa da Gson");
+    }
+
+    private static void check(String name, byte[] expected, byte[] actual) {
+        if (!Arrays.equals(expected, actual)) System.out.println("ERRORE: output diverso da Gson per " + name);
+    }
+
+    private static void compare(String name, Step gson, Step codec) throws IOException {
+        double[] gsonResult = measure(gson), codecResult = measure(codec);
+        System.out.printf("  %-30s Gson %10.0f op/s %12.0f B/op | codec %10.0f op/s %12.0f B/op%n", name,
+                gsonResult[0], gsonResult[1], codecResult[0], codecResult[1]);
+    }
+
+    //Operazioni al secondo e byte allocati per operazione.
+    private static double[] measure(Step step) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        double[] result = null;
+        for (int round = 0; round < 2; round++) {
+            long operations = 0, sink = 0;
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime(), elapsed;
+            do {
+                sink += step.run() == null ? 0 : 1;
+                operations++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < MEASURE_NANOS);
+            allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+            if (sink == -1) System.out.println();
+            result = new double[]{operations * 1e9 / elapsed, (double) allocated / operations};
+        }
+        return result;
+    }
+
+    private static ConcurrentHashMap<String, User> generate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ConcurrentHashMap<String, User> register = new ConcurrentHashMap<>(SNAPSHOT_USERS * 2);
+        for (int i = 0; i < SNAPSHOT_USERS; i++) {
+            User user = new User("id" + i, "psw" + i);
+            user.incrementPoints(random.nextInt(10_000));
+            for (int f = random.nextInt(8); f > 0; f--) {
+                try {
+                    user.addFriend("id" + random.nextInt(SNAPSHOT_USERS));
+                } catch (Exception ignored) {
+                    //Amicizia già presente.
+                }
+            }
+            register.put(user.getNickUtente(), user);
+        }
+        return register;
+    }
+
+    //Un canale che scarta i byte: si misura la sola codifica.
+    private static final class DiscardChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer source) {
+            int bytes = source.remaining();
+            source.position(source.limit());
+            return bytes;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
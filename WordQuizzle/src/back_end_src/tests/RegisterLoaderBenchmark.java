@@ -0,0 +1,124 @@
+package back_end_src.tests;
+
+import back_end_src.RegisterLoader;
+import back_end_src.User;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link RegisterLoaderBenchmark} confronta il vecchio caricamento dello snapshot (l'intero file in un
+ * {@link ByteBuffer}, poi in una {@link String}, poi Gson) con {@link RegisterLoader}, sequenziale e parallelo.
+ * Per ogni numero di utenti viene generato un file JSON nello stesso formato di usersRegister.json e si misurano
+ * il tempo di caricamento e il picco di heap raggiunto durante il caricamento.
+ * I numeri di utenti si passano come argomenti (default 1000000); con 10000000 utenti servono diversi GB di heap
+ * (per esempio -Xmx16g), e il vecchio caricamento può fallire per OutOfMemoryError.
+ */
+public class RegisterLoaderBenchmark {
+
+    private static final int MAX_FRIENDS = 4;
+
+    public static void main(String[] args) throws Exception {
+        long[] counts = args.length == 0 ? new long[]{1_000_000} : new long[args.length];
+        for (int i = 0; i < args.length; i++) counts[i] = Long.parseLong(args[i]);
+
+        for (long users : counts) {
+            Path file = Files.createTempFile("wq-register", ".json");
+            try {
+                generate(file, users);
+                System.out.printf("%d utenti, file di %d MB%n", users, Files.size(file) >> 20);
+                measure("Gson (vecchio)", () -> legacyLoad(file));
+                measure("Streaming", () -> RegisterLoader.load(file, 1));
+                measure("Streaming parallelo", () -> RegisterLoader.load(file,
+                        Runtime.getRuntime().availableProcessors()));
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private interface Loader {
+        Map<String, User> load() throws IOException;
+    }
+
+    private static void measure(String name, Loader loader) {
+        System.gc();
+        long baseline = usedHeap();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) pool.resetPeakUsage();
+        long start = System.nanoTime();
+        try {
+            Map<String, User> loaded = loader.load();
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("  %-20s %8d ms, picco heap %6d MB, %d utenti%n", name, elapsed / 1_000_000,
+                    (peakHeap() - baseline) >> 20, loaded.size());
+        } catch (OutOfMemoryError | IOException e) {
+            System.out.printf("  %-20s fallito: %s%n", name, e);
+        }
+    }
+
+    private static long usedHeap() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) used += pool.getUsage().getUsed();
+        }
+        return used;
+    }
+
+    //Somma dei picchi dei singoli pool: è un limite superiore del picco reale, ma confrontabile tra i caricamenti.
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    //Il caricamento come era in ServerUtilities.readJson prima di RegisterLoader.
+    private static Map<String, User> legacyLoad(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer bb = ByteBuffer.allocate((int) channel.size());
+        channel.read(bb);
+        channel.close();
+        Type usersRegisterType = new TypeToken<ConcurrentHashMap<String, User>>() {
+        }.getType();
+        return new Gson().fromJson(new String(bb.array()), usersRegisterType);
+    }
+
+    private static void generate(Path file, long users) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             JsonWriter writer = new JsonWriter(out)) {
+            //Lo stesso formato 'pretty-printed' prodotto da ServerUtilities.writeJson.
+            writer.setIndent("  ");
+            writer.beginObject();
+            for (long i = 0; i < users; i++) {
+                writer.name("id" + i).beginObject();
+                writer.name("nickUtente").value("id" + i);
+                writer.name("password").value("psw" + i);
+                writer.name("points").value(random.nextInt(1000));
+                writer.name("friends").beginArray();
+                int friends = random.nextInt(MAX_FRIENDS + 1);
+                for (int f = 0; f < friends; f++) writer.value("id" + random.nextLong(users));
+                writer.endArray();
+                writer.endObject();
+            }
+            writer.endObject();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package back_end_src.tests;
+
+import back_end_src.User;
+import back_end_src.UserTable;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ScoreContentionBenchmark} misura la contesa sui punteggi: NUM_THREADS thread aggiornano i punteggi di
+ * pochi utenti popolari (HOT_USERS, amici di tutti) e, una volta su READ_RATIO, ne chiedono la classifica, come
+ * accade quando molte partite di quegli utenti finiscono insieme. Si confronta la vecchia struttura (una
+ * 'synchronized' sul {@link User} per ogni incremento e una per ogni amico durante la classifica) con
+ * {@link UserTable}, che non prende alcuna lock. Per ognuna si stampano le operazioni al secondo.
+ * Il numero di thread si può passare come argomento (default 64).
+ */
+public class ScoreContentionBenchmark {
+
+    private static final int USERS = 10_000;
+    private static final int HOT_USERS = 4;
+    private static final int FRIENDS = 32;
+    private static final int READ_RATIO = 8;
+    private static final long WARMUP_MILLIS = 2_000;
+    private static final long RUN_MILLIS = 5_000;
+
+    private interface Workload {
+        void increment(int user, int points);
+
+        int rank(int user);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+
+        ConcurrentHashMap<String, User> map = new ConcurrentHashMap<>();
+        for (int i = 0; i < USERS; i++) map.put("id" + i, new User("id" + i, "psw" + i));
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < USERS; i++) {
+            User user = map.get("id" + i);
+            //Ogni utente è amico degli utenti popolari, più qualche amico casuale.
+            for (int h = 0; h < HOT_USERS; h++) {
+                if (h != i) user.getFriends().add("id" + h);
+            }
+            while (user.getFriends().size() < FRIENDS) {
+                String friend = "id" + random.nextInt(USERS);
+                if (!friend.equals("id" + i) && !user.getFriends().contains(friend)) user.getFriends().add(friend);
+            }
+        }
+        UserTable table = UserTable.of(map);
+
+        String[] names = new String[USERS];
+        for (int i = 0; i < USERS; i++) names[i] = "id" + i;
+
+        Workload legacy = new Workload() {
+            @Override
+            public void increment(int user, int points) {
+                User u = map.get(names[user]);
+                synchronized (u) {
+                    u.incrementPoints(points);
+                }
+            }
+
+            @Override
+            public int rank(int user) {
+                return legacyRank(map, names[user]).size();
+            }
+        };
+        Workload lockFree = new Workload() {
+            @Override
+            public void increment(int user, int points) {
+                table.addPoints(user, points);
+            }
+
+            @Override
+            public int rank(int user) {
+                return table.rankOf(user).size();
+            }
+        };
+
+        System.out.printf("%d thread, %d utenti popolari%n", threads, HOT_USERS);
+        //Due giri: il primo fa da riscaldamento per entrambe.
+        for (int round = 0; round < 2; round++) {
+            double legacyOps = run(legacy, threads, round == 0 ? WARMUP_MILLIS : RUN_MILLIS);
+            double lockFreeOps = run(lockFree, threads, round == 0 ? WARMUP_MILLIS : RUN_MILLIS);
+            if (round == 0) continue;
+            System.out.printf("  synchronized(User): %12.0f operazioni/s%n", legacyOps);
+            System.out.printf("  UserTable:          %12.0f operazioni/s%n", lockFreeOps);
+        }
+    }
+
+    private static double run(Workload workload, int threads, long millis) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder operations = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long done = 0, sink = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (running.get()) {
+                    //Quasi tutte le operazioni toccano un utente popolare.
+                    int user = random.nextInt(16) == 0 ? random.nextInt(USERS) : random.nextInt(HOT_USERS);
+                    if (random.nextInt(READ_RATIO) == 0) {
+                        sink += workload.rank(user);
+                    } else {
+                        workload.increment(user, random.nextInt(1, 10));
+                    }
+                    done++;
+                }
+                operations.add(done + (sink == 42 ? 1 : 0));
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        running.set(false);
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        return operations.sum() / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    //La classifica come veniva costruita da UsersRegister.buildRank prima di UserTable.
+    private static LinkedHashMap<String, Integer> legacyRank(ConcurrentHashMap<String, User> map, String id) {
+        LinkedHashMap<String, Integer> rank = new LinkedHashMap<>();
+        User user = map.get(id);
+        synchronized (user) {
+            rank.put(id, user.getPoints());
+        }
+        for (String friend : user.getFriends()) {
+            User u;
+            int points;
+            synchronized (u = map.get(friend)) {
+                points = u.getPoints();
+            }
+            rank.put(friend, points);
+        }
+        List<Map.Entry<String, Integer>> list = new ArrayList<>(rank.entrySet());
+        list.sort((userA, userB) -> -(userA.getValue().compareTo(userB.getValue())));
+        rank.clear();
+        for (Map.Entry<String, Integer> entry : list) {
+            rank.put(entry.getKey(), entry.getValue());
+        }
+        return rank;
+    }
+}
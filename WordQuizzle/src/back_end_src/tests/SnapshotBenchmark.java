@@ -0,0 +1,93 @@
+package back_end_src.tests;
+
+import back_end_src.RegisterLoader;
+import back_end_src.RegisterSnapshot;
+import back_end_src.User;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link SnapshotBenchmark} confronta lo snapshot JSON (scritto con Gson come in ServerUtilities.writeJson, riletto
+ * con {@link RegisterLoader}) con lo snapshot binario di {@link RegisterSnapshot}: dimensione del file, tempo di
+ * salvataggio e tempo di caricamento. I numeri di utenti si passano come argomenti (default 100000 e 1000000).
+ */
+public class SnapshotBenchmark {
+
+    private static final int MAX_FRIENDS = 8;
+
+    private interface Step {
+        Object run() throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = args.length == 0 ? new int[]{100_000, 1_000_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) counts[i] = Integer.parseInt(args[i]);
+
+        for (int users : counts) {
+            ConcurrentHashMap<String, User> register = generate(users);
+            Path json = Files.createTempFile("wq-snapshot", ".json");
+            Path binary = Files.createTempFile("wq-snapshot", ".bin");
+            try {
+                System.out.printf("%d utenti%n", users);
+                long jsonSave = time(() -> {
+                    try (Writer writer = Files.newBufferedWriter(json, StandardCharsets.UTF_8)) {
+                        new GsonBuilder().setPrettyPrinting().create().toJson(register, writer);
+                    }
+                    return null;
+                });
+                long jsonLoad = time(() -> RegisterLoader.load(json, 1));
+                long binarySave = time(() -> {
+                    RegisterSnapshot.write(register, binary);
+                    return null;
+                });
+                long binaryLoad = time(() -> RegisterSnapshot.read(binary));
+                print("JSON", Files.size(json), jsonSave, jsonLoad);
+                print("Binario", Files.size(binary), binarySave, binaryLoad);
+                Map<String, User> reloaded = RegisterSnapshot.read(binary);
+                if (reloaded.size() != users) System.out.println("  ERRORE: utenti riletti " + reloaded.size());
+            } finally {
+                Files.deleteIfExists(json);
+                Files.deleteIfExists(binary);
+            }
+        }
+    }
+
+    private static void print(String name, long size, long save, long load) {
+        System.out.printf("  %-8s %8d KB, salvataggio %6d ms, caricamento %6d ms%n", name, size >> 10, save, load);
+    }
+
+    //Il tempo del passo in millisecondi, dopo un'esecuzione di riscaldamento.
+    private static long time(Step step) throws IOException {
+        step.run();
+        System.gc();
+        long start = System.nanoTime();
+        step.run();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static ConcurrentHashMap<String, User> generate(int users) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ConcurrentHashMap<String, User> register = new ConcurrentHashMap<>(users * 2);
+        for (int i = 0; i < users; i++) {
+            User user = new User("id" + i, "psw" + i);
+            user.incrementPoints(random.nextInt(1000));
+            register.put("id" + i, user);
+        }
+        for (int i = 0; i < users; i++) {
+            int friends = random.nextInt(MAX_FRIENDS + 1);
+            for (int f = 0; f < friends; f++) {
+                String friend = "id" + random.nextInt(users);
+                if (!register.get("id" + i).getFriends().contains(friend)) register.get("id" + i).addFriend(friend);
+            }
+        }
+        return register;
+    }
+}
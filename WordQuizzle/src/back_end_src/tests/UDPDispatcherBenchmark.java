@@ -0,0 +1,138 @@
+package back_end_src.tests;
+
+import back_end_src.UDPDispatcher;
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link UDPDispatcherBenchmark} simula un burst di BURST notifiche UDP (come le aggiunte di amicizia, che un tempo
+ * venivano notificate via UDP) verso CLIENTS client locali, inviate da PRODUCERS thread insieme. Si confronta il
+ * vecchio modello (un executor, quindi un thread, e una DatagramSocket per ogni notifica, come faceva 'UDPSender')
+ * con {@link UDPDispatcher}. Per ognuno si stampano il tempo del burst, i thread avviati e i file descriptor aperti
+ * durante il burst, i messaggi arrivati e i datagrammi ricevuti; per il dispatcher anche le sue statistiche
+ * (scarti, profondità della coda, latenza di invio).
+ */
+public class UDPDispatcherBenchmark {
+
+    private static final int BURST = 10_000;
+    private static final int CLIENTS = 100;
+    private static final int PRODUCERS = 8;
+    //Quanto aspettare che arrivino gli ultimi datagrammi.
+    private static final long SETTLE_MILLIS = 1_000;
+
+    private interface Sender {
+        void send(SocketAddress recipient, String message) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        UnixOperatingSystemMXBean os = (UnixOperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+        Selector selector = Selector.open();
+        SocketAddress[] clients = new SocketAddress[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            DatagramChannel channel = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            clients[i] = channel.getLocalAddress();
+        }
+        LongAdder messages = new LongAdder(), datagrams = new LongAdder();
+        AtomicBoolean receiving = new AtomicBoolean(true);
+        Thread receiver = new Thread(() -> receive(selector, messages, datagrams, receiving));
+        receiver.start();
+
+        run("un thread e una socket per notifica", threads, os, clients, messages, datagrams, (recipient, message) ->
+                Executors.newSingleThreadExecutor().execute(() -> {
+                    try {
+                        //Come 'UDPSender': la socket non veniva mai chiusa.
+                        DatagramSocket socket = new DatagramSocket();
+                        byte[] bytes = message.getBytes();
+                        socket.send(new DatagramPacket(bytes, bytes.length, recipient));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }));
+
+        UDPDispatcher dispatcher = new UDPDispatcher(4096, 5);
+        run("UDPDispatcher", threads, os, clients, messages, datagrams, dispatcher::dispatch);
+        System.out.println("  " + dispatcher);
+
+        dispatcher.close();
+        receiving.set(false);
+        selector.wakeup();
+        receiver.join();
+        System.exit(0);
+    }
+
+    private static void run(String name, ThreadMXBean threads, UnixOperatingSystemMXBean os,
+                            SocketAddress[] clients, LongAdder messages, LongAdder datagrams, Sender sender)
+            throws InterruptedException {
+        messages.reset();
+        datagrams.reset();
+        long startedThreads = threads.getTotalStartedThreadCount() + PRODUCERS;
+        long openFiles = os.getOpenFileDescriptorCount();
+        long start = System.nanoTime();
+
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            int first = p;
+            producers[p] = new Thread(() -> {
+                for (int i = first; i < BURST; i += PRODUCERS) {
+                    try {
+                        sender.send(clients[i % CLIENTS], "newfriend id" + i);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) producer.join();
+        long elapsed = System.nanoTime() - start;
+        long newThreads = threads.getTotalStartedThreadCount() - startedThreads;
+        long newFiles = os.getOpenFileDescriptorCount() - openFiles;
+        Thread.sleep(SETTLE_MILLIS);
+
+        System.out.printf("%s: burst di %d notifiche in %.1f ms, thread avviati %d, file descriptor aperti %d, " +
+                        "messaggi arrivati %d in %d datagrammi%n", name, BURST, elapsed / 1e6, newThreads, newFiles,
+                messages.sum(), datagrams.sum());
+    }
+
+    //Conta i messaggi (uno per riga) e i datagrammi ricevuti dai client.
+    private static void receive(Selector selector, LongAdder messages, LongAdder datagrams, AtomicBoolean receiving) {
+        ByteBuffer buffer = ByteBuffer.allocate(2048);
+        try {
+            while (receiving.get()) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    DatagramChannel channel = (DatagramChannel) key.channel();
+                    buffer.clear();
+                    while (channel.receive(buffer) != null) {
+                        buffer.flip();
+                        datagrams.increment();
+                        messages.increment();
+                        while (buffer.hasRemaining()) if (buffer.get() == '\n') messages.increment();
+                        buffer.clear();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package back_end_src.tests;
+
+import back_end_src.User;
+import back_end_src.UserTable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link UserTableBenchmark} confronta la vecchia rappresentazione degli utenti ({@link ConcurrentHashMap} di
+ * {@link User}, con gli amici come {@link ArrayList} di {@link String}, come la produce il caricamento del JSON) con
+ * {@link UserTable}: heap occupato per utente e latenza di 'lista_amici' e 'mostra_classifica'.
+ * Il numero di utenti si passa come argomento (default 1000000); servono circa 2 GB di heap.
+ */
+public class UserTableBenchmark {
+
+    private static final int MAX_FRIENDS = 8;
+    private static final int QUERIES = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        long before = usedHeap();
+        ConcurrentHashMap<String, User> map = generate(users);
+        long mapBytes = usedHeap() - before;
+
+        /*
+            La tabella condivide con la mappa le String di nickname e password: per misurarla per intero si
+            misura l'heap dopo aver scartato la mappa, e la si ricostruisce da capo per il confronto delle latenze.
+         */
+        UserTable table = UserTable.of(map);
+        map = null;
+        long tableBytes = usedHeap() - before;
+        table = null;
+        map = generate(users);
+        table = UserTable.of(map);
+
+        System.out.printf("%d utenti%n", users);
+        System.out.printf("  heap per utente: mappa di User %d byte, UserTable %d byte%n",
+                mapBytes / users, tableBytes / users);
+
+        String[] queries = new String[QUERIES];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < QUERIES; i++) queries[i] = "id" + random.nextInt(users);
+
+        //Due giri: il primo fa da riscaldamento.
+        for (int round = 0; round < 2; round++) {
+            long[] oldFriends = new long[QUERIES], newFriends = new long[QUERIES];
+            long[] oldRank = new long[QUERIES], newRank = new long[QUERIES];
+            long sink = 0;
+            for (int i = 0; i < QUERIES; i++) {
+                long start = System.nanoTime();
+                sink += new ArrayList<>(map.get(queries[i]).getFriends()).size();
+                oldFriends[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                sink += table.friendNamesOf(table.idOf(queries[i])).size();
+                newFriends[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                sink += legacyRank(map, queries[i]).size();
+                oldRank[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                sink += table.rankOf(table.idOf(queries[i])).size();
+                newRank[i] = System.nanoTime() - start;
+            }
+            if (round == 0) {
+                if (sink == 42) System.out.println();
+                continue;
+            }
+            print("lista_amici (mappa)", oldFriends);
+            print("lista_amici (UserTable)", newFriends);
+            print("mostra_classifica (mappa)", oldRank);
+            print("mostra_classifica (UserTable)", newRank);
+        }
+        //Mantiene vive entrambe le strutture fino alla fine delle misure.
+        if (map.size() + table.size() == 0) System.out.println();
+    }
+
+    private static void print(String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("  %-30s p50 %6d ns, p99 %7d ns%n", name, sorted[sorted.length / 2],
+                sorted[(int) (sorted.length * 0.99)]);
+    }
+
+    //La classifica come veniva costruita da UsersRegister.buildRank prima di UserTable.
+    private static LinkedHashMap<String, Integer> legacyRank(ConcurrentHashMap<String, User> map, String id) {
+        LinkedHashMap<String, Integer> rank = new LinkedHashMap<>();
+        User user = map.get(id);
+        rank.put(id, user.getPoints());
+        for (String friend : user.getFriends()) {
+            User u;
+            int points;
+            synchronized (u = map.get(friend)) {
+                points = u.getPoints();
+            }
+            rank.put(friend, points);
+        }
+        List<Map.Entry<String, Integer>> list = new ArrayList<>(rank.entrySet());
+        list.sort((userA, userB) -> -(userA.getValue().compareTo(userB.getValue())));
+        rank.clear();
+        for (Map.Entry<String, Integer> entry : list) {
+            rank.put(entry.getKey(), entry.getValue());
+        }
+        return rank;
+    }
+
+    private static ConcurrentHashMap<String, User> generate(int users) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ConcurrentHashMap<String, User> map = new ConcurrentHashMap<>();
+        for (int i = 0; i < users; i++) {
+            User user = new User("id" + i, "psw" + i);
+            user.incrementPoints(random.nextInt(1000));
+            map.put("id" + i, user);
+        }
+        for (int i = 0; i < users; i++) {
+            int friends = random.nextInt(MAX_FRIENDS + 1);
+            User user = map.get("id" + i);
+            for (int f = 0; f < friends; f++) {
+                //Una nuova String per ogni amicizia, come accade caricando il JSON.
+                String friend = "id" + random.nextInt(users);
+                if (!user.getFriends().contains(friend)) user.addFriend(friend);
+            }
+        }
+        return map;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -1,8 +1,10 @@
 package common_src;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
 
 /**
  * Classe di utilità per entrambe le classi {@link back_end_src.RequestManager} e {@link front_end_src.Client}.
@@ -18,6 +20,12 @@ public class CommonUtilities {
      */
     private static final boolean DEBUG_MODE = false;
 
+    /**
+     * La dimensione massima di un datagramma UDP del server: può contenere più messaggi, uno per riga (si veda
+     * {@link back_end_src.UDPDispatcher}).
+     */
+    public static final int MAX_DATAGRAM_SIZE = 512;
+
     /**
      * Scrive nella {@link SocketChannel} il messaggio passato come parametro.
      * Implementa un protocollo di comunicazione che prevede l'invio
@@ -59,7 +67,24 @@ public class CommonUtilities {
     }
 
     /**
-     * Legge dalla {@link SocketChannel} il prossimo messaggio.
+     * Legge dalla {@link SocketChannel} la prossima risposta, scartando le notifiche ({@link PushFrame}) che il
+     * server può inviare in qualsiasi momento: è il comportamento adatto a chi legge le risposte direttamente dalla
+     * socket e non è interessato alle notifiche.
+     *
+     * @param socketChannel La {@link SocketChannel} dalla quale leggere il messaggio.
+     * @return Il messaggio letto.
+     * @throws IOException Lanciata in caso di errori durante la lettura dalla {@link SocketChannel}.
+     */
+    public static String readFromSocket(SocketChannel socketChannel) throws IOException {
+        String message;
+        do {
+            message = readMessage(socketChannel);
+        } while (PushFrame.isPush(message));
+        return message;
+    }
+
+    /**
+     * Legge dalla {@link SocketChannel} il prossimo messaggio, sia esso una risposta o una notifica.
      * Implementa un protocollo di comunicazione che prevede l'invio
      * della size prima del messaggio vero e proprio. Questo permette
      * un'allocazione del {@link ByteBuffer} di ricezione senza sprechi.
@@ -68,14 +93,14 @@ public class CommonUtilities {
      * @return Il messaggio letto.
      * @throws IOException Lanciata in caso di errori durante la lettura dalla {@link SocketChannel}.
      */
-    public static String readFromSocket(SocketChannel socketChannel) throws IOException {
+    public static String readMessage(SocketChannel socketChannel) throws IOException {
         /*
             Le successive 4 righe si occupano di recuperare la lunghezza
             del messaggio da leggere. Si noti che allocare un ByteBuffer
             per ricevere un intero non porta a sprechi, grazie alla costante Java.
          */
         ByteBuffer sizeBuffer = ByteBuffer.allocate(Integer.BYTES);
-        socketChannel.read(sizeBuffer);
+        readFully(sizeBuffer, socketChannel);
         sizeBuffer.flip();
         int size = sizeBuffer.getInt();
         //Stampa di debug, nel caso in cui DEBUG_MODE sia impostato a true
@@ -88,7 +113,8 @@ public class CommonUtilities {
         ByteBuffer readBuffer = ByteBuffer.allocate(size);
         //Stampa di debug, nel caso in cui DEBUG_MODE sia impostato a true
         if (DEBUG_MODE) System.out.println(readBuffer);
-        socketChannel.read(readBuffer);
+        //Un messaggio lungo (ad esempio un blocco di una risposta a blocchi) può arrivare in più letture.
+        readFully(readBuffer, socketChannel);
         readBuffer.flip();
         //Stampa di debug, nel caso in cui DEBUG_MODE sia impostato a true
         if (DEBUG_MODE) System.out.println(readBuffer);
@@ -103,4 +129,45 @@ public class CommonUtilities {
         return message;
     }
 
+    //Legge dalla socket finché il buffer non è pieno.
+    private static void readFully(ByteBuffer buffer, SocketChannel socketChannel) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (socketChannel.read(buffer) < 0) throw new EOFException("Connessione chiusa dal server.");
+        }
+    }
+
+    /**
+     * Indica se 'response' è l'header di una risposta a blocchi ('lista_amici blocchi', 'mostra_classifica
+     * blocchi'), della forma "BLOCCHI &lt;righe&gt; &lt;blocchi&gt; &lt;versione&gt;".
+     *
+     * @param response La risposta letta.
+     * @return {@code true} se seguono dei blocchi.
+     */
+    public static boolean isChunkedHeader(String response) {
+        return response.startsWith("BLOCCHI ");
+    }
+
+    /**
+     * Restituisce il numero di blocchi che seguono l'header di una risposta a blocchi. Ogni blocco è un documento
+     * JSON a sé e può essere decodificato prima che arrivi il successivo (si veda
+     * {@link front_end_src.ServerConnection#request(String, Consumer)}), così che non serva mai avere in memoria
+     * l'intera risposta.
+     *
+     * @param header L'header già letto.
+     * @return I blocchi che seguono.
+     */
+    public static int chunksOf(String header) {
+        return Integer.parseInt(header.split(" ")[2]);
+    }
+
+    /**
+     * Restituisce la versione dei dati indicata nell'header di una risposta a blocchi.
+     *
+     * @param header L'header.
+     * @return La versione.
+     */
+    public static long versionOf(String header) {
+        return Long.parseLong(header.split(" ")[3]);
+    }
+
 }
@@ -0,0 +1,47 @@
+package common_src;
+
+import java.util.ArrayList;
+
+/**
+ * La risposta (in Json) a 'aggiornamenti_amici': gli amici aggiunti dopo la versione indicata dal
+ * {@link front_end_src.Client}, oppure l'intera lista se quella versione non è più valida.
+ */
+public class FriendsUpdate {
+    private final int version;
+    private final boolean full;
+    private final ArrayList<String> added;
+
+    public FriendsUpdate(int version, boolean full, ArrayList<String> added) {
+        this.version = version;
+        this.full = full;
+        this.added = added;
+    }
+
+    /**
+     * Restituisce la versione della lista amici dopo questo aggiornamento, da inviare alla richiesta successiva.
+     *
+     * @return La versione.
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Indica se {@link #getAdded()} è l'intera lista amici (da sostituire a quella che si ha) o solo gli amici
+     * nuovi (da aggiungere in coda).
+     *
+     * @return {@code true} se la lista è completa.
+     */
+    public boolean isFull() {
+        return this.full;
+    }
+
+    /**
+     * Restituisce gli amici aggiunti, in ordine di amicizia.
+     *
+     * @return Gli amici.
+     */
+    public ArrayList<String> getAdded() {
+        return this.added;
+    }
+}
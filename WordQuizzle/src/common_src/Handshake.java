@@ -0,0 +1,122 @@
+package common_src;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketTimeoutException;
+
+/**
+ * {@link Handshake} descrive l'handshake UDP con il quale il destinatario accetta una sfida. La richiesta arriva al
+ * client come notifica TCP ({@link PushFrame#INVITATION}) con l'id della sfida e l'indirizzo della socket UDP del
+ * {@link back_end_src.RequestManager}; poi:
+ *  - il client invia "accepted &lt;sfida&gt; 1" alla socket del RequestManager;
+ *  - il server risponde con "starting &lt;id&gt; &lt;sfida&gt; 2" (che fa anche da ACK dell'accettazione);
+ *  - il client conferma con "ack &lt;sfida&gt; 2".
+ * Ogni messaggio porta l'id della sfida e il proprio numero di sequenza, così che messaggi di sfide diverse (ad
+ * esempio in ritardo da una richiesta ormai scaduta) vengano ignorati e le ritrasmissioni riconosciute come
+ * duplicati. 'accepted' e 'starting' vengono ritrasmessi finché non arriva la risposta, al più {@link #MAX_ATTEMPTS}
+ * volte, raddoppiando ogni volta l'attesa a partire da {@link #INITIAL_TIMEOUT_MILLIS}.
+ */
+public final class Handshake {
+
+    public static final String ACCEPTED = "accepted";
+    public static final String STARTING = "starting";
+    public static final String ACK = "ack";
+
+    public static final int ACCEPTED_SEQ = 1;
+    public static final int STARTING_SEQ = 2;
+
+    public static final long INITIAL_TIMEOUT_MILLIS = 100;
+    public static final int MAX_ATTEMPTS = 5;
+
+    private Handshake() {
+    }
+
+    /**
+     * Restituisce quanto attendere la risposta dopo il tentativo indicato (il primo è il tentativo 0).
+     *
+     * @param attempt Il tentativo.
+     * @return L'attesa in millisecondi.
+     */
+    public static long timeoutOf(int attempt) {
+        return INITIAL_TIMEOUT_MILLIS << attempt;
+    }
+
+    /**
+     * @param challengeId L'id della sfida.
+     * @return Il messaggio con il quale il client accetta la sfida.
+     */
+    public static String accepted(String challengeId) {
+        return ACCEPTED + " " + challengeId + " " + ACCEPTED_SEQ;
+    }
+
+    /**
+     * @param id L'utente che ha richiesto la sfida.
+     * @param challengeId L'id della sfida.
+     * @return Il messaggio con il quale il server conferma l'inizio della sfida.
+     */
+    public static String starting(String id, String challengeId) {
+        return STARTING + " " + id + " " + challengeId + " " + STARTING_SEQ;
+    }
+
+    /**
+     * @param challengeId L'id della sfida.
+     * @return Il messaggio con il quale il client conferma di aver ricevuto 'starting'.
+     */
+    public static String ack(String challengeId) {
+        return ACK + " " + challengeId + " " + STARTING_SEQ;
+    }
+
+    /**
+     * Lato server: attende l'accettazione della sfida sulla socket del RequestManager, poi invia 'starting' (con
+     * 'sendStarting') e lo ritrasmette finché il client non conferma. Anche un 'accepted' ritrasmesso dal client,
+     * segno che 'starting' è andato perso, provoca un nuovo invio.
+     *
+     * @param socket La socket UDP dedicata alla richiesta.
+     * @param challengeId L'id della sfida.
+     * @param timeoutMillis Il tempo a disposizione del client per accettare.
+     * @param sendStarting Invia 'starting' al client.
+     * @return {@code true} se la sfida è stata accettata (anche se il client non ha confermato 'starting' entro i
+     * tentativi a disposizione), {@code false} se il tempo per accettare è scaduto.
+     * @throws IOException In caso di problemi con la socket.
+     */
+    public static boolean awaitAcceptance(DatagramSocket socket, String challengeId, long timeoutMillis,
+                                          Runnable sendStarting) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!ACCEPTED.equals(receive(socket, challengeId, deadline - System.currentTimeMillis()))) {
+            if (System.currentTimeMillis() >= deadline) return false;
+        }
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            sendStarting.run();
+            long attemptDeadline = System.currentTimeMillis() + timeoutOf(attempt);
+            String type;
+            do {
+                type = receive(socket, challengeId, attemptDeadline - System.currentTimeMillis());
+                if (ACK.equals(type)) return true;
+                //Un 'accepted' duplicato: il client non ha ricevuto 'starting', lo si invia subito di nuovo.
+            } while (type != null && !ACCEPTED.equals(type));
+        }
+        return true;
+    }
+
+    /*
+        Riceve il prossimo messaggio della sfida entro 'timeoutMillis' e ne restituisce il tipo, oppure null se il
+        tempo scade. I messaggi di altre sfide, o malformati, vengono scartati.
+     */
+    private static String receive(DatagramSocket socket, String challengeId, long timeoutMillis) throws IOException {
+        byte[] buffer = new byte[CommonUtilities.MAX_DATAGRAM_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (long left = timeoutMillis; left > 0; left = deadline - System.currentTimeMillis()) {
+            socket.setSoTimeout((int) left);
+            try {
+                socket.receive(packet);
+            } catch (SocketTimeoutException e) {
+                return null;
+            }
+            String[] fields = new String(packet.getData(), 0, packet.getLength()).trim().split(" ");
+            if (fields.length == 3 && fields[1].equals(challengeId)) return fields[0];
+        }
+        return null;
+    }
+}
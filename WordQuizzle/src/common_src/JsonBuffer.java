@@ -0,0 +1,234 @@
+package common_src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * {@link JsonBuffer} scrive JSON direttamente in un {@link ByteBuffer}, senza passare da reflection, da una
+ * {@link String} intermedia e da 'getBytes()'. Il buffer viene preso da un pool (uno per thread) e restituito con
+ * {@link #release()}: il thread del selector, che codifica una risposta dopo l'altra, riusa sempre lo stesso.
+ *
+ * Se si indica una {@link WritableByteChannel}, il buffer viene svuotato sul canale ogni volta che si riempie, così
+ * che la memoria usata resti limitata anche per documenti molto grandi; altrimenti il buffer cresce e il risultato
+ * si ottiene con {@link #toByteArray()}.
+ *
+ * Le stringhe vengono scritte con gli stessi escape di Gson (compresi quelli dei caratteri HTML), quindi l'output è
+ * identico a quello di 'new Gson().toJson(...)' codificato con il charset di default, come faceva 'getBytes()'.
+ */
+public final class JsonBuffer {
+
+    private static final int INITIAL_SIZE = 8 * 1024;
+    //I buffer più grandi di così non vengono tenuti nel pool, per non trattenere memoria dopo una risposta enorme.
+    private static final int MAX_POOLED_SIZE = 1024 * 1024;
+    //Il buffer libero di ogni thread: mentre è in uso viene tolto, così che due documenti non lo condividano.
+    private static final ThreadLocal<ByteBuffer> POOL = new ThreadLocal<>();
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    //Per ogni carattere ASCII: 0 se va scritto così com'è, altrimenti il carattere dell'escape ('u' per \\u00XX).
+    private static final byte[] ESCAPES = new byte[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) ESCAPES[c] = 'u';
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+        ESCAPES['\t'] = 't';
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\r'] = 'r';
+        ESCAPES['\f'] = 'f';
+        ESCAPES['<'] = 'u';
+        ESCAPES['>'] = 'u';
+        ESCAPES['&'] = 'u';
+        ESCAPES['='] = 'u';
+        ESCAPES['\''] = 'u';
+    }
+
+    private ByteBuffer buffer;
+    private final WritableByteChannel sink;
+
+    private JsonBuffer(WritableByteChannel sink) {
+        ByteBuffer pooled = POOL.get();
+        if (pooled == null) {
+            pooled = ByteBuffer.allocate(INITIAL_SIZE);
+        } else {
+            POOL.remove();
+            pooled.clear();
+        }
+        this.buffer = pooled;
+        this.sink = sink;
+    }
+
+    /**
+     * Prende dal pool un buffer che cresce fino a contenere l'intero documento.
+     *
+     * @return Il buffer.
+     */
+    public static JsonBuffer acquire() {
+        return new JsonBuffer(null);
+    }
+
+    /**
+     * Prende dal pool un buffer che viene svuotato su 'sink' ogni volta che si riempie. Va chiamato
+     * {@link #flush()} alla fine del documento.
+     *
+     * @param sink Il canale sul quale scrivere.
+     * @return Il buffer.
+     */
+    public static JsonBuffer acquire(WritableByteChannel sink) {
+        return new JsonBuffer(sink);
+    }
+
+    /**
+     * Restituisce il buffer al pool: dopo la chiamata non va più usato.
+     */
+    public void release() {
+        if (this.buffer.capacity() <= MAX_POOLED_SIZE) POOL.set(this.buffer);
+        this.buffer = null;
+    }
+
+    /**
+     * Restituisce una copia dei byte scritti.
+     *
+     * @return Il documento codificato.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer.array(), this.buffer.position());
+    }
+
+    /**
+     * Scrive sul canale i byte ancora nel buffer.
+     *
+     * @throws IOException In caso di problemi durante la scrittura.
+     */
+    public void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) this.sink.write(this.buffer);
+        this.buffer.clear();
+    }
+
+    /**
+     * Scrive un carattere ASCII di struttura (parentesi, virgole, due punti, spazi).
+     *
+     * @param c Il carattere.
+     * @return Questo buffer.
+     * @throws IOException In caso di problemi durante lo svuotamento sul canale.
+     */
+    public JsonBuffer raw(char c) throws IOException {
+        ensure(1);
+        this.buffer.put((byte) c);
+        return this;
+    }
+
+    /**
+     * Scrive una sequenza ASCII di struttura (ad esempio l'indentazione).
+     *
+     * @param s La sequenza.
+     * @return Questo buffer.
+     * @throws IOException In caso di problemi durante lo svuotamento sul canale.
+     */
+    public JsonBuffer raw(String s) throws IOException {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) this.buffer.put((byte) s.charAt(i));
+        return this;
+    }
+
+    /**
+     * Scrive un numero intero.
+     *
+     * @param value Il numero.
+     * @return Questo buffer.
+     * @throws IOException In caso di problemi durante lo svuotamento sul canale.
+     */
+    public JsonBuffer number(long value) throws IOException {
+        if (value == Long.MIN_VALUE) return raw(Long.toString(value));
+        ensure(20);
+        if (value < 0) {
+            this.buffer.put((byte) '-');
+            value = -value;
+        }
+        //Le cifre vengono scritte in fondo e poi spostate all'inizio: nessuna String intermedia.
+        int start = this.buffer.position(), end = start + 19;
+        int position = end;
+        do {
+            this.buffer.put(--position, (byte) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+        System.arraycopy(this.buffer.array(), position, this.buffer.array(), start, end - position);
+        this.buffer.position(start + end - position);
+        return this;
+    }
+
+    /**
+     * Scrive una stringa tra virgolette, con gli escape necessari.
+     *
+     * @param s La stringa.
+     * @return Questo buffer.
+     * @throws IOException In caso di problemi durante lo svuotamento sul canale.
+     */
+    public JsonBuffer string(String s) throws IOException {
+        //Un carattere ASCII occupa al più 6 byte (\\u00XX).
+        ensure(s.length() * 6 + 2);
+        int start = this.buffer.position();
+        this.buffer.put((byte) '"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 128) {
+                //Caso raro: si torna indietro e si codifica la stringa con il charset di default.
+                this.buffer.position(start);
+                return raw('"').encoded(s).raw('"');
+            }
+            byte escape = ESCAPES[c];
+            if (escape == 0) {
+                this.buffer.put((byte) c);
+            } else if (escape == 'u') {
+                this.buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(HEX[c >> 4]).put(HEX[c & 0xF]);
+            } else {
+                this.buffer.put((byte) '\\').put(escape);
+            }
+        }
+        this.buffer.put((byte) '"');
+        return this;
+    }
+
+    //Scrive il contenuto di una stringa con caratteri non ASCII, come farebbero Gson e 'getBytes()'.
+    private JsonBuffer encoded(String s) throws IOException {
+        StringBuilder escaped = new StringBuilder(s.length() + 16);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 128 && ESCAPES[c] != 0) {
+                if (ESCAPES[c] == 'u') {
+                    escaped.append(String.format("\\u%04x", (int) c));
+                } else {
+                    escaped.append('\\').append((char) ESCAPES[c]);
+                }
+            } else if (c == '\u2028' || c == '\u2029') {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        byte[] bytes = escaped.toString().getBytes(CHARSET);
+        ensure(bytes.length);
+        this.buffer.put(bytes);
+        return this;
+    }
+
+    //Fa spazio per 'bytes' byte: svuotando il buffer sul canale oppure allargandolo.
+    private void ensure(int bytes) throws IOException {
+        if (this.buffer.remaining() >= bytes) return;
+        if (this.sink != null) {
+            flush();
+            if (this.buffer.remaining() >= bytes) return;
+        }
+        int capacity = Math.max(this.buffer.capacity() * 2, this.buffer.position() + bytes);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        this.buffer.flip();
+        grown.put(this.buffer);
+        this.buffer = grown;
+    }
+}
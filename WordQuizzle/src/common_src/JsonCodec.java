@@ -0,0 +1,243 @@
+package common_src;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link JsonCodec} codifica e decodifica, senza reflection e senza {@code TypeToken}, le due risposte più frequenti
+ * del protocollo: la lista amici ('lista_amici', un array di stringhe) e la classifica ('mostra_classifica', un
+ * oggetto nickname -> punteggio). La scrittura passa da {@link JsonBuffer}; la lettura scorre la risposta una sola
+ * volta. Il formato è lo stesso prodotto e letto da Gson, quindi server e client possono usare indifferentemente
+ * l'uno o l'altro.
+ */
+public final class JsonCodec {
+
+    private JsonCodec() {
+    }
+
+    /**
+     * Codifica una lista di stringhe come array JSON.
+     *
+     * @param strings Le stringhe.
+     * @return L'array codificato.
+     */
+    public static byte[] encodeStrings(Collection<String> strings) {
+        JsonBuffer json = JsonBuffer.acquire();
+        try {
+            writeStrings(json, strings);
+            return json.toByteArray();
+        } catch (IOException e) {
+            //Senza canale il buffer non scrive mai su disco o in rete.
+            throw new UncheckedIOException(e);
+        } finally {
+            json.release();
+        }
+    }
+
+    /**
+     * Codifica una classifica come oggetto JSON, nell'ordine della mappa.
+     *
+     * @param rank La classifica, nickname -> punteggio.
+     * @return L'oggetto codificato.
+     */
+    public static byte[] encodeRank(Map<String, Integer> rank) {
+        JsonBuffer json = JsonBuffer.acquire();
+        try {
+            writeRank(json, rank);
+            return json.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            json.release();
+        }
+    }
+
+    /**
+     * Scrive una lista di stringhe come array JSON.
+     *
+     * @param json Il buffer sul quale scrivere.
+     * @param strings Le stringhe.
+     * @throws IOException In caso di problemi durante lo svuotamento del buffer.
+     */
+    public static void writeStrings(JsonBuffer json, Collection<String> strings) throws IOException {
+        json.raw('[');
+        boolean first = true;
+        for (String s : strings) {
+            if (!first) json.raw(',');
+            json.string(s);
+            first = false;
+        }
+        json.raw(']');
+    }
+
+    /**
+     * Scrive una classifica come oggetto JSON.
+     *
+     * @param json Il buffer sul quale scrivere.
+     * @param rank La classifica, nickname -> punteggio.
+     * @throws IOException In caso di problemi durante lo svuotamento del buffer.
+     */
+    public static void writeRank(JsonBuffer json, Map<String, Integer> rank) throws IOException {
+        json.raw('{');
+        boolean first = true;
+        for (Map.Entry<String, Integer> entry : rank.entrySet()) {
+            if (!first) json.raw(',');
+            json.string(entry.getKey()).raw(':').number(entry.getValue());
+            first = false;
+        }
+        json.raw('}');
+    }
+
+    /**
+     * Decodifica un array JSON di stringhe.
+     *
+     * @param json L'array codificato.
+     * @return Le stringhe, nell'ordine dell'array.
+     * @throws IllegalArgumentException Se 'json' non è un array di stringhe.
+     */
+    public static ArrayList<String> decodeStrings(String json) {
+        Cursor cursor = new Cursor(json);
+        ArrayList<String> strings = new ArrayList<>();
+        cursor.expect('[');
+        if (!cursor.consume(']')) {
+            do {
+                strings.add(cursor.string());
+            } while (cursor.consume(','));
+            cursor.expect(']');
+        }
+        cursor.end();
+        return strings;
+    }
+
+    /**
+     * Decodifica un oggetto JSON nickname -> punteggio.
+     *
+     * @param json L'oggetto codificato.
+     * @return La classifica, nell'ordine dell'oggetto.
+     * @throws IllegalArgumentException Se 'json' non è un oggetto con valori interi.
+     */
+    public static LinkedHashMap<String, Integer> decodeRank(String json) {
+        Cursor cursor = new Cursor(json);
+        LinkedHashMap<String, Integer> rank = new LinkedHashMap<>();
+        cursor.expect('{');
+        if (!cursor.consume('}')) {
+            do {
+                String key = cursor.string();
+                cursor.expect(':');
+                rank.put(key, cursor.integer());
+            } while (cursor.consume(','));
+            cursor.expect('}');
+        }
+        cursor.end();
+        return rank;
+    }
+
+    //Scorre il testo JSON, saltando gli spazi tra un elemento e l'altro.
+    private static final class Cursor {
+        private final String json;
+        private int position;
+
+        Cursor(String json) {
+            this.json = json;
+        }
+
+        private void skipSpaces() {
+            while (this.position < this.json.length() && Character.isWhitespace(this.json.charAt(this.position)))
+                this.position++;
+        }
+
+        boolean consume(char c) {
+            skipSpaces();
+            if (this.position < this.json.length() && this.json.charAt(this.position) == c) {
+                this.position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!consume(c)) throw error("atteso '" + c + "'");
+        }
+
+        void end() {
+            skipSpaces();
+            if (this.position != this.json.length()) throw error("testo dopo la fine del documento");
+        }
+
+        int integer() {
+            skipSpaces();
+            int start = this.position;
+            if (this.position < this.json.length() && this.json.charAt(this.position) == '-') this.position++;
+            while (this.position < this.json.length() && Character.isDigit(this.json.charAt(this.position)))
+                this.position++;
+            try {
+                return Integer.parseInt(this.json, start, this.position, 10);
+            } catch (NumberFormatException e) {
+                throw error("atteso un numero intero");
+            }
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder s = null;
+            int start = this.position;
+            while (this.position < this.json.length()) {
+                char c = this.json.charAt(this.position);
+                if (c == '"') {
+                    String result = s == null ? this.json.substring(start, this.position)
+                            : s.append(this.json, start, this.position).toString();
+                    this.position++;
+                    return result;
+                }
+                if (c != '\\') {
+                    this.position++;
+                    continue;
+                }
+                //Un escape: solo in questo caso serve uno StringBuilder.
+                if (s == null) s = new StringBuilder();
+                s.append(this.json, start, this.position);
+                if (this.position + 1 >= this.json.length()) break;
+                char escape = this.json.charAt(this.position + 1);
+                this.position += 2;
+                switch (escape) {
+                    case 'u':
+                        if (this.position + 4 > this.json.length()) throw error("escape incompleto");
+                        try {
+                            s.append((char) Integer.parseInt(this.json, this.position, this.position + 4, 16));
+                        } catch (NumberFormatException e) {
+                            throw error("escape non valido");
+                        }
+                        this.position += 4;
+                        break;
+                    case 'b':
+                        s.append('\b');
+                        break;
+                    case 'f':
+                        s.append('\f');
+                        break;
+                    case 'n':
+                        s.append('\n');
+                        break;
+                    case 'r':
+                        s.append('\r');
+                        break;
+                    case 't':
+                        s.append('\t');
+                        break;
+                    default:
+                        s.append(escape);
+                }
+                start = this.position;
+            }
+            throw error("stringa non terminata");
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("JSON non valido alla posizione " + this.position + ": " + message);
+        }
+    }
+}
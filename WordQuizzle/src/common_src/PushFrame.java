@@ -0,0 +1,66 @@
+package common_src;
+
+/**
+ * {@link PushFrame} descrive le notifiche che il {@link back_end_src.Server} invia di sua iniziativa al client sulla
+ * connessione TCP già aperta, intercalate alle risposte: un messaggio (con la solita size davanti) della forma
+ * "@push &lt;tipo&gt; &lt;argomenti...&gt;". Nessuna risposta del protocollo inizia con {@link #PREFIX}, quindi il
+ * client distingue le notifiche leggendo il primo token; chi non le gestisce le può semplicemente scartare (si veda
+ * {@link CommonUtilities#readFromSocket}).
+ */
+public final class PushFrame {
+
+    public static final String PREFIX = "@push ";
+
+    /**
+     * Un altro utente ha aggiunto l'amicizia: "newfriend &lt;id&gt;".
+     */
+    public static final String NEW_FRIEND = "newfriend";
+    /**
+     * Una richiesta di sfida: "add &lt;id&gt; &lt;host&gt; &lt;porta&gt;", con l'indirizzo UDP al quale rispondere.
+     */
+    public static final String INVITATION = "add";
+    /**
+     * Una richiesta di sfida è scaduta: "remove &lt;id&gt;".
+     */
+    public static final String EXPIRED = "remove";
+    /**
+     * È scaduto il tempo della sfida in corso: "timeout &lt;id&gt;".
+     */
+    public static final String TIMEOUT = "timeout";
+
+    private PushFrame() {
+    }
+
+    /**
+     * Costruisce una notifica.
+     *
+     * @param type Il tipo di notifica.
+     * @param args Gli argomenti, senza spazi.
+     * @return Il messaggio da inviare.
+     */
+    public static String encode(String type, String... args) {
+        StringBuilder frame = new StringBuilder(PREFIX).append(type);
+        for (String arg : args) frame.append(' ').append(arg);
+        return frame.toString();
+    }
+
+    /**
+     * Indica se il messaggio ricevuto è una notifica.
+     *
+     * @param message Il messaggio.
+     * @return {@code true} se è una notifica.
+     */
+    public static boolean isPush(String message) {
+        return message.startsWith(PREFIX);
+    }
+
+    /**
+     * Divide una notifica nel tipo e nei suoi argomenti.
+     *
+     * @param message La notifica.
+     * @return Il tipo seguito dagli argomenti.
+     */
+    public static String[] decode(String message) {
+        return message.substring(PREFIX.length()).trim().split(" ");
+    }
+}
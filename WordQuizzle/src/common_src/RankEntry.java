@@ -0,0 +1,49 @@
+package common_src;
+
+/**
+ * Una riga della classifica globale, così come viene inviata (in Json) dal {@link back_end_src.Server} al
+ * {@link front_end_src.Client}. Utenti a pari punteggio hanno la stessa posizione.
+ */
+public class RankEntry {
+    private final int position;
+    private final String nickname;
+    private final int points;
+
+    public RankEntry(int position, String nickname, int points) {
+        this.position = position;
+        this.nickname = nickname;
+        this.points = points;
+    }
+
+    /**
+     * Restituisce la posizione in classifica, a partire da 1.
+     *
+     * @return La posizione.
+     */
+    public int getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Restituisce l'username dell'utente.
+     *
+     * @return L'username.
+     */
+    public String getNickname() {
+        return this.nickname;
+    }
+
+    /**
+     * Restituisce il punteggio totale dell'utente.
+     *
+     * @return Il punteggio.
+     */
+    public int getPoints() {
+        return this.points;
+    }
+
+    @Override
+    public String toString() {
+        return this.position + ". " + this.nickname + " - " + this.points;
+    }
+}
@@ -0,0 +1,62 @@
+package common_src;
+
+import java.util.LinkedHashMap;
+
+/**
+ * La risposta (in Json) a 'aggiornamenti_classifica': i punteggi cambiati (o dei nuovi amici) dopo la versione
+ * indicata dal {@link front_end_src.Client}, oppure l'intera classifica se quella versione non è più valida.
+ *
+ * Le righe cambiate hanno anche la loro nuova posizione in classifica: a parità di punteggio il server ordina per id,
+ * che il client non conosce, quindi il client non potrebbe ricostruire da solo l'ordine del server.
+ */
+public class RankUpdate {
+    private final long version;
+    private final boolean full;
+    private final LinkedHashMap<String, Integer> points;
+    private final LinkedHashMap<String, Integer> positions;
+
+    public RankUpdate(long version, boolean full, LinkedHashMap<String, Integer> points,
+                      LinkedHashMap<String, Integer> positions) {
+        this.version = version;
+        this.full = full;
+        this.points = points;
+        this.positions = positions;
+    }
+
+    /**
+     * Restituisce la versione della classifica dopo questo aggiornamento, da inviare alla richiesta successiva.
+     *
+     * @return La versione.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Indica se {@link #getPoints()} è l'intera classifica (già ordinata) o solo le righe cambiate.
+     *
+     * @return {@code true} se la classifica è completa.
+     */
+    public boolean isFull() {
+        return this.full;
+    }
+
+    /**
+     * Restituisce i punteggi, nickname -> punteggio.
+     *
+     * @return I punteggi.
+     */
+    public LinkedHashMap<String, Integer> getPoints() {
+        return this.points;
+    }
+
+    /**
+     * Restituisce la posizione (a partire da 0) di ogni riga cambiata nella classifica dopo questo aggiornamento,
+     * nickname -> posizione. È {@code null} se la classifica è completa.
+     *
+     * @return Le posizioni.
+     */
+    public LinkedHashMap<String, Integer> getPositions() {
+        return this.positions;
+    }
+}
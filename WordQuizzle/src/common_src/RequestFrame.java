@@ -0,0 +1,68 @@
+package common_src;
+
+/**
+ * {@link RequestFrame} descrive l'id di correlazione che il client può mettere in testa ad un comando:
+ * "#&lt;id&gt; &lt;comando&gt;". Il {@link back_end_src.Server} mette lo stesso id in testa ad ogni messaggio della
+ * risposta (anche ad ogni blocco di una risposta a blocchi), così che il client riconosca a quale richiesta
+ * appartiene. I comandi con l'id sono indipendenti tra loro: il server può eseguirli insieme e rispondere nell'ordine
+ * in cui finiscono, anche intercalando i blocchi di risposte diverse. I comandi senza id (e i messaggi della sfida)
+ * continuano a ricevere le risposte nell'ordine, senza id. Nessuna risposta del protocollo inizia con
+ * {@link #PREFIX}.
+ */
+public final class RequestFrame {
+
+    public static final String PREFIX = "#";
+
+    private RequestFrame() {
+    }
+
+    /**
+     * Mette l'id in testa al messaggio.
+     *
+     * @param id L'id della richiesta.
+     * @param message Il comando, o un messaggio della risposta.
+     * @return Il messaggio da inviare.
+     */
+    public static String encode(long id, String message) {
+        return PREFIX + id + " " + message;
+    }
+
+    /**
+     * Restituisce l'intestazione da scrivere davanti ai messaggi della risposta alla richiesta indicata.
+     *
+     * @param id L'id della richiesta.
+     * @return I byte dell'intestazione.
+     */
+    public static byte[] header(long id) {
+        return (PREFIX + id + " ").getBytes();
+    }
+
+    /**
+     * Indica se il messaggio porta un id.
+     *
+     * @param message Il messaggio.
+     * @return {@code true} se il messaggio porta un id.
+     */
+    public static boolean isTagged(String message) {
+        return message.startsWith(PREFIX);
+    }
+
+    /**
+     * @param message Un messaggio con l'id.
+     * @return L'id del messaggio.
+     * @throws NumberFormatException Se l'id è malformato.
+     */
+    public static long idOf(String message) {
+        int end = message.indexOf(' ');
+        return Long.parseLong(end < 0 ? message.substring(PREFIX.length()) : message.substring(PREFIX.length(), end));
+    }
+
+    /**
+     * @param message Un messaggio con l'id.
+     * @return Il messaggio senza l'id.
+     */
+    public static String bodyOf(String message) {
+        int end = message.indexOf(' ');
+        return end < 0 ? "" : message.substring(end + 1);
+    }
+}
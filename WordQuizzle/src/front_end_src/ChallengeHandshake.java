@@ -0,0 +1,121 @@
+package front_end_src;
+
+import common_src.Handshake;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ChallengeHandshake} è la parte client dell'handshake di accettazione di una sfida ({@link Handshake}):
+ * invia 'accepted' e lo ritrasmette, con attese sempre più lunghe, finché il receiver non riceve 'starting' per
+ * quella stessa sfida; ad ogni 'starting' ricevuto, anche duplicato, risponde con un 'ack'. Gli 'starting' di sfide
+ * diverse da quella accettata (ad esempio arrivati in ritardo) vengono ignorati, i duplicati contati.
+ * È condiviso tra il thread che accetta la sfida e quello del receiver, che riceve i messaggi UDP: per ogni sfida
+ * accettata c'è una {@link CompletableFuture}, completata dal receiver appena arriva 'starting', così che chi
+ * accetta prosegua subito, senza attendere la fine dell'intervallo di ritrasmissione.
+ */
+public class ChallengeHandshake {
+
+    private final DatagramSocket UDPSocket;
+
+    //Le sfide accettate (di fatto l'ultima): la socket UDP del RequestManager e la future completata da 'starting'.
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicInteger ignored = new AtomicInteger();
+
+    public ChallengeHandshake(DatagramSocket UDPSocket) {
+        this.UDPSocket = UDPSocket;
+    }
+
+    /**
+     * Accetta una sfida, ritrasmettendo 'accepted' finché non arriva 'starting' o finiscono i tentativi: in tutto
+     * si attende al più la somma delle attese di {@link Handshake#timeoutOf}.
+     *
+     * @param addressInfo Host e porta della socket del RequestManager e id della sfida, come ricevuti con la
+     *                    richiesta.
+     * @return {@code true} se il server ha confermato la sfida, {@code false} se la richiesta è scaduta.
+     * @throws IOException In caso di problemi con la socket UDP.
+     * @throws InterruptedException Se il thread viene interrotto durante l'attesa.
+     */
+    public boolean accept(String[] addressInfo) throws IOException, InterruptedException {
+        String challengeId = addressInfo[2];
+        Pending challenge = new Pending(new InetSocketAddress(addressInfo[0], Integer.parseInt(addressInfo[1])));
+        //Le sfide accettate in precedenza sono ormai concluse: i loro messaggi in ritardo verranno ignorati.
+        this.pending.keySet().retainAll(Collections.singleton(challengeId));
+        this.pending.put(challengeId, challenge);
+
+        byte[] message = Handshake.accepted(challengeId).getBytes();
+        for (int attempt = 0; attempt < Handshake.MAX_ATTEMPTS; attempt++) {
+            this.UDPSocket.send(new DatagramPacket(message, message.length, challenge.server));
+            try {
+                challenge.started.get(Handshake.timeoutOf(attempt), TimeUnit.MILLISECONDS);
+                return true;
+            } catch (TimeoutException e) {
+                //'accepted' o 'starting' perso: si ritrasmette.
+            } catch (ExecutionException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gestisce un 'starting' ricevuto dal receiver, completando la future della sfida.
+     *
+     * @param challengeId L'id della sfida indicato nel messaggio.
+     */
+    public void onStarting(String challengeId) {
+        Pending challenge = this.pending.get(challengeId);
+        if (challenge == null) {
+            this.ignored.incrementAndGet();
+            return;
+        }
+        if (!challenge.started.complete(null)) this.duplicates.incrementAndGet();
+        //Si conferma anche un duplicato: vuol dire che l'ack precedente è andato perso.
+        byte[] ack = Handshake.ack(challengeId).getBytes();
+        try {
+            this.UDPSocket.send(new DatagramPacket(ack, ack.length, challenge.server));
+        } catch (IOException e) {
+            //Il server ritrasmetterà 'starting'.
+        }
+    }
+
+    /**
+     * Restituisce il numero di 'starting' duplicati ricevuti.
+     *
+     * @return I duplicati.
+     */
+    public int duplicates() {
+        return this.duplicates.get();
+    }
+
+    /**
+     * Restituisce il numero di 'starting' ignorati perché riferiti ad un'altra sfida.
+     *
+     * @return I messaggi ignorati.
+     */
+    public int ignored() {
+        return this.ignored.get();
+    }
+
+    //Una sfida accettata.
+    private static final class Pending {
+        private final SocketAddress server;
+        private final CompletableFuture<Void> started = new CompletableFuture<>();
+
+        Pending(SocketAddress server) {
+            this.server = server;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package front_end_src;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import common_src.CommonUtilities;
+import common_src.JsonCodec;
+import common_src.RankEntry;
 import common_src.UsersRegisterInterface;
 import common_src.exceptions.AlreadyRegisteredUserException;
 import front_end_src.exceptions.WrongNumberOfArgumentsException;
@@ -11,7 +13,6 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Type;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -109,8 +110,10 @@ public class Client {
 
         SocketChannel TCPSocket = null;
         DatagramSocket UDPSocket = null;
-        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        //Un thread per UDPReceiver e uno per la connessione con il server.
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
         UDPReceiver receiver = null;
+        ServerConnection connection = null;
 
         try {
             //Apro la socket TCP verso il server
@@ -120,9 +123,12 @@ public class Client {
             String TCPPort = TCPSocket.getLocalAddress().toString().split(":")[1];
             UDPSocket = new DatagramSocket(Integer.parseInt(TCPPort));
             receiver = new UDPReceiver(UDPSocket, requests);
+            //Tutta la comunicazione con il server passa da 'connection', che passa le notifiche al receiver.
+            connection = new ServerConnection(TCPSocket, receiver);
 
             //System.out.println(TCPSocket.getLocalAddress());
             executorService.execute(receiver);
+            executorService.execute(connection);
 
             while (on) {
 
@@ -197,8 +203,7 @@ public class Client {
                         synchronized (requests) {
                             requests.clear();
                         }
-                        CommonUtilities.writeIntoSocket(input, TCPSocket);
-                        response = CommonUtilities.readFromSocket(TCPSocket);
+                        response = ServerConnection.await(connection.request(input));
                         if (response.equals("Login effettuato con successo.")) loggedIn = true;
                         System.out.println(response);
                         break;
@@ -211,8 +216,7 @@ public class Client {
                         synchronized (requests) {
                             requests.clear();
                         }
-                        CommonUtilities.writeIntoSocket(input, TCPSocket);
-                        response = CommonUtilities.readFromSocket(TCPSocket);
+                        response = ServerConnection.await(connection.request(input));
                         if (response.equals("Logout effettuato con successo.")) loggedIn = false;
                         System.out.println(response);
                         break;
@@ -222,8 +226,7 @@ public class Client {
                             System.out.println(Client.notLoggedError);
                             break;
                         }
-                        CommonUtilities.writeIntoSocket(input, TCPSocket);
-                        response = CommonUtilities.readFromSocket(TCPSocket);
+                        response = ServerConnection.await(connection.request(input));
                         System.out.println(response);
                         break;
                     case "lista_amici":
@@ -231,20 +234,22 @@ public class Client {
                             System.out.println(Client.notLoggedError);
                             break;
                         }
-                        CommonUtilities.writeIntoSocket(input, TCPSocket);
-                        response = CommonUtilities.readFromSocket(TCPSocket);
-                        if (response.equals("Non hai nessuna amicizia.")) {
-                            System.out.println(response);
-                        } else {
-                            //La lista amici è inviata tramite stringa Json, bisogna riconvertirla per
-                            //stamparla nel modo più appropriato.
-                            Type friendsType = new TypeToken<ArrayList<String>>() {
-                            }.getType();
-                            ArrayList<String> friends = gson.fromJson(response, friendsType);
-                            System.out.println("Lista amici: ");
-                            for (String friend : friends) {
+                        /*
+                            La lista amici viene chiesta a blocchi: ogni blocco è un array Json che viene
+                            riconvertito e stampato appena arriva, senza attendere (e tenere in memoria) l'intera lista.
+                         */
+                        boolean[] first = {true};
+                        response = ServerConnection.await(connection.request("lista_amici blocchi", chunk -> {
+                            if (first[0]) System.out.println("Lista amici: ");
+                            first[0] = false;
+                            for (String friend : JsonCodec.decodeStrings(chunk)) {
                                 System.out.println(" - " + friend);
                             }
+                        }));
+                        if (!CommonUtilities.isChunkedHeader(response)) {
+                            System.out.println(response);
+                        } else if (CommonUtilities.chunksOf(response) == 0) {
+                            System.out.println("Non hai nessuna amicizia.");
                         }
                         break;
                     case "sfida":
@@ -252,8 +257,7 @@ public class Client {
                             System.out.println(Client.notLoggedError);
                             break;
                         }
-                        CommonUtilities.writeIntoSocket(input, TCPSocket);
-                        response = CommonUtilities.readFromSocket(TCPSocket);
+                        response = ServerConnection.await(connection.request(input));
                         System.out.println(response);
                         /*
                             Spiegare tutto questo è a mio avviso inutile. Sono una serie di lettura e controlli
@@ -263,19 +267,19 @@ public class Client {
                             implementazione a implementazione).
                          */
                         if (response.contains("inviata")) {
-                            response = CommonUtilities.readFromSocket(TCPSocket);
+                            response = ServerConnection.await(connection.nextMessage());
                             System.out.println(response);
                             if (response.equals("La richiesta non è stata accettata.")) break;
                             if (response.equals("Siamo spiacenti, il servizio di traduzione non è al momento " +
                                     "disponibile. Riprovare più tardi."))
                                 break;
                             while (true) {
-                                response = CommonUtilities.readFromSocket(TCPSocket);
+                                response = ServerConnection.await(connection.nextMessage());
                                 System.out.println(response);
                                 if (response.contains("Attendi...")) break;
                                 if (response.equals("Il tempo per la sfida è scaduto, l'ultima risposta data non è " +
                                         "conteggiata.")) {
-                                    response = CommonUtilities.readFromSocket(TCPSocket);
+                                    response = ServerConnection.await(connection.nextMessage());
                                     System.out.println(response);
                                     break;
                                 }
@@ -288,9 +292,9 @@ public class Client {
                                     System.out.println("La risposta inserita è troppo lunga, reinserire.");
                                     answer = inputReader.readLine();
                                 }
-                                CommonUtilities.writeIntoSocket(answer, TCPSocket);
+                                connection.send(answer);
                             }
-                            response = CommonUtilities.readFromSocket(TCPSocket);
+                            response = ServerConnection.await(connection.nextMessage());
                             System.out.println(response);
                         }
                         break;
@@ -299,18 +303,50 @@ public class Client {
                             System.out.println(Client.notLoggedError);
                             break;
                         }
-                        CommonUtilities.writeIntoSocket(input, TCPSocket);
-                        response = CommonUtilities.readFromSocket(TCPSocket);
+                        //Senza argomenti l'intera classifica viene chiesta a blocchi, stampati man mano.
+                        boolean wholeRank = input.trim().equals("mostra_classifica");
+                        boolean[] firstChunk = {true};
+                        response = ServerConnection.await(connection.request(
+                                wholeRank ? "mostra_classifica blocchi" : input, chunk -> {
+                                    if (firstChunk[0]) System.out.println("Classifica amici: ");
+                                    firstChunk[0] = false;
+                                    LinkedHashMap<String, Integer> rows = JsonCodec.decodeRank(chunk);
+                                    for (String user : rows.keySet()) {
+                                        System.out.println(user + " - " + rows.get(user));
+                                    }
+                                }));
+                        if (CommonUtilities.isChunkedHeader(response)) break;
+                        if (!response.startsWith("{")) {
+                            System.out.println(response);
+                            break;
+                        }
                         //La classifica è inviata tramite stringa Json, bisogna riconvertirla per
                         //stamparla nel modo più appropriato.
-                        Type rankType = new TypeToken<LinkedHashMap<String, Integer>>() {
-                        }.getType();
-                        LinkedHashMap<String, Integer> rank = gson.fromJson(response, rankType);
+                        LinkedHashMap<String, Integer> rank = JsonCodec.decodeRank(response);
                         System.out.println("Classifica amici: ");
                         for (String user : rank.keySet()) {
                             System.out.println(user + " - " + rank.get(user));
                         }
                         break;
+                    case "classifica_globale":
+                        if (!loggedIn) {
+                            System.out.println(Client.notLoggedError);
+                            break;
+                        }
+                        response = ServerConnection.await(connection.request(input));
+                        //'top' e 'intorno' ricevono le righe della classifica in Json, 'posizione' (o un errore) un messaggio.
+                        if (!response.startsWith("[")) {
+                            System.out.println(response);
+                            break;
+                        }
+                        Type globalRankType = new TypeToken<ArrayList<RankEntry>>() {
+                        }.getType();
+                        ArrayList<RankEntry> globalRank = gson.fromJson(response, globalRankType);
+                        System.out.println("Classifica globale: ");
+                        for (RankEntry entry : globalRank) {
+                            System.out.println(entry);
+                        }
+                        break;
                     case "mostra_sfide":
                         if (!loggedIn) {
                             System.out.println(Client.notLoggedError);
@@ -337,8 +373,6 @@ public class Client {
                             si parla nei commenti della classe UDPReceiver.
                          */
 
-                        //Anzitutto setto a false il flag, se diventa true bene, se rimane false, sfida non valida.
-                        receiver.setChallengeAvailable(false);
                         String[] addressInfo;
 
                         //Come al solito, l'accesso alla struttura dev'essere sempre accompagnato dalla synchronized.
@@ -358,22 +392,12 @@ public class Client {
                             requests.remove(idToAccept);
                         }
                         try {
-                            InetAddress serverAddress = InetAddress.getByName(addressInfo[0]);
-                            byte[] messageBytes = "accepted".getBytes();
-                            DatagramPacket sendPacket = new DatagramPacket(messageBytes, messageBytes.length,
-                                    serverAddress, Integer.parseInt(addressInfo[1]));
-                            UDPSocket.send(sendPacket);
-
                             /*
-                                Dobbiamo purtroppo pagare pegno di "dormire" per 500 ms. Questo perchè dobbiamo dare
-                                il tempo all ACK di arrivare all'UDPReceiver. Si noti che è fondamentale l'assunzione
-                                fatta che l'UDP non dia poi troppi problemi. (Assunzione che in un progetto non
-                                accademico non conviene fare; l'UDP avrebbe infatti bisogno di un continuo controllo
-                                esplicito, manuale).
+                                Si invia l'accettazione e si attende l'ACK ('starting') del server: l'accettazione
+                                viene ritrasmessa, con attese crescenti, finché l'ACK non arriva. Se non arriva
+                                entro i tentativi a disposizione, la richiesta è scaduta.
                             */
-                            Thread.sleep(500);
-                            //Se non è arrivato l'ACK, la richiesta è scaduta.
-                            if (!receiver.isChallengeAvailable()) {
+                            if (!receiver.acceptChallenge(addressInfo)) {
                                 System.out.println("Richiesta scaduta.");
                                 break;
                             }
@@ -383,18 +407,18 @@ public class Client {
                         }
 
                         //Può partire la sfida!
-                        response = CommonUtilities.readFromSocket(TCPSocket);
+                        response = ServerConnection.await(connection.nextMessage());
                         System.out.println(response);
 
                         if (response.equals("Siamo spiacenti, il servizio di traduzione non è al " +
                                 "momento disponibile. Riprovare più tardi.")) break;
 
                         while (true) {
-                            response = CommonUtilities.readFromSocket(TCPSocket);
+                            response = ServerConnection.await(connection.nextMessage());
                             System.out.println(response);
                             if (response.contains("Attendi...")) break;
                             if (response.equals("Il tempo per la sfida è scaduto, l'ultima risposta data non è conteggiata.")) {
-                                response = CommonUtilities.readFromSocket(TCPSocket);
+                                response = ServerConnection.await(connection.nextMessage());
                                 System.out.println(response);
                                 break;
                             }
@@ -407,10 +431,10 @@ public class Client {
                                 System.out.println("La risposta inserita è troppo lunga.");
                                 answer = inputReader.readLine();
                             }
-                            CommonUtilities.writeIntoSocket(answer, TCPSocket);
+                            connection.send(answer);
                         }
 
-                        response = CommonUtilities.readFromSocket(TCPSocket);
+                        response = ServerConnection.await(connection.nextMessage());
                         System.out.println(response);
 
                         break;
@@ -429,7 +453,7 @@ public class Client {
                 chiudere tutto ciò che aveva lasciato aperto: la socket TCP, la socket UDP, termina il thread
                 UDPReceiver e termina il pool.
              */
-            TCPSocket.close();
+            connection.close();
 
             receiver.stopRun();
             UDPSocket.close();
@@ -440,7 +464,8 @@ public class Client {
             System.out.println("Il server WQ non è attualmente raggiungibile, riprovare più tardi.");
 
             //Anche quando viene chiuso non esplicitamente, il client cerca di liberare tutto ciò che aveva creato.
-            if (TCPSocket != null) TCPSocket.close();
+            if (connection != null) connection.close();
+            else if (TCPSocket != null) TCPSocket.close();
             if (receiver != null) receiver.stopRun();
             if (UDPSocket != null) UDPSocket.close();
             executorService.shutdown();
@@ -39,7 +39,11 @@ public class ClientUtilities {
         System.out.println("lista_amici --- Visualizza la tua lista amici.");
         System.out.println("sfida <nickAmico> --- Richiedi di sfidare <nickAmico>.");
         System.out.println("mostra_punteggio --- Visualizza il tuo punteggio globale attuale.");
-        System.out.println("mostra_classifica --- Mostra una classifica dei tuoi amici (incluso te stesso).");
+        System.out.println("mostra_classifica [<K> [<pagina>]] --- Mostra una classifica dei tuoi amici (incluso te stesso), eventualmente a pagine di <K> righe.");
+        System.out.println("classifica_globale top <N> --- Mostra i primi <N> utenti della classifica globale.");
+        System.out.println("classifica_globale posizione --- Mostra la tua posizione nella classifica globale.");
+        System.out.println("classifica_globale intorno <K> --- Mostra la classifica globale da <K> posizioni prima a <K> dopo di te.");
+        System.out.println("classifica_globale oggi|settimana|stagione top|posizione|intorno ... --- Come sopra, con i soli punti guadagnati oggi, questa settimana o in questa stagione.");
         System.out.println("mostra_sfide --- Mostra le richieste di sfida attive.");
         System.out.println("esci --- Chiudi l'applicazione.\n");
     }
@@ -78,11 +82,25 @@ public class ClientUtilities {
                     throw new WrongNumberOfArgumentsException();
                 }
                 break;
+            case "mostra_classifica":
+                if (tokenizedInput.size() > 3) {
+                    throw new WrongNumberOfArgumentsException();
+                }
+                break;
+            case "classifica_globale":
+                //La finestra temporale è facoltativa.
+                int first = tokenizedInput.size() > 1 && (tokenizedInput.get(1).equals("oggi")
+                        || tokenizedInput.get(1).equals("settimana") || tokenizedInput.get(1).equals("stagione")) ? 2 : 1;
+                if (tokenizedInput.size() == first + 1 && tokenizedInput.get(first).equals("posizione")) break;
+                if (tokenizedInput.size() != first + 2 || !(tokenizedInput.get(first).equals("top")
+                        || tokenizedInput.get(first).equals("intorno"))) {
+                    throw new WrongNumberOfArgumentsException();
+                }
+                break;
             case "mostra_sfide":
             case "mostra_punteggio":
             case "logout":
             case "lista_amici":
-            case "mostra_classifica":
             case "esci":
                 if (tokenizedInput.size() != 1) {
                     throw new WrongNumberOfArgumentsException();
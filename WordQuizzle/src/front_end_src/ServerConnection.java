@@ -0,0 +1,365 @@
+package front_end_src;
+
+import common_src.CommonUtilities;
+import common_src.PushFrame;
+import common_src.RequestFrame;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * {@link ServerConnection} è la libreria con la quale i client (a linea di comando, grafico e i test di carico)
+ * comunicano con il server: un'unica {@link SocketChannel} non bloccante, servita da un solo thread (quello che
+ * esegue {@link #run()}) con un {@link Selector}. Nessun altro thread legge o scrive sulla socket:
+ *  - {@link #request} assegna un id alla richiesta, lo mette in testa al comando ({@link RequestFrame}), mette il
+ *    comando in coda e restituisce subito una {@link CompletableFuture}, completata con la risposta che porta lo
+ *    stesso id; più richieste possono essere in attesa insieme, e le risposte possono arrivare in qualsiasi ordine;
+ *  - una risposta a blocchi (si veda {@link CommonUtilities#isChunkedHeader}) completa la future solo dopo
+ *    l'ultimo blocco, e i blocchi vengono passati uno alla volta a chi ha fatto la richiesta, anche se arrivano
+ *    intercalati a quelli di altre risposte;
+ *  - {@link #send} invia un messaggio che non ha una risposta propria (le traduzioni durante la sfida);
+ *  - {@link #nextMessage} restituisce i messaggi che non rispondono a nessuna richiesta (l'esito di una sfida
+ *    richiesta, le parole da tradurre);
+ *  - le notifiche ({@link PushFrame}) vengono passate ai {@link PushListener} appena arrivano.
+ * I messaggi vengono ricomposti dai byte ricevuti, qualunque sia il modo in cui la rete li spezza o li accorpa.
+ * Le future vengono completate nel thread della connessione: chi vi aggancia operazioni lunghe o bloccanti deve
+ * usare le varianti '...Async', così da non fermare la connessione.
+ * Sulla socket ci sono al più {@link #MAX_IN_FLIGHT} richieste alla volta: le altre attendono in coda il loro turno.
+ */
+public class ServerConnection implements Runnable {
+
+    /**
+     * Riceve le notifiche del server, nel thread di {@link ServerConnection}.
+     */
+    public interface PushListener {
+        /**
+         * @param type Il tipo di notifica.
+         * @param args Gli argomenti della notifica.
+         */
+        void onPush(String type, String[] args);
+    }
+
+    /**
+     * Quante richieste possono attendere insieme la risposta del server: lo stesso limite, 'max_in_flight' nella
+     * configurazione del server, oltre il quale il server smette di leggere i comandi.
+     */
+    public static final int MAX_IN_FLIGHT = 32;
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final SocketChannel socket;
+    private final Selector selector;
+    private final SelectionKey key;
+    private final CopyOnWriteArrayList<PushListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    //I messaggi da inviare, messi in coda da qualsiasi thread e prelevati da quello della connessione.
+    private final ConcurrentLinkedQueue<Outgoing> submitted = new ConcurrentLinkedQueue<>();
+
+    /*
+        Usati solo dal thread della connessione: i messaggi in attesa di essere scritti, quello in scrittura, le
+        richieste in volo (per id) e i byte ricevuti ma non ancora ricomposti in un messaggio.
+     */
+    private final ArrayDeque<Outgoing> queued = new ArrayDeque<>();
+    private ByteBuffer[] writing;
+    private final HashMap<Long, Request> inFlight = new HashMap<>();
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    //I messaggi che non rispondono a nessuna richiesta e chi li sta aspettando: si accede sincronizzati su 'unread'.
+    private final ArrayDeque<String> unread = new ArrayDeque<>();
+    private final ArrayDeque<CompletableFuture<String>> readers = new ArrayDeque<>();
+    private IOException failure;
+
+    private volatile boolean closed = false;
+
+    public ServerConnection(SocketChannel socket, PushListener listener) throws IOException {
+        this.socket = socket;
+        this.socket.configureBlocking(false);
+        //Più comandi possono partire uno dopo l'altro, senza attendere l'ack del precedente.
+        this.socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.selector = Selector.open();
+        this.key = socket.register(this.selector, SelectionKey.OP_READ);
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Aggiunge un destinatario delle notifiche del server.
+     *
+     * @param listener Il destinatario.
+     */
+    public void addPushListener(PushListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Invia un comando al server.
+     *
+     * @param command Il comando.
+     * @return La future completata con la risposta (con l'header, per le risposte a blocchi), oppure con
+     * un'{@link IOException} se la connessione si chiude prima.
+     */
+    public CompletableFuture<String> request(String command) {
+        return request(command, null);
+    }
+
+    /**
+     * Invia un comando la cui risposta può arrivare a blocchi ('lista_amici blocchi', 'mostra_classifica blocchi').
+     *
+     * @param command Il comando.
+     * @param chunks Riceve ogni blocco appena arriva, nel thread della connessione; se null i blocchi sono scartati.
+     * @return La future completata con la risposta (con l'header, dopo l'ultimo blocco, per le risposte a blocchi).
+     */
+    public CompletableFuture<String> request(String command, Consumer<String> chunks) {
+        Request request = new Request(this.ids.incrementAndGet(), chunks);
+        try {
+            submit(new Outgoing(RequestFrame.encode(request.id, command), request));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return request.response;
+    }
+
+    /**
+     * Invia un messaggio al quale il server non risponde direttamente (ad esempio una traduzione durante la sfida:
+     * la parola successiva arriva con {@link #nextMessage}).
+     *
+     * @param message Il messaggio.
+     * @throws IOException Se la connessione è già chiusa.
+     */
+    public void send(String message) throws IOException {
+        submit(new Outgoing(message, null));
+    }
+
+    /**
+     * Restituisce il prossimo messaggio che non risponde a nessuna richiesta.
+     *
+     * @return La future completata con il messaggio, oppure con un'{@link IOException} se la connessione si chiude
+     * prima.
+     */
+    public CompletableFuture<String> nextMessage() {
+        CompletableFuture<String> reader = new CompletableFuture<>();
+        synchronized (this.unread) {
+            if (!this.unread.isEmpty()) reader.complete(this.unread.poll());
+            else if (this.failure != null) reader.completeExceptionally(this.failure);
+            else this.readers.add(reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Chiude la connessione: le richieste ancora senza risposta falliscono.
+     */
+    public void close() {
+        this.closed = true;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Attende il risultato di una future della connessione, per chi lavora in modo bloccante.
+     *
+     * @param future La future.
+     * @param <T> Il tipo del risultato.
+     * @return Il risultato.
+     * @throws IOException Se la connessione è stata chiusa, o il thread interrotto.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void run() {
+        IOException cause = new EOFException("Connessione chiusa dal client.");
+        try {
+            while (!this.closed) {
+                this.selector.select();
+                this.selector.selectedKeys().clear();
+                //Letture e scritture sono non bloccanti: se non c'è nulla da fare non fanno nulla.
+                if (this.socket.read(this.in) < 0) throw new EOFException("Connessione chiusa dal server.");
+                parse();
+                flush();
+            }
+        } catch (IOException e) {
+            cause = e;
+        } finally {
+            try {
+                this.selector.close();
+                this.socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            fail(cause);
+        }
+    }
+
+    /*
+        Il controllo e l'accodamento avvengono insieme, sincronizzati su 'unread' come 'fail': un messaggio accodato
+        prima della chiusura viene trovato da 'fail', uno successivo fallisce subito. Altrimenti una richiesta fatta
+        dopo la fine del thread della connessione non verrebbe mai completata.
+     */
+    private void submit(Outgoing outgoing) throws IOException {
+        synchronized (this.unread) {
+            if (this.failure != null) throw this.failure;
+            this.submitted.add(outgoing);
+        }
+        this.selector.wakeup();
+    }
+
+    /*
+        Ricompone i messaggi ricevuti (size e poi messaggio) e li consegna; i byte di un messaggio incompleto restano
+        nel buffer, ingrandito se il messaggio non ci sta.
+     */
+    private void parse() {
+        this.in.flip();
+        while (this.in.remaining() >= Integer.BYTES) {
+            int size = this.in.getInt(this.in.position());
+            if (this.in.remaining() < Integer.BYTES + size) break;
+            this.in.getInt();
+            byte[] message = new byte[size];
+            this.in.get(message);
+            deliver(new String(message).trim());
+        }
+        this.in.compact();
+        if (this.in.position() >= Integer.BYTES) {
+            int needed = Integer.BYTES + this.in.getInt(0);
+            if (needed > this.in.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(needed);
+                this.in.flip();
+                larger.put(this.in);
+                this.in = larger;
+            }
+        }
+    }
+
+    //Consegna un messaggio: alla richiesta con il suo id, ai listener o a chi attende con 'nextMessage'.
+    private void deliver(String message) {
+        if (PushFrame.isPush(message)) {
+            String[] push = PushFrame.decode(message);
+            String[] args = new String[push.length - 1];
+            System.arraycopy(push, 1, args, 0, args.length);
+            for (PushListener listener : this.listeners) listener.onPush(push[0], args);
+            return;
+        }
+        if (!RequestFrame.isTagged(message)) {
+            CompletableFuture<String> reader;
+            synchronized (this.unread) {
+                reader = this.readers.poll();
+                if (reader == null) this.unread.add(message);
+            }
+            if (reader != null) reader.complete(message);
+            return;
+        }
+        Request request = this.inFlight.get(RequestFrame.idOf(message));
+        //Una risposta ad una richiesta sconosciuta: il server non rispetta il protocollo.
+        if (request == null) return;
+        message = RequestFrame.bodyOf(message);
+        if (request.header == null && CommonUtilities.isChunkedHeader(message)) {
+            request.header = message;
+            request.chunksLeft = CommonUtilities.chunksOf(message);
+        } else if (request.header != null) {
+            request.chunksLeft--;
+            if (request.chunks != null) {
+                try {
+                    request.chunks.accept(message);
+                } catch (RuntimeException e) {
+                    //Un blocco malformato: la richiesta fallisce, ma i blocchi successivi vanno comunque letti.
+                    request.response.completeExceptionally(e);
+                }
+            }
+        }
+        if (request.header != null && request.chunksLeft > 0) return;
+        this.inFlight.remove(request.id);
+        request.response.complete(request.header != null ? request.header : message);
+    }
+
+    //Scrive i messaggi in coda finché la socket li accetta e finché c'è posto tra le richieste in volo.
+    private void flush() throws IOException {
+        for (Outgoing next; (next = this.submitted.poll()) != null; ) this.queued.add(next);
+        while (true) {
+            if (this.writing == null) {
+                Outgoing next = this.queued.peek();
+                if (next == null) break;
+                if (next.request != null) {
+                    if (this.inFlight.size() >= MAX_IN_FLIGHT) break;
+                    this.inFlight.put(next.request.id, next.request);
+                }
+                this.queued.poll();
+                this.writing = next.frame;
+            }
+            this.socket.write(this.writing);
+            //Scrittura parziale: si riprende quando la socket torna scrivibile.
+            if (this.writing[1].hasRemaining()) break;
+            this.writing = null;
+        }
+        this.key.interestOps(this.writing != null ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                : SelectionKey.OP_READ);
+    }
+
+    //La connessione è chiusa: falliscono le richieste ancora senza risposta e chi attende un messaggio.
+    private void fail(IOException cause) {
+        ArrayList<CompletableFuture<String>> waiting = new ArrayList<>();
+        synchronized (this.unread) {
+            this.failure = cause;
+            waiting.addAll(this.readers);
+            this.readers.clear();
+        }
+        for (Request request : this.inFlight.values()) waiting.add(request.response);
+        this.inFlight.clear();
+        //Dopo aver impostato 'failure' nessuno accoda più: 'submitted' contiene tutto ciò che resta da fallire.
+        this.queued.addAll(this.submitted);
+        this.submitted.clear();
+        for (Outgoing outgoing : this.queued) if (outgoing.request != null) waiting.add(outgoing.request.response);
+        this.queued.clear();
+        for (CompletableFuture<String> future : waiting) future.completeExceptionally(cause);
+    }
+
+    //Un messaggio da inviare, con la size davanti, e la richiesta alla quale appartiene (null se non ne ha).
+    private static final class Outgoing {
+        private final ByteBuffer[] frame;
+        private final Request request;
+
+        Outgoing(String message, Request request) {
+            byte[] body = message.getBytes();
+            ByteBuffer size = ByteBuffer.allocate(Integer.BYTES).putInt(body.length);
+            size.flip();
+            this.frame = new ByteBuffer[]{size, ByteBuffer.wrap(body)};
+            this.request = request;
+        }
+    }
+
+    //Una richiesta in attesa di risposta.
+    private static final class Request {
+        private final long id;
+        private final Consumer<String> chunks;
+        private final CompletableFuture<String> response = new CompletableFuture<>();
+        private String header;
+        private int chunksLeft;
+
+        Request(long id, Consumer<String> chunks) {
+            this.id = id;
+            this.chunks = chunks;
+        }
+    }
+}
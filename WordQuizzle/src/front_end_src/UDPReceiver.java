@@ -1,17 +1,20 @@
 package front_end_src;
 
+import common_src.CommonUtilities;
+
 import java.io.IOException;
 import java.net.*;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.StringTokenizer;
 
 /**
  * {@link UDPReceiver} ha un unico compito, ben preciso (single-responsibility principle, SRP):
- * ricevere eventuali messaggi UDP provenienti dal server.
- * Il progetto richiede infatti che, una volta ricevuta una richiesta di sfida da parte di un utente,
- * il server la inoltri al destinatario tramite il protocollo di rete UDP.
+ * ricevere eventuali messaggi provenienti dal server.
+ * Le richieste di sfida (e la loro scadenza) arrivano come notifiche sulla connessione TCP, lette da
+ * {@link ServerConnection} e passate a {@link #onPush}; via UDP arriva solo l'ACK 'starting' dell'handshake.
  */
-public class UDPReceiver implements Runnable {
+public class UDPReceiver implements Runnable, ServerConnection.PushListener {
 
     /**
      * La struttura dati verrà condivisa con il {@link Client}. All'interno
@@ -32,25 +35,19 @@ public class UDPReceiver implements Runnable {
     private final DatagramSocket UDPSocket;
 
     /**
-     * Flag utilizzato per implementare un controllo aggiuntivo sulla validità
-     * di una sfida: supponiamo che io riceva una richiesta di sfida. Rispondo a questa. Siamo in rete, quindi
-     * nulla vieta che ci sia una qualche congestione che rallenta la risposta. Lato server scade
-     * il timeout della richiesta prima che la mia risposta arrivi (ma io, client, sono convinto,
-     * avendo accettato la richiesta prima che il server mi notificasse il timeout, che la partita si giocherà):
-     * che si fa? Il server, dopo aver ricevuto una risposta PRIMA dello scadere del timeout invierà
-     * un ACK al client, per indicare appunto che tutto è andato bene, tutto torna, si gioca! In un caso
-     * come il precedente, il client, dopo aver inviato il messaggio di accettazione della sfida, non riceverà
-     * l'ACK e capirà che è incappato in quel particolarissimo scenario (forse ai limiti dell'impossibile,
-     * ma ho trovato interessante provare ad implementare un meccanismo che ricordasse un po' l'handshake a tre vie).
-     * In ogni caso, vedremo dopo come sarà realmente implementato nella classe {@link Client}.
-     * Si noti l'utilizzo del modificatore 'volatile': è difatti necessario poichè il flag è scritto in questo
-     * thread e letto nel thread del {@link Client}.
+     * L'handshake di accettazione delle sfide: supponiamo che io riceva una richiesta di sfida. Rispondo a questa.
+     * Siamo in rete, quindi nulla vieta che la mia risposta si perda o arrivi in ritardo, dopo lo scadere del
+     * timeout della richiesta (ma io, client, sarei convinto che la partita si giocherà). Il server, dopo aver
+     * ricevuto l'accettazione PRIMA dello scadere del timeout, invia un ACK ('starting'); io lo confermo a mia
+     * volta. I messaggi portano l'id della sfida e vengono ritrasmessi se la risposta non arriva: si veda
+     * {@link ChallengeHandshake}. In ogni caso, vedremo dopo come è utilizzato nella classe {@link Client}.
      */
-    private volatile boolean challengeAvailable = false;
+    private final ChallengeHandshake handshake;
 
     public UDPReceiver(DatagramSocket UDPSocket, HashMap<String, String[]> requests) {
         this.UDPSocket = UDPSocket;
         this.requests = requests;
+        this.handshake = new ChallengeHandshake(UDPSocket);
     }
 
     /**
@@ -61,24 +58,15 @@ public class UDPReceiver implements Runnable {
     }
 
     /**
-     * Metodo di gestione del flag {@link #challengeAvailable}. Si legga il commento
-     * del flag, si guardi la classe {@link Client} per vederne l'utilizzo.
+     * Accetta la sfida indicata: si veda {@link ChallengeHandshake#accept}.
      *
-     * @param available Booleano da assegnare a {@link #challengeAvailable}
+     * @param addressInfo Host e porta della socket del RequestManager e id della sfida.
+     * @return {@code true} se il server ha confermato la sfida, {@code false} se la richiesta è scaduta.
+     * @throws IOException In caso di problemi con la socket UDP.
+     * @throws InterruptedException Se il thread viene interrotto durante l'attesa.
      */
-    public void setChallengeAvailable(boolean available) {
-        challengeAvailable = available;
-    }
-
-    /**
-     * Metodo di gestione del flag {@link #challengeAvailable}. Si legga il commento
-     * del flag, si guardi la classe {@link Client} per vederne l'utilizzo.
-     *
-     * @return Il valore del flag {@link #challengeAvailable}
-     */
-    @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-    public boolean isChallengeAvailable() {
-        return challengeAvailable;
+    public boolean acceptChallenge(String[] addressInfo) throws IOException, InterruptedException {
+        return this.handshake.accept(addressInfo);
     }
 
     @Override
@@ -90,56 +78,22 @@ public class UDPReceiver implements Runnable {
             while (this.run) {
 
                 //Mi metto in ascolto di nuovi messaggi UDP
-                receiveBuffer = new byte[128];
+                receiveBuffer = new byte[CommonUtilities.MAX_DATAGRAM_SIZE];
                 receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
                 UDPSocket.receive(receivePacket);
 
-                /*
-                    Salvo l'indirizzo e la porta del mittente, recuperandola dal pacchetto UDP appena ricevuto.
-                    Questo mi permette di avere i dati necessari per inviare la risposta al RequestManager corrispondente.
-                    Ho infatti deciso di aprire, per ogni RequestManager (sarà lui ad inoltrare tramite UDP la richiesta
-                    al client corrispondente; ne verrà lanciato uno per ogni richiesta di sfida), una socket UDP
-                    dedicata a quell'unica richiesta, in modo da non avere interferenze di nessun tipo.
-                */
-                InetAddress serverAddress = receivePacket.getAddress();
-                int serverPort = receivePacket.getPort();
-                String receivedString = new String(receivePacket.getData()).trim();
-
-                StringTokenizer stringTokenizer = new StringTokenizer(receivedString);
-                String type = stringTokenizer.nextToken();
-                String id = stringTokenizer.nextToken();
-
-                /*
-                    Posso ricevere tre tipi di messaggi:
-                        - add -> ho ricevuto una nuova richiesta, 'synchronized' sulla struttura
-                                 dati e si inserisce la nuova richiesta.
-                        - remove -> il server, o meglio il RequestManager, mi ha notificato dello scadere
-                                    del timeout della richiesta, 'synchronized' sulla struttura dati e
-                                    la si rimuove
-                        - starting -> rappresenta per UDPReceiver l'ACK di cui abbiamo parlato sopra. Ricevere un
-                                      messaggio di questo tipo implica impostare a true il flag che il client
-                                      controllerà per verificare la validità della sfida (si noti che se un client si
-                                      trova ad accettare una richiesta, quella è l'unica sul quale è focalizzato,
-                                      per questo basta questo unico flag; in ogni caso si veda la classe Client per
-                                      leggere il codice inerente).
-                 */
-                switch (type) {
-                    case "add":
-                        synchronized (this.requests) {
-                            String[] addressInfo = new String[2];
-                            addressInfo[0] = serverAddress.toString().substring(1);
-                            addressInfo[1] = String.valueOf(serverPort);
-                            requests.put(id, addressInfo);
-                        }
-                        break;
-                    case "remove":
-                        synchronized (this.requests) {
-                            requests.remove(id);
-                        }
-                        break;
-                    case "starting":
-                        this.challengeAvailable = true;
-                        break;
+                String receivedString = new String(receivePacket.getData(), 0, receivePacket.getLength()).trim();
+
+                //Il server unisce in un unico datagramma i messaggi ravvicinati, uno per riga.
+                for (String line : receivedString.split("\n")) {
+                    StringTokenizer stringTokenizer = new StringTokenizer(line);
+                    if (stringTokenizer.countTokens() < 2) continue;
+                    String type = stringTokenizer.nextToken();
+                    String id = stringTokenizer.nextToken();
+                    //Il resto della riga: per 'starting', id della sfida e numero di sequenza.
+                    String[] info = new String[stringTokenizer.countTokens()];
+                    for (int i = 0; i < info.length; i++) info[i] = stringTokenizer.nextToken();
+                    handle(type, id, info);
                 }
             }
 
@@ -147,4 +101,52 @@ public class UDPReceiver implements Runnable {
             //e.printStackTrace();
         }
     }
+
+    @Override
+    public void onPush(String type, String[] args) {
+        //'add <id> <host> <porta> <sfida>': host e porta sono quelli della socket UDP del RequestManager.
+        handle(type, args[0], Arrays.copyOfRange(args, 1, args.length));
+    }
+
+    /**
+     * Gestisce un messaggio del server, arrivato come notifica sulla connessione TCP o via UDP.
+     *
+     * @param type        Il tipo di messaggio.
+     * @param id          L'utente cui il messaggio si riferisce.
+     * @param info        Gli altri campi del messaggio: per le richieste di sfida l'indirizzo UDP al quale rispondere e
+     *                    l'id della sfida, per 'starting' l'id della sfida e il numero di sequenza.
+     */
+    private void handle(String type, String id, String[] info) {
+        /*
+            Posso ricevere tre tipi di messaggi:
+                - add -> ho ricevuto una nuova richiesta, 'synchronized' sulla struttura
+                         dati e si inserisce la nuova richiesta, con l'indirizzo della socket UDP
+                         dedicata a quell'unica richiesta dal RequestManager corrispondente.
+                - remove -> il server, o meglio il RequestManager, mi ha notificato dello scadere
+                            del timeout della richiesta, 'synchronized' sulla struttura dati e
+                            la si rimuove
+                - starting -> rappresenta per UDPReceiver l'ACK di cui abbiamo parlato sopra. Ricevere un
+                              messaggio di questo tipo implica impostare a true il flag che il client
+                              controllerà per verificare la validità della sfida (si noti che se un client si
+                              trova ad accettare una richiesta, quella è l'unica sul quale è focalizzato,
+                              per questo basta questo unico flag; in ogni caso si veda la classe Client per
+                              leggere il codice inerente).
+         */
+        switch (type) {
+            case "add":
+                synchronized (this.requests) {
+                    requests.put(id, info);
+                }
+                break;
+            case "remove":
+                synchronized (this.requests) {
+                    requests.remove(id);
+                }
+                break;
+            case "starting":
+                //Le ritrasmissioni e gli 'starting' di altre sfide sono riconosciuti dall'handshake.
+                if (info.length >= 1) this.handshake.onStarting(info[0]);
+                break;
+        }
+    }
 }
@@ -1,17 +1,19 @@
 package front_end_src.gui;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import common_src.CommonUtilities;
+import common_src.FriendsUpdate;
+import common_src.JsonCodec;
+import common_src.RankUpdate;
 import common_src.UsersRegisterInterface;
 import common_src.exceptions.AlreadyRegisteredUserException;
+import front_end_src.ServerConnection;
 import front_end_src.gui.custom_components.*;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
@@ -27,12 +29,21 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * Il client WordQuizzle, versione a interfaccia grafica.
+ * Il thread dell'interfaccia (EDT) non attende mai la rete: tutto l'I/O sulla socket TCP passa dall'unico thread di
+ * {@link ServerConnection}, e il seguito di ogni richiesta (come le notifiche del server, si veda
+ * {@link UDPReceiverGUI}) viene messo in coda agli eventi dell'interfaccia. Le poche operazioni che restano bloccanti
+ * (la registrazione via RMI e l'handshake UDP di una sfida accettata) vengono eseguite, una alla volta, da un thread
+ * a parte.
  */
 public class ClientGUI {
 
@@ -68,14 +79,38 @@ public class ClientGUI {
     //I modelli che verranno poi associati alla lista di amicizie e alla lista delle sfide.
     //Dichiararli qui mi permette di poterli passare ad 'UDPReceiverGUI', il quale li aggiornerà
     //per avere aggiornamenti in tempo reale sulle rispettive liste.
-    private static final DefaultListModel<String> friendsListModel = new DefaultListModel<>();
+    private static final VirtualListModel friendsListModel = new VirtualListModel();
     private static final DefaultListModel<String> challengesListModel = new DefaultListModel<>();
+    //Una riga tipo delle liste di amici e classifica: le righe hanno tutte la sua misura, senza doverle calcolare.
+    private static final String ROW_PROTOTYPE = "un_nome_utente_lungo: 00000";
+
+    /*
+        Le ultime versioni ricevute della lista amici e della classifica, con i dati corrispondenti: il server invia
+        solo le modifiche successive (si vedano 'aggiornamenti_amici' e 'aggiornamenti_classifica').
+     */
+    private static int friendsVersion = -1;
+    private static final ArrayList<String> knownFriends = new ArrayList<>();
+    private static long rankVersion = -1;
+    private static LinkedHashMap<String, Integer> knownRank = new LinkedHashMap<>();
+
+    /*
+        Le richieste di lista amici e classifica vengono eseguite una alla volta, ognuna dopo la fine della
+        precedente: solo così la versione inviata è sempre l'ultima ricevuta. Qui c'è l'ultima richiesta accodata
+        (dall'EDT).
+     */
+    private static CompletableFuture<?> friendsQueries = CompletableFuture.completedFuture(null);
+    private static CompletableFuture<?> rankQueries = CompletableFuture.completedFuture(null);
 
     private static final InputField wordInput = null;
     private static final JButton sendButton = null;
 
-    static ExecutorService executorService = Executors.newSingleThreadExecutor();
+    //Un thread per UDPReceiverGUI, uno per la connessione con il server e uno per le operazioni bloccanti.
+    static ExecutorService executorService = Executors.newFixedThreadPool(3);
+    //La coda degli eventi dell'interfaccia: qui viene eseguito il seguito delle richieste al server.
+    private static final Executor EDT = SwingUtilities::invokeLater;
     static UDPReceiverGUI receiver;
+    //Tutta la comunicazione con il server: le notifiche vengono passate a 'receiver'.
+    static ServerConnection connection;
 
     static final HashMap<String, String[]> requests = new HashMap<>();
 
@@ -114,7 +149,9 @@ public class ClientGUI {
 
             receiver = new UDPReceiverGUI(UDPSocket, requests, challengesListModel, friendsListModel, gamePanel,
                     wordInput, sendButton);
+            connection = new ServerConnection(TCPSocket, receiver);
             executorService.execute(receiver);
+            executorService.execute(connection);
 
             if (ClientGUI.DEBUG_MODE) System.out.println("Connected to the server!");
 
@@ -130,13 +167,7 @@ public class ClientGUI {
                 @Override
                 public void windowClosing(WindowEvent e) {
                     super.windowClosing(e);
-                    if (!IN_GAME) {
-                        try {
-                            TCPSocket.close();
-                        } catch (IOException ioException) {
-                            ioException.printStackTrace();
-                        }
-                    }
+                    if (!IN_GAME) connection.close();
                     //Terminazione del thread receiver UDP
                     receiver.stopRun();
                     executorService.shutdown();
@@ -325,12 +356,12 @@ public class ClientGUI {
 
     /**
      * Si occupa del setup e della creazione della pagina principale. Si arriva
-     * in questa pagina dopo aver fatto il login.
+     * in questa pagina dopo aver fatto il login (o alla fine di una sfida). Punteggio, lista amici e classifica
+     * vengono richiesti insieme al server e mostrati appena arrivano: la pagina compare subito.
      *
      * @return Il {@link JPanel} "contenente" la pagina principale.
-     * @throws IOException In caso di problemi durante la richiesta di lista amici o classifica.
      */
-    private static JPanel homePage() throws IOException {
+    private static JPanel homePage() {
 
         JPanel homePanel = new JPanel();
 
@@ -378,6 +409,11 @@ public class ClientGUI {
 
         homePanel.add(pointsText, gridBagConstraints);
 
+        onEDT(queryPoints(), points -> {
+            POINTS_ONLINE = points;
+            pointsText.setText("Il tuo punteggio: " + points);
+        });
+
         /* FRIEND LIST AREA */
 
         //Creazione ed aggiunta al panel della label associata alla lista degli amici dell'utente.
@@ -402,13 +438,11 @@ public class ClientGUI {
 
         homePanel.add(friendsListPanel, gridBagConstraints);
 
-        //Viene recuperata la lista degli amici ed aggiornato il modello associato alla lista.
-        synchronized (friendsListModel) {
-            friendsListModel.clear();
-            friendsListModel.addAll(queryFriends());
-        }
+        //Viene recuperata la lista degli amici ed aggiornato il modello associato alla lista, appena arriva.
+        refresh(friendsListModel, queryFriends());
         //Creazione ed aggiunta al panel della lista vera e propria degli amici.
         ListField friendsListArea = ListField.newListField(friendsListModel)
+                .fixedCellSize(ROW_PROTOTYPE)
                 .setPaddings(10);
         friendsListArea.setToolTipText("Doppio click su un amico per sfidarlo!");
         friendsListArea.setLayoutOrientation(JList.VERTICAL);
@@ -450,9 +484,9 @@ public class ClientGUI {
 
         homePanel.add(rankLabel, gridBagConstraints);
 
-        //Viene recuperata la classifica degli amici ed aggiornato il modello associato alla lista.
-        DefaultListModel<String> rankListModel = new DefaultListModel<>();
-        rankListModel.addAll(queryRank());
+        //Viene recuperata la classifica degli amici ed aggiornato il modello associato alla lista, appena arriva.
+        VirtualListModel rankListModel = new VirtualListModel();
+        refresh(rankListModel, queryRank());
 
         //Creazione ed aggiunta al panel del panel contenente l'oggetto JList (questo è necessario per poter scrollare).
         JPanel rankPanel = new JPanel(new BorderLayout());
@@ -466,6 +500,7 @@ public class ClientGUI {
 
         //Creazione ed aggiunta al panel della lista vera e propria contenente la classifica degli amici.
         ListField rankArea = ListField.newListField(rankListModel)
+                .fixedCellSize(ROW_PROTOTYPE)
                 .setPaddings(10);
         rankArea.setLayoutOrientation(JList.VERTICAL);
 
@@ -597,55 +632,50 @@ public class ClientGUI {
         endButton.setVisible(false);
         gamePanel.add(endButton, gridBagConstraints);
 
-        /*
-            Lo SwingWorker che si occupa di realizzare la logica del game. Abbiamo in background un thread che comunica
-            con il Server, mentre il thread UI aggiorna in maniera consistente e coerente l'interfaccia grafica.
-         */
-        SwingWorker<Void, Void> matchWorker = new SwingWorker<>() {
-            @Override
-            protected Void doInBackground() throws Exception {
-                while (true) {
-                    StringBuilder message = new StringBuilder(CommonUtilities.readFromSocket(TCPSocket));
-                    System.out.println(message);
-                    String finalMessage = message.toString();
-                    SwingUtilities.invokeAndWait(() -> wordText.setText(finalMessage));
-                    if (message.toString().contains("Attendi...")) {
-                        FINISHED_QUESTIONS = true;
-                        SwingUtilities.invokeAndWait(() -> {
-                            wordText.fontSize(15);
-                            wordInput.setVisible(false);
-                            gamePanel.remove(wordInput);
-                            sendButton.setVisible(false);
-                            gamePanel.remove(sendButton);
-                        });
-                        message = new StringBuilder(CommonUtilities.readFromSocket(TCPSocket));
-                        System.out.println(message);
-                        message.insert(0, finalMessage);
-                        String[] tokenized = message.toString().split("\\.");
-                        message = new StringBuilder("<html>");
-                        for (String s : tokenized) {
-                            if (!s.contains("Attendi") && !s.equals("")) message.append(s).append("<br>");
-                        }
-                        message.append("</html>");
-                        String finalMessage1 = message.toString();
-                        SwingUtilities.invokeAndWait(() -> wordText.setText(finalMessage1));
-                        System.out.println("STO QUA!");
-                        return null;
-                    }
-                }
-            }
+        //La logica del game: ogni messaggio del server viene mostrato appena arriva, poi si attende il successivo.
+        readMatch(gamePanel, wordText, wordInput, sendButton, endButton);
 
-            @Override
-            protected void done() {
-                if (ClientGUI.DEBUG_MODE) System.out.println("Game end!");
-                endButton.setVisible(true);
+        return gamePanel;
+    }
 
-                super.done();
+    /**
+     * Attende il prossimo messaggio della sfida e lo mostra. Quando il server comunica di aver ricevuto tutte le
+     * traduzioni ("Attendi..."), si attende l'esito della sfida e si mostra il bottone per tornare alla home.
+     * Nulla di tutto ciò blocca l'interfaccia: i messaggi arrivano con {@link ServerConnection#nextMessage()}.
+     *
+     * @param gamePanel  La pagina di gioco.
+     * @param wordText   Il testo nel quale mostrare i messaggi.
+     * @param wordInput  Il campo per la traduzione.
+     * @param sendButton Il bottone di invio traduzione.
+     * @param endButton  Il bottone di ritorno alla home.
+     */
+    private static void readMatch(JPanel gamePanel, TitleText wordText, InputField wordInput, JButton sendButton,
+                                  JButton endButton) {
+        onEDT(connection.nextMessage(), message -> {
+            System.out.println(message);
+            wordText.setText(message);
+            if (!message.contains("Attendi...")) {
+                readMatch(gamePanel, wordText, wordInput, sendButton, endButton);
+                return;
             }
-        };
-        matchWorker.execute();
-
-        return gamePanel;
+            FINISHED_QUESTIONS = true;
+            wordText.fontSize(15);
+            wordInput.setVisible(false);
+            gamePanel.remove(wordInput);
+            sendButton.setVisible(false);
+            gamePanel.remove(sendButton);
+            onEDT(connection.nextMessage(), outcome -> {
+                System.out.println(outcome);
+                StringBuilder text = new StringBuilder("<html>");
+                for (String s : (message + outcome).split("\\.")) {
+                    if (!s.contains("Attendi") && !s.equals("")) text.append(s).append("<br>");
+                }
+                text.append("</html>");
+                wordText.setText(text.toString());
+                if (ClientGUI.DEBUG_MODE) System.out.println("Game end!");
+                endButton.setVisible(true);
+            });
+        });
     }
 
     /*
@@ -685,7 +715,6 @@ public class ClientGUI {
             if (ClientGUI.DEBUG_MODE) {
                 System.out.println("id: " + id + " --- psw: " + password);
             }
-            String response;
             //Alcuni controlli basilari.
             if (id.equals("") || password.equals("")) {
                 if (ClientGUI.DEBUG_MODE) System.out.println("Bad id or password");
@@ -695,14 +724,12 @@ public class ClientGUI {
                 passwordField.setText("");
                 return;
             }
-            try {
-                CommonUtilities.writeIntoSocket("login " + id + " " + password, TCPSocket);
-                response = CommonUtilities.readFromSocket(TCPSocket);
+            onEDT(connection.request("login " + id + " " + password), response -> {
                 if (response.equals("Login effettuato con successo.")) {
                     //Nel caso in cui il login vada a buon fine, si passa alla schermata 'home'.
                     LOGGED_IN = true;
                     ID_ONLINE = id;
-                    POINTS_ONLINE = queryPoints();
+                    resetVersions();
                     loginPanel.setVisible(false);
                     loginPanel = null;
                     homePanel = homePage();
@@ -717,9 +744,7 @@ public class ClientGUI {
                     usernameField.setText("");
                     passwordField.setText("");
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            });
         }
     }
 
@@ -761,34 +786,43 @@ public class ClientGUI {
                 passwordField.setText("");
                 return;
             }
-            try {
-                Registry r = LocateRegistry.getRegistry(rmiPort);
-                Remote usersRegisterRemote = r.lookup("USERS-REGISTER-SERVER");
-                UsersRegisterInterface usersRegister = (UsersRegisterInterface) usersRegisterRemote;
-                usersRegister.registerNewUser(id, password);
-                if (ClientGUI.DEBUG_MODE) System.out.println("Registrazione avvenuta con successo.\n");
-                outcomeText.setText("Registrazione avvenuta con successo!");
-                outcomeText.setVisible(true);
-                outcomeText.setForeground(Color.GREEN);
-                //Nel caso in cui la registrazione sia andata a buon fine vengono liberati i
-                //due campi, così da poter fare la login.
-                usernameField.setText("");
-                passwordField.setText("");
-            } catch (RemoteException | NotBoundException e) {
-                e.printStackTrace();
-            } catch (AlreadyRegisteredUserException e) {
-                //Nel caso in cui si richieda la registrazione di un id già presente.
-                if (ClientGUI.DEBUG_MODE) System.out.println("Il nickname richiesto è già registrato.\n");
-                outcomeText.setText("Il nickname richiesto è già registrato.");
-                outcomeText.setVisible(true);
-                usernameField.setText("");
-                passwordField.setText("");
-            } catch (NullPointerException | IndexOutOfBoundsException e) {
-                //Nel caso in cui qualcuno dei due dati non venga inserito
-                if (ClientGUI.DEBUG_MODE) System.out.println("Assicurati di avere inserito entrambi i campi.\n");
-                outcomeText.setText("Inserisci entrambi i campi!");
-                outcomeText.setVisible(true);
-            }
+            //La chiamata RMI è bloccante: la si esegue fuori dall'EDT, e l'esito torna in coda agli eventi.
+            CompletableFuture.runAsync(() -> {
+                try {
+                    Registry r = LocateRegistry.getRegistry(rmiPort);
+                    Remote usersRegisterRemote = r.lookup("USERS-REGISTER-SERVER");
+                    UsersRegisterInterface usersRegister = (UsersRegisterInterface) usersRegisterRemote;
+                    usersRegister.registerNewUser(id, password);
+                } catch (RemoteException | NotBoundException | AlreadyRegisteredUserException e) {
+                    throw new CompletionException(e);
+                }
+            }, executorService).whenCompleteAsync((done, error) -> {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause == null) {
+                    if (ClientGUI.DEBUG_MODE) System.out.println("Registrazione avvenuta con successo.\n");
+                    outcomeText.setText("Registrazione avvenuta con successo!");
+                    outcomeText.setVisible(true);
+                    outcomeText.setForeground(Color.GREEN);
+                    //Nel caso in cui la registrazione sia andata a buon fine vengono liberati i
+                    //due campi, così da poter fare la login.
+                    usernameField.setText("");
+                    passwordField.setText("");
+                } else if (cause instanceof AlreadyRegisteredUserException) {
+                    //Nel caso in cui si richieda la registrazione di un id già presente.
+                    if (ClientGUI.DEBUG_MODE) System.out.println("Il nickname richiesto è già registrato.\n");
+                    outcomeText.setText("Il nickname richiesto è già registrato.");
+                    outcomeText.setVisible(true);
+                    usernameField.setText("");
+                    passwordField.setText("");
+                } else if (cause instanceof NullPointerException || cause instanceof IndexOutOfBoundsException) {
+                    //Nel caso in cui qualcuno dei due dati non venga inserito
+                    if (ClientGUI.DEBUG_MODE) System.out.println("Assicurati di avere inserito entrambi i campi.\n");
+                    outcomeText.setText("Inserisci entrambi i campi!");
+                    outcomeText.setVisible(true);
+                } else {
+                    cause.printStackTrace();
+                }
+            }, EDT);
         }
     }
 
@@ -811,27 +845,16 @@ public class ClientGUI {
             if (otherId == null) {
                 return;
             }
-            try {
-                CommonUtilities.writeIntoSocket("aggiungi_amico " + otherId, TCPSocket);
-
-                String response = CommonUtilities.readFromSocket(TCPSocket);
+            onEDT(connection.request("aggiungi_amico " + otherId), response -> {
                 if (response.equals("L'amicizia è stata aggiunta con successo.")) {
-                    synchronized (friendsListModel) {
-                        /*
-                        friendsListModel.clear();
-                        friendsListModel.addAll(queryFriends());
-                        */
-                        friendsListModel.addElement(otherId);
-                    }
+                    friendsListModel.add(otherId);
 
                 } else {
                     JOptionPane.showMessageDialog(homePanel, response,
                             "Nuova amicizia", JOptionPane.ERROR_MESSAGE, null);
                 }
                 if (ClientGUI.DEBUG_MODE) System.out.println(response);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            });
         }
     }
 
@@ -839,22 +862,15 @@ public class ClientGUI {
      * {@link ActionListener} per il bottone di richiesta della "nuova" classifica (aggiornata).
      */
     private static class UpdateRankListener implements ActionListener {
-        private final DefaultListModel<String> listModel;
+        private final VirtualListModel listModel;
 
-        public UpdateRankListener(DefaultListModel<String> listModel) {
+        public UpdateRankListener(VirtualListModel listModel) {
             this.listModel = listModel;
         }
 
         @Override
         public void actionPerformed(ActionEvent actionEvent) {
-            listModel.clear();
-            try {
-                listModel.addAll(queryRank());
-                if (ClientGUI.DEBUG_MODE) System.out.println(queryRank().toString());
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
+            refresh(listModel, queryRank());
         }
     }
 
@@ -868,14 +884,14 @@ public class ClientGUI {
 
             if (LOGGED_IN) {
 
-                try {
-                    CommonUtilities.writeIntoSocket("logout", TCPSocket);
-
-                    String response = CommonUtilities.readFromSocket(TCPSocket);
+                //Un secondo click, prima della risposta, non deve inviare un altro logout.
+                LOGGED_IN = false;
+                onEDT(connection.request("logout"), response -> {
                     if (ClientGUI.DEBUG_MODE) System.out.println(response);
 
-                    if (response.equals("Logout effettuato con successo.")) {
-                        LOGGED_IN = false;
+                    if (!response.equals("Logout effettuato con successo.")) {
+                        LOGGED_IN = true;
+                    } else {
                         ID_ONLINE = null;
                         POINTS_ONLINE = -1;
 
@@ -885,10 +901,7 @@ public class ClientGUI {
                         homePanel = null;
                         window.setContentPane(loginPanel);
                     }
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                });
             }
         }
     }
@@ -905,88 +918,56 @@ public class ClientGUI {
             if (mouseEvent.getClickCount() == 2) {
 
                 int index = list.locationToIndex(mouseEvent.getPoint());
-                String id;
-                synchronized (friendsListModel) {
-                    id = friendsListModel.get(index);
-                }
+                String id = friendsListModel.getElementAt(index);
 
-                if (ClientGUI.DEBUG_MODE) synchronized (friendsListModel) {
-                    System.out.println("Clicked " + friendsListModel.get(index));
-                }
+                if (ClientGUI.DEBUG_MODE) System.out.println("Clicked " + id);
 
                 JDialog waitingDialog = new JDialog(window, "Attendi l'avversario...",
                         Dialog.ModalityType.APPLICATION_MODAL);
 
-                SwingWorker<Integer, Void> requestChallenge = new SwingWorker<>() {
-                    private final int ACCEPTED = 0;
-                    private final int REFUSED = 1;
-                    private final int API_ERROR = 2;
-                    private final int NOT_ONLINE = 3;
-
-                    @Override
-                    protected Integer doInBackground() throws Exception {
-                        CommonUtilities.writeIntoSocket("sfida " + id, TCPSocket);
-                        //Leggo il responso della richiesta da parte del server
-                        String response = CommonUtilities.readFromSocket(TCPSocket);
-                        if (ClientGUI.DEBUG_MODE) System.out.println(response);
-                        if (response.contains("inviata")) { //Se la sfida viene inoltrata
-                            //Leggo il responso della richiesta da parte dell'altro client
-                            response = CommonUtilities.readFromSocket(TCPSocket);
-                            if (ClientGUI.DEBUG_MODE) System.out.println(response); //Via alla sfida di traduz
-                            if (response.equals("La richiesta non è stata accettata.")) return REFUSED;
-                            if (response.equals("Siamo spiacenti, il servizio di traduzione non è al momento disponibile. " +
-                                    "Riprovare più tardi."))
-                                return API_ERROR;
-                        } else if (response.equals("L'utente indicato non è online.")) {
-                            return NOT_ONLINE;
-                        }
-                        return ACCEPTED;
+                /*
+                    Si invia la richiesta e, se viene inoltrata, si attende il responso dell'altro client. Il seguito
+                    viene eseguito sull'EDT, che nel frattempo mostra il dialog di attesa.
+                 */
+                CompletableFuture<String> outcome = connection.request("sfida " + id).thenCompose(response -> {
+                    if (ClientGUI.DEBUG_MODE) System.out.println(response);
+                    //Se la sfida viene inoltrata, si legge il responso della richiesta da parte dell'altro client.
+                    return response.contains("inviata") ? connection.nextMessage()
+                            : CompletableFuture.completedFuture(response);
+                });
+                outcome.whenCompleteAsync((response, error) -> {
+                    waitingDialog.setVisible(false);
+                    waitingDialog.dispose();
+                    if (error != null) {
+                        error.printStackTrace();
+                        return;
                     }
+                    if (ClientGUI.DEBUG_MODE) System.out.println(response); //Via alla sfida di traduz
+
+                    String message = null;
+                    if (response.equals("La richiesta non è stata accettata.")) {
+                        message = id + " non ha accettato la tua richiesta.";
+                    } else if (response.equals("Siamo spiacenti, il servizio di traduzione non è al momento " +
+                            "disponibile. Riprovare più tardi.")) {
+                        message = "Spiacenti, il servizio API non è disponibile.";
+                    } else if (response.equals("L'utente indicato non è online.")) {
+                        message = "L'utente non è online.";
+                    }
+
+                    if (message != null) {
+                        //Qualcosa è andato storto
+                        JOptionPane.showMessageDialog(homePanel, message,
+                                "Richiesta a " + id, JOptionPane.ERROR_MESSAGE, null);
 
-                    @Override
-                    protected void done() {
-                        if (ClientGUI.DEBUG_MODE) System.out.println("Finito!");
-                        waitingDialog.setVisible(false);
-                        waitingDialog.dispose();
-
-                        int result = -1;
-                        try {
-                            result = get();
-                        } catch (InterruptedException | ExecutionException e) {
-                            e.printStackTrace();
-                        }
-
-                        String message = null;
-
-                        if (result != -1) {
-                            if (result == REFUSED) {
-                                message = id + " non ha accettato la tua richiesta.";
-                            } else if (result == API_ERROR) {
-                                message = "Spiacenti, il servizio API non è disponibile.";
-                            } else if (result == NOT_ONLINE) {
-                                message = "L'utente non è online.";
-                            } else if (result != ACCEPTED) {
-                                message = "Spiacenti, qualcosa è andato storto...";
-                            }
-
-                            if (message != null) {
-                                //Qualcosa è andato storto
-                                JOptionPane.showMessageDialog(homePanel, message,
-                                        "Richiesta a " + id, JOptionPane.ERROR_MESSAGE, null);
-
-                            } else {
-
-                                homePanel.setVisible(false);
-                                homePanel = null;
-                                gamePanel = gamePage();
-                                gamePanel.setVisible(true);
-                                window.setContentPane(gamePanel);
-                            }
-                        }
-                        super.done();
+                    } else {
+
+                        homePanel.setVisible(false);
+                        homePanel = null;
+                        gamePanel = gamePage();
+                        gamePanel.setVisible(true);
+                        window.setContentPane(gamePanel);
                     }
-                };
-                requestChallenge.execute();
+                }, EDT);
 
                 waitingDialog.setLayout(new GridBagLayout());
 
@@ -1044,85 +1025,63 @@ public class ClientGUI {
                 if (ClientGUI.DEBUG_MODE)
                     System.out.println("Clicked " + id);
 
+                String[] addressInfo;
+                synchronized (requests) {
+                    addressInfo = requests.remove(id);
+                }
+                if (addressInfo == null) {
+                    System.out.println("L'id inserito non è stato trovato/La richiesta non è più valida.");
+                    JOptionPane.showMessageDialog(homePanel, "La richiesta non è più valida.",
+                            "Sfida con " + id, JOptionPane.ERROR_MESSAGE, null);
+                    return;
+                }
+
                 JDialog waitingDialog = new JDialog(window, "Attendi l'avversario...",
                         Dialog.ModalityType.APPLICATION_MODAL);
 
-                SwingWorker<Integer, Void> acceptChallenge = new SwingWorker<>() {
-                    private final int NOT_AVAILABLE = 0;
-                    private final int OK = 1;
-                    private final int API_ERROR = 2;
-
-                    @Override
-                    protected Integer doInBackground() throws Exception {
-                        String response;
-                        String[] addressInfo;
-
-                        receiver.setChallengeAvailable(false);
-
-                        synchronized (requests) {
-                            addressInfo = requests.get(id);
-                            if (addressInfo == null) {
-                                System.out.println("L'id inserito non è stato trovato/La richiesta non è più valida.");
-                                return NOT_AVAILABLE;
-                            }
-                            requests.remove(id);
-                        }
-
-                        InetAddress serverAddress = InetAddress.getByName(addressInfo[0]);
-                        byte[] messageBytes = "accepted".getBytes();
-                        DatagramPacket sendPacket = new DatagramPacket(messageBytes,
-                                messageBytes.length, serverAddress, Integer.parseInt(addressInfo[1]));
-                        UDPSocket.send(sendPacket);
-
-                        Thread.sleep(500);
-                        if (!receiver.isChallengeAvailable()) {
-                            if (ClientGUI.DEBUG_MODE) System.out.println("MatchVs" + id + " --- Richiesta scaduta.");
-                            return NOT_AVAILABLE;
-                        }
-                        response = CommonUtilities.readFromSocket(TCPSocket);
-
-                        if (response.equals("Siamo spiacenti, il servizio di traduzione non è al " +
-                                "momento disponibile. Riprovare più tardi.")) {
-                            return API_ERROR;
-                        }
-
-                        return OK;
+                /*
+                    Accettazione e attesa dell'ACK del server, con ritrasmissioni (si veda ChallengeHandshake): è
+                    bloccante, quindi viene eseguita fuori dall'EDT. Se la sfida è confermata si attende il primo
+                    messaggio della sfida; il seguito viene eseguito sull'EDT, che nel frattempo mostra il dialog.
+                 */
+                CompletableFuture<String> outcome = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return receiver.acceptChallenge(addressInfo);
+                    } catch (IOException | InterruptedException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executorService).thenCompose(accepted -> {
+                    if (!accepted && ClientGUI.DEBUG_MODE)
+                        System.out.println("MatchVs" + id + " --- Richiesta scaduta.");
+                    return accepted ? connection.nextMessage() : CompletableFuture.completedFuture(null);
+                });
+                outcome.whenCompleteAsync((response, error) -> {
+                    waitingDialog.setVisible(false);
+                    waitingDialog.dispose();
+                    if (error != null) {
+                        error.printStackTrace();
+                        return;
                     }
 
-                    @Override
-                    protected void done() {
-                        waitingDialog.setVisible(false);
-                        waitingDialog.dispose();
-
-                        int result = -1;
-                        try {
-                            result = get();
-                        } catch (InterruptedException | ExecutionException e) {
-                            e.printStackTrace();
-                        }
-                        String message = null;
-
-                        if (result == API_ERROR) {
-                            message = "Spiacenti, il servizio API non è disponibile.";
-                        } else if (result == NOT_AVAILABLE) {
-                            message = "La richiesta non è più valida.";
-                        }
-
-                        if (message != null) JOptionPane.showMessageDialog(homePanel, message,
-                                "Sfida con " + id, JOptionPane.ERROR_MESSAGE, null);
-
-                        if (result == OK) {
-                            homePanel.setVisible(false);
-                            homePanel = null;
-                            gamePanel = gamePage();
-                            gamePanel.setVisible(true);
-                            window.setContentPane(gamePanel);
-                        }
+                    String message = null;
+                    if (response == null) {
+                        message = "La richiesta non è più valida.";
+                    } else if (response.equals("Siamo spiacenti, il servizio di traduzione non è al " +
+                            "momento disponibile. Riprovare più tardi.")) {
+                        message = "Spiacenti, il servizio API non è disponibile.";
+                    }
 
-                        super.done();
+                    if (message != null) {
+                        JOptionPane.showMessageDialog(homePanel, message,
+                                "Sfida con " + id, JOptionPane.ERROR_MESSAGE, null);
+                    } else {
+                        homePanel.setVisible(false);
+                        homePanel = null;
+                        gamePanel = gamePage();
+                        gamePanel.setVisible(true);
+                        window.setContentPane(gamePanel);
                     }
-                };
-                acceptChallenge.execute();
+                }, EDT);
 
                 waitingDialog.setLayout(new GridBagLayout());
 
@@ -1175,20 +1134,12 @@ public class ClientGUI {
                 String input = inputField.getText().toLowerCase();
                 inputField.setText("");
 
-                SwingWorker<Void, Void> sendResponse = new SwingWorker<>() {
-                    @Override
-                    protected Void doInBackground() throws Exception {
-                        CommonUtilities.writeIntoSocket(input, TCPSocket);
-                        return null;
-                    }
-
-                    @Override
-                    protected void done() {
-                        super.done();
-                    }
-                };
-
-                sendResponse.execute();
+                //La traduzione viene solo messa in coda: la scrive il thread della connessione.
+                try {
+                    connection.send(input);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
 
         }
@@ -1204,32 +1155,12 @@ public class ClientGUI {
         @Override
         public void actionPerformed(ActionEvent actionEvent) {
             IN_GAME = false;
-            SwingWorker<Integer, Void> getPoints = new SwingWorker<>() {
-                @Override
-                protected Integer doInBackground() throws Exception {
-                    return queryPoints();
-                }
-
-                @Override
-                protected void done() {
-                    super.done();
-                    try {
-                        POINTS_ONLINE = get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        e.printStackTrace();
-                    }
-                    gamePanel.setVisible(false);
-                    gamePanel = null;
-                    try {
-                        homePanel = homePage();
-                        window.setContentPane(homePanel);
-                        homePanel.setVisible(true);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            };
-            getPoints.execute();
+            //Il punteggio aggiornato viene richiesto dalla pagina principale.
+            gamePanel.setVisible(false);
+            gamePanel = null;
+            homePanel = homePage();
+            window.setContentPane(homePanel);
+            homePanel.setVisible(true);
         }
     }
 
@@ -1238,68 +1169,186 @@ public class ClientGUI {
      */
 
     /**
-     * Si occupa di richiedere al server la lista amici dell'utente loggato. Ricalca la parte
-     * di codice corrispondente della classe {@link front_end_src.Client}.
+     * Esegue sull'EDT, in coda agli eventi dell'interfaccia, il seguito di una richiesta al server. Se la richiesta
+     * fallisce (la connessione si è chiusa) si stampa l'errore.
      *
-     * @return La lista di amici dell'utente, sotto forma di {@link ArrayList} di {@link String}.
-     * @throws IOException In caso di problemi durante la comunicazione con il server.
+     * @param future La richiesta.
+     * @param action Il seguito, che riceve la risposta.
+     * @param <T>    Il tipo della risposta.
      */
-    static ArrayList<String> queryFriends() throws IOException {
-
-        ArrayList<String> friends;
-        CommonUtilities.writeIntoSocket("lista_amici", TCPSocket);
-        String response = CommonUtilities.readFromSocket(TCPSocket);
-        if (response.equals("Non hai nessuna amicizia.")) {
-            if (ClientGUI.DEBUG_MODE) System.out.println(response);
-            friends = new ArrayList<>();
-        } else {
-            Type friendsType = new TypeToken<ArrayList<String>>() {
-            }.getType();
-            friends = gson.fromJson(response, friendsType);
-        }
+    private static <T> void onEDT(CompletableFuture<T> future, Consumer<T> action) {
+        future.whenCompleteAsync((result, error) -> {
+            if (error != null) error.printStackTrace();
+            else action.accept(result);
+        }, EDT);
+    }
+
+    /**
+     * Aggiorna il modello di una lista con le righe richieste al server: il confronto con le righe mostrate avviene
+     * fuori dall'EDT, che applica solo le differenze (si veda {@link VirtualListModel}).
+     *
+     * @param model Il modello della lista.
+     * @param rows  La richiesta delle nuove righe.
+     */
+    private static void refresh(VirtualListModel model, CompletableFuture<? extends List<String>> rows) {
+        onEDT(rows.thenApplyAsync(model::diff), model::apply);
+    }
+
+    /**
+     * Dimentica la lista amici e la classifica ricevute: le prossime richieste le riceveranno per intero.
+     */
+    private static void resetVersions() {
+        friendsQueries = friendsQueries.handle((result, error) -> {
+            friendsVersion = -1;
+            knownFriends.clear();
+            return null;
+        });
+        rankQueries = rankQueries.handle((result, error) -> {
+            rankVersion = -1;
+            knownRank = new LinkedHashMap<>();
+            return null;
+        });
+    }
+
+    /**
+     * Si occupa di richiedere al server la lista amici dell'utente loggato. Si invia l'ultima versione ricevuta,
+     * così che il server risponda solo con gli amici aggiunti da allora (o con nessuna modifica). La prima volta
+     * la lista viene ricevuta a blocchi ('lista_amici blocchi'), decodificati man mano. La richiesta parte dopo la
+     * fine della precedente, che aggiorna la versione.
+     *
+     * @return La future completata con la lista di amici dell'utente, sotto forma di {@link ArrayList} di
+     * {@link String}, oppure con un'{@link IOException} in caso di problemi durante la comunicazione con il server.
+     */
+    static CompletableFuture<ArrayList<String>> queryFriends() {
+        CompletableFuture<ArrayList<String>> friends = friendsQueries.handle((result, error) -> null)
+                .thenCompose(previous -> fetchFriends());
+        friendsQueries = friends;
         return friends;
     }
 
+    private static CompletableFuture<ArrayList<String>> fetchFriends() {
+        if (friendsVersion < 0) {
+            knownFriends.clear();
+            return connection.request("lista_amici blocchi",
+                    chunk -> knownFriends.addAll(JsonCodec.decodeStrings(chunk))).thenApply(header -> {
+                friendsVersion = (int) CommonUtilities.versionOf(header);
+                return new ArrayList<>(knownFriends);
+            });
+        }
+        return connection.request("aggiornamenti_amici " + friendsVersion).thenApply(response -> {
+            if (response.equals("Nessuna modifica.")) {
+                if (ClientGUI.DEBUG_MODE) System.out.println(response);
+            } else {
+                FriendsUpdate update = gson.fromJson(response, FriendsUpdate.class);
+                if (update.isFull()) knownFriends.clear();
+                knownFriends.addAll(update.getAdded());
+                friendsVersion = update.getVersion();
+            }
+            return new ArrayList<>(knownFriends);
+        });
+    }
+
     /**
-     * Si occupa di richiedere al server la classifica degli amici dell'utente loggato. Ricalca la parte
-     * di codice corrispondente della classe {@link front_end_src.Client}.
+     * Si occupa di richiedere al server la classifica degli amici dell'utente loggato. Si invia l'ultima versione
+     * ricevuta, così che il server risponda solo con i punteggi cambiati da allora (o con nessuna modifica). La
+     * prima volta la classifica viene ricevuta a blocchi ('mostra_classifica blocchi'), decodificati man mano. La
+     * richiesta parte dopo la fine della precedente, che aggiorna la versione.
      *
-     * @return La classifica degli amici dell'utente, sotto forma di {@link ArrayList} di {@link String}.
-     * @throws IOException In caso di problemi durante la comunicazione con il server.
+     * @return La future completata con la classifica degli amici dell'utente, sotto forma di {@link List} di
+     * {@link String}, oppure con un'{@link IOException} in caso di problemi durante la comunicazione con il server.
      */
-    private static ArrayList<String> queryRank() throws IOException {
-        ArrayList<String> rankLines;
-
-        CommonUtilities.writeIntoSocket("mostra_classifica", TCPSocket);
-        String response = CommonUtilities.readFromSocket(TCPSocket);
-        Type rankType = new TypeToken<LinkedHashMap<String, Integer>>() {
-        }.getType();
-        LinkedHashMap<String, Integer> rank = gson.fromJson(response, rankType);
-        rankLines = new ArrayList<>();
-        for (String user : rank.keySet()) {
-            rankLines.add(user + ": " + rank.get(user));
+    private static CompletableFuture<List<String>> queryRank() {
+        CompletableFuture<List<String>> rank = rankQueries.handle((result, error) -> null)
+                .thenCompose(previous -> fetchRank());
+        rankQueries = rank;
+        return rank;
+    }
+
+    /*
+        Il riordino avviene fuori dal thread della connessione ('thenApplyAsync'), che intanto continua a leggere le
+        risposte agli altri comandi.
+     */
+    private static CompletableFuture<List<String>> fetchRank() {
+        if (rankVersion < 0) {
+            LinkedHashMap<String, Integer> rank = new LinkedHashMap<>();
+            return connection.request("mostra_classifica blocchi",
+                    chunk -> rank.putAll(JsonCodec.decodeRank(chunk))).thenApplyAsync(header -> {
+                rankVersion = CommonUtilities.versionOf(header);
+                //I blocchi vengono da un'unica copia della classifica: sono già nell'ordine del server.
+                knownRank = rank;
+                return rankLines();
+            });
         }
+        return connection.request("aggiornamenti_classifica " + rankVersion).thenApplyAsync(response -> {
+            if (!response.equals("Nessuna modifica.")) {
+                RankUpdate update = gson.fromJson(response, RankUpdate.class);
+                if (update.isFull()) {
+                    knownRank = update.getPoints();
+                } else {
+                    knownRank = withChanges(knownRank, update);
+                }
+                rankVersion = update.getVersion();
+            }
+            return rankLines();
+        });
+    }
+
+    //Le righe della classifica conosciuta, da mostrare: ogni riga viene composta solo quando viene letta.
+    private static List<String> rankLines() {
+        String[] users = knownRank.keySet().toArray(new String[0]);
+        Integer[] points = knownRank.values().toArray(new Integer[0]);
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return users[index] + ": " + points[index];
+            }
+
+            @Override
+            public int size() {
+                return users.length;
+            }
+        };
+    }
 
-        return rankLines;
+    /*
+        Applica un aggiornamento parziale: le righe cambiate vengono tolte e rimesse nella posizione indicata dal
+        server, le altre restano nell'ordine in cui erano. A parità di punteggio il server ordina per id, che qui non
+        si conosce: riordinare per punteggio darebbe un ordine diverso da quello di una classifica richiesta per intero.
+     */
+    private static LinkedHashMap<String, Integer> withChanges(LinkedHashMap<String, Integer> rank,
+                                                              RankUpdate update) {
+        ArrayList<Map.Entry<String, Integer>> changed = new ArrayList<>(update.getPositions().entrySet());
+        changed.sort(Map.Entry.comparingByValue());
+        Iterator<Map.Entry<String, Integer>> unchanged = rank.entrySet().iterator();
+        LinkedHashMap<String, Integer> merged = new LinkedHashMap<>(rank.size() + changed.size());
+        int next = 0;
+        while (next < changed.size() || unchanged.hasNext()) {
+            if (next < changed.size() && (changed.get(next).getValue() <= merged.size() || !unchanged.hasNext())) {
+                String user = changed.get(next++).getKey();
+                merged.put(user, update.getPoints().get(user));
+            } else {
+                Map.Entry<String, Integer> entry = unchanged.next();
+                if (!update.getPoints().containsKey(entry.getKey())) merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return merged;
     }
 
     /**
      * Si occupa di richiedere al server il punteggio totale dell'utente loggato. Ricalca la parte
      * di codice corrispondente della classe {@link front_end_src.Client}.
      *
-     * @return Il punteggio totale dell'utente loggato.
-     * @throws IOException In caso di problemi durante la comunicaione con il server.
+     * @return La future completata con il punteggio totale dell'utente loggato.
      */
-    private static int queryPoints() throws IOException {
-        CommonUtilities.writeIntoSocket("mostra_punteggio", TCPSocket);
-        String response = CommonUtilities.readFromSocket(TCPSocket);
-        System.out.println("Punti letti: " + response);
-        StringTokenizer stringTokenizer = new StringTokenizer(response, " ");
-        for (int i = 0; i < 4; i++) {
-            stringTokenizer.nextToken();
-        }
-        return Integer.parseInt(stringTokenizer.nextToken().split("\\.")[0]);
-
+    private static CompletableFuture<Integer> queryPoints() {
+        return connection.request("mostra_punteggio").thenApply(response -> {
+            System.out.println("Punti letti: " + response);
+            StringTokenizer stringTokenizer = new StringTokenizer(response, " ");
+            for (int i = 0; i < 4; i++) {
+                stringTokenizer.nextToken();
+            }
+            return Integer.parseInt(stringTokenizer.nextToken().split("\\.")[0]);
+        });
     }
 
 }
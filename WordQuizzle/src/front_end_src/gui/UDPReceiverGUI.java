@@ -1,13 +1,17 @@
 package front_end_src.gui;
 
 import common_src.CommonUtilities;
+import front_end_src.ChallengeHandshake;
 import front_end_src.Client;
+import front_end_src.ServerConnection;
 import front_end_src.UDPReceiver;
 import front_end_src.gui.custom_components.InputField;
+import front_end_src.gui.custom_components.VirtualListModel;
 
 import javax.swing.*;
 import java.io.IOException;
 import java.net.*;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.StringTokenizer;
 
@@ -20,9 +24,12 @@ import java.util.StringTokenizer;
  * <p>
  * Questa nuova versione, è stata creata appositamente per lo scenario in cui si utilizzi un
  * client con interfaccia grafica. Ciò è necessario perchè il server invierà, oltre alla sola richiesta
- * di sfida, ulteriori messaggi UDP al client.
+ * di sfida, ulteriori messaggi al client. Tutti, tranne l'ACK 'starting' (che arriva via UDP), sono notifiche
+ * sulla connessione TCP, lette da {@link ServerConnection} e passate a {@link #onPush}.
+ * I messaggi che modificano l'interfaccia vengono gestiti sull'EDT, in coda agli altri eventi; solo 'starting' viene
+ * gestito subito, perchè completa l'handshake di una sfida accettata, che l'interfaccia non attende.
  */
-public class UDPReceiverGUI implements Runnable {
+public class UDPReceiverGUI implements Runnable, ServerConnection.PushListener {
 
     private final HashMap<String, String[]> requests;
     private volatile boolean run = true;
@@ -32,20 +39,22 @@ public class UDPReceiverGUI implements Runnable {
     //si aggiorni in base agli elementi di queste. Basterà ad esempio aggiungere un elemento a 'challengesListModel'
     //per far sì che il JList a cui esso è associato si aggiorni immediatamente, in tempo reale.
     private final DefaultListModel<String> challengesListModel;
-    private final DefaultListModel<String> friendsListModel;
+    private final VirtualListModel friendsListModel;
 
     //Nel caso in cui arrivi il messaggio di timeout match, è necessario modificare la UI della pagina della sfida.
     private final JPanel gamePanel;
     private final InputField wordInput;
     private final JButton sendButton;
 
-    private volatile boolean challengeAvailable = false;
+    //L'handshake di accettazione delle sfide, si veda UDPReceiver.
+    private final ChallengeHandshake handshake;
 
     public UDPReceiverGUI(DatagramSocket UDPSocket, HashMap<String, String[]> requests,
-                          DefaultListModel<String> challengesListModel, DefaultListModel<String> friendsListModel,
+                          DefaultListModel<String> challengesListModel, VirtualListModel friendsListModel,
                           JPanel gamePanel, InputField wordInput, JButton sendButton) {
         this.UDPSocket = UDPSocket;
         this.requests = requests;
+        this.handshake = new ChallengeHandshake(UDPSocket);
         this.challengesListModel = challengesListModel;
         this.friendsListModel = friendsListModel;
 
@@ -63,23 +72,15 @@ public class UDPReceiverGUI implements Runnable {
     }
 
     /**
-     * Metodo di gestione del flag {@link #challengeAvailable}. Si legga il commento
-     * del flag, si guardi la classe {@link Client} per vederne l'utilizzo.
+     * Accetta la sfida indicata: si veda {@link ChallengeHandshake#accept}.
      *
-     * @param available Booleano da assegnare a {@link #challengeAvailable}
+     * @param addressInfo Host e porta della socket del RequestManager e id della sfida.
+     * @return {@code true} se il server ha confermato la sfida, {@code false} se la richiesta è scaduta.
+     * @throws IOException In caso di problemi con la socket UDP.
+     * @throws InterruptedException Se il thread viene interrotto durante l'attesa.
      */
-    public void setChallengeAvailable(boolean available) {
-        challengeAvailable = available;
-    }
-
-    /**
-     * Metodo di gestione del flag {@link #challengeAvailable}. Si legga il commento
-     * del flag, si guardi la classe {@link Client} per vederne l'utilizzo.
-     *
-     * @return Il valore del flag {@link #challengeAvailable}
-     */
-    public boolean isChallengeAvailable() {
-        return challengeAvailable;
+    public boolean acceptChallenge(String[] addressInfo) throws IOException, InterruptedException {
+        return this.handshake.accept(addressInfo);
     }
 
     @Override
@@ -90,102 +91,124 @@ public class UDPReceiverGUI implements Runnable {
             while (this.run) {
 
                 //Mi metto in ascolto di nuovi messaggi UDP
-                receiveBuffer = new byte[128];
+                receiveBuffer = new byte[CommonUtilities.MAX_DATAGRAM_SIZE];
                 receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
                 UDPSocket.receive(receivePacket);
 
-                /*
-                    Salvo l'indirizzo e la porta del mittente, recuperandola dal pacchetto UDP appena ricevuto.
-                    Questo mi permette di avere i dati necessari per inviare la risposta al RequestManager corrispondente.
-                    Ho infatti deciso di aprire, per ogni RequestManager (sarà lui ad inoltrare tramite UDP la richiesta
-                    al client corrispondente; ne verrà lanciato uno per ogni richiesta di sfida), una socket UDP
-                    dedicata a quell'unica richiesta, in modo da non avere interferenze di nessun tipo.
-                */
-                InetAddress serverAddress = receivePacket.getAddress();
-                int serverPort = receivePacket.getPort();
-                String receivedString = new String(receivePacket.getData()).trim();
-
-                StringTokenizer stringTokenizer = new StringTokenizer(receivedString);
-                String type = stringTokenizer.nextToken();
-                String id = stringTokenizer.nextToken();
-
-                /*
-                    Posso ricevere cinque tipi di messaggi:
-                        - add -> ho ricevuto una nuova richiesta, 'synchronized' sulla struttura
-                                 dati e si inserisce la nuova richiesta.
-                        - remove -> il server, o meglio il RequestManager, mi ha notificato dello scadere
-                                    del timeout della richiesta, 'synchronized' sulla struttura dati e
-                                    la si rimuove
-                        - starting -> rappresenta per UDPReceiver l'ACK di cui abbiamo parlato sopra. Ricevere un
-                                      messaggio di questo tipo implica impostare a true il flag che il client
-                                      controllerà per verificare la validità della sfida (si noti che se un client si
-                                      trova ad accettare una richiesta, quella è l'unica sul quale è focalizzato,
-                                      per questo basta questo unico flag; in ogni caso si veda la classe Client per
-                                      leggere il codice inerente).
-                        - newfriend -> nel caso in cui un altro utente abbia richiesto l'amicizia dell'utente collegato
-                                       sul client corrispondente a questo UDPReceiverGUI. Ciò permette l'aggiornamento
-                                       in tempo reale della JList contenente gli amici dell'utente.
-                        - timeout -> nel caso in cui scada il timeout della sfida che l'utente sta giocando. Ciò permette
-                                     l'aggiornamento in tempo reale della UI della game page, così che l'utente venga
-                                     immediatamente notificato dello scadere del tempo disponibile per la sfida.
-                 */
-                switch (type) {
-                    case "add":
-                        synchronized (this.requests) {
-                            String[] addressInfo = new String[2];
-                            addressInfo[0] = serverAddress.toString().substring(1);
-                            addressInfo[1] = String.valueOf(serverPort);
-                            requests.put(id, addressInfo);
-                            //Aggiornamento del model, il quale implica l'aggiornamento della JList contenente
-                            //le varie richieste attive per l'utente collegato al client cui riferisce questo UDPReceiverGUI.
-                            synchronized (challengesListModel) {
-                                challengesListModel.clear();
-                                for (String s : requests.keySet()) {
-                                    challengesListModel.addElement(s);
-                                }
-                            }
-                        }
-                        break;
-                    case "remove":
-                        synchronized (this.requests) {
-                            requests.remove(id);
-                            //Aggiornamento del model, il quale implica l'aggiornamento della JList contenente
-                            //le varie richieste attive per l'utente collegato al client cui riferisce questo UDPReceiverGUI.
-                            synchronized (challengesListModel) {
-                                challengesListModel.clear();
-                                for (String s : requests.keySet()) {
-                                    challengesListModel.addElement(s);
-                                }
-                            }
-                        }
-                        break;
-                    case "starting":
-                        this.challengeAvailable = true;
-                        break;
-                    case "newfriend":
-                        //Aggiornamento del model, il quale implica l'aggiornamento della JList contenente
-                        //le amicizie dell'utente collegato al client cui riferisce questo UDPReceiverGUI.
-                        synchronized (friendsListModel) {
-                            friendsListModel.addElement(id);
-                        }
-                        break;
-                    case "timeout":
-                        //Se ha già finito non deve però inviarlo!
-                        if (!ClientGUI.FINISHED_QUESTIONS) CommonUtilities.writeIntoSocket("", ClientGUI.TCPSocket);
-                        ClientGUI.TIMEOUT = true;
-                        if (wordInput != null) {
-                            wordInput.setVisible(false);
-                            gamePanel.remove(wordInput);
-                        }
-                        if (sendButton != null) {
-                            sendButton.setVisible(false);
-                            gamePanel.remove(sendButton);
-                        }
-                        break;
+                String receivedString = new String(receivePacket.getData(), 0, receivePacket.getLength()).trim();
+
+                //Il server unisce in un unico datagramma i messaggi ravvicinati, uno per riga.
+                for (String line : receivedString.split("\n")) {
+                    StringTokenizer stringTokenizer = new StringTokenizer(line);
+                    if (stringTokenizer.countTokens() < 2) continue;
+                    String type = stringTokenizer.nextToken();
+                    String id = stringTokenizer.nextToken();
+                    //Il resto della riga: per 'starting', id della sfida e numero di sequenza.
+                    String[] info = new String[stringTokenizer.countTokens()];
+                    for (int i = 0; i < info.length; i++) info[i] = stringTokenizer.nextToken();
+                    dispatch(type, id, info);
                 }
             }
         } catch (IOException e) {
             //e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void onPush(String type, String[] args) {
+        //'add <id> <host> <porta> <sfida>': host e porta sono quelli della socket UDP del RequestManager.
+        dispatch(type, args[0], Arrays.copyOfRange(args, 1, args.length));
+    }
+
+    //Passa il messaggio all'EDT, tranne 'starting' (si veda sopra).
+    private void dispatch(String type, String id, String[] info) {
+        if (type.equals("starting")) handle(type, id, info);
+        else SwingUtilities.invokeLater(() -> handle(type, id, info));
+    }
+
+    /**
+     * Gestisce un messaggio del server, arrivato come notifica sulla connessione TCP o via UDP.
+     *
+     * @param type        Il tipo di messaggio.
+     * @param id          L'utente cui il messaggio si riferisce.
+     * @param info        Gli altri campi del messaggio: per le richieste di sfida l'indirizzo UDP al quale rispondere e
+     *                    l'id della sfida, per 'starting' l'id della sfida e il numero di sequenza.
+     */
+    private void handle(String type, String id, String[] info) {
+        /*
+            Posso ricevere cinque tipi di messaggi:
+                - add -> ho ricevuto una nuova richiesta, 'synchronized' sulla struttura
+                         dati e si inserisce la nuova richiesta.
+                - remove -> il server, o meglio il RequestManager, mi ha notificato dello scadere
+                            del timeout della richiesta, 'synchronized' sulla struttura dati e
+                            la si rimuove
+                - starting -> rappresenta per UDPReceiver l'ACK di cui abbiamo parlato sopra. Ricevere un
+                              messaggio di questo tipo implica impostare a true il flag che il client
+                              controllerà per verificare la validità della sfida (si noti che se un client si
+                              trova ad accettare una richiesta, quella è l'unica sul quale è focalizzato,
+                              per questo basta questo unico flag; in ogni caso si veda la classe Client per
+                              leggere il codice inerente).
+                - newfriend -> nel caso in cui un altro utente abbia richiesto l'amicizia dell'utente collegato
+                               sul client corrispondente a questo UDPReceiverGUI. Ciò permette l'aggiornamento
+                               in tempo reale della JList contenente gli amici dell'utente.
+                - timeout -> nel caso in cui scada il timeout della sfida che l'utente sta giocando. Ciò permette
+                             l'aggiornamento in tempo reale della UI della game page, così che l'utente venga
+                             immediatamente notificato dello scadere del tempo disponibile per la sfida.
+         */
+        switch (type) {
+            case "add":
+                synchronized (this.requests) {
+                    requests.put(id, info);
+                    //Aggiornamento del model, il quale implica l'aggiornamento della JList contenente
+                    //le varie richieste attive per l'utente collegato al client cui riferisce questo UDPReceiverGUI.
+                    synchronized (challengesListModel) {
+                        challengesListModel.clear();
+                        for (String s : requests.keySet()) {
+                            challengesListModel.addElement(s);
+                        }
+                    }
+                }
+                break;
+            case "remove":
+                synchronized (this.requests) {
+                    requests.remove(id);
+                    //Aggiornamento del model, il quale implica l'aggiornamento della JList contenente
+                    //le varie richieste attive per l'utente collegato al client cui riferisce questo UDPReceiverGUI.
+                    synchronized (challengesListModel) {
+                        challengesListModel.clear();
+                        for (String s : requests.keySet()) {
+                            challengesListModel.addElement(s);
+                        }
+                    }
+                }
+                break;
+            case "starting":
+                //Le ritrasmissioni e gli 'starting' di altre sfide sono riconosciuti dall'handshake.
+                if (info.length >= 1) this.handshake.onStarting(info[0]);
+                break;
+            case "newfriend":
+                //Aggiornamento del model, il quale implica l'aggiornamento della JList contenente
+                //le amicizie dell'utente collegato al client cui riferisce questo UDPReceiverGUI.
+                friendsListModel.add(id);
+                break;
+            case "timeout":
+                //Se ha già finito non deve però inviarlo!
+                try {
+                    //Come ogni messaggio, lo scrive il thread della connessione.
+                    if (!ClientGUI.FINISHED_QUESTIONS) ClientGUI.connection.send("");
+                } catch (IOException e) {
+                    //La connessione è stata chiusa: il client sta uscendo.
+                }
+                ClientGUI.TIMEOUT = true;
+                if (wordInput != null) {
+                    wordInput.setVisible(false);
+                    gamePanel.remove(wordInput);
+                }
+                if (sendButton != null) {
+                    sendButton.setVisible(false);
+                    gamePanel.remove(sendButton);
+                }
+                break;
+        }
+    }
+}
@@ -14,8 +14,8 @@ import java.util.ArrayList;
 @SuppressWarnings("unused")
 public class ListField extends JList<String> {
 
-    private ListField(DefaultListModel<String> defaultListModel) {
-        super(defaultListModel);
+    private ListField(ListModel<String> listModel) {
+        super(listModel);
         this.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 15));
     }
 
@@ -36,11 +36,11 @@ public class ListField extends JList<String> {
     /**
      * Metodo builder/factory per la creazione del componente.
      *
-     * @param defaultListModel Il modello da associare alla lista.
+     * @param listModel Il modello da associare alla lista (ad esempio un {@link VirtualListModel}).
      * @return Un oggetto {@link ListField}, e quindi {@link JList}.
      */
-    public static ListField newListField(DefaultListModel<String> defaultListModel) {
-        return new ListField(defaultListModel);
+    public static ListField newListField(ListModel<String> listModel) {
+        return new ListField(listModel);
     }
 
     /**
@@ -67,4 +67,17 @@ public class ListField extends JList<String> {
         return this;
     }
 
+    /**
+     * Metodo builder/factory per dare a tutte le righe la dimensione della riga indicata. Senza, ad ogni modifica
+     * del modello la lista chiede al renderer tutte le righe per misurarle; così invece ne chiede solo quelle
+     * visibili, anche se il modello ne ha centinaia di migliaia.
+     *
+     * @param prototype Una riga lunga quanto la più lunga attesa.
+     * @return L'oggetto {@link ListField} modificato.
+     */
+    public ListField fixedCellSize(String prototype) {
+        this.setPrototypeCellValue(prototype);
+        return this;
+    }
+
 }
@@ -0,0 +1,146 @@
+package front_end_src.gui.custom_components;
+
+import javax.swing.*;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * {@link VirtualListModel} è il modello delle liste lunghe (amici e classifica) di {@link ListField}. Le righe sono
+ * un'istantanea immutabile, che può anche essere una vista calcolata riga per riga: la lista ne chiede solo le righe
+ * visibili (si veda {@link ListField#fixedCellSize}), e nessuna riga viene copiata nel modello.
+ *
+ * Un aggiornamento avviene in due passi:
+ *  - {@link #diff}, fuori dall'EDT, confronta le nuove righe con quelle attuali e trova l'intervallo cambiato
+ *    (tutto ciò che sta tra il prefisso e il suffisso comuni);
+ *  - {@link #apply}, sull'EDT, sostituisce l'istantanea e notifica alla lista solo quell'intervallo.
+ * Così una riga cambiata in una lista di centomila costa un solo evento su una sola riga, invece di svuotare e
+ * riempire il modello (e far ricalcolare alla lista tutte le righe).
+ *
+ * {@link #add} non copia le righe: la nuova istantanea è una vista delle precedenti con la riga in fondo (si veda
+ * {@link Appended}).
+ */
+public class VirtualListModel extends AbstractListModel<String> {
+
+    //Le righe attuali: le sostituisce solo l'EDT, ma 'diff' le legge da altri thread.
+    private volatile List<String> rows = Collections.emptyList();
+
+    @Override
+    public int getSize() {
+        return this.rows.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return this.rows.get(index);
+    }
+
+    /**
+     * Confronta le nuove righe con quelle attuali. Può essere chiamato da qualsiasi thread.
+     *
+     * @param newRows Le nuove righe, che non verranno più modificate.
+     * @return La modifica, da applicare con {@link #apply}.
+     */
+    public Change diff(List<String> newRows) {
+        return new Change(this.rows, newRows);
+    }
+
+    /**
+     * Applica una modifica calcolata con {@link #diff}, notificando alla lista solo le righe cambiate. Se nel
+     * frattempo il modello è cambiato (ad esempio per un {@link #add}), il confronto viene ripetuto. Va chiamato
+     * sull'EDT.
+     *
+     * @param change La modifica.
+     */
+    public void apply(Change change) {
+        if (change.base != this.rows) change = new Change(this.rows, change.rows);
+        this.rows = change.rows;
+        int oldEnd = change.base.size() - change.suffix, newEnd = change.rows.size() - change.suffix;
+        int changedEnd = Math.min(oldEnd, newEnd);
+        if (changedEnd > change.prefix) fireContentsChanged(this, change.prefix, changedEnd - 1);
+        if (oldEnd > newEnd) fireIntervalRemoved(this, newEnd, oldEnd - 1);
+        if (newEnd > oldEnd) fireIntervalAdded(this, oldEnd, newEnd - 1);
+    }
+
+    /**
+     * Aggiunge una riga in fondo (ad esempio un nuovo amico notificato dal server). Va chiamato sull'EDT.
+     *
+     * @param row La riga.
+     */
+    public void add(String row) {
+        List<String> rows = this.rows;
+        List<String> newRows = rows instanceof Appended ? ((Appended) rows).with(row) : new Appended(rows, row);
+        this.rows = newRows;
+        fireIntervalAdded(this, newRows.size() - 1, newRows.size() - 1);
+    }
+
+    /*
+        Le righe di un'istantanea seguite da quelle aggiunte con 'add'. Le righe aggiunte stanno in un array condiviso
+        con le viste precedenti, ciascuna delle quali ne vede solo le prime 'count': una nuova riga viene scritta
+        nella prima cella libera, che nessuna vista esistente legge, e l'array viene copiato (raddoppiato) solo quando
+        è pieno. Un'aggiunta costa quindi O(1) ammortizzato, e nessuna istantanea già pubblicata cambia.
+     */
+    private static final class Appended extends AbstractList<String> implements RandomAccess {
+        private final List<String> base;
+        private final String[] added;
+        private final int count;
+
+        Appended(List<String> base, String row) {
+            this(base, new String[]{row, null}, 1);
+        }
+
+        private Appended(List<String> base, String[] added, int count) {
+            this.base = base;
+            this.added = added;
+            this.count = count;
+        }
+
+        //Solo la vista più recente viene estesa: la cella dopo le sue righe è ancora libera.
+        Appended with(String row) {
+            String[] added = this.added;
+            if (this.count == added.length || added[this.count] != null) {
+                added = Arrays.copyOf(added, this.count * 2);
+                Arrays.fill(added, this.count, added.length, null);
+            }
+            added[this.count] = row;
+            return new Appended(this.base, added, this.count + 1);
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size()) throw new IndexOutOfBoundsException(index);
+            int baseSize = this.base.size();
+            return index < baseSize ? this.base.get(index) : this.added[index - baseSize];
+        }
+
+        @Override
+        public int size() {
+            return this.base.size() + this.count;
+        }
+    }
+
+    /**
+     * Una modifica del modello: le righe di partenza, le nuove e la lunghezza del prefisso e del suffisso comuni.
+     */
+    public static final class Change {
+        private final List<String> base;
+        private final List<String> rows;
+        private final int prefix;
+        private final int suffix;
+
+        private Change(List<String> base, List<String> rows) {
+            this.base = base;
+            this.rows = rows;
+            int max = Math.min(base.size(), rows.size());
+            int prefix = 0;
+            while (prefix < max && base.get(prefix).equals(rows.get(prefix))) prefix++;
+            int suffix = 0;
+            while (suffix < max - prefix
+                    && base.get(base.size() - 1 - suffix).equals(rows.get(rows.size() - 1 - suffix))) suffix++;
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package front_end_src.tests;
+
+import common_src.CommonUtilities;
+import common_src.Handshake;
+import front_end_src.UDPReceiver;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * {@link AcceptLatencyTest} misura il tempo che passa tra l'accettazione di una sfida e l'arrivo della prima parola
+ * da tradurre, in locale e senza perdite. Il lato server accetta la sfida come {@link back_end_src.RequestManager} e
+ * subito dopo scrive la prima parola sulla connessione TCP (la traduzione delle parole, che nel server reale sta in
+ * mezzo, ha lo stesso costo in entrambi i casi e qui non c'è). Si confrontano:
+ *  - il client precedente: invia 'accepted', dorme 500 ms e poi controlla se è arrivato 'starting';
+ *  - il client attuale: {@link UDPReceiver#acceptChallenge}, che prosegue appena 'starting' completa la future
+ *    della sfida.
+ * Per ognuno si stampano latenza media, mediana e 99° percentile su TRIALS sfide.
+ */
+public class AcceptLatencyTest {
+
+    private static final int TRIALS = 200;
+    private static final long OLD_SLEEP_MILLIS = 500;
+
+    private interface Accepter {
+        //Accetta la sfida e restituisce true se è confermata.
+        boolean accept(DatagramSocket client, UDPReceiver receiver, SocketAddress server, String challengeId)
+                throws Exception;
+    }
+
+    private interface ServerSide {
+        //Attende l'accettazione della sfida, inviando 'starting' con 'sendStarting', e restituisce true se è accettata.
+        boolean await(DatagramSocket server, String challengeId, Runnable sendStarting) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        ServerSocketChannel listener = ServerSocketChannel.open().bind(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        //Il server precedente riceveva un solo 'accepted' e inviava un solo 'starting'.
+        measure("prima (sleep di 500 ms)", pool, listener, (server, challengeId, sendStarting) -> {
+            server.receive(new DatagramPacket(new byte[CommonUtilities.MAX_DATAGRAM_SIZE],
+                    CommonUtilities.MAX_DATAGRAM_SIZE));
+            sendStarting.run();
+            return true;
+        }, (client, receiver, server, challengeId) -> {
+            byte[] message = Handshake.accepted(challengeId).getBytes();
+            client.send(new DatagramPacket(message, message.length, server));
+            Thread.sleep(OLD_SLEEP_MILLIS);
+            return true;
+        });
+        measure("dopo (future su 'starting')", pool, listener, (server, challengeId, sendStarting) ->
+                Handshake.awaitAcceptance(server, challengeId, 5_000, sendStarting),
+                (client, receiver, server, challengeId) -> receiver.acceptChallenge(new String[]{"127.0.0.1",
+                        String.valueOf(((InetSocketAddress) server).getPort()), challengeId}));
+
+        listener.close();
+        pool.shutdownNow();
+    }
+
+    private static void measure(String name, ExecutorService pool, ServerSocketChannel listener,
+                                ServerSide side, Accepter accepter) throws Exception {
+        long[] latencies = new long[TRIALS];
+        for (int i = 0; i < TRIALS; i++) {
+            String challengeId = String.valueOf(i);
+            try (DatagramSocket server = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                 DatagramSocket client = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                 SocketChannel clientTCP = SocketChannel.open(listener.getLocalAddress());
+                 SocketChannel serverTCP = listener.accept()) {
+                UDPReceiver receiver = new UDPReceiver(client, new HashMap<>());
+                pool.execute(receiver);
+                SocketAddress clientAddress = client.getLocalSocketAddress();
+                byte[] starting = Handshake.starting("idA", challengeId).getBytes();
+
+                //Il lato server: accettazione, poi la prima parola.
+                Future<?> serverSide = pool.submit(() -> {
+                    if (side.await(server, challengeId, () -> {
+                        try {
+                            server.send(new DatagramPacket(starting, starting.length, clientAddress));
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    })) CommonUtilities.writeIntoSocket("Via alla sfida di traduzione", serverTCP);
+                    return null;
+                });
+
+                long start = System.nanoTime();
+                if (!accepter.accept(client, receiver, server.getLocalSocketAddress(), challengeId)) {
+                    System.out.println("ERRORE: sfida " + challengeId + " non confermata");
+                }
+                CommonUtilities.readFromSocket(clientTCP);
+                latencies[i] = System.nanoTime() - start;
+                serverSide.get();
+                receiver.stopRun();
+            }
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-30s media %.1f ms, mediana %.1f ms, p99 %.1f ms%n", name,
+                Arrays.stream(latencies).average().orElse(0) / 1e6, latencies[TRIALS / 2] / 1e6,
+                latencies[TRIALS * 99 / 100] / 1e6);
+    }
+}
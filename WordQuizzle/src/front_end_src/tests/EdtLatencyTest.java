@@ -0,0 +1,125 @@
+package front_end_src.tests;
+
+import common_src.CommonUtilities;
+import common_src.RequestFrame;
+import front_end_src.ServerConnection;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link EdtLatencyTest} misura quanto resta bloccato il thread dell'interfaccia (EDT) mentre l'utente clicca in
+ * fretta e il server è lento. Un finto server locale risponde ad ogni comando dopo SERVER_DELAY ms; CLICKS click,
+ * uno ogni CLICK_INTERVAL ms, inviano ciascuno un comando. Intanto una sonda mette in coda all'EDT un evento ogni
+ * PROBE_INTERVAL ms e ne misura il ritardo (quanto l'interfaccia avrebbe tardato a ridisegnarsi o a rispondere).
+ * Si confrontano:
+ *  - prima: il click attende la risposta sull'EDT, come facevano i listener di {@link front_end_src.gui.ClientGUI};
+ *  - dopo: il click invia il comando e il seguito viene messo in coda all'EDT quando arriva la risposta.
+ * Per ognuno si stampano ritardo mediano, 99° percentile e massimo della sonda, e il tempo per servire tutti i click.
+ * Non serve il server, né uno schermo.
+ */
+public class EdtLatencyTest {
+
+    private static final int CLICKS = 30;
+    private static final long CLICK_INTERVAL = 20;
+    private static final long SERVER_DELAY = 100;
+    private static final long PROBE_INTERVAL = 5;
+
+    private interface Click {
+        //Invia il comando e chiama 'done' sull'EDT quando la risposta è stata mostrata.
+        void perform(ServerConnection connection, String command, Runnable done) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        ServerSocketChannel listener = ServerSocketChannel.open().bind(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread server = new Thread(() -> serve(listener));
+        server.setDaemon(true);
+        server.start();
+
+        Executor edt = SwingUtilities::invokeLater;
+        measure("prima (attesa sull'EDT)", listener, (connection, command, done) -> {
+            ServerConnection.await(connection.request(command));
+            done.run();
+        });
+        measure("dopo (seguito in coda all'EDT)", listener, (connection, command, done) ->
+                connection.request(command).thenRunAsync(done, edt));
+        listener.close();
+    }
+
+    private static void measure(String name, ServerSocketChannel listener, Click click) throws Exception {
+        ServerConnection connection = new ServerConnection(SocketChannel.open(listener.getLocalAddress()),
+                (type, pushArgs) -> {
+                });
+        Thread network = new Thread(connection);
+        network.start();
+
+        CountDownLatch answered = new CountDownLatch(CLICKS);
+        ConcurrentLinkedQueue<Long> delays = new ConcurrentLinkedQueue<>();
+        long start = System.nanoTime();
+        //La sonda: va avanti finché tutti i click non hanno ricevuto risposta.
+        Thread probe = new Thread(() -> {
+            try {
+                while (answered.getCount() > 0) {
+                    long posted = System.nanoTime();
+                    SwingUtilities.invokeLater(() -> delays.add(System.nanoTime() - posted));
+                    Thread.sleep(PROBE_INTERVAL);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        probe.start();
+
+        for (int i = 0; i < CLICKS; i++) {
+            String command = "comando " + i;
+            SwingUtilities.invokeLater(() -> {
+                try {
+                    click.perform(connection, command, answered::countDown);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            Thread.sleep(CLICK_INTERVAL);
+        }
+        answered.await();
+        long elapsed = System.nanoTime() - start;
+        probe.join();
+        //Si attendono gli ultimi eventi della sonda ancora in coda.
+        SwingUtilities.invokeAndWait(() -> {
+        });
+
+        long[] sorted = delays.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("%-32s EDT in ritardo: mediana %.1f ms, p99 %.1f ms, max %.1f ms | %d click in %.0f ms%n",
+                name, sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 99 / 100] / 1e6,
+                sorted[sorted.length - 1] / 1e6, CLICKS, elapsed / 1e6);
+
+        connection.close();
+        network.join();
+    }
+
+    //Il finto server: risponde ad un comando alla volta, dopo SERVER_DELAY ms, una connessione dopo l'altra.
+    private static void serve(ServerSocketChannel listener) {
+        while (listener.isOpen()) {
+            try (SocketChannel socket = listener.accept()) {
+                while (true) {
+                    String command = CommonUtilities.readMessage(socket);
+                    Thread.sleep(SERVER_DELAY);
+                    CommonUtilities.writeIntoSocket(RequestFrame.encode(RequestFrame.idOf(command), "ok"), socket);
+                }
+            } catch (IOException e) {
+                //Il client ha chiuso la connessione.
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
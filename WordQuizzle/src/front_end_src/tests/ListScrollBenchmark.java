@@ -0,0 +1,117 @@
+package front_end_src.tests;
+
+import front_end_src.gui.custom_components.ListField;
+import front_end_src.gui.custom_components.VirtualListModel;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link ListScrollBenchmark} misura il tempo di un fotogramma di una lista di ROWS righe (come la classifica degli
+ * amici di {@link front_end_src.gui.ClientGUI}) mentre la si scorre. Per FRAMES fotogrammi la lista scorre di STEP
+ * righe e viene disegnata su un'immagine, sull'EDT; ogni UPDATE_EVERY fotogrammi arriva una nuova classifica con un
+ * solo punteggio cambiato. Si confrontano:
+ *  - prima: un {@link DefaultListModel} svuotato e riempito ad ogni aggiornamento, senza dimensione fissa delle righe,
+ *    come faceva {@link front_end_src.gui.ClientGUI};
+ *  - dopo: un {@link VirtualListModel}, con il confronto fatto fuori dall'EDT e solo la riga cambiata notificata,
+ *    e righe di dimensione fissa ({@link ListField#fixedCellSize}).
+ * Per ognuno si stampano mediana, 99° percentile e massimo del tempo di un fotogramma (aggiornamento compreso), e il
+ * peggiore dei fotogrammi con un aggiornamento. Non serve il server, né uno schermo.
+ */
+public class ListScrollBenchmark {
+
+    private static final int ROWS = 100000;
+    private static final int FRAMES = 400;
+    private static final int STEP = 250;
+    private static final int UPDATE_EVERY = 10;
+    private static final String PROTOTYPE = "un_nome_utente_lungo: 00000";
+
+    private interface Update {
+        //Porta la lista alle nuove righe: 'prepare' fuori dall'EDT, il Runnable restituito sull'EDT.
+        Runnable prepare(List<String> rows);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        //Un primo giro a vuoto, perchè il JIT non favorisca il secondo.
+        run(false, true);
+        run(true, true);
+        run(false, false);
+        run(true, false);
+    }
+
+    private static void run(boolean virtual, boolean warmup) throws Exception {
+        List<String> rows = rows(0);
+        ListField[] list = new ListField[1];
+        JScrollPane[] scroll = new JScrollPane[1];
+        Update update;
+        if (virtual) {
+            VirtualListModel model = new VirtualListModel();
+            update = newRows -> {
+                VirtualListModel.Change change = model.diff(newRows);
+                return () -> model.apply(change);
+            };
+            SwingUtilities.invokeAndWait(() -> list[0] = ListField.newListField(model).fixedCellSize(PROTOTYPE));
+        } else {
+            DefaultListModel<String> model = new DefaultListModel<>();
+            update = newRows -> () -> {
+                model.clear();
+                model.addAll(newRows);
+            };
+            SwingUtilities.invokeAndWait(() -> list[0] = ListField.newListField(model));
+        }
+        Runnable first = update.prepare(rows);
+        BufferedImage image = new BufferedImage(200, 250, BufferedImage.TYPE_INT_RGB);
+        SwingUtilities.invokeAndWait(() -> {
+            list[0].setPaddings(10);
+            first.run();
+            scroll[0] = new JScrollPane(list[0]);
+            scroll[0].setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+            scroll[0].setSize(image.getWidth(), image.getHeight());
+        });
+
+        long[] frames = new long[FRAMES];
+        long worstUpdate = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            Runnable apply = null;
+            if (frame % UPDATE_EVERY == UPDATE_EVERY - 1) apply = update.prepare(rows(frame));
+            Runnable pending = apply;
+            int firstRow = (frame * STEP) % ROWS;
+            long[] elapsed = new long[1];
+            SwingUtilities.invokeAndWait(() -> {
+                long start = System.nanoTime();
+                if (pending != null) pending.run();
+                scroll[0].validate();
+                list[0].ensureIndexIsVisible(firstRow);
+                scroll[0].validate();
+                Graphics2D graphics = image.createGraphics();
+                scroll[0].paint(graphics);
+                graphics.dispose();
+                elapsed[0] = System.nanoTime() - start;
+            });
+            frames[frame] = elapsed[0];
+            if (apply != null) worstUpdate = Math.max(worstUpdate, elapsed[0]);
+        }
+        if (warmup) return;
+
+        Arrays.sort(frames);
+        System.out.printf("%-40s fotogramma: mediana %.2f ms, p99 %.2f ms, max %.2f ms"
+                        + " | con aggiornamento: max %.2f ms%n",
+                virtual ? "dopo (modello virtuale, differenze)" : "prima (DefaultListModel, clear+addAll)",
+                frames[FRAMES / 2] / 1e6, frames[FRAMES * 99 / 100] / 1e6, frames[FRAMES - 1] / 1e6,
+                worstUpdate / 1e6);
+    }
+
+    //La classifica dopo 'version' aggiornamenti: cambia il punteggio di un solo utente alla volta.
+    private static List<String> rows(int version) {
+        ArrayList<String> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) rows.add("utente" + i + ": " + (ROWS - i));
+        int changed = (version * 7919) % ROWS;
+        rows.set(changed, "utente" + changed + ": " + (ROWS - changed + version));
+        return rows;
+    }
+}
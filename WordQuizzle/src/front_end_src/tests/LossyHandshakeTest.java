@@ -0,0 +1,157 @@
+package front_end_src.tests;
+
+import common_src.Handshake;
+import front_end_src.UDPReceiver;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link LossyHandshakeTest} misura quanto è affidabile l'handshake di accettazione di una sfida quando la rete perde
+ * pacchetti. Entrambe le parti usano una {@link LossySocket}, che scarta ogni datagramma inviato con la probabilità
+ * indicata; il lato server è {@link Handshake#awaitAcceptance} (come in {@link back_end_src.RequestManager}), il lato
+ * client un {@link UDPReceiver} che accetta la sfida. Per ogni tasso di perdita (1%, 5% e 20%) si eseguono TRIALS
+ * handshake e si confronta il protocollo con ritrasmissioni con quello precedente ('accepted' e 'starting' inviati
+ * una sola volta, 500 ms di attesa). Si stampano:
+ *  - le sfide partite (server e client d'accordo);
+ *  - le sfide perse (nessuno dei due parte: la richiesta risulta scaduta);
+ *  - le sfide incoerenti (il server parte, il client no): quelle che bloccano l'avversario fino al timeout;
+ *  - il tempo medio dell'handshake lato client.
+ * Non serve il server: tutto avviene in locale.
+ */
+public class LossyHandshakeTest {
+
+    private static final double[] LOSS_RATES = {0.01, 0.05, 0.20};
+    private static final int TRIALS = 400;
+    private static final int CONCURRENT_TRIALS = 32;
+    //Il tempo a disposizione del client per accettare ('request_time_expire').
+    private static final long REQUEST_TIMEOUT_MILLIS = 5_000;
+    private static final long OLD_SLEEP_MILLIS = 500;
+
+    /**
+     * Una {@link DatagramSocket} che perde i datagrammi inviati con probabilità {@link #loss}.
+     */
+    private static class LossySocket extends DatagramSocket {
+        private final double loss;
+
+        LossySocket(double loss) throws SocketException {
+            super(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            this.loss = loss;
+        }
+
+        @Override
+        public void send(DatagramPacket packet) throws IOException {
+            if (ThreadLocalRandom.current().nextDouble() >= this.loss) super.send(packet);
+        }
+    }
+
+    private interface Trial {
+        //Restituisce {accettata dal server, partita per il client}.
+        boolean[] run(double loss, String challengeId) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(CONCURRENT_TRIALS * 3);
+        for (double loss : LOSS_RATES) {
+            System.out.printf("Perdita %.0f%%%n", loss * 100);
+            measure("  con ritrasmissioni", pool, loss, (l, id) -> retransmitting(pool, l, id));
+            measure("  senza ritrasmissioni", pool, loss, (l, id) -> singleShot(pool, l, id));
+        }
+        pool.shutdownNow();
+    }
+
+    private static void measure(String name, ExecutorService pool, double loss, Trial trial) throws Exception {
+        AtomicInteger started = new AtomicInteger(), lost = new AtomicInteger(), inconsistent = new AtomicInteger();
+        AtomicLong millis = new AtomicLong();
+        AtomicInteger next = new AtomicInteger();
+        Future<?>[] runners = new Future<?>[CONCURRENT_TRIALS];
+        for (int r = 0; r < CONCURRENT_TRIALS; r++) {
+            runners[r] = pool.submit(() -> {
+                for (int i = next.getAndIncrement(); i < TRIALS; i = next.getAndIncrement()) {
+                    long start = System.nanoTime();
+                    boolean[] outcome = trial.run(loss, String.valueOf(i));
+                    millis.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    if (outcome[0] && outcome[1]) started.incrementAndGet();
+                    else if (outcome[0] != outcome[1]) inconsistent.incrementAndGet();
+                    else lost.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        for (Future<?> runner : runners) runner.get();
+        System.out.printf("%s: partite %.1f%%, perse %.1f%%, incoerenti %.1f%%, handshake medio %d ms%n", name,
+                started.get() * 100.0 / TRIALS, lost.get() * 100.0 / TRIALS, inconsistent.get() * 100.0 / TRIALS,
+                millis.get() / TRIALS);
+    }
+
+    //L'handshake attuale: Handshake.awaitAcceptance contro UDPReceiver.acceptChallenge.
+    private static boolean[] retransmitting(ExecutorService pool, double loss, String challengeId) throws Exception {
+        try (LossySocket server = new LossySocket(loss); LossySocket client = new LossySocket(loss)) {
+            UDPReceiver receiver = new UDPReceiver(client, new HashMap<>());
+            pool.execute(receiver);
+            SocketAddress clientAddress = client.getLocalSocketAddress();
+            byte[] starting = Handshake.starting("idA", challengeId).getBytes();
+            Future<Boolean> accepted = pool.submit(() -> Handshake.awaitAcceptance(server, challengeId,
+                    REQUEST_TIMEOUT_MILLIS, () -> {
+                        try {
+                            server.send(new DatagramPacket(starting, starting.length, clientAddress));
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }));
+            boolean clientStarted = receiver.acceptChallenge(new String[]{"127.0.0.1",
+                    String.valueOf(server.getLocalPort()), challengeId});
+            boolean serverAccepted = accepted.get();
+            receiver.stopRun();
+            return new boolean[]{serverAccepted, clientStarted};
+        }
+    }
+
+    //L'handshake precedente: un solo 'accepted', un solo 'starting', 500 ms di attesa.
+    private static boolean[] singleShot(ExecutorService pool, double loss, String challengeId) throws Exception {
+        try (LossySocket server = new LossySocket(loss); LossySocket client = new LossySocket(loss)) {
+            SocketAddress clientAddress = client.getLocalSocketAddress();
+            Future<Boolean> accepted = pool.submit(() -> {
+                DatagramPacket packet = new DatagramPacket(new byte[64], 64);
+                server.setSoTimeout((int) REQUEST_TIMEOUT_MILLIS);
+                try {
+                    server.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    return false;
+                }
+                byte[] starting = "starting idA".getBytes();
+                server.send(new DatagramPacket(starting, starting.length, clientAddress));
+                return true;
+            });
+            byte[] message = "accepted".getBytes();
+            client.send(new DatagramPacket(message, message.length, server.getLocalSocketAddress()));
+            client.setSoTimeout((int) OLD_SLEEP_MILLIS);
+            long start = System.nanoTime();
+            boolean clientStarted;
+            try {
+                client.receive(new DatagramPacket(new byte[64], 64));
+                clientStarted = true;
+            } catch (SocketTimeoutException e) {
+                clientStarted = false;
+            }
+            //Il client vecchio dormiva comunque per 500 ms.
+            long left = OLD_SLEEP_MILLIS - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (left > 0) Thread.sleep(left);
+            return new boolean[]{accepted.get(), clientStarted};
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package front_end_src.tests;
+
+import common_src.CommonUtilities;
+import common_src.UsersRegisterInterface;
+import common_src.exceptions.AlreadyRegisteredUserException;
+import front_end_src.ServerConnection;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link MultiplexLatencyTest} misura quanto un comando veloce ('mostra_punteggio') resta in coda dietro a SLOW
+ * comandi lenti ('mostra_classifica' di un utente con FRIENDS amici) inviati subito prima sulla stessa connessione.
+ * Gli argomenti di 'mostra_classifica' cambiano ogni volta, così che la risposta non venga dalla cache. Si
+ * confrontano:
+ *  - prima: i due comandi senza id di correlazione, che il server esegue e risponde nell'ordine di arrivo;
+ *  - dopo: i due comandi inviati con {@link ServerConnection}, che mette l'id in testa ad ogni comando, così che
+ *    il server affidi quello lento ai suoi thread e risponda subito a quello veloce.
+ * Per ognuno si stampano latenza mediana e 99° percentile del comando veloce e dell'ultimo lento su TRIALS prove.
+ * Il server dev'essere attivo; gli utenti 'mux...' vengono registrati (tramite RMI) se non esistono.
+ */
+public class MultiplexLatencyTest {
+
+    private static final int FRIENDS = 30000;
+    private static final int SLOW = 8;
+    private static final int TRIALS = 200;
+    private static final String USER = "mux";
+
+    public static void main(String[] args) throws Exception {
+        UsersRegisterInterface usersRegister = (UsersRegisterInterface) LocateRegistry.getRegistry(30000)
+                .lookup("USERS-REGISTER-SERVER");
+        for (int i = 0; i <= FRIENDS; i++) {
+            try {
+                usersRegister.registerNewUser(USER + i, "psw");
+            } catch (AlreadyRegisteredUserException e) {
+                //Registrato in un'esecuzione precedente.
+            }
+        }
+
+        //La preparazione degli amici: i comandi partono tutti insieme, le risposte non interessano.
+        ServerConnection setup = connect();
+        ServerConnection.await(setup.request("login " + USER + "0 psw"));
+        List<CompletableFuture<String>> added = new ArrayList<>();
+        for (int i = 1; i <= FRIENDS; i++) added.add(setup.request("aggiungi_amico " + USER + i));
+        for (CompletableFuture<String> future : added) ServerConnection.await(future);
+        ServerConnection.await(setup.request("logout"));
+        setup.close();
+
+        //Prima: i comandi senza id, direttamente sulla socket.
+        long[] slow = new long[TRIALS], fast = new long[TRIALS];
+        try (SocketChannel socket = SocketChannel.open(new InetSocketAddress(InetAddress.getLocalHost(), 8000))) {
+            //Come ServerConnection: i due comandi partono subito, uno dopo l'altro.
+            socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            CommonUtilities.writeIntoSocket("login " + USER + "0 psw", socket);
+            CommonUtilities.readFromSocket(socket);
+            for (int i = 0; i < TRIALS; i++) {
+                long start = System.nanoTime();
+                for (int s = 0; s < SLOW; s++) CommonUtilities.writeIntoSocket(slowCommand(i * SLOW + s), socket);
+                CommonUtilities.writeIntoSocket("mostra_punteggio", socket);
+                for (int s = 0; s < SLOW; s++) CommonUtilities.readFromSocket(socket);
+                slow[i] = System.nanoTime() - start;
+                CommonUtilities.readFromSocket(socket);
+                fast[i] = System.nanoTime() - start;
+            }
+            CommonUtilities.writeIntoSocket("logout", socket);
+            CommonUtilities.readFromSocket(socket);
+        }
+        print("prima (in ordine)", slow, fast);
+
+        //Dopo: i comandi con l'id, tramite ServerConnection.
+        ServerConnection connection = connect();
+        ServerConnection.await(connection.request("login " + USER + "0 psw"));
+        for (int i = 0; i < TRIALS; i++) {
+            long start = System.nanoTime();
+            List<CompletableFuture<String>> slowResponses = new ArrayList<>();
+            for (int s = 0; s < SLOW; s++) slowResponses.add(connection.request(slowCommand((TRIALS + i) * SLOW + s)));
+            CompletableFuture<?>[] slowArray = slowResponses.toArray(new CompletableFuture<?>[0]);
+            CompletableFuture<Long> slowDone = CompletableFuture.allOf(slowArray)
+                    .thenApply(done -> System.nanoTime() - start);
+            CompletableFuture<Long> fastDone = connection.request("mostra_punteggio")
+                    .thenApply(response -> System.nanoTime() - start);
+            fast[i] = ServerConnection.await(fastDone);
+            slow[i] = ServerConnection.await(slowDone);
+        }
+        ServerConnection.await(connection.request("logout"));
+        connection.close();
+        print("dopo (id di correlazione)", slow, fast);
+    }
+
+    //La classifica intera, a pagine di dimensione sempre diversa: la cache non ha mai la risposta.
+    private static String slowCommand(int n) {
+        return "mostra_classifica " + (FRIENDS + 1 + n);
+    }
+
+    private static ServerConnection connect() throws Exception {
+        SocketChannel socket = SocketChannel.open(new InetSocketAddress(InetAddress.getLocalHost(), 8000));
+        //Le notifiche non interessano.
+        ServerConnection connection = new ServerConnection(socket, (type, args) -> {
+        });
+        new Thread(connection).start();
+        return connection;
+    }
+
+    private static void print(String name, long[] slow, long[] fast) {
+        Arrays.sort(slow);
+        Arrays.sort(fast);
+        System.out.printf("%-27s veloce: mediana %.2f ms, p99 %.2f ms | lenti: mediana %.2f ms, p99 %.2f ms%n",
+                name, fast[TRIALS / 2] / 1e6, fast[TRIALS * 99 / 100] / 1e6, slow[TRIALS / 2] / 1e6,
+                slow[TRIALS * 99 / 100] / 1e6);
+    }
+}
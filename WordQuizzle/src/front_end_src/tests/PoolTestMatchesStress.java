@@ -5,7 +5,7 @@
 
 package front_end_src.tests;
 
-import common_src.CommonUtilities;
+import front_end_src.ServerConnection;
 import front_end_src.UDPReceiver;
 
 import java.io.IOException;
@@ -100,11 +100,12 @@ public class PoolTestMatchesStress {
                 DatagramSocket UDPSocket = new DatagramSocket(Integer.parseInt(TCPPort));
                 HashMap<String, String[]> requests = new HashMap<>();
                 receiver = new UDPReceiver(UDPSocket, requests);
-                executorService = Executors.newSingleThreadExecutor();
+                ServerConnection connection = new ServerConnection(socket, receiver);
+                executorService = Executors.newFixedThreadPool(2);
                 executorService.execute(receiver);
+                executorService.execute(connection);
 
-                CommonUtilities.writeIntoSocket("login id" + this.c + " psw" + this.c, socket);
-                String response = CommonUtilities.readFromSocket(socket);
+                String response = ServerConnection.await(connection.request("login id" + this.c + " psw" + this.c));
                 System.out.println(response);
 
                 //Vediamo se QUESTA precisa istanza della classe dovrà comportarsi come colui che richiede la sfida
@@ -114,19 +115,17 @@ public class PoolTestMatchesStress {
                     //Colui che richiede la sfida.
 
                     Thread.sleep(1000);
-                    CommonUtilities.writeIntoSocket("aggiungi_amico id" + (this.c + 1), socket);
-                    response = CommonUtilities.readFromSocket(socket);
+                    response = ServerConnection.await(connection.request("aggiungi_amico id" + (this.c + 1)));
                     System.out.println(response);
 
                     Thread.sleep(1000);
-                    CommonUtilities.writeIntoSocket("sfida id" + (this.c + 1), socket);
-                    response = CommonUtilities.readFromSocket(socket);
+                    response = ServerConnection.await(connection.request("sfida id" + (this.c + 1)));
                     System.out.println(response);
 
                     //Praticamente il medesimo codice di client.
 
                     if (response.startsWith("S")) {
-                        response = CommonUtilities.readFromSocket(socket);
+                        response = ServerConnection.await(connection.nextMessage());
                         System.out.println(response); //Via alla sfida di traduz
                         if (response.equals("La richiesta non è stata accettata.")) {
                             receiver.stopRun();
@@ -139,18 +138,18 @@ public class PoolTestMatchesStress {
                             return;
                         }
                         for (int i = 0; i < numberOfWords; i++) {
-                            response = CommonUtilities.readFromSocket(socket);
+                            response = ServerConnection.await(connection.nextMessage());
                             System.out.println(response);
                             if (response.equals("Il tempo per la sfida è scaduto, l'ultima risposta data non è conteggiata.")) {
                                 break;
                             }
                             String answer = "Ciao!";
-                            CommonUtilities.writeIntoSocket(answer, socket);
+                            connection.send(answer);
                         }
-                        response = CommonUtilities.readFromSocket(socket);
+                        response = ServerConnection.await(connection.nextMessage());
                         System.out.println(response);
                         // Messaggio di sfida terminata + Esito
-                        response = CommonUtilities.readFromSocket(socket);
+                        response = ServerConnection.await(connection.nextMessage());
                         System.out.println(response);
                         if (response.contains("Congratulazioni!")) {
                             this.w.voidincrement();
@@ -178,14 +177,17 @@ public class PoolTestMatchesStress {
                         requests.remove(idToAccept);
                     }
                     try {
-                        InetAddress serverAddress = InetAddress.getByName(addressInfo[0]);
-                        byte[] messageBytes = "accepted".getBytes();
-                        DatagramPacket sendPacket = new DatagramPacket(messageBytes, messageBytes.length, serverAddress, Integer.parseInt(addressInfo[1]));
-                        UDPSocket.send(sendPacket);
+                        //Accettazione, ritrasmessa finché non arriva l'ACK del server.
+                        if (!receiver.acceptChallenge(addressInfo)) {
+                            System.out.println("Richiesta scaduta.");
+                            receiver.stopRun();
+                            executorService.shutdown();
+                            return;
+                        }
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
-                    response = CommonUtilities.readFromSocket(socket);
+                    response = ServerConnection.await(connection.nextMessage());
                     System.out.println(response);
                     if (response.equals("La richiesta non è stata accettata.")) {
                         receiver.stopRun();
@@ -199,18 +201,18 @@ public class PoolTestMatchesStress {
                         return;
                     }
                     for (int i = 0; i < numberOfWords; i++) {
-                        response = CommonUtilities.readFromSocket(socket);
+                        response = ServerConnection.await(connection.nextMessage());
                         System.out.println(response);
                         if (response.equals("Il tempo per la sfida è scaduto, l'ultima risposta data non è conteggiata.")) {
                             break;
                         }
                         String answer = "Ciao!";
-                        CommonUtilities.writeIntoSocket(answer, socket);
+                        connection.send(answer);
                     }
-                    response = CommonUtilities.readFromSocket(socket);
+                    response = ServerConnection.await(connection.nextMessage());
                     System.out.println(response);
                     // Messaggio di sfida terminata + Esito
-                    response = CommonUtilities.readFromSocket(socket);
+                    response = ServerConnection.await(connection.nextMessage());
                     System.out.println(response);
                     if (response.contains("Congratulazioni!")) {
                         this.w.voidincrement();
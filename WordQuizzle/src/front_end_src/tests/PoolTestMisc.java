@@ -1,8 +1,8 @@
 package front_end_src.tests;
 
-import common_src.CommonUtilities;
 import common_src.UsersRegisterInterface;
 import common_src.exceptions.AlreadyRegisteredUserException;
+import front_end_src.ServerConnection;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -138,17 +138,21 @@ public class PoolTestMisc {
     public static class RandomTests implements Runnable {
         private boolean loggedIn;
         private int id;
-        private SocketChannel socket;
+        private ServerConnection connection;
         private final int counter;
 
         public RandomTests(int counter) {
             this.counter = counter;
             this.loggedIn = false;
             this.id = this.counter;
-            this.socket = null;
+            this.connection = null;
             try {
-                this.socket = SocketChannel.open();
-                this.socket.connect(new InetSocketAddress(InetAddress.getLocalHost(), 8000));
+                SocketChannel socket = SocketChannel.open();
+                socket.connect(new InetSocketAddress(InetAddress.getLocalHost(), 8000));
+                //Le notifiche non interessano.
+                this.connection = new ServerConnection(socket, (type, args) -> {
+                });
+                new Thread(this.connection).start();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -192,8 +196,7 @@ public class PoolTestMisc {
                         if (command.equals("aggiungi_amico")) input = command + " " + otherId;
                     }
                     System.out.println(this.counter + " - Comando richiesto: " + input);
-                    CommonUtilities.writeIntoSocket(input + " " + this.counter, this.socket);
-                    String response = CommonUtilities.readFromSocket(this.socket);
+                    String response = ServerConnection.await(this.connection.request(input + " " + this.counter));
                     if (response.equals("Login effettuato con successo.")) this.loggedIn = true;
                     if (response.equals("L'utente è già loggato.")) this.id = (int) (Math.random() * 10);
                     System.out.println(this.counter + " - Risposta: " + response);
@@ -201,6 +204,7 @@ public class PoolTestMisc {
                     e.printStackTrace();
                 }
             }
+            this.connection.close();
         }
     }
 }
@@ -0,0 +1,139 @@
+package front_end_src.tests;
+
+import common_src.CommonUtilities;
+import common_src.PushFrame;
+import common_src.RequestFrame;
+import front_end_src.ServerConnection;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ServerConnectionTest} controlla {@link ServerConnection} contro un finto server locale che si comporta come
+ * quello vero (risposte con l'id di correlazione del comando, si veda {@link RequestFrame}) ma spezza ogni messaggio
+ * in pezzi di pochi byte, scritti separatamente, intercala alle risposte delle notifiche e risponde fuori ordine: i
+ * blocchi di una risposta a blocchi arrivano solo dopo la risposta al comando successivo. THREADS thread inviano insieme REQUESTS comandi ciascuno,
+ * senza attendere le risposte; alcuni comandi ricevono una risposta a blocchi. Si stampano:
+ *  - le risposte arrivate alla richiesta giusta (il finto server risponde "eco &lt;comando&gt;");
+ *  - i blocchi e le notifiche ricevuti, rispetto a quelli inviati;
+ *  - il tempo totale.
+ * Non serve il server: tutto avviene in locale.
+ */
+public class ServerConnectionTest {
+
+    private static final int THREADS = 8;
+    private static final int REQUESTS = 500;
+    //Un comando ogni CHUNKED_EVERY riceve una risposta a blocchi, uno ogni PUSH_EVERY è preceduto da una notifica.
+    private static final int CHUNKED_EVERY = 10;
+    private static final int PUSH_EVERY = 7;
+    private static final int CHUNKS = 3;
+    private static final int MAX_PIECE = 5;
+
+    public static void main(String[] args) throws Exception {
+        ServerSocketChannel listener = ServerSocketChannel.open().bind(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        AtomicInteger pushesSent = new AtomicInteger(), chunksSent = new AtomicInteger();
+        Thread server = new Thread(() -> serve(listener, THREADS * REQUESTS, pushesSent, chunksSent));
+        server.start();
+
+        AtomicInteger pushes = new AtomicInteger(), chunks = new AtomicInteger();
+        ServerConnection connection = new ServerConnection(SocketChannel.open(listener.getLocalAddress()),
+                (type, pushArgs) -> pushes.incrementAndGet());
+        Thread network = new Thread(connection);
+        network.start();
+
+        AtomicInteger matched = new AtomicInteger(), wrong = new AtomicInteger();
+        long start = System.nanoTime();
+        Thread[] clients = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            clients[t] = new Thread(() -> {
+                List<CompletableFuture<Void>> futures = new ArrayList<>();
+                for (int i = 0; i < REQUESTS; i++) {
+                    String command = (i % CHUNKED_EVERY == 0 ? "blocchi " : "comando ") + thread + "-" + i;
+                    String expected = i % CHUNKED_EVERY == 0 ? "BLOCCHI " + CHUNKS + " " + CHUNKS + " " + i
+                            : "eco " + command;
+                    futures.add(connection.request(command, chunk -> chunks.incrementAndGet())
+                            .thenAccept(response -> (response.equals(expected) ? matched : wrong).incrementAndGet()));
+                }
+                for (CompletableFuture<Void> future : futures) future.join();
+            });
+            clients[t].start();
+        }
+        for (Thread client : clients) client.join();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("Risposte alla richiesta giusta: %d su %d (sbagliate %d)%n", matched.get(),
+                THREADS * REQUESTS, wrong.get());
+        System.out.printf("Blocchi ricevuti: %d su %d, notifiche ricevute: %d su %d%n", chunks.get(),
+                chunksSent.get(), pushes.get(), pushesSent.get());
+        System.out.printf("Tempo totale: %.1f ms%n", elapsed / 1e6);
+
+        connection.close();
+        network.join();
+        listener.close();
+        server.join();
+    }
+
+    /*
+        Il finto server: risponde ad un comando alla volta, spezzando i messaggi. I blocchi di una risposta a blocchi
+        vengono scritti dopo la risposta al comando successivo (o subito, se è l'ultimo dei 'total' comandi).
+     */
+    private static void serve(ServerSocketChannel listener, int total, AtomicInteger pushesSent,
+                              AtomicInteger chunksSent) {
+        try (SocketChannel socket = listener.accept()) {
+            //Ogni pezzo parte subito, senza essere accorpato al successivo.
+            socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            List<String> deferred = new ArrayList<>();
+            for (int n = 0; ; n++) {
+                String frame = CommonUtilities.readMessage(socket);
+                long id = RequestFrame.idOf(frame);
+                String command = RequestFrame.bodyOf(frame);
+                if (n % PUSH_EVERY == 0) {
+                    write(socket, PushFrame.encode(PushFrame.NEW_FRIEND, "id" + n));
+                    pushesSent.incrementAndGet();
+                }
+                List<String> previous = deferred;
+                deferred = new ArrayList<>();
+                if (command.startsWith("blocchi ")) {
+                    String i = command.substring(command.indexOf('-') + 1);
+                    write(socket, RequestFrame.encode(id, "BLOCCHI " + CHUNKS + " " + CHUNKS + " " + i));
+                    for (int c = 0; c < CHUNKS; c++) deferred.add(RequestFrame.encode(id, "[\"id" + c + "\"]"));
+                    chunksSent.addAndGet(CHUNKS);
+                } else {
+                    write(socket, RequestFrame.encode(id, "eco " + command));
+                }
+                for (String message : previous) write(socket, message);
+                if (n == total - 1) {
+                    for (String message : deferred) write(socket, message);
+                    deferred.clear();
+                }
+            }
+        } catch (IOException e) {
+            //Il client ha chiuso la connessione.
+        }
+    }
+
+    //Scrive il messaggio (size e poi messaggio) a pezzi di al più MAX_PIECE byte.
+    private static void write(SocketChannel socket, String message) throws IOException {
+        byte[] body = message.getBytes();
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + body.length).putInt(body.length).put(body);
+        frame.flip();
+        while (frame.hasRemaining()) {
+            ByteBuffer piece = frame.slice();
+            piece.limit(Math.min(piece.remaining(), ThreadLocalRandom.current().nextInt(1, MAX_PIECE + 1)));
+            while (piece.hasRemaining()) socket.write(piece);
+            frame.position(frame.position() + piece.position());
+        }
+    }
+}
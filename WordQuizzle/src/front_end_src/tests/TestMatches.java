@@ -1,6 +1,6 @@
 package front_end_src.tests;
 
-import common_src.CommonUtilities;
+import front_end_src.ServerConnection;
 import front_end_src.UDPReceiver;
 
 import java.io.IOException;
@@ -75,7 +75,7 @@ public class TestMatches {
         public void run() {
             SocketChannel TCPSocket;
             DatagramSocket UDPSocket;
-            ExecutorService executorService = Executors.newSingleThreadExecutor();
+            ExecutorService executorService = Executors.newFixedThreadPool(2);
             UDPReceiver receiver;
             HashMap<String, String[]> requests = new HashMap<>();
             String TCPPort;
@@ -88,15 +88,16 @@ public class TestMatches {
                 System.out.println("[ id" + this.idNumber + " ] -> tcp port -> " + TCPPort);
                 UDPSocket = new DatagramSocket(Integer.parseInt(TCPPort));
                 receiver = new UDPReceiver(UDPSocket, requests);
+                ServerConnection connection = new ServerConnection(TCPSocket, receiver);
                 executorService.execute(receiver);
+                executorService.execute(connection);
 
                 /* LOGIN OF CLIENT */
                 //noinspection SynchronizationOnLocalVariableOrMethodParameter
                 synchronized (requests) {
                     requests.clear();
                 }
-                CommonUtilities.writeIntoSocket("login id" + this.idNumber + " psw" + this.idNumber, TCPSocket);
-                String response = CommonUtilities.readFromSocket(TCPSocket);
+                String response = ServerConnection.await(connection.request("login id" + this.idNumber + " psw" + this.idNumber));
                 if (!response.equals("Login effettuato con successo.")) return;
 
                 System.out.println("[ id" + this.idNumber + " ] -> mi sono loggato!.");
@@ -118,8 +119,7 @@ public class TestMatches {
                 System.out.println("[ id" + this.idNumber + " ] -> il mio avversario si è loggato.");
 
                 //Aggiunta dell'amicizia
-                CommonUtilities.writeIntoSocket("aggiungi_amico id" + (this.idNumber + 1), TCPSocket);
-                response = CommonUtilities.readFromSocket(TCPSocket);
+                response = ServerConnection.await(connection.request("aggiungi_amico id" + (this.idNumber + 1)));
                 if (response.contains("L'amicizia è stata aggiunta con successo.") ||
                         response.equals("Hai già un'amicizia con l'utente indicato.")) {
                     //Altro meccanismo di sincronizzazione, attendiamo che l'amicizia venga stretta con successo.
@@ -127,7 +127,7 @@ public class TestMatches {
                         friendshipAdded[this.counter] = true;
                     }
                 } else {
-                    TCPSocket.close();
+                    connection.close();
                     receiver.stopRun();
                     UDPSocket.close();
                     executorService.shutdown();
@@ -137,8 +137,7 @@ public class TestMatches {
                 System.out.println("[ id" + this.idNumber + " ] -> amicizia aggiunta con successo!");
 
                 //Invio della richiesta di sfida
-                CommonUtilities.writeIntoSocket("sfida id" + (this.idNumber + 1), TCPSocket);
-                response = CommonUtilities.readFromSocket(TCPSocket);
+                response = ServerConnection.await(connection.request("sfida id" + (this.idNumber + 1)));
 
                 //Altro meccanismo di sincronizzazione. L'altro client aspetterà che il flag sarà true prima
                 //di accettare la sfida, ovvero aspetterà che realmente la richiesta di sfida è stata fatta.
@@ -148,12 +147,12 @@ public class TestMatches {
                     }
                 }
 
-                response = CommonUtilities.readFromSocket(TCPSocket);
+                response = ServerConnection.await(connection.nextMessage());
 
                 if (response.equals("La richiesta non è stata accettata.") ||
                         response.equals("Siamo spiacenti, il servizio di traduzione non è al momento " +
                                 "disponibile. Riprovare più tardi.")) {
-                    TCPSocket.close();
+                    connection.close();
                     receiver.stopRun();
                     UDPSocket.close();
                     executorService.shutdown();
@@ -171,21 +170,21 @@ public class TestMatches {
 
                 //Logica del match. La stessa della classe 'Client'
                 while (true) {
-                    response = CommonUtilities.readFromSocket(TCPSocket);
+                    response = ServerConnection.await(connection.nextMessage());
                     System.out.println("[ id" + this.idNumber + " ] -> " + response);
                     if (response.contains("Attendi...")) {
                         break;
                     }
                     if (response.equals("Il tempo per la sfida è scaduto, l'ultima risposta data non è " +
                             "conteggiata.")) {
-                        response = CommonUtilities.readFromSocket(TCPSocket);
+                        response = ServerConnection.await(connection.nextMessage());
                         System.out.println("[ id" + this.idNumber + " ] -> " + response);
                         break;
                     }
                     String answer = "ciao!";
-                    CommonUtilities.writeIntoSocket(answer, TCPSocket);
+                    connection.send(answer);
                 }
-                response = CommonUtilities.readFromSocket(TCPSocket);
+                response = ServerConnection.await(connection.nextMessage());
                 System.out.println("[ id" + this.idNumber + " ] -> " + response);
 
                 Thread.sleep(100);
@@ -195,7 +194,7 @@ public class TestMatches {
 
                 Thread.sleep(2000);
 
-                TCPSocket.close();
+                connection.close();
 
                 receiver.stopRun();
                 UDPSocket.close();
@@ -226,7 +225,7 @@ public class TestMatches {
         public void run() {
             SocketChannel TCPSocket;
             DatagramSocket UDPSocket;
-            ExecutorService executorService = Executors.newSingleThreadExecutor();
+            ExecutorService executorService = Executors.newFixedThreadPool(2);
             UDPReceiver receiver;
             HashMap<String, String[]> requests = new HashMap<>();
 
@@ -239,17 +238,18 @@ public class TestMatches {
                 System.out.println("[ id" + this.idNumber + " ] -> tcp port -> " + TCPPort);
                 UDPSocket = new DatagramSocket(Integer.parseInt(TCPPort));
                 receiver = new UDPReceiver(UDPSocket, requests);
+                ServerConnection connection = new ServerConnection(TCPSocket, receiver);
                 executorService.execute(receiver);
+                executorService.execute(connection);
 
                 /* LOGIN OF CLIENT */
                 //noinspection SynchronizationOnLocalVariableOrMethodParameter
                 synchronized (requests) {
                     requests.clear();
                 }
-                CommonUtilities.writeIntoSocket("login id" + this.idNumber + " psw" + this.idNumber, TCPSocket);
-                String response = CommonUtilities.readFromSocket(TCPSocket);
+                String response = ServerConnection.await(connection.request("login id" + this.idNumber + " psw" + this.idNumber));
                 if (!response.equals("Login effettuato con successo.")) {
-                    TCPSocket.close();
+                    connection.close();
                     receiver.stopRun();
                     UDPSocket.close();
                     executorService.shutdown();
@@ -298,7 +298,6 @@ public class TestMatches {
                 }
 
                 //Accetta la sfida
-                receiver.setChallengeAvailable(false);
                 String[] addressInfo;
                 String idToAccept = "id" + (this.idNumber - 1);
                 System.out.println("[ id" + this.idNumber + " ] -> cerco sfide da parte di " + idToAccept);
@@ -312,7 +311,7 @@ public class TestMatches {
                         System.out.println("[ id" + this.idNumber + " ] -> L'id inserito non è stato trovato/La richiesta " +
                                 "non è più valida.");
                         //return + togli tutto
-                        TCPSocket.close();
+                        connection.close();
                         receiver.stopRun();
                         UDPSocket.close();
                         executorService.shutdown();
@@ -324,22 +323,8 @@ public class TestMatches {
                 }
 
                 try {
-                    InetAddress serverAddress = InetAddress.getByName(addressInfo[0]);
-                    byte[] messageBytes = "accepted".getBytes();
-                    DatagramPacket sendPacket = new DatagramPacket(messageBytes, messageBytes.length,
-                            serverAddress, Integer.parseInt(addressInfo[1]));
-                    UDPSocket.send(sendPacket);
-
-                            /*
-                                Dobbiamo purtroppo pagare pegno di "dormire" per 500 ms. Questo perchè dobbiamo dare
-                                il tempo all ACK di arrivare all'UDPReceiver. Si noti che è fondamentale l'assunzione
-                                fatta che l'UDP non dia poi troppi problemi. (Assunzione che in un progetto non
-                                accademico non conviene fare; l'UDP avrebbe infatti bisogno di un continuo controllo
-                                esplicito, manuale).
-                            */
-                    Thread.sleep(500);
-                    //Se non è arrivato l'ACK, la richiesta è scaduta.
-                    if (!receiver.isChallengeAvailable()) {
+                    //Accettazione, ritrasmessa finché non arriva l'ACK del server.
+                    if (!receiver.acceptChallenge(addressInfo)) {
                         System.out.println("[ id" + this.idNumber + " ] -> Richiesta scaduta.");
                     }
 
@@ -353,10 +338,10 @@ public class TestMatches {
                     e.printStackTrace();
                 }
 
-                response = CommonUtilities.readFromSocket(TCPSocket);
+                response = ServerConnection.await(connection.nextMessage());
                 if (response.equals("Siamo spiacenti, il servizio di traduzione non è al momento " +
                                 "disponibile. Riprovare più tardi.")) {
-                    TCPSocket.close();
+                    connection.close();
                     receiver.stopRun();
                     UDPSocket.close();
                     executorService.shutdown();
@@ -368,21 +353,21 @@ public class TestMatches {
 
                 //Logica di gioco. Copiata da 'Client'.
                 while (true) {
-                    response = CommonUtilities.readFromSocket(TCPSocket);
+                    response = ServerConnection.await(connection.nextMessage());
                     System.out.println("[ id" + this.idNumber + " ] -> " + response);
                     if (response.contains("Attendi...")) {
                         break;
                     }
                     if (response.equals("Il tempo per la sfida è scaduto, l'ultima risposta data non è " +
                             "conteggiata.")) {
-                        CommonUtilities.readFromSocket(TCPSocket);
+                        ServerConnection.await(connection.nextMessage());
                         System.out.println("[ id" + this.idNumber + " ] -> " + response);
                         break;
                     }
                     String answer = "ciao!";
-                    CommonUtilities.writeIntoSocket(answer, TCPSocket);
+                    connection.send(answer);
                 }
-                response = CommonUtilities.readFromSocket(TCPSocket);
+                response = ServerConnection.await(connection.nextMessage());
                 System.out.println("[ id" + this.idNumber + " ] -> " + response);
 
                 try {
@@ -399,7 +384,7 @@ public class TestMatches {
                     e.printStackTrace();
                 }
 
-                TCPSocket.close();
+                connection.close();
 
                 receiver.stopRun();
                 UDPSocket.close();